@@ -0,0 +1,37 @@
+package com.coap.core.coap;
+
+/**
+ * Encoded options and payload of a received message, which are decoded on
+ * first access.
+ *
+ * Parsers in lazy mode validate the encoding on parsing and attach this
+ * body to the message, see {@link Message#setEncodedBody(EncodedMessageBody)}.
+ * The message decodes the options on the first access of its
+ * {@link OptionSet} and the payload on the first access of the payload.
+ * The parser validates only the structure of the encoding, so values, which
+ * are not valid for their option, are reported on the first access.
+ */
+public interface EncodedMessageBody {
+
+    /**
+     * Decode the options.
+     *
+     * @param options option set to add the decoded options
+     * @throws IllegalArgumentException if an option value is not valid
+     */
+    void decodeOptions(OptionSet options);
+
+    /**
+     * Decode the payload.
+     *
+     * @return payload, or {@code null}, if the message has no payload.
+     */
+    byte[] decodePayload();
+
+    /**
+     * Get size of the payload without decoding it.
+     *
+     * @return size of the payload in bytes.
+     */
+    int getPayloadSize();
+}
@@ -41,6 +41,10 @@ import static com.coap.core.coap.CoAP.*;
  * initialized lazily. This saves a few bytes in case the properties are not in
  * use. For instance an empty message should not have any options and most
  * messages will not have any observers registered.
+ * <p>
+ * Received messages parsed in lazy mode keep their options and payload
+ * encoded, see {@link #setEncodedBody(EncodedMessageBody)}. They are decoded
+ * on first access, so e.g. duplicates only decode the header and token.
  *
  * @see Request
  * @see Response
@@ -82,6 +86,18 @@ public abstract class Message {
     /** The payload of this message. */
     private byte[] payload;
 
+    /**
+     * Encoded options of a received message, not yet decoded. {@code null},
+     * if decoded or not parsed lazily.
+     */
+    private volatile EncodedMessageBody encodedOptions;
+
+    /**
+     * Encoded payload of a received message, not yet decoded. {@code null},
+     * if decoded or not parsed lazily.
+     */
+    private volatile EncodedMessageBody encodedPayload;
+
     /** Marks this message to have payload even if this is not intended */
     private boolean unintendedPayload;
 
@@ -382,12 +398,59 @@ public abstract class Message {
      * @return the options
      */
     public OptionSet getOptions() {
+        if (encodedOptions != null) {
+            decodeOptions();
+        }
         if (options == null) {
             options = new OptionSet();
         }
         return options;
     }
 
+    /**
+     * Sets the encoded options and payload of a received message.
+     *
+     * Used by parsers in lazy mode. The options are decoded on the first call
+     * of {@link #getOptions()}, the payload on the first access of the
+     * payload.
+     *
+     * @param body encoded body, already validated by the parser
+     */
+    public void setEncodedBody(EncodedMessageBody body) {
+        this.options = null;
+        this.payload = null;
+        this.encodedOptions = body;
+        this.encodedPayload = body;
+    }
+
+    /**
+     * Checks, if the options are not yet decoded.
+     *
+     * @return {@code true}, if the options of a lazily parsed message are not
+     *         decoded yet.
+     */
+    public boolean hasEncodedOptions() {
+        return encodedOptions != null;
+    }
+
+    private synchronized void decodeOptions() {
+        EncodedMessageBody body = encodedOptions;
+        if (body != null) {
+            OptionSet decoded = new OptionSet();
+            body.decodeOptions(decoded);
+            options = decoded;
+            encodedOptions = null;
+        }
+    }
+
+    private synchronized void decodePayload() {
+        EncodedMessageBody body = encodedPayload;
+        if (body != null) {
+            payload = body.decodePayload();
+            encodedPayload = null;
+        }
+    }
+
     /**
      * Sets the set of options.
      *
@@ -398,6 +461,7 @@ public abstract class Message {
      * @return this Message
      */
     public Message setOptions(OptionSet options) {
+        this.encodedOptions = null;
         this.options = new OptionSet(options);
         return this;
     }
@@ -409,6 +473,10 @@ public abstract class Message {
      * @return the payload size
      */
     public int getPayloadSize() {
+        EncodedMessageBody body = encodedPayload;
+        if (body != null) {
+            return body.getPayloadSize();
+        }
         return payload == null ? 0 : payload.length;
     }
 
@@ -418,6 +486,9 @@ public abstract class Message {
      * @return the payload
      */
     public byte[] getPayload() {
+        if (encodedPayload != null) {
+            decodePayload();
+        }
         return payload;
     }
 
@@ -428,6 +499,9 @@ public abstract class Message {
      * @return the payload as string
      */
     public String getPayloadString() {
+        if (encodedPayload != null) {
+            decodePayload();
+        }
         if (payload == null) {
             return "";
         }
@@ -435,7 +509,9 @@ public abstract class Message {
     }
 
     protected String getPayloadTracingString() {
-
+        if (encodedPayload != null) {
+            decodePayload();
+        }
         if (null == payload || 0 == payload.length) {
             return "no payload";
         }
@@ -487,6 +563,7 @@ public abstract class Message {
      */
     public Message setPayload(String payload) {
         if (payload == null) {
+            this.encodedPayload = null;
             this.payload = null;
         } else {
             setPayload(payload.getBytes(CoAP.UTF8_CHARSET));
@@ -513,6 +590,7 @@ public abstract class Message {
         if (payload != null && payload.length > 0 && !isIntendedPayload() && !isUnintendedPayload()) {
             throw new IllegalArgumentException("Message must not have payload!");
         }
+        this.encodedPayload = null;
         this.payload = payload;
         return this;
     }
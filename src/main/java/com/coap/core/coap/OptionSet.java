@@ -35,31 +35,44 @@ import java.util.*;
  */
 public class OptionSet {
     private static final int MAX_OBSERVE_NO = (1 << 24) - 1;
+
+    /*
+     * Presence flags of the options stored as primitive values.
+     */
+    private static final int IF_NONE_MATCH_FLAG  = 1;
+    private static final int URI_PORT_FLAG       = 1 << 1;
+    private static final int CONTENT_FORMAT_FLAG = 1 << 2;
+    private static final int MAX_AGE_FLAG        = 1 << 3;
+    private static final int ACCEPT_FLAG         = 1 << 4;
+    private static final int SIZE1_FLAG          = 1 << 5;
+    private static final int SIZE2_FLAG          = 1 << 6;
+    private static final int OBSERVE_FLAG        = 1 << 7;
+
     /*
      * Options defined by the CoAP protocol
      */
+    private int          present; // presence flags of the primitive options
     private List<byte[]> if_match_list;
     private String       uri_host;
     private List<byte[]> etag_list;
-    private boolean      if_none_match; // true if option is set
-    private Integer      uri_port; // null if no port is explicitly defined
+    private int          uri_port;
     private List<String> location_path_list;
     private List<String> uri_path_list;
-    private Integer      content_format;
-    private Long         max_age; // (0-4 bytes)
+    private int          content_format;
+    private long         max_age; // (0-4 bytes)
     private List<String> uri_query_list;
-    private Integer      accept;
+    private int          accept;
     private List<String> location_query_list;
     private String       proxy_uri;
     private String       proxy_scheme;
     private BlockOption  block1;
     private BlockOption  block2;
-    private Integer      size1;
-    private Integer      size2;
-    private Integer      observe;
+    private int          size1;
+    private int          size2;
+    private int          observe;
     private byte[]		 oscore;
 
-    // Arbitrary(任意的) options
+    // Arbitrary(任意的) options, sorted by their number
     private List<Option> others;
 
     // TODO: When receiving, uri_host/port should be those from the sender
@@ -68,56 +81,42 @@ public class OptionSet {
      * Non-lists can be null though.
      */
     public OptionSet() {
-        if_match_list       = null; // new LinkedList<byte[]>();
+        present             = 0;    // no primitive option
+        if_match_list       = null; // new ArrayList<byte[]>();
         uri_host            = null; // from sender
-        etag_list           = null; // new LinkedList<byte[]>();
-        if_none_match       = false;
-        uri_port            = null; // from sender
-        location_path_list  = null; // new LinkedList<String>();
-        uri_path_list       = null; // new LinkedList<String>();
-        content_format      = null;
-        max_age             = null;
-        uri_query_list      = null; // new LinkedList<String>();
-        accept              = null;
-        location_query_list = null; // new LinkedList<String>();
+        etag_list           = null; // new ArrayList<byte[]>();
+        location_path_list  = null; // new ArrayList<String>();
+        uri_path_list       = null; // new ArrayList<String>();
+        uri_query_list      = null; // new ArrayList<String>();
+        location_query_list = null; // new ArrayList<String>();
         proxy_uri           = null;
         proxy_scheme        = null;
         block1              = null;
         block2              = null;
-        size1               = null;
-        size2               = null;
-        observe             = null;
         oscore				= null;
 
-        others              = null; // new LinkedList<>();
+        others              = null; // new ArrayList<>();
     }
 
     public void clear() {
+        present = 0;
         if (if_match_list != null)
             if_match_list.clear();
         uri_host = null;
         if (etag_list != null)
             etag_list.clear();
-        if_none_match = false;
-        uri_port = null;
         if (location_path_list != null)
             location_path_list.clear();
         if (uri_path_list != null)
             uri_path_list.clear();
-        content_format = null;
-        max_age = null;
         if (uri_query_list != null)
             uri_query_list.clear();
-        accept = null;
         if (location_query_list != null)
-            location_path_list.clear();
+            location_query_list.clear();
         proxy_uri = null;
         proxy_scheme = null;
         block1 = null;
         block2 = null;
-        size1 = null;
-        size2 = null;
-        observe = null;
         oscore = null;
         if (others != null)
             others.clear();
@@ -131,10 +130,10 @@ public class OptionSet {
         if (origin == null) {
             throw new NullPointerException("option set must not be null!");
         }
+        present             = origin.present;
         if_match_list       = copyList(origin.if_match_list);
         uri_host            = origin.uri_host;
         etag_list           = copyList(origin.etag_list);
-        if_none_match       = origin.if_none_match;
         uri_port            = origin.uri_port;
         location_path_list  = copyList(origin.location_path_list);
         uri_path_list       = copyList(origin.uri_path_list);
@@ -168,7 +167,7 @@ public class OptionSet {
      */
     private <T> List<T> copyList(List<T> list) {
         if (list == null) return null;
-        else return new LinkedList<T>(list);
+        else return new ArrayList<T>(list);
     }
 
     /////////////////////// Getter and Setter ///////////////////////
@@ -181,7 +180,7 @@ public class OptionSet {
     public List<byte[]> getIfMatch() {
         synchronized (this) {
             if (if_match_list == null)
-                if_match_list = new LinkedList<byte[]>();
+                if_match_list = new ArrayList<byte[]>();
         }
         return if_match_list;
     }
@@ -191,7 +190,8 @@ public class OptionSet {
      * @return the count
      */
     public int getIfMatchCount() {
-        return getIfMatch().size();
+        List<byte[]> list = if_match_list;
+        return list == null ? 0 : list.size();
     }
 
     /**
@@ -305,7 +305,7 @@ public class OptionSet {
     public List<byte[]> getETags() {
         synchronized (this) {
             if (etag_list == null)
-                etag_list = new LinkedList<byte[]>();
+                etag_list = new ArrayList<byte[]>();
         }
         return etag_list;
     }
@@ -315,7 +315,8 @@ public class OptionSet {
      * @return the count
      */
     public int getETagCount() {
-        return getETags().size();
+        List<byte[]> list = etag_list;
+        return list == null ? 0 : list.size();
     }
 
     /**
@@ -375,7 +376,7 @@ public class OptionSet {
      * @return true if present
      */
     public boolean hasIfNoneMatch() {
-        return if_none_match;
+        return (present & IF_NONE_MATCH_FLAG) != 0;
     }
 
     /**
@@ -385,7 +386,8 @@ public class OptionSet {
      * @return this OptionSet
      */
     public OptionSet setIfNoneMatch(boolean present) {
-        if_none_match = present;
+        if (present) this.present |= IF_NONE_MATCH_FLAG;
+        else this.present &= ~IF_NONE_MATCH_FLAG;
         return this;
     }
 
@@ -394,7 +396,7 @@ public class OptionSet {
      * @return the Uri-Port value or null if the option is not present
      */
     public Integer getUriPort() {
-        return uri_port;
+        return hasUriPort() ? Integer.valueOf(uri_port) : null;
     }
 
     /**
@@ -402,7 +404,7 @@ public class OptionSet {
      * @return true if present
      */
     public boolean hasUriPort() {
-        return uri_port != null;
+        return (present & URI_PORT_FLAG) != 0;
     }
 
     /**
@@ -415,6 +417,7 @@ public class OptionSet {
         if (port < 0 || (1<<16)-1 < port)
             throw new IllegalArgumentException("URI port option must be between 0 and "+((1<<16)-1)+" (2 bytes) inclusive but was "+port);
         uri_port = port;
+        present |= URI_PORT_FLAG;
         return this;
     }
 
@@ -424,7 +427,7 @@ public class OptionSet {
      * @return this OptionSet
      */
     public OptionSet removeUriPort() {
-        uri_port = null;
+        present &= ~URI_PORT_FLAG;
         return this;
     }
 
@@ -436,7 +439,7 @@ public class OptionSet {
     public List<String> getLocationPath() {
         synchronized (this) {
             if (location_path_list == null)
-                location_path_list = new LinkedList<String>();
+                location_path_list = new ArrayList<String>();
         }
         return location_path_list;
     }
@@ -469,7 +472,8 @@ public class OptionSet {
      * @return the count
      */
     public int getLocationPathCount() {
-        return getLocationPath().size();
+        List<String> list = location_path_list;
+        return list == null ? 0 : list.size();
     }
 
     /**
@@ -543,7 +547,7 @@ public class OptionSet {
     public List<String> getUriPath() {
         synchronized (this) {
             if (uri_path_list == null)
-                uri_path_list = new LinkedList<String>();
+                uri_path_list = new ArrayList<String>();
         }
         return uri_path_list;
     }
@@ -562,7 +566,8 @@ public class OptionSet {
      * @return the count
      */
     public int getURIPathCount() {
-        return getUriPath().size();
+        List<String> list = uri_path_list;
+        return list == null ? 0 : list.size();
     }
 
     /**
@@ -627,7 +632,7 @@ public class OptionSet {
      * @return true if present
      */
     public boolean hasContentFormat() {
-        return content_format != null;
+        return (present & CONTENT_FORMAT_FLAG) != 0;
     }
 
     /**
@@ -639,7 +644,7 @@ public class OptionSet {
      * @see MediaTypeRegistry
      */
     public boolean isContentFormat(int format) {
-        return content_format != null && content_format == format;
+        return hasContentFormat() && content_format == format;
     }
 
     /**
@@ -651,8 +656,12 @@ public class OptionSet {
      * @see MediaTypeRegistry
      */
     public OptionSet setContentFormat(int format) {
-        if (format > MediaTypeRegistry.UNDEFINED) content_format = format;
-        else content_format = null;
+        if (format > MediaTypeRegistry.UNDEFINED) {
+            content_format = format;
+            present |= CONTENT_FORMAT_FLAG;
+        } else {
+            present &= ~CONTENT_FORMAT_FLAG;
+        }
         return this;
     }
 
@@ -662,7 +671,7 @@ public class OptionSet {
      * @return this OptionSet
      */
     public OptionSet removeContentFormat() {
-        content_format = null;
+        present &= ~CONTENT_FORMAT_FLAG;
         return this;
     }
 
@@ -671,8 +680,7 @@ public class OptionSet {
      * @return the Max-Age in seconds
      */
     public Long getMaxAge() {
-        Long m = max_age;
-        return m != null ? m : OptionNumberRegistry.Defaults.MAX_AGE;
+        return hasMaxAge() ? max_age : OptionNumberRegistry.Defaults.MAX_AGE;
     }
 
     /**
@@ -681,7 +689,7 @@ public class OptionSet {
      * @return true if present
      */
     public boolean hasMaxAge() {
-        return max_age != null;
+        return (present & MAX_AGE_FLAG) != 0;
     }
 
     /**
@@ -694,6 +702,7 @@ public class OptionSet {
         if (age < 0 || ((1L<<32)-1) < age)
             throw new IllegalArgumentException("Max-Age option must be between 0 and "+((1L<<32)-1)+" (4 bytes) inclusive");
         max_age = age;
+        present |= MAX_AGE_FLAG;
         return this;
     }
 
@@ -703,7 +712,7 @@ public class OptionSet {
      * @return this Optionset
      */
     public OptionSet removeMaxAge() {
-        max_age = null;
+        present &= ~MAX_AGE_FLAG;
         return this;
     }
 
@@ -715,7 +724,7 @@ public class OptionSet {
     public List<String> getUriQuery() {
         synchronized (this) {
             if (uri_query_list == null)
-                uri_query_list = new LinkedList<String>();
+                uri_query_list = new ArrayList<String>();
         }
         return uri_query_list;
     }
@@ -725,7 +734,8 @@ public class OptionSet {
      * @return the count
      */
     public int getURIQueryCount() {
-        return getUriQuery().size();
+        List<String> list = uri_query_list;
+        return list == null ? 0 : list.size();
     }
 
     /**
@@ -806,7 +816,7 @@ public class OptionSet {
      * @return true if present
      */
     public boolean hasAccept() {
-        return accept != null;
+        return (present & ACCEPT_FLAG) != 0;
     }
 
     /**
@@ -815,7 +825,7 @@ public class OptionSet {
      * @return true if equal
      */
     public boolean isAccept(int format) {
-        return accept != null && accept == format;
+        return hasAccept() && accept == format;
     }
 
     /**
@@ -830,6 +840,7 @@ public class OptionSet {
         if (format < 0 || format > ((1<<16)-1))
             throw new IllegalArgumentException("Accept option must be between 0 and "+((1<<16)-1)+" (2 bytes) inclusive");
         accept = format;
+        present |= ACCEPT_FLAG;
         return this;
     }
 
@@ -839,7 +850,7 @@ public class OptionSet {
      * @return this OptionSet
      */
     public OptionSet removeAccept() {
-        accept = null;
+        present &= ~ACCEPT_FLAG;
         return this;
     }
 
@@ -851,7 +862,7 @@ public class OptionSet {
     public List<String> getLocationQuery() {
         synchronized (this) {
             if (location_query_list == null)
-                location_query_list = new LinkedList<String>();
+                location_query_list = new ArrayList<String>();
         }
         return location_query_list;
     }
@@ -861,7 +872,8 @@ public class OptionSet {
      * @return the count
      */
     public int getLocationQueryCount() {
-        return getLocationQuery().size();
+        List<String> list = location_query_list;
+        return list == null ? 0 : list.size();
     }
 
     /**
@@ -1137,7 +1149,7 @@ public class OptionSet {
      * @return the Size1 value or null if the option is not present
      */
     public Integer getSize1() {
-        return size1;
+        return hasSize1() ? Integer.valueOf(size1) : null;
     }
 
     /**
@@ -1145,7 +1157,7 @@ public class OptionSet {
      * @return true if present
      */
     public boolean hasSize1() {
-        return size1 != null;
+        return (present & SIZE1_FLAG) != 0;
     }
 
     /**
@@ -1156,6 +1168,7 @@ public class OptionSet {
      */
     public OptionSet setSize1(int size) {
         this.size1 = size;
+        this.present |= SIZE1_FLAG;
         return this;
     }
 
@@ -1165,7 +1178,7 @@ public class OptionSet {
      * @return this OptionSet
      */
     public OptionSet removeSize1() {
-        this.size1 = null;
+        this.present &= ~SIZE1_FLAG;
         return this;
     }
 
@@ -1174,7 +1187,7 @@ public class OptionSet {
      * @return the Size2 value or null if the option is not present
      */
     public Integer getSize2() {
-        return size2;
+        return hasSize2() ? Integer.valueOf(size2) : null;
     }
 
     /**
@@ -1182,7 +1195,7 @@ public class OptionSet {
      * @return true if present
      */
     public boolean hasSize2() {
-        return size2 != null;
+        return (present & SIZE2_FLAG) != 0;
     }
 
     /**
@@ -1193,6 +1206,7 @@ public class OptionSet {
      */
     public OptionSet setSize2(int size) {
         this.size2 = size;
+        this.present |= SIZE2_FLAG;
         return this;
     }
 
@@ -1202,7 +1216,7 @@ public class OptionSet {
      * @return this OptionSet
      */
     public OptionSet removeSize2() {
-        this.size2 = null;
+        this.present &= ~SIZE2_FLAG;
         return this;
     }
 
@@ -1211,7 +1225,7 @@ public class OptionSet {
      * @return the Observe value or null if the option is not present
      */
     public Integer getObserve() {
-        return observe;
+        return hasObserve() ? Integer.valueOf(observe) : null;
     }
 
     /**
@@ -1219,7 +1233,7 @@ public class OptionSet {
      * @return true if present
      */
     public boolean hasObserve() {
-        return observe != null;
+        return (present & OBSERVE_FLAG) != 0;
     }
 
     /**
@@ -1236,6 +1250,7 @@ public class OptionSet {
             throw new IllegalArgumentException("Observe option must be between 0 and " + MAX_OBSERVE_NO + " (3 bytes) inclusive");
         } else {
             this.observe = seqnum;
+            this.present |= OBSERVE_FLAG;
             return this;
         }
     }
@@ -1246,7 +1261,7 @@ public class OptionSet {
      * @return this OptionSet
      */
     public OptionSet removeObserve() {
-        observe = null;
+        present &= ~OBSERVE_FLAG;
         return this;
     }
 
@@ -1312,10 +1327,24 @@ public class OptionSet {
         return Collections.binarySearch(asSortedList(), new Option(number)) >= 0;
     }
 
+    /**
+     * Adds an arbitrary option to the other options, keeping them sorted by
+     * their number. Options with the same number keep their order.
+     * @param option the option to add
+     */
+    private void addOther(Option option) {
+        List<Option> list = getOthersInternal();
+        int index = list.size();
+        while (index > 0 && list.get(index - 1).getNumber() > option.getNumber()) {
+            --index;
+        }
+        list.add(index, option);
+    }
+
     private List<Option> getOthersInternal() {
         synchronized (this) {
             if (others == null)
-                others = new LinkedList<Option>();
+                others = new ArrayList<Option>();
         }
         return others;
     }
@@ -1323,7 +1352,7 @@ public class OptionSet {
     /**
      * Returns list of other options.
      *
-     * The list is unmodifiable and not sorted.
+     * The list is unmodifiable and sorted by the option numbers.
      *
      * @return list of other options.
      */
@@ -1342,7 +1371,7 @@ public class OptionSet {
      * @return the sorted list (a copy)
      */
     public List<Option> asSortedList() {
-        ArrayList<Option> options = new ArrayList<Option>();
+        ArrayList<Option> options = new ArrayList<Option>(getOptionCount());
 
         if (if_match_list != null) for (byte[] value:if_match_list)
             options.add(new Option(OptionNumberRegistry.IF_MATCH, value));
@@ -1394,6 +1423,23 @@ public class OptionSet {
         return options;
     }
 
+    /**
+     * Returns the number of options.
+     * @return the number of options, including each value of repeatable options
+     */
+    public int getOptionCount() {
+        int count = Integer.bitCount(present) + getIfMatchCount() + getETagCount() + getLocationPathCount()
+                + getURIPathCount() + getURIQueryCount() + getLocationQueryCount();
+        if (uri_host != null) ++count;
+        if (proxy_uri != null) ++count;
+        if (proxy_scheme != null) ++count;
+        if (block1 != null) ++count;
+        if (block2 != null) ++count;
+        if (oscore != null) ++count;
+        if (others != null) count += others.size();
+        return count;
+    }
+
     /**
      * Allows adding arbitrary options. Known options are checked if they are repeatable.
      * @param option the Option object to add
@@ -1421,11 +1467,131 @@ public class OptionSet {
             case OptionNumberRegistry.SIZE2:          setSize2(option.getIntegerValue()); break;
             case OptionNumberRegistry.OBSERVE:        setObserve(option.getIntegerValue()); break;
             case OptionNumberRegistry.OSCORE:		  setOscore(option.getValue()); break;
-            default: getOthersInternal().add(option);
+            default: addOther(option);
         }
         return this;
     }
 
+    /**
+     * Checks if the other option set contains the same options, ignoring the
+     * Observe option.
+     * <p>
+     * Used to detect responses, which only differ in their Observe option,
+     * e.g. notifications of the same state sent to many observers.
+     *
+     * @param other the other option set
+     * @return true if all options, except the Observe option, are equal
+     */
+    public boolean equalsIgnoringObserve(OptionSet other) {
+        if (other == this) {
+            return true;
+        }
+        if (other == null) {
+            return false;
+        }
+        int flags = present & ~OBSERVE_FLAG;
+        if (flags != (other.present & ~OBSERVE_FLAG)) {
+            return false;
+        }
+        return (!hasUriPort() || uri_port == other.uri_port)
+                && (!hasContentFormat() || content_format == other.content_format)
+                && (!hasMaxAge() || max_age == other.max_age)
+                && (!hasAccept() || accept == other.accept)
+                && (!hasSize1() || size1 == other.size1)
+                && (!hasSize2() || size2 == other.size2)
+                && equalsValue(uri_host, other.uri_host)
+                && equalsValue(proxy_uri, other.proxy_uri)
+                && equalsValue(proxy_scheme, other.proxy_scheme)
+                && equalsValue(block1, other.block1)
+                && equalsValue(block2, other.block2)
+                && Arrays.equals(oscore, other.oscore)
+                && equalsBytesList(if_match_list, other.if_match_list)
+                && equalsBytesList(etag_list, other.etag_list)
+                && equalsList(location_path_list, other.location_path_list)
+                && equalsList(uri_path_list, other.uri_path_list)
+                && equalsList(uri_query_list, other.uri_query_list)
+                && equalsList(location_query_list, other.location_query_list)
+                && equalsList(others, other.others);
+    }
+
+    /**
+     * Returns the hash code of all options, ignoring the Observe option.
+     * Consistent with {@link #equalsIgnoringObserve(OptionSet)}.
+     *
+     * @return the hash code
+     */
+    public int hashCodeIgnoringObserve() {
+        int hash = present & ~OBSERVE_FLAG;
+        if (hasUriPort()) hash = 31 * hash + uri_port;
+        if (hasContentFormat()) hash = 31 * hash + content_format;
+        if (hasMaxAge()) hash = 31 * hash + (int) max_age;
+        if (hasAccept()) hash = 31 * hash + accept;
+        if (hasSize1()) hash = 31 * hash + size1;
+        if (hasSize2()) hash = 31 * hash + size2;
+        hash = 31 * hash + hashValue(uri_host);
+        hash = 31 * hash + hashValue(proxy_uri);
+        hash = 31 * hash + hashValue(proxy_scheme);
+        hash = 31 * hash + hashValue(block1);
+        hash = 31 * hash + hashValue(block2);
+        hash = 31 * hash + Arrays.hashCode(oscore);
+        if (if_match_list != null) for (byte[] value : if_match_list)
+            hash = 31 * hash + Arrays.hashCode(value);
+        if (etag_list != null) for (byte[] value : etag_list)
+            hash = 31 * hash + Arrays.hashCode(value);
+        hash = 31 * hash + hashList(location_path_list);
+        hash = 31 * hash + hashList(uri_path_list);
+        hash = 31 * hash + hashList(uri_query_list);
+        hash = 31 * hash + hashList(location_query_list);
+        if (others != null) for (Option option : others)
+            hash = 31 * (31 * hash + option.getNumber()) + Arrays.hashCode(option.getValue());
+        return hash;
+    }
+
+    private static boolean equalsValue(Object value, Object other) {
+        return value == null ? other == null : value.equals(other);
+    }
+
+    private static int hashValue(Object value) {
+        return value == null ? 0 : value.hashCode();
+    }
+
+    /**
+     * Compares lists, treating a {@code null} list as empty list.
+     */
+    private static <T> boolean equalsList(List<T> list, List<T> other) {
+        if (list == null || list.isEmpty()) {
+            return other == null || other.isEmpty();
+        }
+        return list.equals(other);
+    }
+
+    /**
+     * Compares lists of byte arrays by content, treating a {@code null} list
+     * as empty list.
+     */
+    private static boolean equalsBytesList(List<byte[]> list, List<byte[]> other) {
+        if (list == null || list.isEmpty()) {
+            return other == null || other.isEmpty();
+        }
+        if (other == null || list.size() != other.size()) {
+            return false;
+        }
+        Iterator<byte[]> iterator = other.iterator();
+        for (byte[] value : list) {
+            if (!Arrays.equals(value, iterator.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes a list, consistent with {@link #equalsList(List, List)}.
+     */
+    private static int hashList(List<?> list) {
+        return list == null ? 1 : list.hashCode();
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
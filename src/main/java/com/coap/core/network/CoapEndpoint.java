@@ -3,6 +3,7 @@ package com.coap.core.network;
 import com.coap.core.coap.*;
 import com.coap.core.coap.CoAP.Type;
 import com.coap.core.network.config.NetworkConfig;
+import com.coap.core.network.config.NetworkConfigDefaults;
 import com.coap.core.network.interceptors.MessageInterceptor;
 import com.coap.core.network.serialization.*;
 import com.coap.core.network.stack.CoapStack;
@@ -14,8 +15,13 @@ import com.coap.core.observe.ObservationStore;
 import com.coap.core.server.MessageDeliverer;
 import com.coap.core.network.Exchange.*;
 import com.coap.elements.*;
+import com.coap.elements.tcp.TlsClientConnector;
+import com.coap.elements.tcp.TlsServerConnector;
 import com.coap.elements.util.DaemonThreadFactory;
 import com.coap.elements.util.ExecutorsUtil;
+import com.coap.elements.util.HashedWheelScheduledExecutor;
+import com.coap.elements.util.OffHeapByteCache;
+import com.coap.elements.util.SerialExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -118,9 +124,47 @@ public class CoapEndpoint implements Endpoint {
 	/** Parser to convert datagrams to messages. */
 	private final DataParser parser;
 
+	/**
+	 * Outbox at the bottom of the stack. Used to resend responses to
+	 * duplicate requests, which are detected before parsing.
+	 */
+	private final Outbox outbox;
+
+	/**
+	 * Exchange store used to detect duplicate requests before parsing.
+	 * {@code null} for TCP, which doesn't deduplicate requests.
+	 */
+	private final MessageExchangeStore duplicateStore;
+
+	/**
+	 * Off-heap cache of piggy-backed responses to answer duplicate requests.
+	 * {@code null}, if {@link NetworkConfig.Keys#DEDUPLICATOR_RESPONSE_CACHE_SIZE}
+	 * is {@code 0} or the protocol is not plain UDP.
+	 */
+	private final OffHeapByteCache responseCache;
+
+	/** Endpoint context matcher to check the source of duplicate requests. */
+	private final EndpointContextMatcher endpointContextMatcher;
+
 	/** The executor to run tasks for this endpoint and its layers */
 	private ExecutorService executor;
 
+	/**
+	 * Timing wheel scheduling the timers of the layers on the executor.
+	 * {@code null}, if {@link NetworkConfig.Keys#TIMER_WHEEL_TICK} is
+	 * {@code 0}.
+	 */
+	private HashedWheelScheduledExecutor timer;
+
+	/**
+	 * Serial executors partitioning the protocol stage for incoming messages
+	 * per shard of a sharded {@link UdpChannelConnector}. {@code null}, if
+	 * the connector is not sharded.
+	 * 
+	 * @see RawData#getShard()
+	 */
+	private SerialExecutor[] protocolStageShards;
+
 	/** Indicates if the endpoint has been started */
 	private boolean started;
 
@@ -133,6 +177,9 @@ public class CoapEndpoint implements Endpoint {
 	/** The list of Notification listener (use for CoAP observer relations) */
 	private List<NotificationListener> notificationListeners = new CopyOnWriteArrayList<>();
 
+	/** The list of listeners for the saturation of the connector */
+	private List<BackpressureListener> backpressureListeners = new CopyOnWriteArrayList<>();
+
 	private final EndpointReceiver endpointStackReceiver = new EndpointReceiver() {
 
 		@Override
@@ -172,7 +219,8 @@ public class CoapEndpoint implements Endpoint {
 	 *
 	 * @param connector The connector to use.
 	 * @param applyConfiguration if {@code true}, apply network configuration to
-	 *            connector. Requires a {@link UDPConnector}.
+	 *            connector. Requires a {@link UDPConnector}, a
+	 *            {@link UdpChannelConnector}, or a TLS connector.
 	 * @param config The configuration values to use.
 	 * @param tokenGenerator token generator.
 	 * @param store The store to use for keeping track of observations initiated
@@ -185,7 +233,8 @@ public class CoapEndpoint implements Endpoint {
 	 *            is used as matcher.
 	 * @param coapStackFactory coap-stack-factory factory to create coap-stack
 	 * @throws IllegalArgumentException if applyConfiguration is {@code true},
-	 *             but the connector is not a {@link UDPConnector}
+	 *             but the connector is neither a {@link UDPConnector}, a
+	 *             {@link UdpChannelConnector}, nor a TLS connector
 	 */
 	protected CoapEndpoint(Connector connector, boolean applyConfiguration, NetworkConfig config,
 						   TokenGenerator tokenGenerator, ObservationStore store, MessageExchangeStore exchangeStore,
@@ -198,13 +247,13 @@ public class CoapEndpoint implements Endpoint {
 		// when remove the deprecated constructors,
 		// this checks and defaults maybe also removed
 		if (tokenGenerator == null) {
-			tokenGenerator = new RandomTokenGenerator(config);
+			tokenGenerator = createTokenGenerator(config);
 		}
 		if (coapStackFactory == null) {
 			coapStackFactory = getDefaultCoapStackFactory();
 		}
 		MessageExchangeStore localExchangeStore = (null != exchangeStore) ? exchangeStore
-				: new InMemoryMessageExchangeStore(config, tokenGenerator);
+				: createMessageExchangeStore(config, tokenGenerator);
 		ObservationStore observationStore = (null != store) ? store : new InMemoryObservationStore(config);
 		if (null == endpointContextMatcher) {
 			endpointContextMatcher = EndpointContextMatcherFactory.create(connector, config);
@@ -220,8 +269,28 @@ public class CoapEndpoint implements Endpoint {
 				udpConnector.setReceiveBufferSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_RECEIVE_BUFFER));
 				udpConnector.setSendBufferSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_SEND_BUFFER));
 				udpConnector.setReceiverPacketSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_DATAGRAM_SIZE));
+				udpConnector.setOutboundCapacity(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_OUT_CAPACITY));
+				udpConnector.setReceiveBufferPoolSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_RECEIVE_POOL_SIZE, 0));
+			} else if (connector instanceof UdpChannelConnector) {
+				UdpChannelConnector channelConnector = (UdpChannelConnector) connector;
+				channelConnector.setReceiverThreadCount(config.getInt(NetworkConfig.Keys.NETWORK_STAGE_RECEIVER_THREAD_COUNT));
+				channelConnector.setSenderThreadCount(config.getInt(NetworkConfig.Keys.NETWORK_STAGE_SENDER_THREAD_COUNT));
+
+				channelConnector.setReceiveBufferSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_RECEIVE_BUFFER));
+				channelConnector.setSendBufferSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_SEND_BUFFER));
+				channelConnector.setReceiverPacketSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_DATAGRAM_SIZE));
+				channelConnector.setOutboundCapacity(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_OUT_CAPACITY));
+				channelConnector.setReceiveBufferPoolSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_RECEIVE_POOL_SIZE, 0));
+				channelConnector.setReusePort(config.getBoolean(NetworkConfig.Keys.UDP_CONNECTOR_REUSE_PORT, false));
+			} else if (connector instanceof TlsServerConnector) {
+				((TlsServerConnector) connector).setSessionCache(config.getInt(NetworkConfig.Keys.TLS_SESSION_CACHE_SIZE, 0),
+						config.getInt(NetworkConfig.Keys.SECURE_SESSION_TIMEOUT, 0));
+			} else if (connector instanceof TlsClientConnector) {
+				((TlsClientConnector) connector).setSessionCache(config.getInt(NetworkConfig.Keys.TLS_SESSION_CACHE_SIZE, 0),
+						config.getInt(NetworkConfig.Keys.SECURE_SESSION_TIMEOUT, 0));
 			} else {
-				throw new IllegalArgumentException("Connector must be a UDPConnector to use apply configuration!");
+				throw new IllegalArgumentException(
+						"Connector must be a UDPConnector, UdpChannelConnector or TLS connector to use apply configuration!");
 			}
 		}
 
@@ -240,20 +309,40 @@ public class CoapEndpoint implements Endpoint {
 		};
 
 		this.connector.setEndpointContextMatcher(endpointContextMatcher);
+		if (connector instanceof BackpressureConnector) {
+			((BackpressureConnector) connector).setBackpressureListener(new BackpressureDispatcher());
+		}
 		LOGGER.info("{} uses {}", getClass().getSimpleName(), endpointContextMatcher.getName());
 
-		this.coapstack = coapStackFactory.createCoapStack(connector.getProtocol(), config, new OutboxImpl());
+		this.endpointContextMatcher = endpointContextMatcher;
+		this.outbox = new OutboxImpl();
+		this.coapstack = coapStackFactory.createCoapStack(connector.getProtocol(), config, outbox);
 
 		if (CoAP.isTcpProtocol(connector.getProtocol())) {
+			this.duplicateStore = null;
+			this.responseCache = null;
 			this.matcher = new TcpMatcher(config, new NotificationDispatcher(), tokenGenerator, observationStore,
 					localExchangeStore, exchangeExecutionHandler, endpointContextMatcher);
-			this.serializer = new TcpDataSerializer();
-			this.parser = new TcpDataParser();
+			this.serializer = new TcpDataSerializer(
+					config.getInt(NetworkConfig.Keys.RESPONSE_TEMPLATE_CACHE_SIZE, 0));
+			this.parser = new TcpDataParser(config.getBoolean(NetworkConfig.Keys.LAZY_MESSAGE_DECODING, false));
 		} else {
+			this.duplicateStore = localExchangeStore;
+			long responseCacheSize = config.getLong(NetworkConfig.Keys.DEDUPLICATOR_RESPONSE_CACHE_SIZE, 0);
+			// the cache only keeps the serialized response, so it is only used
+			// with the plain UDP matcher, which sends to any plain UDP context
+			if (responseCacheSize > 0 && CoAP.PROTOCOL_UDP.equals(connector.getProtocol())
+					&& endpointContextMatcher instanceof UdpEndpointContextMatcher) {
+				this.responseCache = new OffHeapByteCache(responseCacheSize,
+						config.getLong(NetworkConfig.Keys.EXCHANGE_LIFETIME), TimeUnit.MILLISECONDS);
+			} else {
+				this.responseCache = null;
+			}
 			this.matcher = new UdpMatcher(config, new NotificationDispatcher(), tokenGenerator, observationStore,
 					localExchangeStore, exchangeExecutionHandler, endpointContextMatcher);
-			this.serializer = new UdpDataSerializer();
-			this.parser = new UdpDataParser();
+			this.serializer = new UdpDataSerializer(
+					config.getInt(NetworkConfig.Keys.RESPONSE_TEMPLATE_CACHE_SIZE, 0));
+			this.parser = new UdpDataParser(config.getBoolean(NetworkConfig.Keys.LAZY_MESSAGE_DECODING, false));
 		}
 	}
 
@@ -334,6 +423,9 @@ public class CoapEndpoint implements Endpoint {
 		}
 		connector.destroy();
 		coapstack.destroy();
+		if (timer != null) {
+			timer.shutdown();
+		}
 		for (EndpointObserver obs : observers) {
 			obs.destroyed(this);
 		}
@@ -356,7 +448,30 @@ public class CoapEndpoint implements Endpoint {
 				throw new IllegalStateException("endpoint already started!");
 			}
 			this.executor = executor;
-			this.coapstack.setExecutor(executor);
+			if (timer != null) {
+				timer.shutdown();
+				timer = null;
+			}
+			int tick = config.getInt(NetworkConfig.Keys.TIMER_WHEEL_TICK, 0);
+			if (tick > 0 && executor != null) {
+				int wheelSize = config.getInt(NetworkConfig.Keys.TIMER_WHEEL_SIZE,
+						NetworkConfigDefaults.DEFAULT_TIMER_WHEEL_SIZE);
+				timer = new HashedWheelScheduledExecutor(executor, tick, TimeUnit.MILLISECONDS, wheelSize);
+				this.coapstack.setExecutor(timer);
+			} else {
+				this.coapstack.setExecutor(executor);
+			}
+			this.protocolStageShards = null;
+			if (connector instanceof UdpChannelConnector) {
+				int shards = ((UdpChannelConnector) connector).getShardCount();
+				if (shards > 1) {
+					SerialExecutor[] protocolStageShards = new SerialExecutor[shards];
+					for (int index = 0; index < shards; ++index) {
+						protocolStageShards[index] = new SerialExecutor(executor);
+					}
+					this.protocolStageShards = protocolStageShards;
+				}
+			}
 		}
 	}
 
@@ -370,6 +485,21 @@ public class CoapEndpoint implements Endpoint {
 		notificationListeners.remove(lis);
 	}
 
+	@Override
+	public boolean isBackpressured() {
+		return connector instanceof BackpressureConnector && ((BackpressureConnector) connector).isSaturated();
+	}
+
+	@Override
+	public void addBackpressureListener(final BackpressureListener listener) {
+		backpressureListeners.add(listener);
+	}
+
+	@Override
+	public void removeBackpressureListener(final BackpressureListener listener) {
+		backpressureListeners.remove(listener);
+	}
+
 	@Override
 	public void addObserver(final EndpointObserver observer) {
 		observers.add(observer);
@@ -545,6 +675,25 @@ public class CoapEndpoint implements Endpoint {
 		}
 	}
 
+	private class BackpressureDispatcher implements BackpressureListener {
+
+		@Override
+		public void onSaturated() {
+			LOGGER.debug("connector of endpoint {} is saturated", getUri());
+			for (BackpressureListener listener : backpressureListeners) {
+				listener.onSaturated();
+			}
+		}
+
+		@Override
+		public void onDrained() {
+			LOGGER.debug("connector of endpoint {} is drained", getUri());
+			for (BackpressureListener listener : backpressureListeners) {
+				listener.onDrained();
+			}
+		}
+	}
+
 	/**
 	 * The stack of layers uses this Outbox to send messages. The OutboxImpl
 	 * will then give them to the matcher, the interceptors, and finally send
@@ -620,6 +769,22 @@ public class CoapEndpoint implements Endpoint {
 				}
 			} else {
 				connector.send(serializer.serializeResponse(response, new ExchangeCallback(exchange, response)));
+				if (responseCache != null && response.getType() == Type.ACK && exchange != null) {
+					cacheResponse(exchange, response);
+				}
+			}
+		}
+
+		/*
+		 * Move the exchange of a piggy-backed response from the deduplicator
+		 * to the response cache, which only keeps the serialized response.
+		 * If the cache is full of responses younger than the EXCHANGE_LIFETIME,
+		 * the exchange stays in the deduplicator.
+		 */
+		private void cacheResponse(final Exchange exchange, final Response response) {
+			InetSocketAddress peer = response.getDestinationContext().getPeerAddress();
+			if (KeyMID.isPackable(peer) && responseCache.put(KeyMID.packKey(response.getMID(), peer), response.getBytes())) {
+				duplicateStore.removePrevious(KeyMID.fromInboundMessage(response.getMID(), peer), exchange);
 			}
 		}
 
@@ -682,7 +847,7 @@ public class CoapEndpoint implements Endpoint {
 			} else {
 
 				// Create a new task to process this message
-				runInProtocolStage(new Runnable() {
+				runInProtocolStage(getProtocolStage(raw), new Runnable() {
 
 					@Override
 					public void run() {
@@ -702,8 +867,19 @@ public class CoapEndpoint implements Endpoint {
 
 			Message msg = null;
 
+			if (receiveCachedDuplicateRequest(raw) || receiveDuplicateRequest(raw)) {
+				raw.release();
+				return;
+			}
+
 			try {
-				msg = parser.parseMessage(raw);
+				try {
+					msg = parser.parseMessage(raw);
+				} finally {
+					// the parser copies options and payload, so pooled
+					// receive buffers are returned right after parsing
+					raw.release();
+				}
 
 				if (CoAP.isRequest(msg.getRawCode())) {
 
@@ -740,6 +916,152 @@ public class CoapEndpoint implements Endpoint {
 			}
 		}
 
+		/*
+		 * Fast path for retransmitted CON requests, which are already answered
+		 * with a piggy-backed response. Only the header and token are read to
+		 * look up the previous exchange in the deduplicator, and the response
+		 * is resent directly to the outbox, without parsing the request and
+		 * passing it through the layers. Any other case, e.g. separate
+		 * responses or pending requests, is left to the regular processing.
+		 * Not used, if message interceptors are registered, because they
+		 * expect to see all received requests.
+		 */
+		private boolean receiveDuplicateRequest(final RawData raw) {
+			if (duplicateStore == null || !started || !interceptors.isEmpty()) {
+				return false;
+			}
+			if (!isConfirmableRequest(raw)) {
+				return false;
+			}
+			byte[] bytes = raw.bytes;
+			int tokenLength = bytes[0] & 0x0F;
+			int mid = ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+			EndpointContext sourceContext = raw.getEndpointContext();
+			InetSocketAddress source = sourceContext.getPeerAddress();
+			final Exchange previous;
+			if (KeyMID.isPackable(source)) {
+				previous = duplicateStore.find(KeyMID.packKey(mid, source));
+			} else {
+				previous = duplicateStore.find(KeyMID.fromInboundMessage(mid, source));
+			}
+			if (previous == null) {
+				return false;
+			}
+			final Response response = previous.getCurrentResponse();
+			Request request = previous.getCurrentRequest();
+			if (response == null || response.getType() != Type.ACK || response.getBytes() == null
+					|| request == null || !request.getToken().equals(bytes, 4, tokenLength)
+					|| !endpointContextMatcher.isToBeSent(previous.getRequest().getSourceContext(), sourceContext)) {
+				return false;
+			}
+			LOGGER.trace("duplicate request {}, resend response {}", previous, response);
+			previous.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					if (response == previous.getCurrentResponse()) {
+						previous.retransmitResponse();
+						outbox.sendResponse(previous, response);
+					}
+				}
+			});
+			return true;
+		}
+
+		/*
+		 * Fast path for retransmitted CON requests, which exchanges are moved
+		 * to the response cache. As for duplicates in the deduplicator, the
+		 * cached response is resent, even if the token differs. If message
+		 * interceptors are registered, the request and the cached response
+		 * are parsed to pass them to the interceptors, which may cancel them.
+		 */
+		private boolean receiveCachedDuplicateRequest(final RawData raw) {
+			if (responseCache == null || !started || !isConfirmableRequest(raw)) {
+				return false;
+			}
+			byte[] bytes = raw.bytes;
+			int tokenLength = bytes[0] & 0x0F;
+			int mid = ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+			InetSocketAddress source = raw.getEndpointContext().getPeerAddress();
+			if (!KeyMID.isPackable(source)) {
+				return false;
+			}
+			byte[] response = responseCache.get(KeyMID.packKey(mid, source));
+			if (response == null) {
+				return false;
+			}
+			if (!hasToken(response, bytes, tokenLength)) {
+				LOGGER.debug("duplicate request {} from {} with different token, resend cached response", mid, source);
+			} else {
+				LOGGER.trace("duplicate request {} from {}, resend cached response", mid, source);
+			}
+			if (!interceptors.isEmpty() && !interceptCachedDuplicateRequest(raw, response)) {
+				return true;
+			}
+			connector.send(RawData.outbound(response, raw.getEndpointContext(), null, false));
+			return true;
+		}
+
+		/*
+		 * Pass the duplicate request and the cached response to the message
+		 * interceptors, as the regular processing does.
+		 */
+		private boolean interceptCachedDuplicateRequest(final RawData raw, final byte[] cached) {
+			Message request;
+			Message response;
+			try {
+				request = parser.parseMessage(raw);
+				response = parser.parseMessage(cached);
+			} catch (MessageFormatException e) {
+				LOGGER.debug("discarding malformed duplicate from [{}]", raw.getEndpointContext());
+				return false;
+			}
+			if (!(request instanceof Request) || !(response instanceof Response)) {
+				return false;
+			}
+			for (MessageInterceptor interceptor : interceptors) {
+				interceptor.receiveRequest((Request) request);
+			}
+			if (request.isCanceled()) {
+				return false;
+			}
+			response.setDestinationContext(raw.getEndpointContext());
+			for (MessageInterceptor interceptor : interceptors) {
+				interceptor.sendResponse((Response) response);
+			}
+			return !response.isCanceled();
+		}
+
+		/*
+		 * Check, if the serialized response contains the token of the request.
+		 */
+		private boolean hasToken(final byte[] response, final byte[] request, final int tokenLength) {
+			if (response.length < 4 + tokenLength || (response[0] & 0x0F) != tokenLength) {
+				return false;
+			}
+			for (int index = 4; index < 4 + tokenLength; ++index) {
+				if (response[index] != request[index]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/*
+		 * Check the header of a message for a CON request.
+		 */
+		private boolean isConfirmableRequest(final RawData raw) {
+			byte[] bytes = raw.bytes;
+			int size = raw.getSize();
+			if (size < 4) {
+				return false;
+			}
+			int first = bytes[0] & 0xFF;
+			int tokenLength = first & 0x0F;
+			return (first >> 6) == CoAP.VERSION && ((first >> 4) & 0x03) == Type.CON.value && tokenLength <= 8
+					&& size >= 4 + tokenLength && CoAP.isRequest(bytes[1] & 0xFF);
+		}
+
 		private void reject(final RawData raw, final CoAPMessageFormatException cause) {
 
 			// Generate RST
@@ -904,13 +1226,33 @@ public class CoapEndpoint implements Endpoint {
 	}
 
 	/**
-	 * Execute the specified task on the endpoint's executor (protocol stage).
+	 * Get the protocol stage executor for an incoming message.
+	 * 
+	 * If the connector is sharded, messages are processed by the serial
+	 * executor of the shard they are received on. The kernel receives all
+	 * messages of a peer on the same shard, so they are always processed by
+	 * the same executor. Otherwise the endpoint's executor is used.
+	 * 
+	 * @param raw incoming message
+	 * @return executor for the protocol stage
+	 */
+	private Executor getProtocolStage(final RawData raw) {
+		SerialExecutor[] shards = protocolStageShards;
+		if (shards != null) {
+			return shards[raw.getShard() % shards.length];
+		}
+		return executor;
+	}
+
+	/**
+	 * Execute the specified task on the provided executor (protocol stage).
 	 *
+	 * @param stage the executor of the protocol stage
 	 * @param task the task
 	 */
-	private void runInProtocolStage(final Runnable task) {
+	private void runInProtocolStage(final Executor stage, final Runnable task) {
 		try {
-			executor.execute(new Runnable() {
+			stage.execute(new Runnable() {
 
 				@Override
 				public void run() {
@@ -1127,6 +1469,90 @@ public class CoapEndpoint implements Endpoint {
 			return this;
 		}
 
+		/**
+		 * Set NIO channel based connector to be configured and used by
+		 * endpoint.
+		 * 
+		 * Drop-in alternative to
+		 * {@link #setConnectorWithAutoConfiguration(UDPConnector)}, the same
+		 * network configuration values are applied to the connector. The
+		 * {@link #bindAddress} could be defined at most once, so only one
+		 * setter of {@link #setPort(int)},
+		 * {@link #setInetSocketAddress(InetSocketAddress)}, or
+		 * {@link #setConnector(Connector)}, or
+		 * {@link #setConnectorWithAutoConfiguration(UdpChannelConnector)} could
+		 * be used.
+		 * 
+		 * Provides a fluent API to chain setters.
+		 * 
+		 * @param connector connector to be used
+		 * @return this
+		 * @throws IllegalStateException if {@link #bindAddress} is already
+		 *             defined
+		 * @see #bindAddress
+		 * @see #connector
+		 */
+		public Builder setConnectorWithAutoConfiguration(UdpChannelConnector connector) {
+			if (this.bindAddress != null || this.connector != null) {
+				throw new IllegalArgumentException("bind address already defined!");
+			}
+			this.connector = connector;
+
+			return this;
+		}
+
+		/**
+		 * Set TLS server connector to be configured and used by endpoint.
+		 * 
+		 * The session cache of the connector's ssl context is bounded by
+		 * {@link NetworkConfig.Keys#TLS_SESSION_CACHE_SIZE} and
+		 * {@link NetworkConfig.Keys#SECURE_SESSION_TIMEOUT}. The timeouts and
+		 * the number of threads are passed to the connector's constructor.
+		 * 
+		 * Provides a fluent API to chain setters.
+		 * 
+		 * @param connector connector to be used
+		 * @return this
+		 * @throws IllegalStateException if {@link #bindAddress} is already
+		 *             defined
+		 * @see #bindAddress
+		 * @see #connector
+		 */
+		public Builder setConnectorWithAutoConfiguration(TlsServerConnector connector) {
+			if (this.bindAddress != null || this.connector != null) {
+				throw new IllegalArgumentException("bind address already defined!");
+			}
+			this.connector = connector;
+
+			return this;
+		}
+
+		/**
+		 * Set TLS client connector to be configured and used by endpoint.
+		 * 
+		 * The session cache of the connector's ssl context is bounded by
+		 * {@link NetworkConfig.Keys#TLS_SESSION_CACHE_SIZE} and
+		 * {@link NetworkConfig.Keys#SECURE_SESSION_TIMEOUT}. The timeouts and
+		 * the number of threads are passed to the connector's constructor.
+		 * 
+		 * Provides a fluent API to chain setters.
+		 * 
+		 * @param connector connector to be used
+		 * @return this
+		 * @throws IllegalStateException if {@link #bindAddress} is already
+		 *             defined
+		 * @see #bindAddress
+		 * @see #connector
+		 */
+		public Builder setConnectorWithAutoConfiguration(TlsClientConnector connector) {
+			if (this.bindAddress != null || this.connector != null) {
+				throw new IllegalArgumentException("bind address already defined!");
+			}
+			this.connector = connector;
+
+			return this;
+		}
+
 		/**
 		 * Set observation store.
 		 * 
@@ -1213,13 +1639,13 @@ public class CoapEndpoint implements Endpoint {
 				connector = new UDPConnector(bindAddress);
 			}
 			if (tokenGenerator == null) {
-				tokenGenerator = new RandomTokenGenerator(config);
+				tokenGenerator = createTokenGenerator(config);
 			}
 			if (observationStore == null) {
 				observationStore = new InMemoryObservationStore(config);
 			}
 			if (exchangeStore == null) {
-				exchangeStore = new InMemoryMessageExchangeStore(config, tokenGenerator);
+				exchangeStore = createMessageExchangeStore(config, tokenGenerator);
 			}
 			if (endpointContextMatcher == null) {
 				endpointContextMatcher = EndpointContextMatcherFactory.create(connector, config);
@@ -1232,6 +1658,41 @@ public class CoapEndpoint implements Endpoint {
 		}
 	}
 
+	/**
+	 * Create default token generator.
+	 * 
+	 * @param config configuration
+	 * @return a {@link CounterTokenGenerator}, if
+	 *         {@link NetworkConfig.Keys#TOKEN_GENERATOR} is "COUNTER", a
+	 *         {@link RandomTokenGenerator}, otherwise.
+	 */
+	private static TokenGenerator createTokenGenerator(NetworkConfig config) {
+		if ("COUNTER".equals(config.getString(NetworkConfig.Keys.TOKEN_GENERATOR))) {
+			return new CounterTokenGenerator(config);
+		} else {
+			return new RandomTokenGenerator(config);
+		}
+	}
+
+	/**
+	 * Create default exchange store.
+	 * 
+	 * @param config configuration
+	 * @param tokenGenerator token generator
+	 * @return a {@link ShardedMessageExchangeStore}, if
+	 *         {@link NetworkConfig.Keys#EXCHANGE_STORE_SHARDS} is greater than
+	 *         {@code 1}, a {@link InMemoryMessageExchangeStore}, otherwise.
+	 */
+	private static MessageExchangeStore createMessageExchangeStore(NetworkConfig config,
+			TokenGenerator tokenGenerator) {
+		int shards = config.getInt(NetworkConfig.Keys.EXCHANGE_STORE_SHARDS, 0);
+		if (shards > 1) {
+			return new ShardedMessageExchangeStore(config, tokenGenerator, shards);
+		} else {
+			return new InMemoryMessageExchangeStore(config, tokenGenerator);
+		}
+	}
+
 	/**
 	 * Default coap-stack-factory. Intended to be set only once.
 	 */
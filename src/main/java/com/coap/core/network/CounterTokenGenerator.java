@@ -0,0 +1,150 @@
+package com.coap.core.network;
+
+import com.coap.core.coap.Token;
+import com.coap.core.network.config.NetworkConfig;
+import com.coap.core.network.config.NetworkConfig.Keys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * High throughput {@link TokenGenerator} based on a counter.
+ * <p>
+ * Each token is derived from a unique value of a counter, which is passed
+ * through a keyed permutation. The key and the start of the counter are
+ * drawn once per generator from a {@link SecureRandom}, so the tokens of
+ * different endpoints differ and are not trivially predictable. The
+ * permutation is not cryptographically strong, use the
+ * {@link RandomTokenGenerator}, if tokens must not be guessed.
+ * <p>
+ * Because the permutation is a bijection, tokens are unique until the
+ * counter wraps, which happens after {@code 2^(8 * size - 1)} tokens. That
+ * exceeds the tokens created within the EXCHANGE_LIFETIME for the default
+ * token size of 8 bytes by far. As {@link RandomTokenGenerator}, bit 0 of
+ * byte 0 separates the short-term and the long-term (observe) scope.
+ * <p>
+ * Threads reserve blocks of counter values, so the shared counter is only
+ * updated once per block and creating tokens doesn't contend. Values left
+ * in the block of a thread are skipped, therefore blocks are only used for
+ * tokens of more than 3 bytes, where the counter doesn't wrap because of
+ * that.
+ *
+ * This implementation is thread-safe.
+ */
+public class CounterTokenGenerator implements TokenGenerator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CounterTokenGenerator.class.getName());
+	private static final int DEFAULT_TOKEN_LENGTH = 8; // bytes
+	/**
+	 * Number of counter values reserved by a thread at once.
+	 */
+	private static final int BLOCK_SIZE = 256;
+	/**
+	 * Minimum number of counter bits to use blocks.
+	 */
+	private static final int BLOCK_MIN_BITS = 31;
+
+	private final int tokenSize;
+	/**
+	 * Number of bits of the counter. One bit less than the token, the bit 0
+	 * of byte 0 is used for the scope.
+	 */
+	private final int bits;
+	private final long mask;
+	private final int shift;
+	private final long key0;
+	private final long key1;
+	private final int blockSize;
+	private final AtomicLong counter;
+	private final ThreadLocal<long[]> blocks = new ThreadLocal<long[]>() {
+
+		@Override
+		protected long[] initialValue() {
+			// next counter value, end of block
+			return new long[2];
+		}
+	};
+
+	/**
+	 * Creates a new {@link CounterTokenGenerator}.
+	 *
+	 * @param networkConfig used to obtain the configured token size
+	 * @throws IllegalArgumentException if the token size is not in range
+	 *             {@code 1} to {@code 8}.
+	 */
+	public CounterTokenGenerator(final NetworkConfig networkConfig) {
+		if (networkConfig == null) {
+			throw new NullPointerException("NetworkConfig must not be null");
+		}
+		this.tokenSize = networkConfig.getInt(Keys.TOKEN_SIZE_LIMIT, DEFAULT_TOKEN_LENGTH);
+		if (tokenSize < 1 || tokenSize > 8) {
+			throw new IllegalArgumentException("token size " + tokenSize + " must be in range [1-8]!");
+		}
+		this.bits = tokenSize * Byte.SIZE - 1;
+		this.mask = (1L << bits) - 1;
+		this.shift = (bits + 1) / 2;
+		this.blockSize = bits >= BLOCK_MIN_BITS ? BLOCK_SIZE : 1;
+		SecureRandom rng = new SecureRandom();
+		this.key0 = rng.nextLong();
+		this.key1 = rng.nextLong();
+		this.counter = new AtomicLong(rng.nextLong());
+		LOGGER.info("using counter based tokens of {} bytes in length", this.tokenSize);
+	}
+
+	@Override
+	public Token createToken(boolean longTermScope) {
+		long value = permute(nextCounter()) << 1;
+		if (longTermScope) {
+			// set bit 0 to 1
+			value |= 0x1;
+		}
+		byte[] token = new byte[tokenSize];
+		// little endian, bit 0 of byte 0 contains the scope
+		for (int index = 0; index < tokenSize; ++index) {
+			token[index] = (byte) value;
+			value >>>= Byte.SIZE;
+		}
+		return Token.fromProvider(token);
+	}
+
+	/**
+	 * Get next counter value from the block of the current thread.
+	 *
+	 * @return next counter value
+	 */
+	private long nextCounter() {
+		if (blockSize == 1) {
+			return counter.getAndIncrement();
+		}
+		long[] block = blocks.get();
+		if (block[0] == block[1]) {
+			long start = counter.getAndAdd(blockSize);
+			block[0] = start;
+			block[1] = start + blockSize;
+		}
+		return block[0]++;
+	}
+
+	/**
+	 * Keyed permutation of the counter bits.
+	 *
+	 * Combines xor and addition of the keys, multiplication with odd
+	 * constants and xor-shifts, which are all bijections on the masked bits.
+	 *
+	 * @param value counter value. Only the lower {@link #bits} are used.
+	 * @return permuted value
+	 */
+	private long permute(long value) {
+		value = (value ^ key0) & mask;
+		value = (value * 0x9E3779B97F4A7C15L) & mask;
+		value ^= value >>> shift;
+		value = (value + key1) & mask;
+		value = (value * 0xBF58476D1CE4E5B9L) & mask;
+		value ^= value >>> shift;
+		value = (value * 0x94D049BB133111EBL) & mask;
+		value ^= value >>> shift;
+		return value;
+	}
+}
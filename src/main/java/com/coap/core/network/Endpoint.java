@@ -16,6 +16,7 @@ import com.coap.core.network.config.NetworkConfig;
 import com.coap.core.network.interceptors.MessageInterceptor;
 import com.coap.core.observe.NotificationListener;
 import com.coap.core.server.MessageDeliverer;
+import com.coap.elements.BackpressureListener;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -187,6 +188,32 @@ public interface Endpoint {
      */
     NetworkConfig getConfig();
 
+    /**
+     * Checks, if the endpoint's connector is saturated and rejects outgoing
+     * messages.
+     *
+     * Producers of messages, e.g. notifications, should postpone or coalesce
+     * messages, while the endpoint is backpressured.
+     *
+     * @return {@code true}, if the connector is saturated, {@code false},
+     *         otherwise or if the connector doesn't report its saturation.
+     */
+    boolean isBackpressured();
+
+    /**
+     * Adds a listener for the saturation of the endpoint's connector.
+     *
+     * @param listener the listener
+     */
+    void addBackpressureListener(BackpressureListener listener);
+
+    /**
+     * Removes a listener for the saturation of the endpoint's connector.
+     *
+     * @param listener the listener
+     */
+    void removeBackpressureListener(BackpressureListener listener);
+
     /**
      * Cancel observation for this request.
      *
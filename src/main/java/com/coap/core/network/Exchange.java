@@ -17,8 +17,10 @@ import com.coap.elements.util.SerialExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.Arrays;
+import java.net.UnknownHostException;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.concurrent.Executor;
@@ -857,7 +859,10 @@ public class Exchange {
                 Response previous = iterator.next();
                 LOGGER.debug("{} removing NON notification: {}", this, previous);
                 // notifications are local MID namespace
-                if (previous.hasMID()) {
+                if (previous == currentResponse) {
+                    // NON notification converted into a CON, e.g. by the
+                    // congestion control
+                } else if (previous.hasMID()) {
                     if (handler != null) {
                         KeyMID key = KeyMID.fromOutboundMessage(previous);
                         handler.remove(this, null, key);
@@ -975,14 +980,21 @@ public class Exchange {
      * A CoAP message ID scoped to a remote endpoint.
      * <p>
      * This class is used by the matcher to correlate messages by MID and
-     * endpoint address.
+     * endpoint address. For IPv4 endpoints the MID, the port and the address
+     * are additionally packed into a {@code long}, see
+     * {@link #getPackedKey()}, which is used by stores with primitive keys.
      */
     public static final class KeyMID {
 
         private static final int MAX_PORT_NO = (1 << 16) - 1;
         private final int MID;
-        private final byte[] address;
+        private final InetAddress address;
         private final int port;
+        /**
+         * IPv4 address, port and MID. Only valid, if {@link #address} is a
+         * {@link Inet4Address}.
+         */
+        private final long packed;
         private final int hash;
 
         /**
@@ -995,7 +1007,7 @@ public class Exchange {
          * @throws IllegalArgumentException if mid or port &lt; 0 or &gt; 65535.
          *
          */
-        private KeyMID(final int mid, final byte[] address, final int port) {
+        private KeyMID(final int mid, final InetAddress address, final int port) {
             if (mid < 0 || mid > Message.MAX_MID) {
                 throw new IllegalArgumentException("MID must be a 16 bit unsigned int: " + mid);
             } else if (address == null) {
@@ -1006,10 +1018,78 @@ public class Exchange {
                 this.MID = mid;
                 this.address = address;
                 this.port = port;
+                if (address instanceof Inet4Address) {
+                    this.packed = pack(mid, address, port);
+                } else {
+                    this.packed = 0;
+                }
                 this.hash = createHashCode();
             }
         }
 
+        /**
+         * Check, if the key is available as packed primitive.
+         *
+         * @return {@code true}, if the remote endpoint has an IPv4 address and
+         *         {@link #getPackedKey()} could be used, {@code false},
+         *         otherwise.
+         */
+        public boolean hasPackedKey() {
+            return address instanceof Inet4Address;
+        }
+
+        /**
+         * Get the key packed into a primitive.
+         *
+         * The IPv4 address is contained in the upper 32 bits, followed by
+         * 16 bits port and 16 bits MID. Two keys with packed keys are equal,
+         * if their packed keys are equal.
+         *
+         * @return packed key
+         * @throws IllegalStateException if the remote endpoint has no IPv4
+         *             address
+         * @see #hasPackedKey()
+         */
+        public long getPackedKey() {
+            if (!hasPackedKey()) {
+                throw new IllegalStateException("Only IPv4 keys could be packed!");
+            }
+            return packed;
+        }
+
+        /**
+         * Gets the hash code of the remote endpoint.
+         *
+         * @return hash code of address and port
+         * @see #peerHashCode(InetSocketAddress)
+         */
+        int getPeerHashCode() {
+            return 31 * address.hashCode() + port;
+        }
+
+        /**
+         * Gets the hash code of a remote endpoint with a packed key. Equal to
+         * {@link #getPeerHashCode()} of the key.
+         *
+         * @param packed packed key, see {@link #getPackedKey()}.
+         * @return hash code of address and port
+         */
+        static int peerHashCode(long packed) {
+            // the hash code of an Inet4Address is its address
+            return 31 * (int) (packed >>> 32) + (int) ((packed >>> 16) & 0xFFFF);
+        }
+
+        /**
+         * Gets the hash code of a remote endpoint. Equal to
+         * {@link #getPeerHashCode()} of the keys for that endpoint.
+         *
+         * @param peer address of the remote endpoint
+         * @return hash code of address and port
+         */
+        static int peerHashCode(InetSocketAddress peer) {
+            return 31 * peer.getAddress().hashCode() + peer.getPort();
+        }
+
         @Override
         public int hashCode() {
             return hash;
@@ -1019,7 +1099,7 @@ public class Exchange {
             final int prime = 31;
             int result = 1;
             result = prime * result + MID;
-            result = prime * result + Arrays.hashCode(address);
+            result = prime * result + address.hashCode();
             result = prime * result + port;
             return result;
         }
@@ -1035,17 +1115,17 @@ public class Exchange {
             KeyMID other = (KeyMID) obj;
             if (MID != other.MID)
                 return false;
-            if (!Arrays.equals(address, other.address))
-                return false;
             if (port != other.port)
                 return false;
+            if (!address.equals(other.address))
+                return false;
             return true;
         }
 
         @Override
         public String toString() {
-            return new StringBuilder("KeyMID[").append(MID).append(", ").append(Utils.toHexString(address)).append(":")
-                    .append(port).append("]").toString();
+            return new StringBuilder("KeyMID[").append(MID).append(", ").append(Utils.toHexString(address.getAddress()))
+                    .append(":").append(port).append("]").toString();
         }
 
         /**
@@ -1057,7 +1137,19 @@ public class Exchange {
          */
         public static KeyMID fromInboundMessage(Message message) {
             InetSocketAddress address = message.getSourceContext().getPeerAddress();
-            return new KeyMID(message.getMID(), address.getAddress().getAddress(), address.getPort());
+            return new KeyMID(message.getMID(), address.getAddress(), address.getPort());
+        }
+
+        /**
+         * Creates a key from the message ID and the source of an inbound
+         * CoAP message, which is not parsed yet.
+         *
+         * @param mid the message ID.
+         * @param source the source address of the message.
+         * @return the key derived from the message ID and source.
+         */
+        public static KeyMID fromInboundMessage(int mid, InetSocketAddress source) {
+            return new KeyMID(mid, source.getAddress(), source.getPort());
         }
 
         /**
@@ -1069,7 +1161,64 @@ public class Exchange {
          */
         public static KeyMID fromOutboundMessage(Message message) {
             InetSocketAddress address = message.getDestinationContext().getPeerAddress();
-            return new KeyMID(message.getMID(), address.getAddress().getAddress(), address.getPort());
+            return new KeyMID(message.getMID(), address.getAddress(), address.getPort());
+        }
+
+        /**
+         * Check, if the key of a message from or to a remote endpoint could be
+         * packed into a primitive.
+         *
+         * @param peer address of the remote endpoint
+         * @return {@code true}, if the remote endpoint has an IPv4 address,
+         *         {@code false}, otherwise.
+         * @see #packKey(int, InetSocketAddress)
+         */
+        public static boolean isPackable(InetSocketAddress peer) {
+            return peer.getAddress() instanceof Inet4Address;
+        }
+
+        /**
+         * Packs the key of a message from or to a remote endpoint into a
+         * primitive, without creating the key. Equal to
+         * {@link #getPackedKey()} of the key for that message ID and remote
+         * endpoint.
+         *
+         * @param mid the message ID.
+         * @param peer address of the remote endpoint
+         * @return packed key
+         * @throws IllegalArgumentException if the remote endpoint has no IPv4
+         *             address
+         * @see #isPackable(InetSocketAddress)
+         */
+        public static long packKey(int mid, InetSocketAddress peer) {
+            if (!isPackable(peer)) {
+                throw new IllegalArgumentException("Only IPv4 keys could be packed!");
+            }
+            return pack(mid, peer.getAddress(), peer.getPort());
+        }
+
+        private static long pack(int mid, InetAddress address, int port) {
+            // the hash code of an Inet4Address is its address, which saves
+            // the copy of getAddress()
+            return ((address.hashCode() & 0xFFFFFFFFL) << 32) | ((long) port << 16) | mid;
+        }
+
+        /**
+         * Creates a key from a packed key.
+         *
+         * @param packed packed key, see {@link #getPackedKey()}.
+         * @return the key
+         */
+        public static KeyMID fromPackedKey(long packed) {
+            byte[] ipv4 = new byte[] { (byte) (packed >>> 56), (byte) (packed >>> 48), (byte) (packed >>> 40),
+                    (byte) (packed >>> 32) };
+            try {
+                return new KeyMID((int) (packed & 0xFFFF), InetAddress.getByAddress(ipv4),
+                        (int) ((packed >>> 16) & 0xFFFF));
+            } catch (UnknownHostException e) {
+                // not thrown for 4 bytes
+                throw new IllegalArgumentException(e.getMessage());
+            }
         }
     }
 
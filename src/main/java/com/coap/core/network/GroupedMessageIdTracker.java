@@ -5,6 +5,8 @@ import com.coap.core.network.config.NetworkConfig;
 import com.coap.elements.util.ClockUtil;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * A helper for keeping track of message IDs.
@@ -21,6 +23,9 @@ import java.util.concurrent.TimeUnit;
  * last used MID of the group. This reduces the amount of memory but may take a
  * little longer to use the first MIDs of a group because they freed with the
  * lease of the last MID of the group.
+ * <p>
+ * The tracker is lock-free. The current MID is taken with a CAS and the
+ * leases of the groups are only extended with a CAS.
  */
 public class GroupedMessageIdTracker implements MessageIdTracker {
 
@@ -52,11 +57,11 @@ public class GroupedMessageIdTracker implements MessageIdTracker {
 	 * 
 	 * @see ClockUtil#nanoRealtime()
 	 */
-	private final long midLease[];
+	private final AtomicLongArray midLease;
 	/**
 	 * Current MID.
 	 */
-	private int currentMID;
+	private final AtomicInteger currentMID;
 
 	/**
 	 * Creates a new MID group based tracker.
@@ -87,12 +92,12 @@ public class GroupedMessageIdTracker implements MessageIdTracker {
 					"initial MID " + initialMid + " must be in range [" + minMid + "-" + maxMid + ")!");
 		}
 		exchangeLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(NetworkConfig.Keys.EXCHANGE_LIFETIME));
-		currentMID = initialMid - minMid;
+		currentMID = new AtomicInteger(initialMid - minMid);
 		this.min = minMid;
 		this.range = maxMid - minMid;
 		this.numberOfGroups = config.getInt(NetworkConfig.Keys.MID_TRACKER_GROUPS);
 		this.sizeOfGroups = (range + numberOfGroups - 1) / numberOfGroups;
-		midLease = new long[numberOfGroups];
+		midLease = new AtomicLongArray(numberOfGroups);
 	}
 
 	/**
@@ -103,18 +108,36 @@ public class GroupedMessageIdTracker implements MessageIdTracker {
 	 */
 	public int getNextMessageId() {
 		final long now = ClockUtil.nanoRealtime();
-		synchronized (this) {
+		while (true) {
+			int current = currentMID.get();
 			// mask mid to the min-max range
-			int mid = (currentMID & 0xffff) % range;
+			int mid = (current & 0xffff) % range;
 			int index = mid / sizeOfGroups;
 			int nextIndex = (index + 1) % numberOfGroups;
-			if (midLease[nextIndex] - now < 0) {
-				midLease[index] = now + exchangeLifetimeNanos;
-				currentMID = mid + 1;
+			if (midLease.get(nextIndex) - now >= 0) {
+				return Message.NONE;
+			}
+			// extend the lease before taking the MID. If the MID is taken by
+			// an other thread, the group is just blocked a little longer.
+			extendLease(index, now + exchangeLifetimeNanos);
+			if (currentMID.compareAndSet(current, mid + 1)) {
 				return mid + min;
 			}
 		}
-		return Message.NONE;
+	}
+
+	/**
+	 * Extend lease of group.
+	 * 
+	 * @param index index of group
+	 * @param lease end of lease in nanoseconds. Ignored, if the group is
+	 *            already leased longer.
+	 */
+	private void extendLease(int index, long lease) {
+		long current = midLease.get(index);
+		while (current - lease < 0 && !midLease.compareAndSet(index, current, lease)) {
+			current = midLease.get(index);
+		}
 	}
 
 	/**
@@ -6,6 +6,7 @@ import com.coap.core.network.config.NetworkConfigDefaults;
 import com.coap.core.network.deduplication.Deduplicator;
 import com.coap.core.network.Exchange.KeyMID;
 import com.coap.core.network.deduplication.DeduplicatorFactory;
+import com.coap.elements.util.ConcurrentLongMap;
 import com.coap.elements.util.ExecutorsUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,15 +20,27 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * A {@code MessageExchangeStore} that manages all exchanges in local memory.
+ * <p>
+ * Exchanges with IPv4 peers are stored by MID in a {@link ConcurrentLongMap}
+ * using the packed key of the {@link KeyMID}. Lookups in that map don't
+ * create objects and an exchange requires only two array slots instead of a
+ * map node and a key object. Exchanges with other peers are stored in a
+ * {@link ConcurrentHashMap}.
  */
 public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryMessageExchangeStore.class.getName());
 	private static final Logger HEALTH_LOGGER = LoggerFactory.getLogger(LOGGER.getName() + ".health");
-	// for all
+	// for all with IPv4 peers
+	private final ConcurrentLongMap<Exchange> exchangesByPackedMID;
+	// for all with other peers
 	private final ConcurrentMap<Exchange.KeyMID, Exchange> exchangesByMID = new ConcurrentHashMap<>();
 	// for outgoing
-	private final ConcurrentMap<Token, Exchange> exchangesByToken = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Token, Exchange> exchangesByToken;
+	// for outgoing, by token of the original request
+	private final TokenIndex exchangesByOriginToken;
+	// shard of a ShardedMessageExchangeStore
+	private final boolean shard;
 	private volatile boolean enableStatus;
 
 	private final NetworkConfig config;
@@ -65,6 +78,35 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		}
 		this.tokenGenerator = tokenProvider;
 		this.config = config;
+		this.exchangesByPackedMID = new ConcurrentLongMap<>();
+		this.exchangesByToken = new ConcurrentHashMap<>();
+		this.exchangesByOriginToken = new TokenIndex();
+		this.shard = false;
+	}
+
+	/**
+	 * Creates a new shard of a {@link ShardedMessageExchangeStore}.
+	 * 
+	 * The shards share the exchanges by token, because responses are matched
+	 * by token only. The status is logged by the sharded store.
+	 * 
+	 * @param config the configuration to use.
+	 * @param tokenProvider the TokenProvider which provides CoAP tokens that
+	 *            are guaranteed to be not in use.
+	 * @param concurrency number of segments of the exchanges by MID.
+	 * @param exchangesByToken shared exchanges by token
+	 * @param exchangesByOriginToken shared index of exchanges by token of
+	 *            the original request
+	 */
+	InMemoryMessageExchangeStore(final NetworkConfig config, final TokenGenerator tokenProvider,
+			final int concurrency, final ConcurrentMap<Token, Exchange> exchangesByToken,
+			final TokenIndex exchangesByOriginToken) {
+		this.tokenGenerator = tokenProvider;
+		this.config = config;
+		this.exchangesByPackedMID = new ConcurrentLongMap<>(concurrency, ConcurrentLongMap.DEFAULT_SEGMENT_CAPACITY);
+		this.exchangesByToken = exchangesByToken;
+		this.exchangesByOriginToken = exchangesByOriginToken;
+		this.shard = true;
 	}
 
 	private void startStatusLogging() {
@@ -87,8 +129,9 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 
 	private String dumpCurrentLoadLevels() {
 		StringBuilder b = new StringBuilder("MessageExchangeStore contents: ");
-		b.append(exchangesByMID.size()).append(" exchanges by MID, ");
+		b.append(exchangesByPackedMID.size() + exchangesByMID.size()).append(" exchanges by MID, ");
 		b.append(exchangesByToken.size()).append(" exchanges by token, ");
+		b.append(exchangesByOriginToken.size()).append(" original tokens, ");
 		b.append(deduplicator.size()).append(" MIDs, ");
 		return b.toString();
 	}
@@ -127,9 +170,29 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		}
 	}
 
+	/**
+	 * Gets the number of exchanges by MID.
+	 * 
+	 * @return number of exchanges by MID.
+	 */
+	int getExchangesByMidCount() {
+		return exchangesByPackedMID.size() + exchangesByMID.size();
+	}
+
+	/**
+	 * Gets the number of MIDs of the deduplicator.
+	 * 
+	 * @return number of MIDs
+	 */
+	int getDeduplicatorCount() {
+		Deduplicator deduplicator = this.deduplicator;
+		return deduplicator == null ? 0 : deduplicator.size();
+	}
+
 	@Override
 	public boolean isEmpty() {
-		return exchangesByMID.isEmpty() && exchangesByToken.isEmpty() && deduplicator.isEmpty();
+		return exchangesByPackedMID.isEmpty() && exchangesByMID.isEmpty() && exchangesByToken.isEmpty()
+				&& deduplicator.isEmpty();
 	}
 
 	@Override
@@ -160,7 +223,7 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 			mid = assignMessageId(message);
 			if (Message.NONE != mid) {
 				KeyMID key = KeyMID.fromOutboundMessage(message);
-				if (exchangesByMID.putIfAbsent(key, exchange) != null) {
+				if (putIfAbsent(key, exchange) != null) {
 					throw new IllegalArgumentException(String.format(
 							"generated mid [%d] already in use, cannot register %s", message.getMID(), exchange));
 				}
@@ -168,7 +231,7 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 			}
 		} else {
 			KeyMID key = KeyMID.fromOutboundMessage(message);
-			Exchange existingExchange = exchangesByMID.putIfAbsent(key, exchange);
+			Exchange existingExchange = putIfAbsent(key, exchange);
 			if (existingExchange != null) {
 				if (existingExchange != exchange) {
 					throw new IllegalArgumentException(
@@ -185,6 +248,14 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		return mid;
 	}
 
+	private Exchange putIfAbsent(final KeyMID messageId, final Exchange exchange) {
+		if (messageId.hasPackedKey()) {
+			return exchangesByPackedMID.putIfAbsent(messageId.getPackedKey(), exchange);
+		} else {
+			return exchangesByMID.putIfAbsent(messageId, exchange);
+		}
+	}
+
 	private void registerWithToken(final Exchange exchange) {
 		enableStatus = true;
 		Request request = exchange.getCurrentRequest();
@@ -195,6 +266,7 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 				token = tokenGenerator.createToken(false);
 				request.setToken(token);
 			} while (exchangesByToken.putIfAbsent(token, exchange) != null);
+			index(exchange);
 			LOGGER.debug("{} added with generated token {}, {}", exchange, token, request);
 		} else {
 			// ongoing requests may reuse token
@@ -203,6 +275,10 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 				return;
 			}
 			Exchange previous = exchangesByToken.put(token, exchange);
+			index(exchange);
+			if (previous != null && previous != exchange) {
+				unindex(previous);
+			}
 			if (previous == null) {
 				BlockOption block2 = request.getOptions().getBlock2();
 				if (block2 != null) {
@@ -224,6 +300,51 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		}
 	}
 
+	/**
+	 * Add exchange of local origin to the index by the token of its original
+	 * request.
+	 * 
+	 * @param exchange registered exchange
+	 */
+	private void index(final Exchange exchange) {
+		if (exchange.isOfLocalOrigin()) {
+			Token token = exchange.getRequest().getToken();
+			if (token != null) {
+				exchangesByOriginToken.add(token, exchange);
+			}
+		}
+	}
+
+	/**
+	 * Remove exchange from the index by the token of its original request,
+	 * if it's not longer registered by token.
+	 * 
+	 * @param exchange exchange removed from {@link #exchangesByToken}.
+	 */
+	private void unindex(final Exchange exchange) {
+		Token token = exchange.getRequest().getToken();
+		if (token != null && !isRegisteredByToken(exchange)) {
+			exchangesByOriginToken.remove(token, exchange);
+		}
+	}
+
+	/**
+	 * Check, if exchange is registered by token. An exchange is registered
+	 * with the token of its current request and, if kept in the store, with
+	 * the token of its original request.
+	 * 
+	 * @param exchange exchange
+	 * @return {@code true}, if registered, {@code false}, otherwise.
+	 */
+	private boolean isRegisteredByToken(final Exchange exchange) {
+		Token token = exchange.getRequest().getToken();
+		if (token != null && exchangesByToken.get(token) == exchange) {
+			return true;
+		}
+		token = exchange.getCurrentRequest().getToken();
+		return token != null && exchangesByToken.get(token) == exchange;
+	}
+
 	@Override
 	public boolean registerOutboundRequest(final Exchange exchange) {
 
@@ -266,6 +387,7 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 	public void remove(final Token token, final Exchange exchange) {
 		boolean removed = exchangesByToken.remove(token, exchange);
 		if (removed) {
+			unindex(exchange);
 			LOGGER.debug("removing {} for token {}", exchange, token);
 		}
 	}
@@ -273,7 +395,16 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 	@Override
 	public Exchange remove(final KeyMID messageId, final Exchange exchange) {
 		Exchange removedExchange;
-		if (null == exchange) {
+		if (messageId.hasPackedKey()) {
+			long key = messageId.getPackedKey();
+			if (null == exchange) {
+				removedExchange = exchangesByPackedMID.remove(key);
+			} else if (exchangesByPackedMID.remove(key, exchange)) {
+				removedExchange = exchange;
+			} else {
+				removedExchange = null;
+			}
+		} else if (null == exchange) {
 			removedExchange = exchangesByMID.remove(messageId);
 		} else if (exchangesByMID.remove(messageId, exchange)) {
 			removedExchange = exchange;
@@ -299,6 +430,8 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 	public Exchange get(final KeyMID messageId) {
 		if (messageId == null) {
 			return null;
+		} else if (messageId.hasPackedKey()) {
+			return exchangesByPackedMID.get(messageId.getPackedKey());
 		} else {
 			return exchangesByMID.get(messageId);
 		}
@@ -326,7 +459,9 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 	@Override
 	public synchronized void start() {
 		if (!running) {
-			startStatusLogging();
+			if (!shard) {
+				startStatusLogging();
+			}
 			if (deduplicator == null) {
 				DeduplicatorFactory factory = DeduplicatorFactory.getDeduplicatorFactory();
 				this.deduplicator = factory.createDeduplicator(config);
@@ -347,6 +482,9 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 	public synchronized void stop() {
 		if (running) {
 			running = false;
+			for (Exchange exchange : exchangesByPackedMID.values()) {
+				exchange.getRequest().setCanceled(true);
+			}
 			for (Exchange exchange : exchangesByMID.values()) {
 				exchange.getRequest().setCanceled(true);
 			}
@@ -355,8 +493,10 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 				statusLogger = null;
 			}
 			deduplicator.stop();
+			exchangesByPackedMID.clear();
 			exchangesByMID.clear();
 			exchangesByToken.clear();
+			exchangesByOriginToken.clear();
 		}
 	}
 
@@ -369,6 +509,14 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		if (HEALTH_LOGGER.isDebugEnabled()) {
 			HEALTH_LOGGER.debug(dumpCurrentLoadLevels());
 			if (0 < logMaxExchanges) {
+				if (!exchangesByPackedMID.isEmpty()) {
+					List<Map.Entry<KeyMID, Exchange>> entries = new ArrayList<>();
+					for (Map.Entry<Long, Exchange> entry : exchangesByPackedMID.entries(logMaxExchanges)) {
+						entries.add(new AbstractMap.SimpleImmutableEntry<>(KeyMID.fromPackedKey(entry.getKey()),
+								entry.getValue()));
+					}
+					dumpExchanges(logMaxExchanges, entries);
+				}
 				if (!exchangesByMID.isEmpty()) {
 					dumpExchanges(logMaxExchanges, exchangesByMID.entrySet());
 				}
@@ -385,7 +533,7 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 	 * @param logMaxExchanges maximum number of exchanges to include in dump.
 	 * @param exchangeEntries collection with exchanges entries
 	 */
-	private <K> void dumpExchanges(int logMaxExchanges, Set<Map.Entry<K, Exchange>> exchangeEntries) {
+	private <K> void dumpExchanges(int logMaxExchanges, Collection<Map.Entry<K, Exchange>> exchangeEntries) {
 		for (Map.Entry<K, Exchange> exchangeEntry : exchangeEntries) {
 			Exchange exchange = exchangeEntry.getValue();
 			Request origin = exchange.getRequest();
@@ -421,17 +569,24 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		return deduplicator.find(messageId);
 	}
 
+	@Override
+	public Exchange find(final long packedMessageId) {
+		return deduplicator.find(packedMessageId);
+	}
+
+	@Override
+	public boolean removePrevious(final KeyMID messageId, final Exchange exchange) {
+		return deduplicator.remove(messageId, exchange);
+	}
+
 	@Override
 	public List<Exchange> findByToken(Token token) {
 		List<Exchange> result = new ArrayList<>();
 		if (token != null) {
-			// TODO: remove the for ...
-			for (Map.Entry<Token, Exchange> entry : exchangesByToken.entrySet()) {
-				if (entry.getValue().isOfLocalOrigin()) {
-					Request request = entry.getValue().getRequest();
-					if (request != null && token.equals(request.getToken())) {
-						result.add(entry.getValue());
-					}
+			for (Exchange exchange : exchangesByOriginToken.get(token)) {
+				// skip exchanges, which are concurrently removed
+				if (isRegisteredByToken(exchange)) {
+					result.add(exchange);
 				}
 			}
 		}
@@ -3,12 +3,18 @@ package com.coap.core.network;
 import com.coap.core.coap.Message;
 import com.coap.core.network.config.NetworkConfig;
 import com.coap.elements.util.ClockUtil;
-import com.coap.elements.util.LeastRecentlyUsedCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -16,6 +22,12 @@ import java.util.Random;
  * <p>
  * This provider maintains an instance of {@link MessageIdTracker} for each
  * endpoint identified by IP address and port.
+ * <p>
+ * The trackers are kept in a {@link ConcurrentHashMap}, so looking up the
+ * tracker of a peer doesn't block. A tracker expires, if no message ID was
+ * taken from it for the EXCHANGE_LIFETIME, because then all its message IDs
+ * are free to use again. Expired trackers are removed, when the maximum
+ * number of peers is reached.
  */
 public class InMemoryMessageIdProvider implements MessageIdProvider {
 
@@ -25,7 +37,24 @@ public class InMemoryMessageIdProvider implements MessageIdProvider {
 		NULL, GROUPED, MAPBASED
 	}
 
-	private final LeastRecentlyUsedCache<InetSocketAddress, MessageIdTracker> trackers;
+	/**
+	 * Marks an expired {@link PeerTracker}.
+	 */
+	private static final long EXPIRED = Long.MIN_VALUE;
+
+	private final ConcurrentMap<InetSocketAddress, PeerTracker> trackers = new ConcurrentHashMap<>();
+	private final AtomicInteger trackerCount = new AtomicInteger();
+	private final AtomicLong lastExpiry = new AtomicLong();
+	private final int maxPeers;
+	/**
+	 * Exchange lifetime. Value in nanoseconds.
+	 */
+	private final long exchangeLifetimeNanos;
+	/**
+	 * Minimum time between updates of {@link PeerTracker#lastUse}. Value in
+	 * nanoseconds.
+	 */
+	private final long touchIntervalNanos;
 	private final MessageIdTracker multicastTracker;
 	private final TrackerMode mode;
 	private final Random random;
@@ -61,6 +90,25 @@ public class InMemoryMessageIdProvider implements MessageIdProvider {
 	 *             mode.
 	 */
 	public InMemoryMessageIdProvider(final NetworkConfig config) {
+		this(config, config == null ? 0 : config.getInt(NetworkConfig.Keys.MAX_ACTIVE_PEERS, 150000));
+	}
+
+	/**
+	 * Creates an new provider for configuration values with a custom maximum
+	 * number of peers.
+	 * 
+	 * Used by {@link ShardedMessageExchangeStore} to split
+	 * {@link com.coap.core.network.config.NetworkConfig.Keys#MAX_ACTIVE_PEERS}
+	 * across its shards. All other configuration values are used as
+	 * described in {@link #InMemoryMessageIdProvider(NetworkConfig)}.
+	 * 
+	 * @param config the configuration to use.
+	 * @param maxPeers maximum number of peers to track message IDs for.
+	 * @throws NullPointerException if the config is {@code null}.
+	 * @throws IllegalArgumentException if the config contains no value tracker
+	 *             mode.
+	 */
+	public InMemoryMessageIdProvider(final NetworkConfig config, final int maxPeers) {
 		if (config == null) {
 			throw new NullPointerException("Config must not be null");
 		}
@@ -81,10 +129,11 @@ public class InMemoryMessageIdProvider implements MessageIdProvider {
 		} else {
 			random = null;
 		}
-		// 10 minutes
-		trackers = new LeastRecentlyUsedCache<>(config.getInt(NetworkConfig.Keys.MAX_ACTIVE_PEERS, 150000),
-				config.getLong(NetworkConfig.Keys.MAX_PEER_INACTIVITY_PERIOD, 10 * 60));
-		trackers.setEvictingOnReadAccess(false);
+		this.maxPeers = maxPeers;
+		this.exchangeLifetimeNanos = TimeUnit.MILLISECONDS
+				.toNanos(config.getLong(NetworkConfig.Keys.EXCHANGE_LIFETIME));
+		this.touchIntervalNanos = Math.max(1, exchangeLifetimeNanos / 8);
+		this.lastExpiry.set(ClockUtil.nanoRealtime());
 		int multicastBaseMid = config.getInt(NetworkConfig.Keys.MULTICAST_BASE_MID);
 		if (0 < multicastBaseMid) {
 			this.multicastBaseMid = multicastBaseMid;
@@ -110,53 +159,170 @@ public class InMemoryMessageIdProvider implements MessageIdProvider {
 
 	@Override
 	public int getNextMessageId(final InetSocketAddress destination) {
-		MessageIdTracker tracker = getTracker(destination);
-		if (tracker == null) {
-			// we have reached the maximum number of active peers
-			// TODO: throw an exception?
-			return Message.NONE;
-		} else {
-			return tracker.getNextMessageId();
-		}
-	}
-
-	private synchronized MessageIdTracker getTracker(final InetSocketAddress destination) {
-		// destination mc
-		// => use special range 65001-65535
-		// destination sp
-		// => use special range 0 - 65000
-
 		if (destination.getAddress().isMulticastAddress()) {
 			if (multicastTracker == null) {
 				LOG.warn(
 						"Destination address {} is a multicast address, please configure NetworkConfig to support multicast messaging",
 						destination);
+				return Message.NONE;
+			}
+			return multicastTracker.getNextMessageId();
+		}
+		while (true) {
+			PeerTracker tracker = getTracker(destination);
+			if (tracker == null) {
+				// we have reached the maximum number of active peers
+				// TODO: throw an exception?
+				return Message.NONE;
+			}
+			int mid = tracker.tracker.getNextMessageId();
+			if (tracker.touch(ClockUtil.nanoRealtime(), touchIntervalNanos)) {
+				return mid;
 			}
-			return multicastTracker;
+			// the tracker has expired concurrently. The MID is not used
+			// and taken from the new tracker of the destination instead.
+			remove(destination, tracker);
 		}
+	}
 
-		MessageIdTracker tracker = trackers.get(destination);
+	/**
+	 * Gets the number of peers with trackers.
+	 * 
+	 * @return number of peers
+	 */
+	public int getPeerCount() {
+		return trackerCount.get();
+	}
+
+	private PeerTracker getTracker(final InetSocketAddress destination) {
+		// destination sp
+		// => use special range 0 - 65000
+		PeerTracker tracker = trackers.get(destination);
 		if (tracker == null) {
+			long now = ClockUtil.nanoRealtime();
+			if (trackerCount.get() >= maxPeers && !expire(now)) {
+				return null;
+			}
 			// create new tracker for destination lazily
 			int mid = null == random ? 0 : random.nextInt(multicastBaseMid);
+			MessageIdTracker midTracker;
 			switch (mode) {
 			case NULL:
-				tracker = new NullMessageIdTracker(mid, 0, multicastBaseMid);
+				midTracker = new NullMessageIdTracker(mid, 0, multicastBaseMid);
 				break;
 			case MAPBASED:
-				tracker = new MapBasedMessageIdTracker(mid, 0, multicastBaseMid, config);
+				midTracker = new MapBasedMessageIdTracker(mid, 0, multicastBaseMid, config);
 				break;
 			case GROUPED:
 			default:
-				tracker = new GroupedMessageIdTracker(mid, 0, multicastBaseMid, config);
+				midTracker = new GroupedMessageIdTracker(mid, 0, multicastBaseMid, config);
 				break;
 			}
-			if (trackers.put(destination, tracker)) {
-				return tracker;
+			tracker = new PeerTracker(midTracker, now);
+			PeerTracker previous = trackers.putIfAbsent(destination, tracker);
+			if (previous != null) {
+				tracker = previous;
 			} else {
-				return null;
+				trackerCount.incrementAndGet();
 			}
 		}
 		return tracker;
 	}
+
+	/**
+	 * Removes expired trackers.
+	 * 
+	 * Executed at most once within the touch interval. A tracker is expired,
+	 * if the last MID was taken longer than the EXCHANGE_LIFETIME ago.
+	 * 
+	 * @param now current time in nanoseconds
+	 * @return {@code true}, if trackers are removed and the number of trackers
+	 *         is below the maximum number of peers, {@code false}, otherwise.
+	 */
+	private boolean expire(final long now) {
+		long last = lastExpiry.get();
+		if (now - last < touchIntervalNanos || !lastExpiry.compareAndSet(last, now)) {
+			return false;
+		}
+		long threshold = now - exchangeLifetimeNanos - touchIntervalNanos;
+		int expired = 0;
+		Iterator<Map.Entry<InetSocketAddress, PeerTracker>> iterator = trackers.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<InetSocketAddress, PeerTracker> entry = iterator.next();
+			if (entry.getValue().expire(threshold) && remove(entry.getKey(), entry.getValue())) {
+				++expired;
+			}
+		}
+		LOG.debug("{} trackers expired, {} left", expired, trackerCount.get());
+		return trackerCount.get() < maxPeers;
+	}
+
+	private boolean remove(final InetSocketAddress destination, final PeerTracker tracker) {
+		if (trackers.remove(destination, tracker)) {
+			trackerCount.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tracker of a peer with the time the last MID was taken.
+	 */
+	private static final class PeerTracker {
+
+		private final MessageIdTracker tracker;
+		/**
+		 * Nano-timestamp of last use, or {@link #EXPIRED}.
+		 */
+		private final AtomicLong lastUse;
+
+		private PeerTracker(final MessageIdTracker tracker, final long now) {
+			this.tracker = tracker;
+			this.lastUse = new AtomicLong(now);
+		}
+
+		/**
+		 * Update time of last use. Must be called after a MID is taken.
+		 * 
+		 * To save CASes, the time is only updated, if it's older than the
+		 * touch interval. Therefore trackers expire only after the
+		 * EXCHANGE_LIFETIME plus the touch interval.
+		 * 
+		 * @param now current time in nanoseconds
+		 * @param touchInterval touch interval in nanoseconds
+		 * @return {@code true}, if the tracker is still valid, {@code false},
+		 *         if the tracker is expired and the MID must not be used.
+		 */
+		private boolean touch(final long now, final long touchInterval) {
+			long last = lastUse.get();
+			while (last != EXPIRED) {
+				if (now - last < touchInterval || lastUse.compareAndSet(last, now)) {
+					return true;
+				}
+				last = lastUse.get();
+			}
+			return false;
+		}
+
+		/**
+		 * Mark tracker as expired, if last used before the threshold.
+		 * 
+		 * @param threshold threshold in nanoseconds
+		 * @return {@code true}, if the tracker is expired, {@code false},
+		 *         otherwise.
+		 */
+		private boolean expire(final long threshold) {
+			long last = lastUse.get();
+			while (last != EXPIRED) {
+				if (last - threshold >= 0) {
+					return false;
+				}
+				if (lastUse.compareAndSet(last, EXPIRED)) {
+					return true;
+				}
+				last = lastUse.get();
+			}
+			return true;
+		}
+	}
 }
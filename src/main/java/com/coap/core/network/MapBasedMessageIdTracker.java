@@ -4,12 +4,13 @@ import com.coap.core.coap.Message;
 import com.coap.core.network.config.NetworkConfig;
 import com.coap.elements.util.ClockUtil;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * A helper for keeping track of message IDs using a map.
+ * A helper for keeping track of message IDs using an array with the lease of
+ * each MID.
  * <p>
  * According to the
  * <a href="https://tools.ietf.org/html/rfc7252#section-4.4">CoAP spec</a>
@@ -18,14 +19,23 @@ import java.util.concurrent.TimeUnit;
  * The same Message ID MUST NOT be reused (in communicating with the
    same endpoint) within the EXCHANGE_LIFETIME (Section 4.8.2).
  * </pre>
+ * 
+ * The tracker is lock-free. A MID is taken by replacing its expired lease
+ * with a CAS.
  */
 public class MapBasedMessageIdTracker implements MessageIdTracker {
 
-	private final Map<Integer, Long> messageIds;
-	private final long exchangeLifetimeNanos; // milliseconds
+	/**
+	 * End of lease for MIDs. MID minus {@link #min} is used as index. Values
+	 * in nanoseconds, {@code 0} for not used MIDs.
+	 * 
+	 * @see ClockUtil#nanoRealtime()
+	 */
+	private final AtomicLongArray messageIds;
+	private final long exchangeLifetimeNanos; // nanoseconds
 	private final int min;
 	private final int range;
-	private int counter;
+	private final AtomicInteger counter;
 
 	/**
 	 * Creates a new tracker based on configuration values.
@@ -53,10 +63,10 @@ public class MapBasedMessageIdTracker implements MessageIdTracker {
 					"initial MID " + initialMid + " must be in range [" + minMid + "-" + maxMid + ")!");
 		}
 		exchangeLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(NetworkConfig.Keys.EXCHANGE_LIFETIME));
-		counter = initialMid - minMid;
+		counter = new AtomicInteger(initialMid - minMid);
 		min = minMid;
 		range = maxMid - minMid;
-		messageIds = new HashMap<>(range);
+		messageIds = new AtomicLongArray(range);
 	}
 
 	/**
@@ -66,25 +76,22 @@ public class MapBasedMessageIdTracker implements MessageIdTracker {
 	 *         use currently.
 	 */
 	public int getNextMessageId() {
-		int result = Message.NONE;
-		boolean wrapped = false;
 		final long now = ClockUtil.nanoRealtime();
-		synchronized (messageIds) {
+		long lease = now + exchangeLifetimeNanos;
+		if (lease == 0) {
+			lease = 1;
+		}
+		for (int tries = 0; tries < range; ++tries) {
 			// mask mid to the range
-			counter = (counter & 0xffff) % range;
-			int startIdx = counter;
-			while (result < 0 && !wrapped) {
-				// mask mid to the range
-				int idx = counter++ % range;
-				Long earliestUsage = messageIds.get(idx);
-				if (earliestUsage == null || (earliestUsage - now) <= 0) {
-					// message Id can be safely re-used
-					result = idx + min;
-					messageIds.put(idx, now + exchangeLifetimeNanos);
+			int idx = (counter.getAndIncrement() & 0xffff) % range;
+			long earliestUsage = messageIds.get(idx);
+			if (earliestUsage == 0 || (earliestUsage - now) <= 0) {
+				// message Id can be safely re-used
+				if (messageIds.compareAndSet(idx, earliestUsage, lease)) {
+					return idx + min;
 				}
-				wrapped = (counter % range) == startIdx;
 			}
 		}
-		return result;
+		return Message.NONE;
 	}
 }
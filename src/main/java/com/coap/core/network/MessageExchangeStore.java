@@ -168,6 +168,31 @@ public interface MessageExchangeStore {
 	 */
 	Exchange find(KeyMID messageId);
 
+	/**
+	 * Checks if a message with a packed message ID has been processed
+	 * already. Used for duplicates detected before the message is parsed,
+	 * without creating a {@link KeyMID}.
+	 * 
+	 * @param packedMessageId the packed message ID, see
+	 *            {@link KeyMID#packKey(int, java.net.InetSocketAddress)}.
+	 * @return the exchange that the message has been a part of or {@code null}
+	 *         if no message with the given ID has been received for at least
+	 *         {@code EXCHANGE_LIFETIME}.
+	 */
+	Exchange find(long packedMessageId);
+
+	/**
+	 * Removes the association of a message ID with an exchange, which was
+	 * established by {@link #findPrevious(KeyMID, Exchange)}. Messages with
+	 * that ID are then not longer detected as duplicates.
+	 * 
+	 * @param messageId the message ID.
+	 * @param exchange the exchange.
+	 * @return {@code true}, if the message ID was associated with the
+	 *         exchange and is removed, {@code false}, otherwise.
+	 */
+	boolean removePrevious(KeyMID messageId, Exchange exchange);
+
 	/**
 	 * Checks if there are any exchanges currently being registered in this store.
 	 * 
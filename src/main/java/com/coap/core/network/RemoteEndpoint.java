@@ -1,11 +1,12 @@
 package com.coap.core.network;
 
 import com.coap.core.network.config.NetworkConfig;
+import com.coap.elements.util.ClockUtil;
 
 import java.net.InetAddress;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class RemoteEndpoint {
 	
@@ -13,8 +14,16 @@ public class RemoteEndpoint {
 	private InetAddress Address;
 	// The port number of the remote endpoint
 	private int Port;
-	// A concurrent Hash Map that contains timestamp information for the exchanges
-	private ConcurrentHashMap<Exchange, exchangeInfo> exchangeInfoMap;
+	// Ongoing exchanges with their transmission timestamp, variable back-off
+	// factor and estimator type. Guarded by this. Usually limited by NSTART,
+	// so a linear search is sufficient.
+	private Exchange[] exchanges;
+	private long[] exchangeTimestamps;
+	private double[] exchangeVBFs;
+	private byte[] exchangeEstimatorTypes;
+	private int exchangeCount;
+	// Nano-timestamp of the last usage, see RemoteEndpointManager
+	private volatile long lastUsage;
 	
 	//Overall RTO, Strong RTO, Strong RTT, Strong RTTVAR, to be used to set the retransmission timeout.
 	private long[] overallRTO;
@@ -49,6 +58,16 @@ public class RemoteEndpoint {
 	public long RTO_min;
 	
 	
+	/* Rate based algorithm variables, guarded by this */
+	private double rateSRTT; // smoothed RTT in milliseconds
+	private double lossEventRate;
+	private double receiveRate; // messages per millisecond
+	private volatile double pacingRate; // messages per millisecond, 0 until the first measurement
+	private long lastRateUpdate;
+	private int sentSinceRateUpdate;
+	private int confirmablesSinceRateUpdate;
+	private int acknowledgedSinceRateUpdate;
+	
 	private int currentArrayElement;
 	private int nonConfirmableCounter;
 	
@@ -56,7 +75,10 @@ public class RemoteEndpoint {
 	private boolean isBlindStrong; // As long as no weak RTT measurement has been carried out, the RTO timers are calculated differently
 	private boolean isBlindWeak; // As long as no weak RTT measurement has been carried out, the RTO timers are calculated differently
 	
-	private boolean processingNON;
+	private volatile boolean processingNON;
+	// Retired endpoints are removed by the RemoteEndpointManager and don't
+	// accept exchanges anymore. Set with this.
+	private volatile boolean retired;
 	
 	private final static int RTOARRAYSIZE 	= 1; 	// Amounts of elements in the RTO history length
 	
@@ -100,11 +122,70 @@ public class RemoteEndpoint {
 		isBlindWeak = true;
 		
 		processingNON = false;
+		lastUsage = ClockUtil.nanoRealtime();
 		
-		exchangeInfoMap = new ConcurrentHashMap<Exchange, exchangeInfo>();
+		int nstart = Math.max(1, config.getInt(NetworkConfig.Keys.NSTART, 1));
+		exchanges = new Exchange[nstart];
+		exchangeTimestamps = new long[nstart];
+		exchangeVBFs = new double[nstart];
+		exchangeEstimatorTypes = new byte[nstart];
+
+		confirmableQueue = new ConcurrentLinkedQueue<Exchange>();
+	    nonConfirmableQueue = new ConcurrentLinkedQueue<Exchange>();
+	}
+
+	/**
+	 * Update the last usage, if it is older than the interval.
+	 * 
+	 * @param now nano-timestamp of the usage
+	 * @param interval minimum interval in nanoseconds between updates
+	 */
+	void touch(long now, long interval) {
+		if (now - lastUsage >= interval) {
+			lastUsage = now;
+		}
+	}
 
-		confirmableQueue = new LinkedList<Exchange>();
-	    nonConfirmableQueue = new LinkedList<Exchange>();
+	/**
+	 * Gets the nano-timestamp of the last usage.
+	 * 
+	 * @return nano-timestamp of the last usage
+	 */
+	long getLastUsage() {
+		return lastUsage;
+	}
+
+	/**
+	 * Checks, if this endpoint has no ongoing or queued exchanges.
+	 * 
+	 * @return {@code true}, if idle, {@code false}, otherwise.
+	 */
+	synchronized boolean isIdle() {
+		return exchangeCount == 0 && !processingNON && confirmableQueue.isEmpty() && nonConfirmableQueue.isEmpty();
+	}
+
+	/**
+	 * Retires this endpoint, if it is idle. Only retired endpoints are removed
+	 * by the RemoteEndpointManager. A retired endpoint doesn't accept
+	 * exchanges anymore, so none gets orphaned by the removal.
+	 * 
+	 * @return {@code true}, if retired, {@code false}, otherwise.
+	 */
+	synchronized boolean retire() {
+		if (isIdle()) {
+			retired = true;
+		}
+		return retired;
+	}
+
+	/**
+	 * Checks, if this endpoint is retired.
+	 * 
+	 * @return {@code true}, if retired, {@code false}, otherwise.
+	 * @see #retire()
+	 */
+	public boolean isRetired() {
+		return retired;
 	}
 
 	public int getRemotePort(){
@@ -181,6 +262,48 @@ public class RemoteEndpoint {
 		return nonConfirmableQueue;
 	}
 	
+	/**
+	 * Queues a non-confirmable exchange for the rate control. Queuing and
+	 * starting the processing of the queue is done atomically with
+	 * {@link #pollNonConfirmableExchange()}, so a queued exchange is always
+	 * processed.
+	 * 
+	 * @param exchange the exchange to queue
+	 * @param queueLimit the maximum number of queued exchanges
+	 * @return true, if the processing of the queue must be started, false, if
+	 *         it is already running
+	 * @throws IllegalStateException if the endpoint is retired or the queue
+	 *             limit is reached
+	 */
+	public synchronized boolean queueNonConfirmableExchange(Exchange exchange, int queueLimit){
+		if(retired){
+			throw new IllegalStateException("remote endpoint retired");
+		}
+		if(nonConfirmableQueue.size() >= queueLimit){
+			throw new IllegalStateException("non-confirmable exchange queue limit reached");
+		}
+		nonConfirmableQueue.add(exchange);
+		if(processingNON){
+			return false;
+		}
+		processingNON = true;
+		return true;
+	}
+	
+	/**
+	 * Polls the next non-confirmable exchange. If the queue is empty, the
+	 * processing of the queue is stopped.
+	 * 
+	 * @return the next exchange, or null, if the queue is empty
+	 */
+	public synchronized Exchange pollNonConfirmableExchange(){
+		Exchange exchange = nonConfirmableQueue.poll();
+		if(exchange == null){
+			processingNON = false;
+		}
+		return exchange;
+	}
+	
 	public Exchange pollConfirmableExchange(){
 		return confirmableQueue.poll();
 	}
@@ -220,11 +343,12 @@ public class RemoteEndpoint {
 	 */
 	public long getRTO() {
 		long rto;
-		if (usesBlindEstimator && isBlindStrong && isBlindWeak && exchangeInfoMap.size() > 1) {
+		int ongoing = getNumberOfOngoingExchanges(null);
+		if (usesBlindEstimator && isBlindStrong && isBlindWeak && ongoing > 1) {
 			// No RTT measurements have been possible so far => apply blind
 			// estimator rule
 			// System.out.println("Blind Rule applying, RTO: "+(exchangeInfoMap.size())*2000);
-			rto = (long) (exchangeInfoMap.size()) * 2000;
+			rto = (long) ongoing * 2000;
 		} else {
 			if (meanOverallRTO != currentRTO) {
 				// If current RTO was not updated, there was no successful RTO
@@ -270,25 +394,18 @@ public class RemoteEndpoint {
 	 * This method allows to set the state of the exchange (WEAK/STRONG/notvalid RTT measurement).
 	 * @param exchange the exchange
 	 */
-	public void setEstimatorState(Exchange exchange){
+	public synchronized void setEstimatorState(Exchange exchange){
 		//When no CC layer is used, the entries are all null, check here if this is the case
-		if(exchangeInfoMap.get(exchange) == null){
+		int index = indexOf(exchange);
+		if(index < 0){
 			return;
 		}
-		
-		/*if(exchange.getFailedTransmissionCount() == 5){
-			//TODO: If all retransmissions expired, do delete exchange (use config file to get this value "5" or use another method to delete exchange?)
-				removeExchangeInfo(exchange);
-				return;
-		}*/
 		if(exchange.getFailedTransmissionCount() == 1 || exchange.getFailedTransmissionCount() == 2){
 			//Only allow weak estimator updates from the first or second retransmission
-			//System.out.println("Remote Enpdoint: WEAK");
-			exchangeInfoMap.get(exchange).setTypeWeakEstimator();
+			exchangeEstimatorTypes[index] = WEAKRTOTYPE;
 		}else{
 			//If more than 1 retransmission was applied to the exchange, mark this entry as not updatable
-			//System.out.println("Remote Enpdoint: NO");
-			exchangeInfoMap.get(exchange).setTypeNoEstimator();
+			exchangeEstimatorTypes[index] = NOESTIMATOR;
 		}
 	}
 	
@@ -297,9 +414,57 @@ public class RemoteEndpoint {
 	 * @param exchange the exchange to register
 	 * @param vbf the variable back-off factor
 	 */
-	public void registerExchange(Exchange exchange, double vbf){
-		exchangeInfo newExchange = new exchangeInfo(System.currentTimeMillis(), vbf);
-		exchangeInfoMap.put(exchange, newExchange);
+	public synchronized void registerExchange(Exchange exchange, double vbf){
+		int index = indexOf(exchange);
+		if(index < 0){
+			if(exchangeCount == exchanges.length){
+				int length = exchanges.length * 2;
+				exchanges = Arrays.copyOf(exchanges, length);
+				exchangeTimestamps = Arrays.copyOf(exchangeTimestamps, length);
+				exchangeVBFs = Arrays.copyOf(exchangeVBFs, length);
+				exchangeEstimatorTypes = Arrays.copyOf(exchangeEstimatorTypes, length);
+			}
+			index = exchangeCount++;
+			exchanges[index] = exchange;
+		}
+		exchangeTimestamps[index] = System.currentTimeMillis();
+		exchangeVBFs[index] = vbf;
+		exchangeEstimatorTypes[index] = STRONGRTOTYPE;
+	}
+	
+	/**
+	 * Registers a confirmable exchange, if less than NSTART exchanges are
+	 * ongoing, or queues it otherwise. Checking, registering and queuing is
+	 * done atomically with {@link #removeExchangeInfo(Exchange, double)}, so a
+	 * queued exchange is always polled, when an ongoing exchange is removed.
+	 * 
+	 * @param exchange the exchange to register
+	 * @param vbf the variable back-off factor
+	 * @param nstart the maximum number of ongoing exchanges
+	 * @param queueLimit the maximum number of queued exchanges
+	 * @return true, if the exchange is registered (or was already registered
+	 *         in place of a removed one), false, if it is queued
+	 * @throws IllegalStateException if the endpoint is retired or the
+	 *             exchange can't be registered and the queue limit is reached
+	 */
+	public synchronized boolean registerExchange(Exchange exchange, double vbf, int nstart, int queueLimit){
+		if(retired){
+			throw new IllegalStateException("remote endpoint retired");
+		}
+		int index = indexOf(exchange);
+		if(index >= 0){
+			exchangeTimestamps[index] = System.currentTimeMillis();
+			return true;
+		}
+		if(exchangeCount < nstart){
+			registerExchange(exchange, vbf);
+			return true;
+		}
+		if(confirmableQueue.size() >= queueLimit){
+			throw new IllegalStateException("confirmable exchange queue limit reached");
+		}
+		confirmableQueue.add(exchange);
+		return false;
 	}
 	
 	/**
@@ -307,16 +472,9 @@ public class RemoteEndpoint {
 	 * @param exchange the exchange
 	 * @return the timestamp in 
 	 */
-	public long getExchangeTimestamp(Exchange exchange){	
-		long storedTimestamp = 0;	
-		if(exchangeInfoMap.isEmpty()){
-			return 0;
-		}
-		
-		if(exchangeInfoMap.get(exchange) != null){
-			storedTimestamp = exchangeInfoMap.get(exchange).getTimestamp();
-		}
-		return storedTimestamp;
+	public synchronized long getExchangeTimestamp(Exchange exchange){	
+		int index = indexOf(exchange);
+		return index < 0 ? 0 : exchangeTimestamps[index];
 	}
 	
 	/**
@@ -324,16 +482,12 @@ public class RemoteEndpoint {
 	 * @param exchange the exchange
 	 * @return the VBF
 	 */
-	public double getExchangeVBF(Exchange exchange){	
-		double vbf = 2;	
-		if(exchangeInfoMap.isEmpty()){
+	public synchronized double getExchangeVBF(Exchange exchange){	
+		if(exchangeCount == 0){
 			return 0;
 		}
-		
-		if(exchangeInfoMap.get(exchange) != null){
-			vbf = exchangeInfoMap.get(exchange).getVBF();
-		}
-		return vbf;
+		int index = indexOf(exchange);
+		return index < 0 ? 2 : exchangeVBFs[index];
 	}
 	
 	/**
@@ -341,41 +495,54 @@ public class RemoteEndpoint {
 	 * @param exchange the exchange
 	 * @return the estimator ID
 	 */
-	public int getExchangeEstimatorState(Exchange exchange){	
-		if(exchangeInfoMap.isEmpty()){
-			//System.out.println("No exchanges stored (estimator state request)");
-		}
-		
-		if(exchangeInfoMap.get(exchange) != null){
-			return exchangeInfoMap.get(exchange).getEstimatorType();
-		}
-		return 0;
+	public synchronized int getExchangeEstimatorState(Exchange exchange){	
+		int index = indexOf(exchange);
+		return index < 0 ? 0 : exchangeEstimatorTypes[index];
 	}
+
 	/**
 	 * Removes all information of a finished exchange
 	 * @param exchange the exchange to remove
 	 * @return true if removed
 	 */
-	public boolean removeExchangeInfo(Exchange exchange){
-		if(exchangeInfoMap.remove(exchange) == null){
+	public synchronized boolean removeExchangeInfo(Exchange exchange){
+		int index = indexOf(exchange);
+		if(index < 0){
 			return false;
-		}else{
-		//deleted exchange!
-		return true;
 		}
+		int last = --exchangeCount;
+		exchanges[index] = exchanges[last];
+		exchangeTimestamps[index] = exchangeTimestamps[last];
+		exchangeVBFs[index] = exchangeVBFs[last];
+		exchangeEstimatorTypes[index] = exchangeEstimatorTypes[last];
+		exchanges[last] = null;
+		return true;
 	}
 	
 	/**
-	 * Checks if an exchange in the list was was deleted
+	 * Removes all information of a finished exchange and registers the next
+	 * queued exchange in its place.
+	 * 
+	 * Queued exchanges, which are already completed, e.g. canceled, are
+	 * skipped.
+	 * 
+	 * @param exchange the exchange to remove
+	 * @param vbf the variable back-off factor for the next exchange
+	 * @return the registered next exchange to be sent, or null, if the
+	 *         exchange wasn't registered or no exchange is queued
 	 */
-	public void checkForDeletedExchanges(){
-		//System.out.println("Checking for old exchanges in remote Endpoints.");
-	    for (Object o : exchangeInfoMap.entrySet()){
-	    	if(o == null){
-	    		//System.out.println("Deleting old entry (null-entry).");
-	    		exchangeInfoMap.remove(o);
-	    	}
-	    }
+	public synchronized Exchange removeExchangeInfo(Exchange exchange, double vbf){
+		if(!removeExchangeInfo(exchange)){
+			return null;
+		}
+		Exchange next;
+		while((next = confirmableQueue.poll()) != null){
+			if(!next.isComplete()){
+				registerExchange(next, vbf);
+				break;
+			}
+		}
+		return next;
 	}
 	
 	/**
@@ -383,9 +550,94 @@ public class RemoteEndpoint {
 	 * @param exchange the exchange
 	 * @return the count
 	 */
-	public int getNumberOfOngoingExchanges(Exchange exchange){	
-		//System.out.println("Amount of exchanges: " + exchangeInfoMap.size() );
-		return exchangeInfoMap.size();
+	public synchronized int getNumberOfOngoingExchanges(Exchange exchange){	
+		return exchangeCount;
+	}
+
+	private int indexOf(Exchange exchange){
+		for(int index = 0; index < exchangeCount; index++){
+			if(exchanges[index] == exchange){
+				return index;
+			}
+		}
+		return -1;
+	}
+	
+	public synchronized double getRateSRTT(){
+		return rateSRTT;
+	}
+	
+	public synchronized void setRateSRTT(double rtt){
+		rateSRTT = rtt;
+	}
+	
+	public synchronized double getLossEventRate(){
+		return lossEventRate;
+	}
+	
+	public synchronized void setLossEventRate(double rate){
+		lossEventRate = rate;
+	}
+	
+	public synchronized double getReceiveRate(){
+		return receiveRate;
+	}
+	
+	public synchronized void setReceiveRate(double rate){
+		receiveRate = rate;
+	}
+	
+	/**
+	 * Gets the rate to pace the non-confirmables. Not synchronized, the rate
+	 * is read on each sent non-confirmable.
+	 * @return the rate in messages per millisecond, 0 until the first measurement
+	 */
+	public double getPacingRate(){
+		return pacingRate;
+	}
+	
+	public synchronized void setPacingRate(double rate){
+		pacingRate = rate;
+	}
+	
+	public synchronized long getLastRateUpdate(){
+		return lastRateUpdate;
+	}
+	
+	public synchronized int getSentSinceRateUpdate(){
+		return sentSinceRateUpdate;
+	}
+	
+	public synchronized void increaseSentSinceRateUpdate(){
+		sentSinceRateUpdate++;
+	}
+	
+	public synchronized int getConfirmablesSinceRateUpdate(){
+		return confirmablesSinceRateUpdate;
+	}
+	
+	public synchronized void increaseConfirmablesSinceRateUpdate(){
+		confirmablesSinceRateUpdate++;
+	}
+	
+	public synchronized int getAcknowledgedSinceRateUpdate(){
+		return acknowledgedSinceRateUpdate;
+	}
+	
+	public synchronized void increaseAcknowledgedSinceRateUpdate(){
+		acknowledgedSinceRateUpdate++;
+	}
+	
+	/**
+	 * Resets the counters of the sent, confirmable and acknowledged messages
+	 * and starts the next measurement interval.
+	 * @param timestamp the start of the next interval in milliseconds
+	 */
+	public synchronized void resetRateCounters(long timestamp){
+		lastRateUpdate = timestamp;
+		sentSinceRateUpdate = 0;
+		confirmablesSinceRateUpdate = 0;
+		acknowledgedSinceRateUpdate = 0;
 	}
 	
 	public void printLinuxStats(){
@@ -395,42 +647,4 @@ public class RemoteEndpoint {
 	public void printPeakhopperStats(){
 	    System.out.println("Delta: " + delta + " D: " + D_value + " B: " + B_value + " RTT_max: " + RTT_max);
 	}
-	
-	/**
-	 * Object that stores exchange related information 
-	 * 1.) Timestamp
-	 * 2.) Variable Backoff Factor
-	 * 3.) Estimator Type (weak/strong/none)
-	 */ 
-	private class exchangeInfo{
-		
-		private long timestamp;
-		private double vbf;
-		private int estimatorType;
-		
-		public exchangeInfo(long timestamp, double vbf){
-			this.timestamp = timestamp;
-			this.vbf = vbf;
-			estimatorType = STRONGRTOTYPE;
-			//System.out.println("Exchange stored in remote Endpoint (" + System.currentTimeMillis() + ")");
-		}
-		
-		public void setTypeWeakEstimator(){
-			estimatorType = WEAKRTOTYPE;
-		}
-		public void setTypeNoEstimator(){
-			estimatorType = NOESTIMATOR;
-		}
-		public int getEstimatorType(){
-			return estimatorType;
-		}
-		
-		public long getTimestamp(){
-			return timestamp;
-		}
-		
-		public double getVBF(){
-			return vbf;
-		}
-	}
 }
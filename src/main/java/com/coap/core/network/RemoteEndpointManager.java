@@ -1,23 +1,64 @@
 package com.coap.core.network;
 
+import com.coap.core.coap.Request;
 import com.coap.core.network.config.NetworkConfig;
+import com.coap.core.network.config.NetworkConfigDefaults;
+import com.coap.elements.util.ClockUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * The RemoteEndpointManager maintains the congestion control state of the
+ * remote endpoints, one {@link RemoteEndpoint} per peer address and port.
+ * <p>
+ * The endpoints are kept in a {@link ConcurrentHashMap}. The number of
+ * endpoints is limited by {@link NetworkConfig.Keys#MAX_ACTIVE_PEERS}. If
+ * that limit is reached, endpoints without ongoing or queued exchanges,
+ * which are not used for {@link NetworkConfig.Keys#MAX_PEER_INACTIVITY_PERIOD},
+ * are removed. If still no endpoint is expired, the least recently used of
+ * a sample of idle endpoints is removed. The samples are taken round-robin.
+ * Endpoints with ongoing or queued exchanges are never removed, so the limit
+ * may be exceeded temporarily. Removed endpoints are retired before, so they
+ * don't accept exchanges afterwards.
+ */
 public class RemoteEndpointManager {
 
-	// Maximum amount of destinations for which remote endpoint objects are maintained
-	private final int MAX_REMOTE_ENDPOINTS = 10;
-	
-	/** The list of remote endpoints */
-	private LimitedRemoteEndpointHashmap<InetAddress,RemoteEndpoint> remoteEndpointsList = new LimitedRemoteEndpointHashmap<InetAddress,RemoteEndpoint>(MAX_REMOTE_ENDPOINTS);//ArrayList<RemoteEndpoint>(0);
+	private static final Logger LOGGER = LoggerFactory.getLogger(RemoteEndpointManager.class.getName());
+
+	/**
+	 * Number of endpoints sampled to select one for eviction.
+	 */
+	private static final int EVICTION_SAMPLE_SIZE = 16;
+
+	/** The remote endpoints by address and port */
+	private final ConcurrentMap<InetSocketAddress, RemoteEndpoint> remoteEndpoints = new ConcurrentHashMap<InetSocketAddress, RemoteEndpoint>();
 
 	/** The configuration */ 
-	private NetworkConfig config;
-	
+	private final NetworkConfig config;
+
+	/** Maximum number of remote endpoints */
+	private final int maxRemoteEndpoints;
+
+	/** Inactivity period in nanoseconds, after which an idle endpoint expires */
+	private final long maxInactivityNanos;
+
+	/** Minimum interval in nanoseconds between updates of the last usage */
+	private final long touchIntervalNanos;
+
+	/** Nano-timestamp of the last expiration */
+	private final AtomicLong lastExpiry = new AtomicLong(ClockUtil.nanoRealtime());
+
+	/** Iterator for the eviction samples. Guarded by this */
+	private Iterator<Map.Entry<InetSocketAddress, RemoteEndpoint>> sampleIterator;
+
 	/**
 	 * The RemoteEndpointManager is responsible for creating a new RemoteEndpoint object when exchanges with a 
 	 * new destination endpoint are initiated and managing existing ones.
@@ -26,42 +67,107 @@ public class RemoteEndpointManager {
 	 */
 	public RemoteEndpointManager(NetworkConfig config) {
 		this.config = config;
+		this.maxRemoteEndpoints = Math.max(1,
+				config.getInt(NetworkConfig.Keys.MAX_ACTIVE_PEERS, NetworkConfigDefaults.DEFAULT_MAX_ACTIVE_PEERS));
+		this.maxInactivityNanos = TimeUnit.SECONDS.toNanos(Math.max(1, config.getLong(
+				NetworkConfig.Keys.MAX_PEER_INACTIVITY_PERIOD, NetworkConfigDefaults.DEFAULT_MAX_PEER_INACTIVITY_PERIOD)));
+		this.touchIntervalNanos = maxInactivityNanos / 8;
 	}
-		
+
 	/**
 	 * Returns the endpoint responsible for the given exchange.
 	 * @param exchange the exchange
 	 * @return the endpoint for the exchange
 	 */
-	public RemoteEndpoint getRemoteEndpoint(Exchange exchange){ //int remotePort, InetAddress remoteAddress){
-
-		InetSocketAddress remoteSocketAddress = exchange.getRequest().getDestinationContext().getPeerAddress();
-		InetAddress remoteAddress = remoteSocketAddress.getAddress();
-		int remotePort = remoteSocketAddress.getPort();
-
-		// TODO: One IP-Address is considered to be a destination endpoint, for higher granularity (portnumber) changes are necessary
-		if (!remoteEndpointsList.containsKey(remoteAddress)){
-			RemoteEndpoint unusedRemoteEndpoint = new RemoteEndpoint(remotePort, remoteAddress, config);
-			remoteEndpointsList.put(remoteAddress,unusedRemoteEndpoint);
-			
-			//System.out.println("Number of RemoteEndpoint objects stored:" + remoteEndpointsList.size());
+	public RemoteEndpoint getRemoteEndpoint(Exchange exchange) {
+		Request request = exchange.getRequest();
+		InetSocketAddress peer = exchange.isOfLocalOrigin() ? request.getDestinationContext().getPeerAddress()
+				: request.getSourceContext().getPeerAddress();
+		long now = ClockUtil.nanoRealtime();
+		RemoteEndpoint endpoint = remoteEndpoints.get(peer);
+		while (endpoint == null || endpoint.isRetired()) {
+			if (endpoint != null) {
+				// retired, but not yet removed
+				remoteEndpoints.remove(peer, endpoint);
+			} else if (remoteEndpoints.size() >= maxRemoteEndpoints) {
+				expire(now);
+			}
+			RemoteEndpoint newEndpoint = new RemoteEndpoint(peer.getPort(), peer.getAddress(), config);
+			endpoint = remoteEndpoints.putIfAbsent(peer, newEndpoint);
+			if (endpoint == null) {
+				endpoint = newEndpoint;
+			}
 		}
-
-		return remoteEndpointsList.get(remoteAddress);
+		endpoint.touch(now, touchIntervalNanos);
+		return endpoint;
 	}
-	
-	public class LimitedRemoteEndpointHashmap<K, V> extends LinkedHashMap<K, V> {
 
-		private static final long serialVersionUID = -7855412701242966797L;
-		private final int maxSize;
+	/**
+	 * Gets the number of remote endpoints.
+	 * 
+	 * @return number of remote endpoints
+	 */
+	public int getRemoteEndpointCount() {
+		return remoteEndpoints.size();
+	}
 
-	    public LimitedRemoteEndpointHashmap(int maxSize) {
-	        this.maxSize = maxSize;
-	    }
+	/**
+	 * Removes expired endpoints. If none is expired, evict the least recently
+	 * used endpoint of a sample.
+	 * 
+	 * Expired endpoints are searched at most once per touch interval, in
+	 * between only an endpoint of a sample is evicted.
+	 * 
+	 * @param now nano-timestamp
+	 */
+	private void expire(long now) {
+		long last = lastExpiry.get();
+		if (now - last >= touchIntervalNanos && lastExpiry.compareAndSet(last, now)) {
+			// the last usage is updated only once per touch interval
+			long threshold = now - maxInactivityNanos - touchIntervalNanos;
+			int removed = 0;
+			for (Map.Entry<InetSocketAddress, RemoteEndpoint> entry : remoteEndpoints.entrySet()) {
+				RemoteEndpoint endpoint = entry.getValue();
+				if (endpoint.getLastUsage() - threshold < 0 && endpoint.retire()) {
+					remoteEndpoints.remove(entry.getKey(), endpoint);
+					++removed;
+				}
+			}
+			LOGGER.debug("removed {} expired remote endpoints, {} left", removed, remoteEndpoints.size());
+			if (removed > 0) {
+				return;
+			}
+		}
+		InetSocketAddress eldestPeer = null;
+		RemoteEndpoint eldest = null;
+		for (int sample = 0; sample < EVICTION_SAMPLE_SIZE; ++sample) {
+			Map.Entry<InetSocketAddress, RemoteEndpoint> entry = nextSample();
+			if (entry == null) {
+				break;
+			}
+			RemoteEndpoint endpoint = entry.getValue();
+			if ((eldest == null || endpoint.getLastUsage() - eldest.getLastUsage() < 0) && endpoint.isIdle()) {
+				eldestPeer = entry.getKey();
+				eldest = endpoint;
+			}
+		}
+		if (eldest != null && eldest.retire()) {
+			remoteEndpoints.remove(eldestPeer, eldest);
+			LOGGER.trace("evicted remote endpoint {}", eldestPeer);
+		}
+	}
 
-	    @Override
-	    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-	        return size() > maxSize;
-	    }
+	/**
+	 * Gets the next endpoint for the eviction sample. The samples continue
+	 * where the last eviction stopped, so not only the first endpoints in the
+	 * iteration order are sampled.
+	 * 
+	 * @return the next endpoint, or {@code null}, if no endpoint is available
+	 */
+	private synchronized Map.Entry<InetSocketAddress, RemoteEndpoint> nextSample() {
+		if (sampleIterator == null || !sampleIterator.hasNext()) {
+			sampleIterator = remoteEndpoints.entrySet().iterator();
+		}
+		return sampleIterator.hasNext() ? sampleIterator.next() : null;
 	}
 }
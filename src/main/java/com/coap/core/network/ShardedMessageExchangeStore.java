@@ -0,0 +1,282 @@
+package com.coap.core.network;
+
+import com.coap.core.coap.Message;
+import com.coap.core.coap.Token;
+import com.coap.core.network.Exchange.KeyMID;
+import com.coap.core.network.config.NetworkConfig;
+import com.coap.core.network.config.NetworkConfigDefaults;
+import com.coap.elements.util.ExecutorsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@code MessageExchangeStore} that partitions the exchanges by peer
+ * across several {@link InMemoryMessageExchangeStore} shards.
+ * <p>
+ * The shard of a peer is selected by the hash of its address and port. Each
+ * shard owns the exchanges by MID, the {@link MessageIdProvider} and the
+ * deduplicator for its peers, so neither the assignment of message IDs nor
+ * the deduplication of different peers contend on a shared lock. The
+ * {@link NetworkConfig.Keys#MAX_ACTIVE_PEERS} are split across the shards.
+ * <p>
+ * Responses are matched by token only, without knowing the peer, therefore
+ * all shards share the exchanges by token, which are stored in a
+ * {@link ConcurrentHashMap}.
+ */
+public class ShardedMessageExchangeStore implements MessageExchangeStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShardedMessageExchangeStore.class.getName());
+	private static final Logger HEALTH_LOGGER = LoggerFactory.getLogger(LOGGER.getName() + ".health");
+
+	private final NetworkConfig config;
+	private final InMemoryMessageExchangeStore[] shards;
+	private final ConcurrentMap<Token, Exchange> exchangesByToken = new ConcurrentHashMap<>();
+	private final TokenIndex exchangesByOriginToken = new TokenIndex();
+	private volatile boolean running = false;
+	private ScheduledFuture<?> statusLogger;
+
+	/**
+	 * Creates a new store for configuration values.
+	 *
+	 * The number of shards is read from
+	 * {@link NetworkConfig.Keys#EXCHANGE_STORE_SHARDS}. If that is not set
+	 * (value less than {@code 1}), the number of available processors is
+	 * used.
+	 *
+	 * @param config the configuration to use.
+	 * @param tokenProvider the TokenProvider which provides CoAP tokens that
+	 *            are guaranteed to be not in use.
+	 * @throws NullPointerException if config or tokenProvider is
+	 *             {@code null}.
+	 */
+	public ShardedMessageExchangeStore(final NetworkConfig config, final TokenGenerator tokenProvider) {
+		this(config, tokenProvider, getShards(config));
+	}
+
+	private static int getShards(final NetworkConfig config) {
+		if (config == null) {
+			throw new NullPointerException("Configuration must not be null");
+		}
+		int shards = config.getInt(NetworkConfig.Keys.EXCHANGE_STORE_SHARDS, 0);
+		return shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Creates a new store for configuration values.
+	 *
+	 * @param config the configuration to use.
+	 * @param tokenProvider the TokenProvider which provides CoAP tokens that
+	 *            are guaranteed to be not in use.
+	 * @param shards number of shards. Rounded up to a power of two.
+	 * @throws IllegalArgumentException if shards is less than {@code 1}.
+	 */
+	public ShardedMessageExchangeStore(final NetworkConfig config, final TokenGenerator tokenProvider,
+			final int shards) {
+		if (config == null) {
+			throw new NullPointerException("Configuration must not be null");
+		}
+		if (tokenProvider == null) {
+			throw new NullPointerException("TokenProvider must not be null");
+		}
+		if (shards < 1) {
+			throw new IllegalArgumentException("shards " + shards + " must be at least 1!");
+		}
+		int count = Integer.highestOneBit(shards);
+		if (count < shards) {
+			count <<= 1;
+		}
+		this.config = config;
+		this.shards = new InMemoryMessageExchangeStore[count];
+		int concurrency = Math.max(1, Runtime.getRuntime().availableProcessors() * 4 / count);
+		int maxPeers = config.getInt(NetworkConfig.Keys.MAX_ACTIVE_PEERS, 150000);
+		int maxPeersPerShard = (maxPeers + count - 1) / count;
+		for (int index = 0; index < count; ++index) {
+			InMemoryMessageExchangeStore shard = new InMemoryMessageExchangeStore(config, tokenProvider, concurrency,
+					exchangesByToken, exchangesByOriginToken);
+			shard.setMessageIdProvider(new InMemoryMessageIdProvider(config, maxPeersPerShard));
+			this.shards[index] = shard;
+		}
+	}
+
+	/**
+	 * Gets the number of shards.
+	 *
+	 * @return number of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	private InMemoryMessageExchangeStore getShard(int peerHash) {
+		return shards[(peerHash ^ (peerHash >>> 16)) & (shards.length - 1)];
+	}
+
+	private InMemoryMessageExchangeStore getShard(InetSocketAddress peer) {
+		return getShard(KeyMID.peerHashCode(peer));
+	}
+
+	private InMemoryMessageExchangeStore getShard(KeyMID messageId) {
+		return getShard(messageId.getPeerHashCode());
+	}
+
+	private void startStatusLogging() {
+		final int healthStatusInterval = config.getInt(NetworkConfig.Keys.HEALTH_STATUS_INTERVAL,
+				NetworkConfigDefaults.DEFAULT_HEALTH_STATUS_INTERVAL); // seconds
+		if (healthStatusInterval > 0 && HEALTH_LOGGER.isDebugEnabled()) {
+			statusLogger = ExecutorsUtil.getScheduledExecutor().scheduleAtFixedRate(new Runnable() {
+
+				@Override
+				public void run() {
+					HEALTH_LOGGER.debug("{}", ShardedMessageExchangeStore.this);
+				}
+			}, healthStatusInterval, healthStatusInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	@Override
+	public synchronized void start() {
+		if (!running) {
+			startStatusLogging();
+			for (InMemoryMessageExchangeStore shard : shards) {
+				shard.start();
+			}
+			running = true;
+		}
+	}
+
+	/**
+	 * Stops all shards and purges all registered exchanges.
+	 */
+	@Override
+	public synchronized void stop() {
+		if (running) {
+			running = false;
+			if (statusLogger != null) {
+				statusLogger.cancel(false);
+				statusLogger = null;
+			}
+			for (InMemoryMessageExchangeStore shard : shards) {
+				shard.stop();
+			}
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (InMemoryMessageExchangeStore shard : shards) {
+			if (!shard.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		int exchangesByMid = 0;
+		int mids = 0;
+		for (InMemoryMessageExchangeStore shard : shards) {
+			exchangesByMid += shard.getExchangesByMidCount();
+			mids += shard.getDeduplicatorCount();
+		}
+		StringBuilder b = new StringBuilder("MessageExchangeStore contents (");
+		b.append(shards.length).append(" shards): ");
+		b.append(exchangesByMid).append(" exchanges by MID, ");
+		b.append(exchangesByToken.size()).append(" exchanges by token, ");
+		b.append(exchangesByOriginToken.size()).append(" original tokens, ");
+		b.append(mids).append(" MIDs, ");
+		return b.toString();
+	}
+
+	@Override
+	public int assignMessageId(final Message message) {
+		int mid = message.getMID();
+		if (Message.NONE == mid) {
+			mid = getShard(message.getDestinationContext().getPeerAddress()).assignMessageId(message);
+		}
+		return mid;
+	}
+
+	@Override
+	public boolean registerOutboundRequest(final Exchange exchange) {
+		if (exchange == null) {
+			throw new NullPointerException("exchange must not be null");
+		} else if (exchange.getCurrentRequest() == null) {
+			throw new IllegalArgumentException("exchange does not contain a request");
+		}
+		InetSocketAddress peer = exchange.getCurrentRequest().getDestinationContext().getPeerAddress();
+		return getShard(peer).registerOutboundRequest(exchange);
+	}
+
+	@Override
+	public boolean registerOutboundRequestWithTokenOnly(final Exchange exchange) {
+		// exchanges by token are shared
+		return shards[0].registerOutboundRequestWithTokenOnly(exchange);
+	}
+
+	@Override
+	public boolean registerOutboundResponse(final Exchange exchange) {
+		if (exchange == null) {
+			throw new NullPointerException("exchange must not be null");
+		} else if (exchange.getCurrentResponse() == null) {
+			throw new IllegalArgumentException("exchange does not contain a response");
+		}
+		InetSocketAddress peer = exchange.getCurrentResponse().getDestinationContext().getPeerAddress();
+		return getShard(peer).registerOutboundResponse(exchange);
+	}
+
+	@Override
+	public void remove(final Token token, final Exchange exchange) {
+		shards[0].remove(token, exchange);
+	}
+
+	@Override
+	public Exchange remove(final KeyMID messageId, final Exchange exchange) {
+		return getShard(messageId).remove(messageId, exchange);
+	}
+
+	@Override
+	public Exchange get(final Token token) {
+		return shards[0].get(token);
+	}
+
+	@Override
+	public Exchange get(final KeyMID messageId) {
+		if (messageId == null) {
+			return null;
+		}
+		return getShard(messageId).get(messageId);
+	}
+
+	@Override
+	public Exchange findPrevious(final KeyMID messageId, final Exchange exchange) {
+		return getShard(messageId).findPrevious(messageId, exchange);
+	}
+
+	@Override
+	public Exchange find(final KeyMID messageId) {
+		return getShard(messageId).find(messageId);
+	}
+
+	@Override
+	public Exchange find(final long packedMessageId) {
+		return getShard(KeyMID.peerHashCode(packedMessageId)).find(packedMessageId);
+	}
+
+	@Override
+	public boolean removePrevious(final KeyMID messageId, final Exchange exchange) {
+		return getShard(messageId).removePrevious(messageId, exchange);
+	}
+
+	@Override
+	public List<Exchange> findByToken(final Token token) {
+		return shards[0].findByToken(token);
+	}
+}
@@ -0,0 +1,126 @@
+package com.coap.core.network;
+
+import com.coap.core.coap.Token;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of exchanges by the token of their original request.
+ * <p>
+ * Used by the {@link InMemoryMessageExchangeStore} to find all exchanges of
+ * local origin for a token without scanning all exchanges, see
+ * {@link MessageExchangeStore#findByToken(Token)}. Several exchanges may
+ * share the token of their original request, e.g. blockwise follow-up
+ * requests or observe re-registrations.
+ * <p>
+ * The exchanges of a token are kept in a copy-on-write array, so lookups are
+ * not locked. Modifications lock a stripe selected by the token.
+ */
+final class TokenIndex {
+
+	private static final int LOCK_STRIPES = 64;
+
+	private final ConcurrentMap<Token, Exchange[]> exchanges = new ConcurrentHashMap<>();
+
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	TokenIndex() {
+		for (int index = 0; index < locks.length; ++index) {
+			locks[index] = new Object();
+		}
+	}
+
+	/**
+	 * Add exchange for token. Adding an exchange twice has no effect.
+	 *
+	 * @param token token of the original request of the exchange
+	 * @param exchange exchange
+	 */
+	void add(Token token, Exchange exchange) {
+		synchronized (lockFor(token)) {
+			Exchange[] current = exchanges.get(token);
+			if (current == null) {
+				exchanges.put(token, new Exchange[] { exchange });
+			} else if (indexOf(current, exchange) < 0) {
+				Exchange[] update = Arrays.copyOf(current, current.length + 1);
+				update[current.length] = exchange;
+				exchanges.put(token, update);
+			}
+		}
+	}
+
+	/**
+	 * Remove exchange for token.
+	 *
+	 * @param token token of the original request of the exchange
+	 * @param exchange exchange
+	 */
+	void remove(Token token, Exchange exchange) {
+		synchronized (lockFor(token)) {
+			Exchange[] current = exchanges.get(token);
+			if (current != null) {
+				int position = indexOf(current, exchange);
+				if (position >= 0) {
+					if (current.length == 1) {
+						exchanges.remove(token);
+					} else {
+						Exchange[] update = new Exchange[current.length - 1];
+						System.arraycopy(current, 0, update, 0, position);
+						System.arraycopy(current, position + 1, update, position, update.length - position);
+						exchanges.put(token, update);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get exchanges for token.
+	 *
+	 * @param token token of the original request of the exchanges
+	 * @return unmodifiable list of exchanges. Empty, if no exchange is
+	 *         available.
+	 */
+	List<Exchange> get(Token token) {
+		Exchange[] current = exchanges.get(token);
+		if (current == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(Arrays.asList(current));
+	}
+
+	/**
+	 * Get number of indexed tokens.
+	 *
+	 * @return number of tokens
+	 */
+	int size() {
+		return exchanges.size();
+	}
+
+	boolean isEmpty() {
+		return exchanges.isEmpty();
+	}
+
+	void clear() {
+		exchanges.clear();
+	}
+
+	private Object lockFor(Token token) {
+		int hash = token.hashCode();
+		return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+	}
+
+	private static int indexOf(Exchange[] exchanges, Exchange exchange) {
+		for (int index = 0; index < exchanges.length; ++index) {
+			if (exchanges[index] == exchange) {
+				return index;
+			}
+		}
+		return -1;
+	}
+}
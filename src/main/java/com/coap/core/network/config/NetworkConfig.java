@@ -105,6 +105,52 @@ public final class NetworkConfig {
          */
         public static final String MULTICAST_BASE_MID = "MULTICAST_BASE_MID";
         public static final String TOKEN_SIZE_LIMIT = "TOKEN_SIZE_LIMIT";
+        /**
+         * Token generator of the endpoints. "RANDOM" (for
+         * {@link com.coap.core.network.RandomTokenGenerator}) draws all
+         * tokens from a {@link java.security.SecureRandom}, "COUNTER" (for
+         * {@link com.coap.core.network.CounterTokenGenerator}) derives the
+         * tokens from a counter for high throughput, but with less
+         * unpredictable tokens.
+         */
+        public static final String TOKEN_GENERATOR = "TOKEN_GENERATOR";
+        /**
+         * Parse received messages lazily. If enabled, only header and token
+         * are decoded on parsing, options and payload are decoded on first
+         * access. Values, which are not valid for their option, are then
+         * reported on that first access.
+         */
+        public static final String LAZY_MESSAGE_DECODING = "LAZY_MESSAGE_DECODING";
+        /**
+         * Number of cached templates of serialized responses. Responses with
+         * the same code, options and payload, e.g. notifications, reuse the
+         * encoded options and payload of the template and only the header,
+         * token and observe option are written for each response.
+         * 0 := disable the template cache.
+         */
+        public static final String RESPONSE_TEMPLATE_CACHE_SIZE = "RESPONSE_TEMPLATE_CACHE_SIZE";
+        /**
+         * Number of shards of the default exchange store. The exchanges by
+         * MID, the message IDs and the deduplication are partitioned by peer
+         * across the shards, see
+         * {@link com.coap.core.network.ShardedMessageExchangeStore}.
+         * 0 or 1 := use a single
+         * {@link com.coap.core.network.InMemoryMessageExchangeStore}.
+         */
+        public static final String EXCHANGE_STORE_SHARDS = "EXCHANGE_STORE_SHARDS";
+        /**
+         * Duration of a tick of the timing wheel in milliseconds, which
+         * schedules the timers of the layers, e.g. retransmissions and the
+         * cleanup of blockwise transfers, see
+         * {@link com.coap.elements.util.HashedWheelScheduledExecutor}. Timers
+         * expire up to one tick late.
+         * 0 := schedule the timers with the endpoint's executor.
+         */
+        public static final String TIMER_WHEEL_TICK = "TIMER_WHEEL_TICK";
+        /**
+         * Number of ticks of the timing wheel. Rounded up to a power of two.
+         */
+        public static final String TIMER_WHEEL_SIZE = "TIMER_WHEEL_SIZE";
 
         /**
          * The block size (number of bytes) to use when doing a blockwise
@@ -170,6 +216,13 @@ public final class NetworkConfig {
         public static final String NOTIFICATION_REREGISTRATION_BACKOFF = "NOTIFICATION_REREGISTRATION_BACKOFF";
 
         public static final String USE_CONGESTION_CONTROL = "USE_CONGESTION_CONTROL";
+        /**
+         * Congestion control algorithm, if
+         * {@link #USE_CONGESTION_CONTROL} is enabled. Supported values are
+         * {@code Cocoa}, {@code CocoaStrong}, {@code BasicRto},
+         * {@code LinuxRto}, {@code PeakhopperRto} and {@code RateBased}, see
+         * {@link com.coap.core.network.stack.CongestionControlLayer}.
+         */
         public static final String CONGESTION_CONTROL_ALGORITHM = "CONGESTION_CONTROL_ALGORITHM";
 
         public static final String PROTOCOL_STAGE_THREAD_COUNT = "PROTOCOL_STAGE_THREAD_COUNT";
@@ -180,6 +233,25 @@ public final class NetworkConfig {
         public static final String UDP_CONNECTOR_RECEIVE_BUFFER = "UDP_CONNECTOR_RECEIVE_BUFFER";
         public static final String UDP_CONNECTOR_SEND_BUFFER = "UDP_CONNECTOR_SEND_BUFFER";
         public static final String UDP_CONNECTOR_OUT_CAPACITY = "UDP_CONNECTOR_OUT_CAPACITY";
+        /**
+         * Number of pooled receive buffers of the UDP connectors. The buffers
+         * are sized by {@link #UDP_CONNECTOR_DATAGRAM_SIZE} and returned to
+         * the pool by the endpoint after parsing the message. {@code 0}
+         * disables the pool and each datagram is copied into a new array,
+         * that is the default. If enabled, received messages don't provide
+         * their bytes by {@code Message.getBytes()} and each
+         * {@link com.coap.elements.RawDataChannel} must release the received
+         * {@link com.coap.elements.RawData}.
+         */
+        public static final String UDP_CONNECTOR_RECEIVE_POOL_SIZE = "UDP_CONNECTOR_RECEIVE_POOL_SIZE";
+        /**
+         * Shard the UDP channel connector using SO_REUSEPORT. If enabled, the
+         * {@link com.coap.elements.UdpChannelConnector} opens one socket per
+         * receiver thread ({@link #NETWORK_STAGE_RECEIVER_THREAD_COUNT}), all
+         * bound to the same port, and the endpoint partitions its protocol
+         * stage by the same number of shards.
+         */
+        public static final String UDP_CONNECTOR_REUSE_PORT = "UDP_CONNECTOR_REUSE_PORT";
 
         public static final String DEDUPLICATOR = "DEDUPLICATOR";
         public static final String DEDUPLICATOR_MARK_AND_SWEEP = "DEDUPLICATOR_MARK_AND_SWEEP";
@@ -190,6 +262,27 @@ public final class NetworkConfig {
         public static final String MARK_AND_SWEEP_INTERVAL = "MARK_AND_SWEEP_INTERVAL";
         public static final String DEDUPLICATOR_CROP_ROTATION = "DEDUPLICATOR_CROP_ROTATION";
         public static final String CROP_ROTATION_PERIOD = "CROP_ROTATION_PERIOD";
+        /**
+         * Deduplicator, which expires the messages in buckets of
+         * {@link #MARK_AND_SWEEP_INTERVAL} within the
+         * {@link #EXCHANGE_LIFETIME}, see
+         * {@link com.coap.core.network.deduplication.RingDeduplicator}.
+         */
+        public static final String DEDUPLICATOR_RING = "DEDUPLICATOR_RING";
+        /**
+         * Size in bytes of the off-heap cache for piggy-backed responses,
+         * see {@link com.coap.elements.util.OffHeapByteCache}. If enabled,
+         * an exchange is removed from the deduplicator after its
+         * piggy-backed response is sent and only the serialized response is
+         * kept for the {@link #EXCHANGE_LIFETIME}. Duplicate requests are
+         * answered with the cached response, without passing the layers.
+         * Cached responses are never evicted before the
+         * {@link #EXCHANGE_LIFETIME}. If the cache is full, new responses
+         * are not cached and their exchanges are kept in the deduplicator.
+         * Only used for plain UDP. 0 := keep the exchanges in the
+         * deduplicator.
+         */
+        public static final String DEDUPLICATOR_RESPONSE_CACHE_SIZE = "DEDUPLICATOR_RESPONSE_CACHE_SIZE";
         public static final String NO_DEDUPLICATOR = "NO_DEDUPLICATOR";
         public static final String RESPONSE_MATCHING = "RESPONSE_MATCHING";
 
@@ -206,6 +299,11 @@ public final class NetworkConfig {
         public static final String TCP_CONNECT_TIMEOUT = "TCP_CONNECT_TIMEOUT";
         public static final String TCP_WORKER_THREADS = "TCP_WORKER_THREADS";
         public static final String TLS_HANDSHAKE_TIMEOUT = "TLS_HANDSHAKE_TIMEOUT";
+        /**
+         * Maximum number of cached TLS sessions used for abbreviated
+         * handshakes.
+         */
+        public static final String TLS_SESSION_CACHE_SIZE = "TLS_SESSION_CACHE_SIZE";
 
         /** Properties for encryption */
         /**
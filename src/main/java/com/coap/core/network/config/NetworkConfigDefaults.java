@@ -70,6 +70,23 @@ public class NetworkConfigDefaults {
      */
     public static final String DEFAULT_MID_TRACKER = "GROUPED";
 
+    /**
+     * The default token generator.
+     * <p>
+     * Supported values are {@code RANDOM} or {@code COUNTER}.
+     * <p>
+     * The default value is {@code RANDOM}.
+     */
+    public static final String DEFAULT_TOKEN_GENERATOR = "RANDOM";
+
+    /**
+     * The default number of ticks of the timing wheel.
+     * <p>
+     * With a tick of 10ms, one round of the wheel covers about 5s. The
+     * default value is 512.
+     */
+    public static final int DEFAULT_TIMER_WHEEL_SIZE = 512;
+
     /**
      * The default number of MID groups.
      * <p>
@@ -114,6 +131,13 @@ public class NetworkConfigDefaults {
      */
     public static final int DEFAULT_TLS_HANDSHAKE_TIMEOUT = 10000; // 10s [ms]
 
+    /**
+     * The default number of cached tls sessions.
+     * <p>
+     * The default value is 10000.
+     */
+    public static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 10000;
+
     /**
      * The default secure session timeout in seconds.
      * <p>
@@ -177,6 +201,12 @@ public class NetworkConfigDefaults {
         config.setString(Keys.MID_TRACKER, DEFAULT_MID_TRACKER);
         config.setInt(Keys.MID_TRACKER_GROUPS, DEFAULT_MID_TRACKER_GROUPS);
         config.setInt(Keys.TOKEN_SIZE_LIMIT, 8);
+        config.setString(Keys.TOKEN_GENERATOR, DEFAULT_TOKEN_GENERATOR);
+        config.setBoolean(Keys.LAZY_MESSAGE_DECODING, false);
+        config.setInt(Keys.RESPONSE_TEMPLATE_CACHE_SIZE, 0);
+        config.setInt(Keys.EXCHANGE_STORE_SHARDS, 0);
+        config.setInt(Keys.TIMER_WHEEL_TICK, 0);
+        config.setInt(Keys.TIMER_WHEEL_SIZE, DEFAULT_TIMER_WHEEL_SIZE);
 
         config.setInt(Keys.PREFERRED_BLOCK_SIZE, DEFAULT_PREFERRED_BLOCK_SIZE);
         config.setInt(Keys.MAX_MESSAGE_SIZE, DEFAULT_MAX_MESSAGE_SIZE);
@@ -200,10 +230,13 @@ public class NetworkConfigDefaults {
         config.setInt(Keys.UDP_CONNECTOR_RECEIVE_BUFFER, UDPConnector.UNDEFINED);
         config.setInt(Keys.UDP_CONNECTOR_SEND_BUFFER, UDPConnector.UNDEFINED);
         config.setInt(Keys.UDP_CONNECTOR_OUT_CAPACITY, Integer.MAX_VALUE); // unbounded
+        config.setInt(Keys.UDP_CONNECTOR_RECEIVE_POOL_SIZE, 0); // disabled
+        config.setBoolean(Keys.UDP_CONNECTOR_REUSE_PORT, false);
 
         config.setString(Keys.DEDUPLICATOR, Keys.DEDUPLICATOR_MARK_AND_SWEEP);
         config.setLong(Keys.MARK_AND_SWEEP_INTERVAL, 10 * 1000); // 10 secs
         config.setInt(Keys.CROP_ROTATION_PERIOD, 2000);
+        config.setLong(Keys.DEDUPLICATOR_RESPONSE_CACHE_SIZE, 0);
         config.setString(Keys.RESPONSE_MATCHING, DEFAULT_RESPONSE_MATCHING);
 
         config.setInt(Keys.HTTP_PORT, 8080);
@@ -218,6 +251,7 @@ public class NetworkConfigDefaults {
         config.setInt(Keys.TCP_WORKER_THREADS, 1);
         config.setInt(Keys.TCP_CONNECT_TIMEOUT, DEFAULT_TCP_CONNECT_TIMEOUT); // ms
         config.setInt(Keys.TLS_HANDSHAKE_TIMEOUT, DEFAULT_TLS_HANDSHAKE_TIMEOUT); // ms
+        config.setInt(Keys.TLS_SESSION_CACHE_SIZE, DEFAULT_TLS_SESSION_CACHE_SIZE);
 
         config.setLong(Keys.SECURE_SESSION_TIMEOUT, DEFAULT_SECURE_SESSION_TIMEOUT);
         config.setLong(Keys.DTLS_AUTO_RESUME_TIMEOUT, DEFAULT_DTLS_AUTO_RESUME_TIMEOUT);
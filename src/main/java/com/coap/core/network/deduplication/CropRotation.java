@@ -93,6 +93,20 @@ public class CropRotation implements Deduplicator {
 		return prev;
 	}
 
+	@Override
+	public Exchange find(long packedKey) {
+		return find(KeyMID.fromPackedKey(packedKey));
+	}
+
+	@Override
+	public boolean remove(KeyMID key, Exchange exchange) {
+		boolean removed = false;
+		for (ExchangeMap map : maps) {
+			removed |= map.remove(key, exchange);
+		}
+		return removed;
+	}
+
 	@Override
 	public void clear() {
 		synchronized (maps) {
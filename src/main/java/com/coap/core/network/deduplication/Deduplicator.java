@@ -41,6 +41,25 @@ public interface Deduplicator {
 
 	Exchange find(KeyMID key);
 
+	/**
+	 * Finds the exchange of a packed key.
+	 * 
+	 * @param packedKey the packed key, see {@link KeyMID#getPackedKey()}
+	 * @return the exchange, or {@code null}, if no exchange is associated
+	 *         with the key.
+	 */
+	Exchange find(long packedKey);
+
+	/**
+	 * Removes the association of the specified key with the exchange.
+	 * 
+	 * @param key the key
+	 * @param exchange the exchange
+	 * @return {@code true}, if the key was associated with the exchange and
+	 *         is removed, {@code false}, otherwise.
+	 */
+	boolean remove(KeyMID key, Exchange exchange);
+
 	boolean isEmpty();
 
 	int size();
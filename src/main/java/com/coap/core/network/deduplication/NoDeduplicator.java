@@ -26,6 +26,16 @@ public class NoDeduplicator implements Deduplicator {
 		return null;
 	}
 
+	@Override
+	public Exchange find(long packedKey) {
+		return null;
+	}
+
+	@Override
+	public boolean remove(KeyMID key, Exchange exchange) {
+		return false;
+	}
+
 	@Override
 	public void clear() { }
 
@@ -0,0 +1,317 @@
+package com.coap.core.network.deduplication;
+
+import com.coap.core.network.Exchange;
+import com.coap.core.network.Exchange.KeyMID;
+import com.coap.core.network.config.NetworkConfig;
+import com.coap.elements.util.ConcurrentLongMap;
+import com.coap.elements.util.ExecutorsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This deduplicator records the incoming messages in a ring of time buckets.
+ * <p>
+ * The EXCHANGE_LIFETIME is split into buckets of MARK_AND_SWEEP_INTERVAL.
+ * Each message is added to the bucket of the current interval. When the
+ * interval ends, the ring advances by one bucket and only the messages of
+ * the oldest bucket, which are received before at least EXCHANGE_LIFETIME,
+ * are removed. In contrast to the {@link SweepDeduplicator}, the work to
+ * expire messages is therefore proportional to the received messages and
+ * not to all messages held by the deduplicator. In contrast to the
+ * {@link CropRotation}, each message is stored only once and the messages are
+ * kept for the EXCHANGE_LIFETIME plus at most one interval.
+ * </p>
+ * <p>
+ * The messages of peers with IPv4 addresses are stored in a
+ * {@link ConcurrentLongMap} using the packed {@link KeyMID}, the buckets then
+ * only hold the primitive keys. Messages of other peers are stored in a
+ * {@link ConcurrentHashMap}.
+ * </p>
+ */
+public final class RingDeduplicator implements Deduplicator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RingDeduplicator.class.getName());
+
+	/**
+	 * Initial capacity of the keys of a bucket stripe.
+	 */
+	private static final int STRIPE_CAPACITY = 64;
+
+	private final ConcurrentLongMap<DedupExchange> packedMessages = new ConcurrentLongMap<DedupExchange>();
+	private final ConcurrentMap<KeyMID, DedupExchange> otherMessages = new ConcurrentHashMap<>();
+
+	/**
+	 * Ring of buckets. Contains one bucket more than the EXCHANGE_LIFETIME
+	 * requires, that bucket is the next to expire.
+	 */
+	private final Bucket[] ring;
+	private final long interval;
+	private final Rotation rotation;
+	/**
+	 * Number of the current interval.
+	 */
+	private volatile long epoch;
+	private volatile ScheduledFuture<?> jobStatus;
+
+	/**
+	 * Creates a new ring deduplicator from configuration values.
+	 * <p>
+	 * The following configuration values are used:
+	 * <ul>
+	 * <li>{@link com.coap.core.network.config.NetworkConfig.Keys#EXCHANGE_LIFETIME} -
+	 * a message is removed from this deduplicator after this number of
+	 * milliseconds</li>
+	 * <li>{@link com.coap.core.network.config.NetworkConfig.Keys#MARK_AND_SWEEP_INTERVAL} -
+	 * the duration of a bucket in milliseconds</li>
+	 * </ul>
+	 *
+	 * @param config the configuration to use.
+	 */
+	public RingDeduplicator(final NetworkConfig config) {
+		long exchangeLifetime = config.getLong(NetworkConfig.Keys.EXCHANGE_LIFETIME);
+		this.interval = Math.max(1, config.getLong(NetworkConfig.Keys.MARK_AND_SWEEP_INTERVAL));
+		int buckets = (int) Math.min(1 << 16, Math.max(1, (exchangeLifetime + interval - 1) / interval));
+		int stripes = Runtime.getRuntime().availableProcessors();
+		this.ring = new Bucket[buckets + 1];
+		for (int index = 0; index < ring.length; ++index) {
+			ring[index] = new Bucket(stripes);
+		}
+		this.rotation = new Rotation();
+	}
+
+	@Override
+	public synchronized void start() {
+		if (jobStatus == null) {
+			// fixed delay, intervals must not be shortened when catching up
+			jobStatus = ExecutorsUtil.getScheduledExecutor().scheduleWithFixedDelay(rotation, interval, interval,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (jobStatus != null) {
+			jobStatus.cancel(false);
+			jobStatus = null;
+			clear();
+		}
+	}
+
+	@Override
+	public Exchange findPrevious(final KeyMID key, final Exchange exchange) {
+		long current = epoch;
+		DedupExchange dedup = new DedupExchange(exchange, current);
+		DedupExchange previous;
+		if (key.hasPackedKey()) {
+			long packed = key.getPackedKey();
+			previous = packedMessages.putIfAbsent(packed, dedup);
+			if (previous == null) {
+				ring[index(current)].add(packed);
+			}
+		} else {
+			previous = otherMessages.putIfAbsent(key, dedup);
+			if (previous == null) {
+				ring[index(current)].add(key);
+			}
+		}
+		return null == previous ? null : previous.exchange;
+	}
+
+	@Override
+	public Exchange find(final KeyMID key) {
+		DedupExchange previous;
+		if (key.hasPackedKey()) {
+			previous = packedMessages.get(key.getPackedKey());
+		} else {
+			previous = otherMessages.get(key);
+		}
+		return null == previous ? null : previous.exchange;
+	}
+
+	@Override
+	public Exchange find(final long packedKey) {
+		DedupExchange previous = packedMessages.get(packedKey);
+		return null == previous ? null : previous.exchange;
+	}
+
+	@Override
+	public boolean remove(final KeyMID key, final Exchange exchange) {
+		// the key stays in its bucket and is skipped on expiry
+		if (key.hasPackedKey()) {
+			long packed = key.getPackedKey();
+			DedupExchange previous = packedMessages.get(packed);
+			return null != previous && previous.exchange == exchange && packedMessages.remove(packed, previous);
+		} else {
+			DedupExchange previous = otherMessages.get(key);
+			return null != previous && previous.exchange == exchange && otherMessages.remove(key, previous);
+		}
+	}
+
+	@Override
+	public void clear() {
+		synchronized (ring) {
+			for (Bucket bucket : ring) {
+				bucket.clear();
+			}
+			packedMessages.clear();
+			otherMessages.clear();
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return packedMessages.isEmpty() && otherMessages.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return packedMessages.size() + otherMessages.size();
+	}
+
+	private int index(long epoch) {
+		return (int) (epoch % ring.length);
+	}
+
+	/**
+	 * Exchange with the number of the interval it was received in.
+	 */
+	private static final class DedupExchange {
+
+		private final Exchange exchange;
+		private final long epoch;
+
+		private DedupExchange(Exchange exchange, long epoch) {
+			this.exchange = exchange;
+			this.epoch = epoch;
+		}
+	}
+
+	/**
+	 * Keys received within an interval.
+	 *
+	 * Split into stripes selected by the receiving thread to reduce the
+	 * contention when adding keys.
+	 */
+	private static final class Bucket {
+
+		private final Stripe[] stripes;
+
+		private Bucket(int stripes) {
+			this.stripes = new Stripe[Math.max(1, stripes)];
+			for (int index = 0; index < this.stripes.length; ++index) {
+				this.stripes[index] = new Stripe();
+			}
+		}
+
+		private Stripe stripe() {
+			long id = Thread.currentThread().getId();
+			return stripes[(int) (id % stripes.length)];
+		}
+
+		private void add(long key) {
+			Stripe stripe = stripe();
+			synchronized (stripe) {
+				stripe.add(key);
+			}
+		}
+
+		private void add(KeyMID key) {
+			Stripe stripe = stripe();
+			synchronized (stripe) {
+				stripe.others.add(key);
+			}
+		}
+
+		private void clear() {
+			for (Stripe stripe : stripes) {
+				synchronized (stripe) {
+					stripe.reset();
+				}
+			}
+		}
+	}
+
+	private static final class Stripe {
+
+		private long[] keys = new long[STRIPE_CAPACITY];
+		private int count;
+		private List<KeyMID> others = new ArrayList<KeyMID>();
+
+		private void add(long key) {
+			if (count == keys.length) {
+				long[] grown = new long[keys.length << 1];
+				System.arraycopy(keys, 0, grown, 0, count);
+				keys = grown;
+			}
+			keys[count++] = key;
+		}
+
+		/**
+		 * Reset the stripe. Large arrays are released, if they were mostly
+		 * unused.
+		 */
+		private void reset() {
+			if (keys.length > STRIPE_CAPACITY && count < keys.length >> 2) {
+				keys = new long[Math.max(STRIPE_CAPACITY, keys.length >> 1)];
+			}
+			count = 0;
+			if (!others.isEmpty()) {
+				others = new ArrayList<KeyMID>();
+			}
+		}
+	}
+
+	/**
+	 * The rotation advances the ring and removes the messages of the oldest
+	 * bucket.
+	 */
+	private class Rotation implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				rotate();
+			} catch (Throwable t) {
+				LOGGER.warn("Exception in Ring-Deduplicator rotation", t);
+			}
+		}
+
+		private void rotate() {
+			synchronized (ring) {
+				long next = epoch + 1;
+				// the bucket of the next interval contains the messages of
+				// the interval, which ended EXCHANGE_LIFETIME ago.
+				long expired = next - ring.length;
+				Bucket bucket = ring[index(next)];
+				int removed = 0;
+				for (Stripe stripe : bucket.stripes) {
+					synchronized (stripe) {
+						for (int index = 0; index < stripe.count; ++index) {
+							long key = stripe.keys[index];
+							DedupExchange dedup = packedMessages.get(key);
+							if (dedup != null && dedup.epoch == expired && packedMessages.remove(key, dedup)) {
+								++removed;
+							}
+						}
+						for (KeyMID key : stripe.others) {
+							DedupExchange dedup = otherMessages.get(key);
+							if (dedup != null && dedup.epoch == expired && otherMessages.remove(key, dedup)) {
+								++removed;
+							}
+						}
+						stripe.reset();
+					}
+				}
+				epoch = next;
+				LOGGER.trace("Ring-Deduplicator removed {} entries, {} left", removed, size());
+			}
+		}
+	}
+}
@@ -12,6 +12,7 @@ import com.coap.core.network.Exchange;
 import com.coap.core.network.Exchange.KeyMID;
 import com.coap.core.network.config.NetworkConfig;
 import com.coap.elements.util.ClockUtil;
+import com.coap.elements.util.ConcurrentLongMap;
 import com.coap.elements.util.ExecutorsUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +29,11 @@ import java.util.concurrent.TimeUnit;
  * The deduplicator periodically iterates through all entries and removes
  * messages (exchanges) that have been received before EXCHANGE_LIFETIME seconds.
  * </p>
+ * <p>
+ * Messages from IPv4 endpoints are stored with their packed keys, see
+ * {@link KeyMID#getPackedKey()}, so duplicates could be found without
+ * creating a {@link KeyMID}.
+ * </p>
  */
 public final class SweepDeduplicator implements Deduplicator {
 
@@ -58,7 +64,9 @@ public final class SweepDeduplicator implements Deduplicator {
         }
     }
 
-    /** The hash map with all incoming messages. */
+    /** The hash map with all incoming messages from IPv4 endpoints. */
+    private final ConcurrentLongMap<DedupExchange> packedMessages = new ConcurrentLongMap<DedupExchange>();
+    /** The hash map with all other incoming messages. */
     private final ConcurrentMap<KeyMID, DedupExchange> incomingMessages = new ConcurrentHashMap<>();
     private final SweepAlgorithm algorithm;
     private final long sweepInterval;
@@ -112,29 +120,55 @@ public final class SweepDeduplicator implements Deduplicator {
      */
     @Override
     public Exchange findPrevious(final KeyMID key, final Exchange exchange) {
-        DedupExchange previous = incomingMessages.putIfAbsent(key, new DedupExchange(exchange));
+        DedupExchange previous;
+        if (key.hasPackedKey()) {
+            previous = packedMessages.putIfAbsent(key.getPackedKey(), new DedupExchange(exchange));
+        } else {
+            previous = incomingMessages.putIfAbsent(key, new DedupExchange(exchange));
+        }
         return null == previous ? null : previous.exchange;
     }
 
     @Override
     public Exchange find(KeyMID key) {
+        if (key.hasPackedKey()) {
+            return find(key.getPackedKey());
+        }
         DedupExchange previous = incomingMessages.get(key);
         return null == previous ? null : previous.exchange;
     }
 
+    @Override
+    public Exchange find(long packedKey) {
+        DedupExchange previous = packedMessages.get(packedKey);
+        return null == previous ? null : previous.exchange;
+    }
+
+    @Override
+    public boolean remove(final KeyMID key, final Exchange exchange) {
+        if (key.hasPackedKey()) {
+            long packed = key.getPackedKey();
+            DedupExchange previous = packedMessages.get(packed);
+            return null != previous && previous.exchange == exchange && packedMessages.remove(packed, previous);
+        }
+        DedupExchange previous = incomingMessages.get(key);
+        return null != previous && previous.exchange == exchange && incomingMessages.remove(key, previous);
+    }
+
     @Override
     public void clear() {
+        packedMessages.clear();
         incomingMessages.clear();
     }
 
     @Override
     public boolean isEmpty() {
-        return incomingMessages.isEmpty();
+        return packedMessages.isEmpty() && incomingMessages.isEmpty();
     }
 
     @Override
     public int size() {
-        return incomingMessages.size();
+        return packedMessages.size() + incomingMessages.size();
     }
 
     /**
@@ -150,7 +184,7 @@ public final class SweepDeduplicator implements Deduplicator {
         @Override
         public void run() {
             try {
-                LOGGER.trace("Start Mark-And-Sweep with {} entries", incomingMessages.size());
+                LOGGER.trace("Start Mark-And-Sweep with {} entries", size());
                 sweep();
 
             } catch (Throwable t) {
@@ -163,10 +197,20 @@ public final class SweepDeduplicator implements Deduplicator {
          */
         private void sweep() {
 
-            if (!incomingMessages.isEmpty()) {
+            if (!isEmpty()) {
                 final long start = ClockUtil.nanoRealtime();
                 final long oldestAllowed = start - TimeUnit.MILLISECONDS.toNanos(exchangeLifetime);
 
+                for (Map.Entry<Long, DedupExchange> entry : packedMessages.entries(Integer.MAX_VALUE)) {
+                    DedupExchange exchange = entry.getValue();
+                    if ((exchange.nanoTimestamp - oldestAllowed) < 0) {
+                        if (LOGGER.isTraceEnabled()) {
+                            LOGGER.trace("Mark-And-Sweep removes {}", KeyMID.fromPackedKey(entry.getKey()));
+                        }
+                        packedMessages.remove(entry.getKey(), exchange);
+                    }
+                }
+
                 // Notice that ConcurrentHashMap guarantees the correctness for this iteration.
                 for (Map.Entry<?, DedupExchange> entry : incomingMessages.entrySet()) {
                     DedupExchange exchange = entry.getValue();
@@ -13,14 +13,52 @@ import com.coap.elements.RawData;
 import com.coap.elements.util.DatagramReader;
 
 import java.io.ByteArrayInputStream;
+import java.util.Arrays;
 
 import static com.coap.core.coap.CoAP.MessageFormat.PAYLOAD_MARKER;
 
 /**
  * A base class for parsing CoAP messages from a byte array.
+ * <p>
+ * In lazy mode only the header and the token are decoded on parsing. The
+ * encoding of the options and the payload is validated by a single pass over
+ * the bytes using offsets, and then attached to the message as
+ * {@link EncodedMessageBody}. The options and the payload are decoded, when
+ * the message accesses them the first time.
  */
 public abstract class DataParser {
 
+    /**
+     * Decode options and payload on first access.
+     */
+    private final boolean lazyDecoding;
+
+    /**
+     * Creates a parser, which decodes the complete message on parsing.
+     */
+    protected DataParser() {
+        this(false);
+    }
+
+    /**
+     * Creates a parser.
+     *
+     * @param lazyDecoding {@code true}, to decode options and payload on
+     *            first access, {@code false}, to decode them on parsing.
+     */
+    protected DataParser(final boolean lazyDecoding) {
+        this.lazyDecoding = lazyDecoding;
+    }
+
+    /**
+     * Checks, if options and payload are decoded on first access.
+     *
+     * @return {@code true}, if options and payload are decoded lazily.
+     */
+    public boolean isLazyDecoding() {
+        return lazyDecoding;
+    }
+
     /**
      * Parses a byte array into a CoAP Message.
      *
@@ -34,7 +72,13 @@ public abstract class DataParser {
         if (raw == null) {
             throw new NullPointerException("raw-data must not be null!");
         }
-        Message message = parseMessage(raw.getBytes());
+        Message message;
+        if (raw.isPooled()) {
+            // parse in place, the pooled buffer must not be kept by the message
+            message = parseMessage(raw.bytes, raw.getSize(), true);
+        } else {
+            message = parseMessage(raw.getBytes());
+        }
         message.setSourceContext(raw.getEndpointContext());
         return message;
     }
@@ -47,23 +91,59 @@ public abstract class DataParser {
      * @throws MessageFormatException if the array cannot be parsed into a message.
      */
     public final Message parseMessage(final byte[] msg) {
+        Message message = parseMessage(msg, msg.length, false);
+        // Set the message's bytes and return the message
+        message.setBytes(msg);
+        return message;
+    }
+
+    /**
+     * Parses the first bytes of an array into a CoAP Message.
+     *
+     * @param msg the byte array to parse.
+     * @param length the number of bytes to parse.
+     * @param pooled {@code true}, if the array is a pooled buffer, which
+     *            must not be referenced by the message. {@code false}, if
+     *            the message may keep a reference to the array.
+     * @return the message.
+     * @throws MessageFormatException if the array cannot be parsed into a message.
+     */
+    private Message parseMessage(final byte[] msg, final int length, final boolean pooled) {
 
         String errorMsg = "illegal message code";
-        DatagramReader reader = new DatagramReader(new ByteArrayInputStream(msg));
+        DatagramReader reader = new DatagramReader(new ByteArrayInputStream(msg, 0, length));
         MessageHeader header = parseHeader(reader);
         try {
             Message message = null;
             if (CoAP.isRequest(header.getCode())) {
-                message = parseMessage(reader, header, new Request(CoAP.Code.valueOf(header.getCode())));
+                message = new Request(CoAP.Code.valueOf(header.getCode()));
             } else if (CoAP.isResponse(header.getCode())) {
-                message = parseMessage(reader, header, new Response(CoAP.ResponseCode.valueOf(header.getCode())));
+                message = new Response(CoAP.ResponseCode.valueOf(header.getCode()));
             } else if (CoAP.isEmptyMessage(header.getCode())) {
-                message = parseMessage(reader, header, new EmptyMessage(header.getType()));
+                message = new EmptyMessage(header.getType());
             }
 
-            // Set the message's bytes and return the message
             if (message != null) {
-                message.setBytes(msg);
+                message.setMID(header.getMID());
+                message.setType(header.getType());
+                message.setToken(header.getToken());
+                if (lazyDecoding) {
+                    // the header is byte aligned
+                    int offset = length - reader.bitsLeft() / Byte.SIZE;
+                    if (offset < length) {
+                        LazyMessageBody body;
+                        if (pooled) {
+                            // copy the encoded body once, instead of decoding it
+                            body = LazyMessageBody.scan(Arrays.copyOfRange(msg, offset, length), 0, length - offset,
+                                    message);
+                        } else {
+                            body = LazyMessageBody.scan(msg, offset, length, message);
+                        }
+                        message.setEncodedBody(body);
+                    }
+                } else {
+                    parseOptionsAndPayload(reader, message);
+                }
                 return message;
             }
         } catch (MessageFormatException e) {
@@ -73,15 +153,6 @@ public abstract class DataParser {
         throw new CoAPMessageFormatException(errorMsg, header.getMID(), header.getCode(), CoAP.Type.CON == header.getType());
     }
 
-    private static Message parseMessage(final DatagramReader source, final MessageHeader header, final Message target) {
-        target.setMID(header.getMID());
-        target.setType(header.getType());
-        target.setToken(header.getToken());
-
-        parseOptionsAndPayload(source, target);
-        return target;
-    }
-
     /**
      * Parses a byte array into a CoAP message header.
      * <p>
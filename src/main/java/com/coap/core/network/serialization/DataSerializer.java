@@ -6,13 +6,103 @@ import com.coap.elements.MessageCallback;
 import com.coap.elements.RawData;
 import com.coap.elements.util.DatagramWriter;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import static com.coap.core.coap.CoAP.MessageFormat.*;
 
 /**
  * Serializes messages into wire format.
+ * <p>
+ * The exact size of the encoded message is calculated first, then the header,
+ * token, options and payload are written in a single pass into an array of
+ * that size, or into a caller supplied array or {@link ByteBuffer}.
+ * <p>
+ * Optionally, the encoded options and payload of responses are cached as
+ * {@link MessageTemplate}s. Responses with the same code, options and
+ * payload, e.g. notifications sent to many observers, then only require to
+ * write the header and token, the observe option and copy the cached bytes.
  */
 public abstract class DataSerializer {
 
+	/**
+	 * Thread local array used to serialize into {@link ByteBuffer}s without
+	 * accessible array.
+	 */
+	private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>();
+
+	/**
+	 * Prepared encoding of a message.
+	 */
+	private static final class Encoding {
+
+		private final MessageHeader header;
+		private final OptionSet options;
+		private final byte[] payload;
+		private final MessageTemplate template;
+		private final Integer observe;
+		private final int size;
+
+		private Encoding(MessageHeader header, OptionSet options, byte[] payload, MessageTemplate template,
+				Integer observe, int size) {
+			this.header = header;
+			this.options = options;
+			this.payload = payload;
+			this.template = template;
+			this.observe = observe;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Cached templates of responses. Direct mapped by the hash of the
+	 * template. {@code null}, if templates are not used.
+	 */
+	private final AtomicReferenceArray<MessageTemplate> templates;
+
+	/**
+	 * Creates a serializer without template cache.
+	 */
+	protected DataSerializer() {
+		this(0);
+	}
+
+	/**
+	 * Creates a serializer.
+	 *
+	 * @param templateCacheSize number of cached response templates. Rounded
+	 *            up to the next power of two. {@code 0}, to disable the
+	 *            template cache.
+	 * @throws IllegalArgumentException if the size is negative or larger
+	 *             than {@code 2^30}.
+	 */
+	protected DataSerializer(final int templateCacheSize) {
+		if (templateCacheSize < 0 || templateCacheSize > (1 << 30)) {
+			throw new IllegalArgumentException("template cache size " + templateCacheSize + " is out of range!");
+		}
+		if (templateCacheSize == 0) {
+			this.templates = null;
+		} else {
+			int size = Integer.highestOneBit(templateCacheSize);
+			if (size < templateCacheSize) {
+				size <<= 1;
+			}
+			this.templates = new AtomicReferenceArray<MessageTemplate>(size);
+		}
+	}
+
+	/**
+	 * Gets the number of cached response templates.
+	 *
+	 * @return number of cached templates, {@code 0}, if the template cache is
+	 *         disabled.
+	 */
+	public int getTemplateCacheSize() {
+		return templates == null ? 0 : templates.length();
+	}
+
 	/**
 	 * Serializes a message to the wire format.
 	 * <p>
@@ -26,10 +116,112 @@ public abstract class DataSerializer {
 	 *             empty-message uses a none-empty-token.
 	 */
 	public final byte[] getByteArray(final Message message) {
+		Encoding encoding = prepare(message);
+		byte[] bytes = new byte[encoding.size];
+		write(encoding, bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * Serializes a message to the wire format into the provided array.
+	 * <p>
+	 * This does <em>not</em> cache the bytes in the message's <em>bytes</em>
+	 * property.
+	 * 
+	 * @param message The message to serialize.
+	 * @param buffer The array to write the encoded message to.
+	 * @param offset The offset in the array to start writing.
+	 * @return The number of written bytes.
+	 * @throws NullPointerException if message or buffer is {@code null}
+	 * @throws IllegalArgumentException if a NON empty-message is provided, or a
+	 *             empty-message uses a none-empty-token, or the encoded
+	 *             message exceeds the array.
+	 */
+	public final int serialize(final Message message, final byte[] buffer, final int offset) {
+		if (buffer == null) {
+			throw new NullPointerException("buffer must not be null!");
+		}
+		Encoding encoding = prepare(message);
+		if (offset < 0 || offset + encoding.size > buffer.length) {
+			throw new IllegalArgumentException("Message with " + encoding.size + " bytes exceeds buffer of "
+					+ buffer.length + " bytes at offset " + offset + "!");
+		}
+		write(encoding, buffer, offset);
+		return encoding.size;
+	}
+
+	/**
+	 * Serializes a message to the wire format into the provided buffer.
+	 * <p>
+	 * The message is written at the buffer's position, which is then advanced
+	 * by the number of written bytes. Buffers without accessible array, e.g.
+	 * direct buffers, are written using a thread local array.
+	 * <p>
+	 * This does <em>not</em> cache the bytes in the message's <em>bytes</em>
+	 * property.
+	 * 
+	 * @param message The message to serialize.
+	 * @param buffer The buffer to write the encoded message to.
+	 * @return The number of written bytes.
+	 * @throws NullPointerException if message or buffer is {@code null}
+	 * @throws IllegalArgumentException if a NON empty-message is provided, or a
+	 *             empty-message uses a none-empty-token.
+	 * @throws BufferOverflowException if the encoded message exceeds the
+	 *             remaining bytes of the buffer.
+	 */
+	public final int serialize(final Message message, final ByteBuffer buffer) {
+		if (buffer == null) {
+			throw new NullPointerException("buffer must not be null!");
+		}
+		Encoding encoding = prepare(message);
+		if (encoding.size > buffer.remaining()) {
+			throw new BufferOverflowException();
+		}
+		if (buffer.hasArray()) {
+			write(encoding, buffer.array(), buffer.arrayOffset() + buffer.position());
+			buffer.position(buffer.position() + encoding.size);
+		} else {
+			byte[] scratch = SCRATCH.get();
+			if (scratch == null || scratch.length < encoding.size) {
+				scratch = new byte[encoding.size];
+				SCRATCH.set(scratch);
+			}
+			write(encoding, scratch, 0);
+			buffer.put(scratch, 0, encoding.size);
+		}
+		return encoding.size;
+	}
+
+	/**
+	 * Gets the size of a message in wire format.
+	 * 
+	 * @param message The message.
+	 * @return The size in bytes.
+	 * @throws NullPointerException if message is {@code null}
+	 * @throws IllegalArgumentException if a NON empty-message is provided, or a
+	 *             empty-message uses a none-empty-token.
+	 */
+	public final int getSize(final Message message) {
+		return prepare(message).size;
+	}
+
+	/**
+	 * Validate message and calculate the size of its encoding.
+	 * 
+	 * @param message message to be serialized
+	 * @return prepared encoding
+	 * @throws NullPointerException if message is {@code null}
+	 * @throws IllegalArgumentException if a NON empty-message is provided, or a
+	 *             empty-message uses a none-empty-token.
+	 */
+	private Encoding prepare(final Message message) {
 		if (message == null) {
 			throw new NullPointerException("message must not be null!");
 		}
-		DatagramWriter messageWriter = new DatagramWriter();
+		MessageHeader header;
+		OptionSet options = null;
+		byte[] payload = null;
+		int bodySize = 0;
 		if (message.getRawCode() == 0) {
 			// simple serialization for empty message.
 			// https://tools.ietf.org/html/rfc7252#section-4.1
@@ -40,23 +232,67 @@ public abstract class DataSerializer {
 			} else if (message.getPayloadSize() > 0) {
 				throw new IllegalArgumentException("Empty messages must not contain payload!");
 			}
-			MessageHeader header = new MessageHeader(CoAP.VERSION, message.getType(), message.getToken(), 0,
-					message.getMID(), 0);
-			serializeHeader(messageWriter, header);
-			messageWriter.writeCurrentByte();
+			header = new MessageHeader(CoAP.VERSION, message.getType(), message.getToken(), 0, message.getMID(), 0);
+		} else if (templates != null && message instanceof Response) {
+			OptionSet optionSet = message.getOptions();
+			Integer observe = optionSet.getObserve();
+			MessageTemplate template = getTemplate(message.getRawCode(), optionSet, message.getPayload());
+			bodySize = template.getBodySize(observe);
+			header = new MessageHeader(CoAP.VERSION, message.getType(), message.getToken(), message.getRawCode(),
+					message.getMID(), bodySize);
+			return new Encoding(header, null, null, template, observe, getHeaderSize(header) + bodySize);
 		} else {
-			DatagramWriter optionsAndPayloadWriter = new DatagramWriter();
-			serializeOptionsAndPayload(optionsAndPayloadWriter, message.getOptions(), message.getPayload());
-			optionsAndPayloadWriter.writeCurrentByte();
+			options = message.getOptions();
+			payload = message.getPayload();
+			bodySize = OptionSetEncoder.getSize(options);
+			if (payload != null && payload.length > 0) {
+				bodySize += 1 + payload.length;
+			}
+			header = new MessageHeader(CoAP.VERSION, message.getType(), message.getToken(), message.getRawCode(),
+					message.getMID(), bodySize);
+		}
+		return new Encoding(header, options, payload, null, null, getHeaderSize(header) + bodySize);
+	}
 
-			MessageHeader header = new MessageHeader(CoAP.VERSION, message.getType(), message.getToken(),
-					message.getRawCode(), message.getMID(), optionsAndPayloadWriter.size());
+	/**
+	 * Get cached template or create and cache a new one.
+	 * 
+	 * @param rawCode code of the response
+	 * @param options options of the response. The observe option is not
+	 *            part of the template.
+	 * @param payload payload of the response. Maybe {@code null} for no
+	 *            payload.
+	 * @return template
+	 * @throws IllegalArgumentException if an option delta or length is not
+	 *             supported.
+	 */
+	private MessageTemplate getTemplate(final int rawCode, final OptionSet options, final byte[] payload) {
+		int hash = MessageTemplate.hashCode(rawCode, options, payload);
+		int slot = (hash ^ (hash >>> 16)) & (templates.length() - 1);
+		MessageTemplate template = templates.get(slot);
+		if (template == null || !template.matches(rawCode, options, payload, hash)) {
+			template = new MessageTemplate(rawCode, options, payload, hash);
+			templates.set(slot, template);
+		}
+		return template;
+	}
 
-			serializeHeader(messageWriter, header);
-			messageWriter.writeCurrentByte();
-			messageWriter.write(optionsAndPayloadWriter);
+	/**
+	 * Write prepared encoding.
+	 * 
+	 * @param encoding prepared encoding
+	 * @param buffer array to write to. Must provide the size of the encoding
+	 *            at the offset.
+	 * @param offset offset to start writing
+	 */
+	private void write(final Encoding encoding, final byte[] buffer, final int offset) {
+		int position = writeHeader(buffer, offset, encoding.header);
+		if (encoding.template != null) {
+			encoding.template.writeBody(buffer, position, encoding.observe);
+		} else if (encoding.options != null) {
+			position = OptionSetEncoder.write(buffer, position, encoding.options);
+			writePayload(buffer, position, encoding.payload);
 		}
-		return messageWriter.toByteArray();
 	}
 
 	/**
@@ -177,6 +413,202 @@ public abstract class DataSerializer {
 	 */
 	protected abstract void serializeHeader(DatagramWriter writer, MessageHeader header);
 
+	/**
+	 * Gets the size of a message's <em>header</em> in wire format, including
+	 * the token.
+	 * <p>
+	 * The default implementation serializes the header using
+	 * {@link #serializeHeader(DatagramWriter, MessageHeader)}. Subclasses
+	 * should override this together with
+	 * {@link #writeHeader(byte[], int, MessageHeader)}.
+	 * 
+	 * @param header The header values.
+	 * @return The size in bytes.
+	 */
+	protected int getHeaderSize(MessageHeader header) {
+		DatagramWriter writer = new DatagramWriter();
+		serializeHeader(writer, header);
+		writer.writeCurrentByte();
+		return writer.size();
+	}
+
+	/**
+	 * Writes a message's <em>header</em> values in wire format into an array.
+	 * <p>
+	 * The default implementation serializes the header using
+	 * {@link #serializeHeader(DatagramWriter, MessageHeader)} and copies the
+	 * result.
+	 * 
+	 * @param buffer The array to write to. Provides at least
+	 *            {@link #getHeaderSize(MessageHeader)} bytes at the offset.
+	 * @param offset The offset to start writing.
+	 * @param header The header values.
+	 * @return The offset after the header.
+	 */
+	protected int writeHeader(byte[] buffer, int offset, MessageHeader header) {
+		DatagramWriter writer = new DatagramWriter();
+		serializeHeader(writer, header);
+		writer.writeCurrentByte();
+		byte[] bytes = writer.toByteArray();
+		System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+		return offset + bytes.length;
+	}
+
+	/**
+	 * Gets the size of the options and payload in wire format.
+	 * 
+	 * @param options options sorted by their number, see
+	 *            {@link OptionSet#asSortedList()}.
+	 * @param payload payload. Maybe {@code null} for no payload.
+	 * @return size in bytes
+	 * @throws IllegalArgumentException if an option delta or length is not
+	 *             supported.
+	 */
+	public static int getOptionsAndPayloadSize(final List<Option> options, final byte[] payload) {
+		int size = getOptionsSize(options, 0);
+		if (payload != null && payload.length > 0) {
+			size += 1 + payload.length;
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the size of options in wire format.
+	 * 
+	 * @param options options sorted by their number.
+	 * @param lastOptionNumber number of the option preceding the first
+	 *            option, {@code 0}, for the first option of a message.
+	 * @return size in bytes
+	 * @throws IllegalArgumentException if an option delta or length is not
+	 *             supported.
+	 */
+	static int getOptionsSize(final List<Option> options, int lastOptionNumber) {
+		int size = 0;
+		for (Option option : options) {
+			int optionNumber = option.getNumber();
+			size += getOptionSize(optionNumber - lastOptionNumber, option.getLength());
+			lastOptionNumber = optionNumber;
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the size of a single option in wire format.
+	 * 
+	 * @param optionDelta delta to the number of the preceding option.
+	 * @param optionLength length of the option value.
+	 * @return size in bytes
+	 * @throws IllegalArgumentException if the option delta or length is not
+	 *             supported.
+	 */
+	static int getOptionSize(final int optionDelta, final int optionLength) {
+		return 1 + getExtendedSize(optionDelta) + getExtendedSize(optionLength) + optionLength;
+	}
+
+	/**
+	 * Writes options and payload in wire format into an array.
+	 * 
+	 * @param buffer array to write to. Provides at least
+	 *            {@link #getOptionsAndPayloadSize(List, byte[])} bytes at the
+	 *            offset.
+	 * @param offset offset to start writing.
+	 * @param options options sorted by their number, see
+	 *            {@link OptionSet#asSortedList()}.
+	 * @param payload payload. Maybe {@code null} for no payload.
+	 * @return offset after the options and payload.
+	 * @throws IllegalArgumentException if an option delta or length is not
+	 *             supported.
+	 */
+	public static int writeOptionsAndPayload(final byte[] buffer, int offset, final List<Option> options,
+			final byte[] payload) {
+		offset = writeOptions(buffer, offset, options, 0);
+		return writePayload(buffer, offset, payload);
+	}
+
+	/**
+	 * Writes options in wire format into an array.
+	 * 
+	 * @param buffer array to write to.
+	 * @param offset offset to start writing.
+	 * @param options options sorted by their number.
+	 * @param lastOptionNumber number of the option preceding the first
+	 *            option, {@code 0}, for the first option of a message.
+	 * @return offset after the options.
+	 * @throws IllegalArgumentException if an option delta or length is not
+	 *             supported.
+	 */
+	static int writeOptions(final byte[] buffer, int offset, final List<Option> options, int lastOptionNumber) {
+		for (Option option : options) {
+			int optionNumber = option.getNumber();
+			offset = writeOption(buffer, offset, optionNumber - lastOptionNumber, option.getValue());
+			lastOptionNumber = optionNumber;
+		}
+		return offset;
+	}
+
+	/**
+	 * Writes a single option in wire format into an array.
+	 * 
+	 * @param buffer array to write to.
+	 * @param offset offset to start writing.
+	 * @param optionDelta delta to the number of the preceding option.
+	 * @param value option value
+	 * @return offset after the option.
+	 * @throws IllegalArgumentException if the option delta or length is not
+	 *             supported.
+	 */
+	static int writeOption(final byte[] buffer, int offset, final int optionDelta, final byte[] value) {
+		int optionLength = value.length;
+		offset = writeOptionHeader(buffer, offset, optionDelta, optionLength);
+
+		// write option value
+		System.arraycopy(value, 0, buffer, offset, optionLength);
+		return offset + optionLength;
+	}
+
+	/**
+	 * Writes the header of a single option in wire format into an array.
+	 * 
+	 * @param buffer array to write to.
+	 * @param offset offset to start writing.
+	 * @param optionDelta delta to the number of the preceding option.
+	 * @param optionLength length of the option value
+	 * @return offset of the option value.
+	 * @throws IllegalArgumentException if the option delta or length is not
+	 *             supported.
+	 */
+	static int writeOptionHeader(final byte[] buffer, int offset, final int optionDelta, final int optionLength) {
+		int optionDeltaNibble = getOptionNibble(optionDelta);
+		int optionLengthNibble = getOptionNibble(optionLength);
+
+		// write 4-bit option delta and 4-bit option length
+		buffer[offset++] = (byte) ((optionDeltaNibble << OPTION_LENGTH_BITS) | optionLengthNibble);
+
+		// write extended option delta and length field (0 - 2 bytes each)
+		offset = writeExtended(buffer, offset, optionDeltaNibble, optionDelta);
+		return writeExtended(buffer, offset, optionLengthNibble, optionLength);
+	}
+
+	/**
+	 * Writes payload in wire format into an array.
+	 * 
+	 * @param buffer array to write to.
+	 * @param offset offset to start writing.
+	 * @param payload payload. Maybe {@code null} for no payload.
+	 * @return offset after the payload.
+	 */
+	static int writePayload(final byte[] buffer, int offset, final byte[] payload) {
+		if (payload != null && payload.length > 0) {
+			// if payload is present and of non-zero length, it is prefixed by
+			// an one-byte Payload Marker (0xFF) which indicates the end of
+			// options and the start of the payload
+			buffer[offset++] = PAYLOAD_MARKER;
+			System.arraycopy(payload, 0, buffer, offset, payload.length);
+			offset += payload.length;
+		}
+		return offset;
+	}
+
 	/**
 	 * Serialize options and payload. Append the serialized options and payload
 	 * to the writer.
@@ -241,6 +673,38 @@ public abstract class DataSerializer {
 		}
 	}
 
+	/**
+	 * Returns the number of bytes of the extended option delta or length field.
+	 *
+	 * @param optionValue the option value (delta or length) to be encoded.
+	 * @return the number of bytes of the extended field.
+	 * @throws IllegalArgumentException if the option value is &gt; 65535 + 269.
+	 */
+	private static int getExtendedSize(final int optionValue) {
+		int nibble = getOptionNibble(optionValue);
+		return nibble == 13 ? 1 : (nibble == 14 ? 2 : 0);
+	}
+
+	/**
+	 * Writes the extended option delta or length field.
+	 *
+	 * @param buffer array to write to
+	 * @param offset offset to start writing
+	 * @param nibble the 4-bit option header value
+	 * @param optionValue the option value (delta or length) to be encoded.
+	 * @return offset after the extended field.
+	 */
+	private static int writeExtended(final byte[] buffer, int offset, final int nibble, final int optionValue) {
+		if (nibble == 13) {
+			buffer[offset++] = (byte) (optionValue - 13);
+		} else if (nibble == 14) {
+			int value = optionValue - 269;
+			buffer[offset++] = (byte) (value >> 8);
+			buffer[offset++] = (byte) value;
+		}
+		return offset;
+	}
+
 	/**
 	 * Returns the 4-bit option header value.
 	 *
@@ -0,0 +1,185 @@
+package com.coap.core.network.serialization;
+
+import com.coap.core.coap.CoAPMessageFormatException;
+import com.coap.core.coap.EncodedMessageBody;
+import com.coap.core.coap.Message;
+import com.coap.core.coap.Option;
+import com.coap.core.coap.OptionSet;
+
+import java.util.Arrays;
+
+import static com.coap.core.coap.CoAP.MessageFormat.PAYLOAD_MARKER;
+
+/**
+ * Encoded options and payload of a received message.
+ *
+ * {@link #scan(byte[], int, int, Message)} validates the encoding with a
+ * single pass over the bytes, without creating options or copying values.
+ * The options and the payload are then decoded from the same bytes on first
+ * access.
+ */
+final class LazyMessageBody implements EncodedMessageBody {
+
+	private final byte[] bytes;
+
+	/**
+	 * Offset of the first option.
+	 */
+	private final int optionsOffset;
+
+	/**
+	 * End of the options. Offset of the payload marker, or end of the
+	 * message, if no payload is contained.
+	 */
+	private final int optionsEnd;
+
+	/**
+	 * Offset of the payload. End of the message, if no payload is contained.
+	 */
+	private final int payloadOffset;
+
+	/**
+	 * End of the message.
+	 */
+	private final int end;
+
+	private LazyMessageBody(byte[] bytes, int optionsOffset, int optionsEnd, int payloadOffset, int end) {
+		this.bytes = bytes;
+		this.optionsOffset = optionsOffset;
+		this.optionsEnd = optionsEnd;
+		this.payloadOffset = payloadOffset;
+		this.end = end;
+	}
+
+	/**
+	 * Validate the encoded options and payload.
+	 *
+	 * Performs the same checks as
+	 * {@link DataParser#parseOptionsAndPayload(com.coap.elements.util.DatagramReader, Message)}.
+	 * Additionally, truncated extended option deltas or lengths are rejected.
+	 *
+	 * @param bytes bytes of the message. Must not be modified afterwards.
+	 * @param offset offset of the first option
+	 * @param end end of the message
+	 * @param message message with parsed header. Marked as having unintended
+	 *            payload, if payload is contained, but not intended.
+	 * @return encoded body
+	 * @throws CoAPMessageFormatException if the encoding is not valid
+	 */
+	static LazyMessageBody scan(byte[] bytes, int offset, int end, Message message) {
+		int position = offset;
+		int optionsEnd = end;
+		int payloadOffset = end;
+		while (position < end) {
+			byte nextByte = bytes[position++];
+			if (nextByte == PAYLOAD_MARKER) {
+				// the presence of a marker followed by a zero-length payload
+				// must be processed as a message format error
+				if (position == end) {
+					throw new CoAPMessageFormatException("Found payload marker (0xFF) but message contains no payload",
+							message.getMID(), message.getRawCode(), message.isConfirmable());
+				}
+				optionsEnd = position - 1;
+				payloadOffset = position;
+				break;
+			}
+			int deltaNibble = (0xF0 & nextByte) >> 4;
+			int lengthNibble = 0x0F & nextByte;
+			int deltaSize = getExtendedSize(deltaNibble, message);
+			int lengthSize = getExtendedSize(lengthNibble, message);
+			if (position + deltaSize + lengthSize > end) {
+				throw new CoAPMessageFormatException("Message contains truncated option header", message.getMID(),
+						message.getRawCode(), message.isConfirmable());
+			}
+			position += deltaSize;
+			int optionLength = getExtendedValue(bytes, position, lengthNibble);
+			position += lengthSize;
+			if (position + optionLength > end) {
+				String msg = String.format(
+						"Message contains option of length %d with only fewer bytes left in the message",
+						optionLength);
+				throw new CoAPMessageFormatException(msg, message.getMID(), message.getRawCode(),
+						message.isConfirmable());
+			}
+			position += optionLength;
+		}
+		if (payloadOffset < end && !message.isIntendedPayload()) {
+			message.setUnintendedPayload();
+		}
+		return new LazyMessageBody(bytes, offset, optionsEnd, payloadOffset, end);
+	}
+
+	@Override
+	public void decodeOptions(OptionSet options) {
+		int position = optionsOffset;
+		int optionNumber = 0;
+		while (position < optionsEnd) {
+			byte nextByte = bytes[position++];
+			int deltaNibble = (0xF0 & nextByte) >> 4;
+			int lengthNibble = 0x0F & nextByte;
+			optionNumber += getExtendedValue(bytes, position, deltaNibble);
+			position += getExtendedSize(deltaNibble, null);
+			int optionLength = getExtendedValue(bytes, position, lengthNibble);
+			position += getExtendedSize(lengthNibble, null);
+			Option option = new Option(optionNumber);
+			option.setValue(Arrays.copyOfRange(bytes, position, position + optionLength));
+			options.addOption(option);
+			position += optionLength;
+		}
+	}
+
+	@Override
+	public byte[] decodePayload() {
+		if (payloadOffset < end) {
+			return Arrays.copyOfRange(bytes, payloadOffset, end);
+		}
+		return null;
+	}
+
+	@Override
+	public int getPayloadSize() {
+		return end - payloadOffset;
+	}
+
+	/**
+	 * Get number of extended bytes for an option delta or length nibble.
+	 *
+	 * @param nibble option delta or length nibble
+	 * @param message message for the error report. {@code null}, if the
+	 *            nibble is already validated.
+	 * @return number of extended bytes
+	 * @throws CoAPMessageFormatException if the nibble is {@code 15}
+	 */
+	private static int getExtendedSize(int nibble, Message message) {
+		if (nibble <= 12) {
+			return 0;
+		} else if (nibble == 13) {
+			return 1;
+		} else if (nibble == 14) {
+			return 2;
+		} else if (message == null) {
+			throw new IllegalStateException("Illegal option delta/length: " + nibble);
+		} else {
+			throw new CoAPMessageFormatException("Message contains illegal option delta/length: " + nibble,
+					message.getMID(), message.getRawCode(), message.isConfirmable());
+		}
+	}
+
+	/**
+	 * Get option delta or length.
+	 *
+	 * @param bytes bytes of the message
+	 * @param position position of the extended bytes
+	 * @param nibble option delta or length nibble
+	 * @return option delta or length
+	 */
+	private static int getExtendedValue(byte[] bytes, int position, int nibble) {
+		if (nibble <= 12) {
+			return nibble;
+		} else if (nibble == 13) {
+			return (bytes[position] & 0xFF) + 13;
+		} else {
+			return (((bytes[position] & 0xFF) << 8) | (bytes[position + 1] & 0xFF)) + 269;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.coap.core.network.serialization;
+
+import com.coap.core.coap.Option;
+import com.coap.core.coap.OptionNumberRegistry;
+import com.coap.core.coap.OptionSet;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encoded invariant part of responses, which are sent with the same code,
+ * options and payload to many peers, e.g. notifications, multicast responses
+ * or responses of popular resources.
+ *
+ * The template contains the encoded options, except the observe option, and
+ * the payload. The observe option is inserted, when a message is written
+ * using the template, and only the option following it is encoded again, as
+ * its delta depends on the presence of the observe option. The header with
+ * the type, MID and token is written by the {@link DataSerializer}.
+ */
+public final class MessageTemplate {
+
+	/**
+	 * Number of leading and trailing payload bytes used for the hash.
+	 */
+	private static final int HASH_SAMPLE = 8;
+
+	private final int rawCode;
+
+	/**
+	 * Copy of the options. Only used to match messages, so the observe option
+	 * is ignored.
+	 */
+	private final OptionSet options;
+
+	/**
+	 * Copy of the payload. Maybe {@code null} for no payload.
+	 */
+	private final byte[] payload;
+
+	private final int hash;
+
+	/**
+	 * Encoded options with a number less than the observe option.
+	 */
+	private final byte[] head;
+
+	/**
+	 * Number of the last option in {@link #head}. {@code 0}, if empty.
+	 */
+	private final int headLastNumber;
+
+	/**
+	 * First option with a number greater than the observe option.
+	 * {@code null}, if not available.
+	 */
+	private final Option next;
+
+	/**
+	 * Encoded options following {@link #next} and the encoded payload.
+	 */
+	private final byte[] tail;
+
+	/**
+	 * Create template.
+	 *
+	 * @param rawCode code of the messages
+	 * @param options options of the message. The observe option is not
+	 *            included in the template.
+	 * @param payload payload. Maybe {@code null} for no payload.
+	 * @param hash hash of code, options and payload, see
+	 *            {@link #hashCode(int, OptionSet, byte[])}.
+	 * @throws IllegalArgumentException if an option delta or length is not
+	 *             supported.
+	 */
+	MessageTemplate(int rawCode, OptionSet options, byte[] payload, int hash) {
+		this.rawCode = rawCode;
+		this.options = new OptionSet(options).removeObserve();
+		this.payload = payload == null || payload.length == 0 ? null : payload.clone();
+		this.hash = hash;
+		List<Option> sorted = this.options.asSortedList();
+		int index = 0;
+		int size = sorted.size();
+		while (index < size && sorted.get(index).getNumber() < OptionNumberRegistry.OBSERVE) {
+			++index;
+		}
+		List<Option> headOptions = sorted.subList(0, index);
+		this.head = new byte[DataSerializer.getOptionsSize(headOptions, 0)];
+		DataSerializer.writeOptions(head, 0, headOptions, 0);
+		this.headLastNumber = index == 0 ? 0 : sorted.get(index - 1).getNumber();
+		this.next = index < size ? sorted.get(index) : null;
+		int lastNumber = next == null ? OptionNumberRegistry.OBSERVE : next.getNumber();
+		List<Option> tailOptions = sorted.subList(next == null ? size : index + 1, size);
+		int tailSize = DataSerializer.getOptionsSize(tailOptions, lastNumber);
+		if (this.payload != null) {
+			tailSize += 1 + this.payload.length;
+		}
+		this.tail = new byte[tailSize];
+		int offset = DataSerializer.writeOptions(tail, 0, tailOptions, lastNumber);
+		DataSerializer.writePayload(tail, offset, this.payload);
+	}
+
+	/**
+	 * Check, if the template encodes the provided code, options and payload.
+	 *
+	 * @param rawCode code of the message
+	 * @param options options of the message. The observe option is ignored.
+	 * @param payload payload. Maybe {@code null} for no payload.
+	 * @param hash hash of code, options and payload
+	 * @return {@code true}, if the template matches, {@code false},
+	 *         otherwise.
+	 */
+	boolean matches(int rawCode, OptionSet options, byte[] payload, int hash) {
+		if (this.hash != hash || this.rawCode != rawCode) {
+			return false;
+		}
+		if (payload == null || payload.length == 0) {
+			if (this.payload != null) {
+				return false;
+			}
+		} else if (!Arrays.equals(payload, this.payload)) {
+			return false;
+		}
+		return this.options.equalsIgnoringObserve(options);
+	}
+
+	/**
+	 * Get size of the encoded options and payload.
+	 *
+	 * @param observe value of the observe option. {@code null}, if not
+	 *            available.
+	 * @return size in bytes
+	 */
+	int getBodySize(Integer observe) {
+		int size = head.length + tail.length;
+		int lastNumber = headLastNumber;
+		if (observe != null) {
+			size += DataSerializer.getOptionSize(OptionNumberRegistry.OBSERVE - lastNumber,
+					getObserveLength(observe));
+			lastNumber = OptionNumberRegistry.OBSERVE;
+		}
+		if (next != null) {
+			size += DataSerializer.getOptionSize(next.getNumber() - lastNumber, next.getLength());
+		}
+		return size;
+	}
+
+	/**
+	 * Write encoded options and payload.
+	 *
+	 * @param buffer array to write to. Provides at least
+	 *            {@link #getBodySize(Integer)} bytes at the offset.
+	 * @param offset offset to start writing
+	 * @param observe value of the observe option. {@code null}, if not
+	 *            available.
+	 * @return offset after the options and payload
+	 */
+	int writeBody(byte[] buffer, int offset, Integer observe) {
+		System.arraycopy(head, 0, buffer, offset, head.length);
+		offset += head.length;
+		int lastNumber = headLastNumber;
+		if (observe != null) {
+			int value = observe;
+			int length = getObserveLength(value);
+			// the option delta is at most 6, so no extended delta is required
+			buffer[offset++] = (byte) (((OptionNumberRegistry.OBSERVE - lastNumber) << 4) | length);
+			for (int index = length - 1; index >= 0; --index) {
+				buffer[offset++] = (byte) (value >> (index * Byte.SIZE));
+			}
+			lastNumber = OptionNumberRegistry.OBSERVE;
+		}
+		if (next != null) {
+			offset = DataSerializer.writeOption(buffer, offset, next.getNumber() - lastNumber, next.getValue());
+		}
+		System.arraycopy(tail, 0, buffer, offset, tail.length);
+		return offset + tail.length;
+	}
+
+	/**
+	 * Get number of bytes of the encoded observe option value.
+	 *
+	 * @param observe value of the observe option, {@code 0} to
+	 *            {@code 2^24 - 1}.
+	 * @return number of bytes. {@code 0} to {@code 3}.
+	 */
+	private static int getObserveLength(int observe) {
+		if (observe == 0) {
+			return 0;
+		} else if (observe < 0x100) {
+			return 1;
+		} else if (observe < 0x10000) {
+			return 2;
+		} else {
+			return 3;
+		}
+	}
+
+	/**
+	 * Calculate hash of code, options and payload.
+	 *
+	 * Only the length and up to {@link #HASH_SAMPLE} leading and trailing
+	 * bytes of the payload are hashed. That keeps the costs low for large
+	 * payloads, {@link #matches(int, OptionSet, byte[], int)} compares the
+	 * complete payload anyway.
+	 *
+	 * @param rawCode code of the message
+	 * @param options options of the message. The observe option is ignored.
+	 * @param payload payload. Maybe {@code null} for no payload.
+	 * @return hash
+	 */
+	static int hashCode(int rawCode, OptionSet options, byte[] payload) {
+		int hash = rawCode * 31 + options.hashCodeIgnoringObserve();
+		if (payload != null) {
+			int length = payload.length;
+			hash = hash * 31 + length;
+			if (length <= 2 * HASH_SAMPLE) {
+				for (int index = 0; index < length; ++index) {
+					hash = hash * 31 + payload[index];
+				}
+			} else {
+				for (int index = 0; index < HASH_SAMPLE; ++index) {
+					hash = hash * 31 + payload[index];
+				}
+				for (int index = length - HASH_SAMPLE; index < length; ++index) {
+					hash = hash * 31 + payload[index];
+				}
+			}
+		}
+		return hash;
+	}
+}
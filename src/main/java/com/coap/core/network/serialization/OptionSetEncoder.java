@@ -0,0 +1,307 @@
+package com.coap.core.network.serialization;
+
+import com.coap.core.coap.BlockOption;
+import com.coap.core.coap.Option;
+import com.coap.core.coap.OptionNumberRegistry;
+import com.coap.core.coap.OptionSet;
+
+import java.util.List;
+
+/**
+ * Encodes the options of an {@link OptionSet} directly from its fields.
+ *
+ * In contrast to {@link OptionSet#asSortedList()} no {@link Option}s and no
+ * value arrays are created and no sorting is required. The known options are
+ * visited in the order of their numbers and merged with the other options,
+ * which the option set keeps sorted. The same walk is used to calculate the
+ * size, if no buffer is provided, and to write the options.
+ */
+final class OptionSetEncoder {
+
+	/**
+	 * Array to write to. {@code null}, to calculate the size only.
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * Current offset in the array, or the current size.
+	 */
+	private int offset;
+
+	/**
+	 * Number of the last encoded option.
+	 */
+	private int lastNumber;
+
+	/**
+	 * Other options of the option set.
+	 */
+	private List<Option> others;
+
+	/**
+	 * Index of the next other option to encode.
+	 */
+	private int othersIndex;
+
+	private OptionSetEncoder(byte[] buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+	}
+
+	/**
+	 * Gets the size of the options in wire format.
+	 *
+	 * @param options option set
+	 * @return size in bytes
+	 * @throws IllegalArgumentException if an option delta or length is not
+	 *             supported.
+	 */
+	static int getSize(OptionSet options) {
+		OptionSetEncoder encoder = new OptionSetEncoder(null, 0);
+		encoder.encode(options);
+		return encoder.offset;
+	}
+
+	/**
+	 * Writes the options in wire format.
+	 *
+	 * @param buffer array to write to. Provides at least
+	 *            {@link #getSize(OptionSet)} bytes at the offset.
+	 * @param offset offset to start writing
+	 * @param options option set
+	 * @return offset after the options
+	 * @throws IllegalArgumentException if an option delta or length is not
+	 *             supported.
+	 */
+	static int write(byte[] buffer, int offset, OptionSet options) {
+		OptionSetEncoder encoder = new OptionSetEncoder(buffer, offset);
+		encoder.encode(options);
+		return encoder.offset;
+	}
+
+	private void encode(OptionSet options) {
+		others = options.getOthers();
+		if (options.getIfMatchCount() > 0) {
+			for (byte[] value : options.getIfMatch()) {
+				opaque(OptionNumberRegistry.IF_MATCH, value);
+			}
+		}
+		if (options.hasUriHost()) {
+			string(OptionNumberRegistry.URI_HOST, options.getUriHost());
+		}
+		if (options.getETagCount() > 0) {
+			for (byte[] value : options.getETags()) {
+				opaque(OptionNumberRegistry.ETAG, value);
+			}
+		}
+		if (options.hasIfNoneMatch()) {
+			opaque(OptionNumberRegistry.IF_NONE_MATCH, null);
+		}
+		if (options.hasObserve()) {
+			uint(OptionNumberRegistry.OBSERVE, options.getObserve());
+		}
+		if (options.hasUriPort()) {
+			uint(OptionNumberRegistry.URI_PORT, options.getUriPort());
+		}
+		if (options.getLocationPathCount() > 0) {
+			for (String value : options.getLocationPath()) {
+				string(OptionNumberRegistry.LOCATION_PATH, value);
+			}
+		}
+		if (options.hasOscore()) {
+			opaque(OptionNumberRegistry.OSCORE, options.getOscore());
+		}
+		if (options.getURIPathCount() > 0) {
+			for (String value : options.getUriPath()) {
+				string(OptionNumberRegistry.URI_PATH, value);
+			}
+		}
+		if (options.hasContentFormat()) {
+			uint(OptionNumberRegistry.CONTENT_FORMAT, options.getContentFormat());
+		}
+		if (options.hasMaxAge()) {
+			uint(OptionNumberRegistry.MAX_AGE, options.getMaxAge());
+		}
+		if (options.getURIQueryCount() > 0) {
+			for (String value : options.getUriQuery()) {
+				string(OptionNumberRegistry.URI_QUERY, value);
+			}
+		}
+		if (options.hasAccept()) {
+			uint(OptionNumberRegistry.ACCEPT, options.getAccept());
+		}
+		if (options.getLocationQueryCount() > 0) {
+			for (String value : options.getLocationQuery()) {
+				string(OptionNumberRegistry.LOCATION_QUERY, value);
+			}
+		}
+		if (options.hasBlock2()) {
+			block(OptionNumberRegistry.BLOCK2, options.getBlock2());
+		}
+		if (options.hasBlock1()) {
+			block(OptionNumberRegistry.BLOCK1, options.getBlock1());
+		}
+		if (options.hasSize2()) {
+			uint(OptionNumberRegistry.SIZE2, options.getSize2());
+		}
+		if (options.hasProxyUri()) {
+			string(OptionNumberRegistry.PROXY_URI, options.getProxyUri());
+		}
+		if (options.hasProxyScheme()) {
+			string(OptionNumberRegistry.PROXY_SCHEME, options.getProxyScheme());
+		}
+		if (options.hasSize1()) {
+			uint(OptionNumberRegistry.SIZE1, options.getSize1());
+		}
+		othersBefore(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Encode the other options with a number less than the provided one.
+	 *
+	 * @param number number of the next known option
+	 */
+	private void othersBefore(int number) {
+		int size = others.size();
+		while (othersIndex < size) {
+			Option option = others.get(othersIndex);
+			if (option.getNumber() >= number) {
+				break;
+			}
+			++othersIndex;
+			opaque(option.getNumber(), option.getValue());
+		}
+	}
+
+	/**
+	 * Encode the header of an option.
+	 *
+	 * @param number option number
+	 * @param length length of the option value
+	 */
+	private void header(int number, int length) {
+		othersBefore(number);
+		int delta = number - lastNumber;
+		lastNumber = number;
+		if (buffer == null) {
+			offset += DataSerializer.getOptionSize(delta, length) - length;
+		} else {
+			offset = DataSerializer.writeOptionHeader(buffer, offset, delta, length);
+		}
+	}
+
+	private void opaque(int number, byte[] value) {
+		int length = value == null ? 0 : value.length;
+		header(number, length);
+		if (buffer != null && length > 0) {
+			System.arraycopy(value, 0, buffer, offset, length);
+		}
+		offset += length;
+	}
+
+	/**
+	 * Encode unsigned integer option with the minimal number of bytes, see
+	 * {@link Option#setLongValue(long)}.
+	 */
+	private void uint(int number, long value) {
+		int length = 0;
+		while (length < 8 && (value < 0 || value >= 1L << (length * Byte.SIZE))) {
+			++length;
+		}
+		header(number, length);
+		if (buffer != null) {
+			for (int index = length - 1; index >= 0; --index) {
+				buffer[offset++] = (byte) (value >> (index * Byte.SIZE));
+			}
+		} else {
+			offset += length;
+		}
+	}
+
+	/**
+	 * Encode integer option, see {@link Option#setIntegerValue(int)}.
+	 */
+	private void uint(int number, int value) {
+		uint(number, value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Encode block option, see {@link BlockOption#getValue()}.
+	 */
+	private void block(int number, BlockOption block) {
+		int num = block.getNum();
+		int last = block.getSzx() | (block.isM() ? 1 << 3 : 0);
+		int length;
+		if (num == 0 && last == 0) {
+			length = 0;
+		} else if (num < 1 << 4) {
+			length = 1;
+		} else if (num < 1 << 12) {
+			length = 2;
+		} else {
+			length = 3;
+		}
+		int value = (num << 4) | last;
+		header(number, length);
+		if (buffer != null) {
+			for (int index = length - 1; index >= 0; --index) {
+				buffer[offset++] = (byte) (value >> (index * Byte.SIZE));
+			}
+		} else {
+			offset += length;
+		}
+	}
+
+	/**
+	 * Encode string option in UTF-8, see {@link Option#setStringValue(String)}.
+	 * Malformed surrogates are replaced by {@code '?'}, as
+	 * {@link String#getBytes(java.nio.charset.Charset)} does.
+	 */
+	private void string(int number, String value) {
+		int length = value.length();
+		int utf8Length = 0;
+		for (int index = 0; index < length; ++index) {
+			char c = value.charAt(index);
+			if (c < 0x80) {
+				utf8Length += 1;
+			} else if (c < 0x800) {
+				utf8Length += 2;
+			} else if (Character.isHighSurrogate(c) && index + 1 < length
+					&& Character.isLowSurrogate(value.charAt(index + 1))) {
+				utf8Length += 4;
+				++index;
+			} else if (Character.isSurrogate(c)) {
+				utf8Length += 1;
+			} else {
+				utf8Length += 3;
+			}
+		}
+		header(number, utf8Length);
+		if (buffer == null) {
+			offset += utf8Length;
+			return;
+		}
+		for (int index = 0; index < length; ++index) {
+			char c = value.charAt(index);
+			if (c < 0x80) {
+				buffer[offset++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[offset++] = (byte) (0xC0 | (c >> 6));
+				buffer[offset++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && index + 1 < length
+					&& Character.isLowSurrogate(value.charAt(index + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++index));
+				buffer[offset++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				buffer[offset++] = '?';
+			} else {
+				buffer[offset++] = (byte) (0xE0 | (c >> 12));
+				buffer[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[offset++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+}
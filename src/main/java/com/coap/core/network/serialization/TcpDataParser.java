@@ -13,6 +13,23 @@ import static com.coap.core.coap.CoAP.MessageFormat.*;
  */
 public final class TcpDataParser extends DataParser {
 
+	/**
+	 * Creates a parser, which decodes the complete message on parsing.
+	 */
+	public TcpDataParser() {
+		super();
+	}
+
+	/**
+	 * Creates a parser.
+	 *
+	 * @param lazyDecoding {@code true}, to decode options and payload on
+	 *            first access, {@code false}, to decode them on parsing.
+	 */
+	public TcpDataParser(boolean lazyDecoding) {
+		super(lazyDecoding);
+	}
+
 	@Override
 	protected MessageHeader parseHeader(final DatagramReader reader) {
 		int len = reader.read(LENGTH_NIBBLE_BITS);
@@ -10,6 +10,23 @@ import static com.coap.core.coap.CoAP.MessageFormat.*;
  */
 public final class TcpDataSerializer extends DataSerializer {
 
+	/**
+	 * Creates a serializer without template cache.
+	 */
+	public TcpDataSerializer() {
+		super();
+	}
+
+	/**
+	 * Creates a serializer.
+	 *
+	 * @param templateCacheSize number of cached response templates.
+	 *            {@code 0}, to disable the template cache.
+	 */
+	public TcpDataSerializer(int templateCacheSize) {
+		super(templateCacheSize);
+	}
+
 	@Override protected void serializeHeader(final DatagramWriter writer, final MessageHeader header) {
 		// Variable length encoding per: https://tools.ietf.org/html/draft-ietf-core-coap-tcp-tls-02
 		if (header.getBodyLength() < 13) {
@@ -32,4 +49,48 @@ public final class TcpDataSerializer extends DataSerializer {
 		writer.write(header.getCode(), CODE_BITS);
 		writer.writeBytes(header.getToken().getBytes());
 	}
+
+	@Override
+	protected int getHeaderSize(final MessageHeader header) {
+		int bodyLength = header.getBodyLength();
+		int lengthSize;
+		if (bodyLength < 13) {
+			lengthSize = 0;
+		} else if (bodyLength < (1 << 8) + 13) {
+			lengthSize = 1;
+		} else if (bodyLength < (1 << 16) + 269) {
+			lengthSize = 2;
+		} else {
+			lengthSize = 4;
+		}
+		return 2 + lengthSize + header.getToken().length();
+	}
+
+	@Override
+	protected int writeHeader(final byte[] buffer, int offset, final MessageHeader header) {
+		// Variable length encoding per: https://tools.ietf.org/html/draft-ietf-core-coap-tcp-tls-02
+		byte[] token = header.getToken().getBytes();
+		int bodyLength = header.getBodyLength();
+		if (bodyLength < 13) {
+			buffer[offset++] = (byte) ((bodyLength << TOKEN_LENGTH_BITS) | token.length);
+		} else if (bodyLength < (1 << 8) + 13) {
+			buffer[offset++] = (byte) ((13 << TOKEN_LENGTH_BITS) | token.length);
+			buffer[offset++] = (byte) (bodyLength - 13);
+		} else if (bodyLength < (1 << 16) + 269) {
+			int extended = bodyLength - 269;
+			buffer[offset++] = (byte) ((14 << TOKEN_LENGTH_BITS) | token.length);
+			buffer[offset++] = (byte) (extended >> 8);
+			buffer[offset++] = (byte) extended;
+		} else {
+			int extended = bodyLength - 65805;
+			buffer[offset++] = (byte) ((15 << TOKEN_LENGTH_BITS) | token.length);
+			buffer[offset++] = (byte) (extended >> 24);
+			buffer[offset++] = (byte) (extended >> 16);
+			buffer[offset++] = (byte) (extended >> 8);
+			buffer[offset++] = (byte) extended;
+		}
+		buffer[offset++] = (byte) header.getCode();
+		System.arraycopy(token, 0, buffer, offset, token.length);
+		return offset + token.length;
+	}
 }
@@ -12,6 +12,23 @@ import static com.coap.core.coap.CoAP.MessageFormat.*;
  */
 public final class UdpDataParser extends DataParser {
 
+	/**
+	 * Creates a parser, which decodes the complete message on parsing.
+	 */
+	public UdpDataParser() {
+		super();
+	}
+
+	/**
+	 * Creates a parser.
+	 *
+	 * @param lazyDecoding {@code true}, to decode options and payload on
+	 *            first access, {@code false}, to decode them on parsing.
+	 */
+	public UdpDataParser(boolean lazyDecoding) {
+		super(lazyDecoding);
+	}
+
 	@Override
 	protected MessageHeader parseHeader(final DatagramReader reader) {
 		int version = reader.read(VERSION_BITS);
@@ -9,6 +9,23 @@ import static com.coap.core.coap.CoAP.MessageFormat.*;
  */
 public final class UdpDataSerializer extends DataSerializer {
 
+	/**
+	 * Creates a serializer without template cache.
+	 */
+	public UdpDataSerializer() {
+		super();
+	}
+
+	/**
+	 * Creates a serializer.
+	 *
+	 * @param templateCacheSize number of cached response templates.
+	 *            {@code 0}, to disable the template cache.
+	 */
+	public UdpDataSerializer(int templateCacheSize) {
+		super(templateCacheSize);
+	}
+
 	@Override protected void serializeHeader(final DatagramWriter writer, final MessageHeader header) {
 		writer.write(VERSION, VERSION_BITS);
 		writer.write(header.getType().value, TYPE_BITS);
@@ -17,4 +34,21 @@ public final class UdpDataSerializer extends DataSerializer {
 		writer.write(header.getMID(), MESSAGE_ID_BITS);
 		writer.writeBytes(header.getToken().getBytes());
 	}
+
+	@Override
+	protected int getHeaderSize(final MessageHeader header) {
+		return 4 + header.getToken().length();
+	}
+
+	@Override
+	protected int writeHeader(final byte[] buffer, int offset, final MessageHeader header) {
+		byte[] token = header.getToken().getBytes();
+		buffer[offset++] = (byte) ((VERSION << (TYPE_BITS + TOKEN_LENGTH_BITS))
+				| (header.getType().value << TOKEN_LENGTH_BITS) | token.length);
+		buffer[offset++] = (byte) header.getCode();
+		buffer[offset++] = (byte) (header.getMID() >> Byte.SIZE);
+		buffer[offset++] = (byte) header.getMID();
+		System.arraycopy(token, 0, buffer, offset, token.length);
+		return offset + token.length;
+	}
 }
@@ -7,7 +7,6 @@ import com.coap.core.network.Exchange;
 import com.coap.core.network.config.NetworkConfig;
 import com.coap.core.network.config.NetworkConfigDefaults;
 import com.coap.elements.util.ExecutorsUtil;
-import com.coap.elements.util.LeastRecentlyUsedCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -87,8 +86,8 @@ public class BlockwiseLayer extends AbstractLayer {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(BlockwiseLayer.class.getName());
 	private static final Logger HEALTH_LOGGER = LoggerFactory.getLogger(LOGGER.getName() + ".health");
-	private final LeastRecentlyUsedCache<KeyUri, Block1BlockwiseStatus> block1Transfers;
-	private final LeastRecentlyUsedCache<KeyUri, Block2BlockwiseStatus> block2Transfers;
+	private final BlockwiseStatusStore<Block1BlockwiseStatus> block1Transfers;
+	private final BlockwiseStatusStore<Block2BlockwiseStatus> block2Transfers;
 	private volatile boolean enableStatus;
 	private ScheduledFuture<?> statusLogger;
 	private int maxMessageSize;
@@ -144,10 +143,8 @@ public class BlockwiseLayer extends AbstractLayer {
 				NetworkConfigDefaults.DEFAULT_MAX_RESOURCE_BODY_SIZE);
 		int maxActivePeers = config.getInt(NetworkConfig.Keys.MAX_ACTIVE_PEERS,
 				NetworkConfigDefaults.DEFAULT_MAX_ACTIVE_PEERS);
-		block1Transfers = new LeastRecentlyUsedCache<>(maxActivePeers, TimeUnit.MILLISECONDS.toSeconds(blockTimeout));
-		block1Transfers.setEvictingOnReadAccess(false);
-		block2Transfers = new LeastRecentlyUsedCache<>(maxActivePeers, TimeUnit.MILLISECONDS.toSeconds(blockTimeout));
-		block2Transfers.setEvictingOnReadAccess(false);
+		block1Transfers = new BlockwiseStatusStore<>(maxActivePeers, blockTimeout, TimeUnit.MILLISECONDS);
+		block2Transfers = new BlockwiseStatusStore<>(maxActivePeers, blockTimeout, TimeUnit.MILLISECONDS);
 		strictBlock2Option = config.getBoolean(NetworkConfig.Keys.BLOCKWISE_STRICT_BLOCK2_OPTION, NetworkConfigDefaults.DEFAULT_BLOCKWISE_STRICT_BLOCK2_OPTION);
 		
 		LOGGER.info(
@@ -252,7 +249,7 @@ public class BlockwiseLayer extends AbstractLayer {
 
 		final KeyUri key = getKey(exchange, request);
 
-		synchronized (block1Transfers) {
+		synchronized (block1Transfers.getLock(key)) {
 
 			Block1BlockwiseStatus status = getBlock1Status(key);
 			if (status != null) {
@@ -661,8 +658,9 @@ public class BlockwiseLayer extends AbstractLayer {
 
 		// Block1 transfer has been originally created for an outbound request
 		final KeyUri key = getKey(exchange, exchange.getRequest());
+		boolean deliver = false;
 
-		synchronized (block1Transfers) {
+		synchronized (block1Transfers.getLock(key)) {
 
 			Block1BlockwiseStatus status = getBlock1Status(key);
 
@@ -722,11 +720,16 @@ public class BlockwiseLayer extends AbstractLayer {
 				} else {
 					// All request blocks have been acknowledged and we have received a
 					// response that does not need blockwise transfer. Thus, deliver it.
-					exchange.setResponse(response);
-					upper().receiveResponse(exchange, response);
+					deliver = true;
 				}
 			}
 		}
+
+		if (deliver) {
+			// deliver outside of the lock, the upper layers may start other transfers
+			exchange.setResponse(response);
+			upper().receiveResponse(exchange, response);
+		}
 	}
 
 	private void sendNextBlock(final Exchange exchange, final Response response, final KeyUri key, final Block1BlockwiseStatus status) {
@@ -947,7 +950,7 @@ public class BlockwiseLayer extends AbstractLayer {
 
 	private Block1BlockwiseStatus getOutboundBlock1Status(final KeyUri key, final Exchange exchange, final Request request) {
 
-		synchronized (block1Transfers) {
+		synchronized (block1Transfers.getLock(key)) {
 			Block1BlockwiseStatus status = block1Transfers.get(key);
 			if (status == null) {
 				status = Block1BlockwiseStatus.forOutboundRequest(exchange, request, preferredBlockSize);
@@ -962,7 +965,7 @@ public class BlockwiseLayer extends AbstractLayer {
 
 	private Block1BlockwiseStatus getInboundBlock1Status(final KeyUri key, final Exchange exchange, final Request request) {
 		Block1BlockwiseStatus status;
-		synchronized (block1Transfers) {
+		synchronized (block1Transfers.getLock(key)) {
 			status = block1Transfers.get(key);
 			if (status == null) {
 				status = Block1BlockwiseStatus.forInboundRequest(exchange, request, maxResourceBodySize);
@@ -980,11 +983,11 @@ public class BlockwiseLayer extends AbstractLayer {
 	private Block1BlockwiseStatus resetInboundBlock1Status(final KeyUri key, final Exchange exchange, final Request request) {
 		Block1BlockwiseStatus removedStatus;
 		Block1BlockwiseStatus newStatus;
-		synchronized (block1Transfers) {
+		synchronized (block1Transfers.getLock(key)) {
 			removedStatus = block1Transfers.remove(key);
 			LOGGER.warn("inbound block1 transfer reset at {} by peer: {}", removedStatus, request);
 			// remove old status ensures, that getInboundBlock1Status could be
-			// called in synchronized (block1Transfers)
+			// called in synchronized (block1Transfers.getLock(key))
 			newStatus = getInboundBlock1Status(key, exchange, request);
 		}
 		if (removedStatus != null) {
@@ -996,7 +999,7 @@ public class BlockwiseLayer extends AbstractLayer {
 	private Block2BlockwiseStatus getOutboundBlock2Status(final KeyUri key, final Exchange exchange, final Response response) {
 
 		Block2BlockwiseStatus status;
-		synchronized (block2Transfers) {
+		synchronized (block2Transfers.getLock(key)) {
 			status = block2Transfers.get(key);
 			if (status == null) {
 				status = Block2BlockwiseStatus.forOutboundResponse(exchange, response, preferredBlockSize);
@@ -1013,7 +1016,7 @@ public class BlockwiseLayer extends AbstractLayer {
 
 	private Block2BlockwiseStatus getInboundBlock2Status(final KeyUri key, final Exchange exchange, final Response response) {
 
-		synchronized (block2Transfers) {
+		synchronized (block2Transfers.getLock(key)) {
 			Block2BlockwiseStatus status = block2Transfers.get(key);
 			if (status == null) {
 				status = Block2BlockwiseStatus.forInboundResponse(exchange, response, maxResourceBodySize);
@@ -1030,9 +1033,7 @@ public class BlockwiseLayer extends AbstractLayer {
 
 		KeyUri key = getKey(exchange, request);
 		Block2BlockwiseStatus status = Block2BlockwiseStatus.forRandomAccessRequest(exchange, request);
-		synchronized (block2Transfers) {
-			block2Transfers.put(key, status);
-		}
+		block2Transfers.put(key, status);
 		enableStatus = true;
 		addBlock2CleanUpObserver(request, key, status);
 		LOGGER.debug("created tracker for random access block2 retrieval {}, transfers in progress: {}", status,
@@ -1043,7 +1044,7 @@ public class BlockwiseLayer extends AbstractLayer {
 	private Block2BlockwiseStatus resetOutboundBlock2Status(KeyUri key, Exchange exchange, Response response) {
 		Block2BlockwiseStatus previousStatus;
 		Block2BlockwiseStatus newStatus;
-		synchronized (block2Transfers) {
+		synchronized (block2Transfers.getLock(key)) {
 			previousStatus = block2Transfers.remove(key);
 			newStatus = getOutboundBlock2Status(key, exchange, response);
 		}
@@ -1058,41 +1059,29 @@ public class BlockwiseLayer extends AbstractLayer {
 
 	private Block1BlockwiseStatus getBlock1Status(final KeyUri key) {
 
-		synchronized (block1Transfers) {
-			return block1Transfers.get(key);
-		}
+		return block1Transfers.get(key);
 	}
 
 	private Block2BlockwiseStatus getBlock2Status(final KeyUri key) {
 
-		synchronized (block2Transfers) {
-			return block2Transfers.get(key);
-		}
+		return block2Transfers.get(key);
 	}
 
 	private Block1BlockwiseStatus clearBlock1Status(KeyUri key, Block1BlockwiseStatus status) {
-		int size;
-		Block1BlockwiseStatus removedTracker;
-		synchronized (block1Transfers) {
-			removedTracker = block1Transfers.remove(key, status);
-			size = block1Transfers.size();
-		}
+		Block1BlockwiseStatus removedTracker = block1Transfers.remove(key, status);
 		if (removedTracker != null) {
-			LOGGER.debug("removing block1 tracker [{}], block1 transfers still in progress: {}", key, size);
+			LOGGER.debug("removing block1 tracker [{}], block1 transfers still in progress: {}", key,
+					block1Transfers.size());
 			removedTracker.setComplete(true);
 		}
 		return removedTracker;
 	}
 
 	private Block2BlockwiseStatus clearBlock2Status(KeyUri key, Block2BlockwiseStatus status) {
-		int size;
-		Block2BlockwiseStatus removedTracker;
-		synchronized (block2Transfers) {
-			removedTracker = block2Transfers.remove(key, status);
-			size = block2Transfers.size();
-		}
+		Block2BlockwiseStatus removedTracker = block2Transfers.remove(key, status);
 		if (removedTracker != null) {
-			LOGGER.debug("removing block2 tracker [{}], block2 transfers still in progress: {}", key, size);
+			LOGGER.debug("removing block2 tracker [{}], block2 transfers still in progress: {}", key,
+					block2Transfers.size());
 			removedTracker.setComplete(true);
 		}
 		return removedTracker;
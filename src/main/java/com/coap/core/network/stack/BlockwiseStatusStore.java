@@ -0,0 +1,244 @@
+package com.coap.core.network.stack;
+
+import com.coap.elements.util.ClockUtil;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent store for the status of blockwise transfers.
+ * <p>
+ * The store has a maximum capacity. A status can be added, if the store's
+ * remaining capacity is greater than zero or if the store contains
+ * <em>stale</em> entries, i.e. entries that have not been accessed for at
+ * least the <em>expiration threshold</em>. In that case, the stale entries are
+ * removed from the store to make place for the new status. Stale entries are
+ * not removed on read access.
+ * </p>
+ * <p>
+ * The statuses are kept in a {@link ConcurrentHashMap}, so accessing a single
+ * status doesn't block other transfers. Operations, which must be applied
+ * atomically for a key, synchronize on the lock returned by
+ * {@link #getLock(KeyUri)}. The locks are striped by the hash of the key, so
+ * transfers with different keys only contend, if they are using the same
+ * stripe.
+ * </p>
+ * <p>
+ * The capacity may be exceeded temporarily by concurrently added statuses.
+ * </p>
+ *
+ * @param <S> The type of the blockwise status.
+ */
+public final class BlockwiseStatusStore<S extends BlockwiseStatus> {
+
+	/**
+	 * Minimum number of lock stripes.
+	 */
+	private static final int MIN_STRIPES = 16;
+
+	private final ConcurrentMap<KeyUri, Entry<S>> statuses = new ConcurrentHashMap<>();
+	private final Object[] locks;
+	private final int capacity;
+	/**
+	 * Threshold for expiration in nanoseconds.
+	 */
+	private final long expirationThresholdNanos;
+	/**
+	 * Earliest realtime in nanoseconds for the next search for stale entries,
+	 * if the store is full.
+	 */
+	private final AtomicLong nextExpiration = new AtomicLong(ClockUtil.nanoRealtime());
+
+	/**
+	 * Creates a store.
+	 *
+	 * @param capacity the maximum number of statuses the store can manage
+	 * @param threshold the period of time of inactivity after which a status
+	 *            is considered stale and can be removed from the store, if a
+	 *            new status is to be added to the full store
+	 * @param unit the time unit of the threshold
+	 */
+	public BlockwiseStatusStore(final int capacity, final long threshold, final TimeUnit unit) {
+		int stripes = MIN_STRIPES;
+		int processors = Runtime.getRuntime().availableProcessors() * 4;
+		while (stripes < processors) {
+			stripes <<= 1;
+		}
+		this.locks = new Object[stripes];
+		for (int index = 0; index < stripes; ++index) {
+			this.locks[index] = new Object();
+		}
+		this.capacity = capacity;
+		this.expirationThresholdNanos = unit.toNanos(threshold);
+	}
+
+	/**
+	 * Gets the lock for a key.
+	 *
+	 * Synchronize on the returned lock to apply several operations atomically
+	 * for that key.
+	 *
+	 * @param key the key
+	 * @return the lock of the key's stripe
+	 */
+	public Object getLock(final KeyUri key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return locks[hash & (locks.length - 1)];
+	}
+
+	/**
+	 * Gets a status and updates its last-access time.
+	 *
+	 * @param key the key to look up
+	 * @return the status, or {@code null}, if the store doesn't contain the key
+	 */
+	public S get(final KeyUri key) {
+		Entry<S> entry = statuses.get(key);
+		if (entry == null) {
+			return null;
+		}
+		entry.lastUpdate = ClockUtil.nanoRealtime();
+		return entry.status;
+	}
+
+	/**
+	 * Adds a status.
+	 *
+	 * Replaces the status of the key, if the store already contains the key.
+	 *
+	 * @param key the key to store the status under
+	 * @param status the status to store
+	 * @return {@code true}, if the status is added to the store, {@code false},
+	 *         if the store is full and no stale entries can be removed.
+	 */
+	public boolean put(final KeyUri key, final S status) {
+		if (status == null) {
+			return false;
+		}
+		long now = ClockUtil.nanoRealtime();
+		if (statuses.size() >= capacity && !statuses.containsKey(key) && !expire(now)) {
+			return false;
+		}
+		statuses.put(key, new Entry<S>(status, now));
+		return true;
+	}
+
+	/**
+	 * Removes the status of a key.
+	 *
+	 * @param key the key of the status to remove
+	 * @return the removed status, or {@code null}, if the store doesn't
+	 *         contain the key
+	 */
+	public S remove(final KeyUri key) {
+		Entry<S> entry = statuses.remove(key);
+		return entry == null ? null : entry.status;
+	}
+
+	/**
+	 * Removes the provided status.
+	 *
+	 * @param key the key of the status to remove
+	 * @param status the status to remove
+	 * @return the removed status, or {@code null}, if the store doesn't
+	 *         contain the provided status for the key
+	 */
+	public S remove(final KeyUri key, final S status) {
+		Entry<S> entry = statuses.get(key);
+		if (entry != null && entry.status == status && statuses.remove(key, entry)) {
+			return status;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the number of statuses in the store.
+	 *
+	 * @return the number of statuses
+	 */
+	public int size() {
+		return statuses.size();
+	}
+
+	/**
+	 * Gets an iterator over the statuses of the store.
+	 *
+	 * The iterator is weakly consistent and doesn't support
+	 * {@link Iterator#remove()}.
+	 *
+	 * @return the iterator
+	 */
+	public Iterator<S> valuesIterator() {
+		final Iterator<Entry<S>> iterator = statuses.values().iterator();
+		return new Iterator<S>() {
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public S next() {
+				return iterator.next().status;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Removes the stale entries.
+	 *
+	 * If no stale entry is found, the next search is postponed until the
+	 * eldest entry gets stale. That prevents adding statuses to a full store
+	 * from searching all entries every time.
+	 *
+	 * @param now realtime in nanoseconds
+	 * @return {@code true}, if stale entries are removed, {@code false},
+	 *         otherwise.
+	 */
+	private boolean expire(final long now) {
+		long next = nextExpiration.get();
+		if (now - next < 0) {
+			return false;
+		}
+		boolean removed = false;
+		long eldest = now;
+		Iterator<Map.Entry<KeyUri, Entry<S>>> iterator = statuses.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<KeyUri, Entry<S>> entry = iterator.next();
+			long lastUpdate = entry.getValue().lastUpdate;
+			if (now - lastUpdate >= expirationThresholdNanos) {
+				if (statuses.remove(entry.getKey(), entry.getValue())) {
+					removed = true;
+				}
+			} else if (lastUpdate - eldest < 0) {
+				eldest = lastUpdate;
+			}
+		}
+		if (!removed) {
+			// no entry gets stale before the eldest does
+			nextExpiration.compareAndSet(next, eldest + expirationThresholdNanos);
+		}
+		return removed;
+	}
+
+	private static final class Entry<S> {
+
+		private final S status;
+		private volatile long lastUpdate;
+
+		private Entry(final S status, final long lastUpdate) {
+			this.status = status;
+			this.lastUpdate = lastUpdate;
+		}
+	}
+}
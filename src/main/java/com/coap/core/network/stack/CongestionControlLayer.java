@@ -2,6 +2,7 @@ package com.coap.core.network.stack;
 
 import com.coap.core.coap.EmptyMessage;
 import com.coap.core.coap.Message;
+import com.coap.core.coap.MessageObserverAdapter;
 import com.coap.core.coap.CoAP.Type;
 import com.coap.core.coap.Request;
 import com.coap.core.coap.Response;
@@ -23,6 +24,7 @@ import java.util.concurrent.TimeUnit;
  * LINUXRTO = The Linux RTO calculation mechanism
  * COCOASTRONG = CoCoA but only with the strong estimator
  * PEAKHOPPERRTO  = The Peakhopper RTO calculation mechanism (PH-RTO)
+ * RATEBASED = Paces non-confirmables at a rate calculated from the RTT, loss and delivery rate of the confirmables
  * 
  * @author augustbetzler
  *
@@ -95,14 +97,14 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 
 		// Put into queues for NON or CON messages
 		if (messageType == Type.CON) {
-			if (!checkNSTART(exchange)) { // Check if NSTART is not reached yet
-										  // for confirmable transmissions
+			if (!checkNSTART(exchange, message)) { // Check if NSTART is not reached yet
+												   // for confirmable transmissions
 				return false;
 			}
 		} else if (getRemoteEndpoint(exchange).getNonConfirmableCounter() > MAX_SUCCESSIVE_NONS) {
 			// Every MAX_SUCCESSIVE_NONS + 1 packets, a non-confirmable needs to
 			// be converted to a confirmable [CoCoA]
-			if (exchange.getCurrentRequest().getDestinationContext().getPeerAddress().getPort() != 0) {
+			if (exchange.isOfLocalOrigin()) {
 				exchange.getCurrentRequest().setType(Type.CON);
 			} else if (exchange.getCurrentResponse() != null) {
 				exchange.getCurrentResponse().setType(Type.CON);
@@ -110,25 +112,24 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 			getRemoteEndpoint(exchange).resetNonConfirmableCounter();
 
 			// Check if NSTART is not reached yet for confirmable transmissions
-			if (!checkNSTART(exchange)) {
+			if (!checkNSTART(exchange, message)) {
 				return false;
 			}
 		} else {
-			// Check of if there's space to queue a NON
-			if (getRemoteEndpoint(exchange).getNonConfirmableQueue().size() == EXCHANGELIMIT) {
-				// System.out.println("Non-confirmable exchange queue limit reached!");
-				// TODO: Drop packet -> Notify upper layers?
-			} else {
-				getRemoteEndpoint(exchange).getNonConfirmableQueue().add(
-						exchange);
-
+			final RemoteEndpoint endpoint = getRemoteEndpoint(exchange);
+			try {
 				// Check if NONs are already processed, if not, start bucket
 				// Thread
-				if (!getRemoteEndpoint(exchange).getProcessingNON()) {
-					executor.schedule(new BucketThread(
-							getRemoteEndpoint(exchange)), 0,
-							TimeUnit.MILLISECONDS);
+				if (endpoint.queueNonConfirmableExchange(exchange, EXCHANGELIMIT)) {
+					executor.schedule(new BucketThread(endpoint), 0, TimeUnit.MILLISECONDS);
+				}
+			} catch (IllegalStateException ex) {
+				if (endpoint.isRetired()) {
+					// removed concurrently, use the new endpoint
+					return processMessage(exchange, message);
 				}
+				// the queue limit is reached, drop the message
+				message.setSendError(ex);
 			}
 			return false;
 		}
@@ -138,41 +139,55 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 
 	/*
 	 * Check if the limit of exchanges towards the remote endpoint has reached NSTART.
+	 * If so, the exchange is queued and sent, when an ongoing exchange is finished.
 	 */
-	private boolean checkNSTART(final Exchange exchange) {
-		getRemoteEndpoint(exchange).checkForDeletedExchanges();
-		if (getRemoteEndpoint(exchange).getNumberOfOngoingExchanges(exchange) < config
-				.getInt("NSTART")) {
-			// System.out.println("Processing exchange (NSTART OK!)");
-
+	private boolean checkNSTART(final Exchange exchange, final Message message) {
+		final RemoteEndpoint endpoint = getRemoteEndpoint(exchange);
+		boolean registered;
+		try {
+			registered = endpoint.registerExchange(exchange, calculateVBF(endpoint.getRTO()),
+					config.getInt(NetworkConfig.Keys.NSTART), EXCHANGELIMIT);
+		} catch (IllegalStateException ex) {
+			if (endpoint.isRetired()) {
+				// removed concurrently, use the new endpoint
+				return checkNSTART(exchange, message);
+			}
+			// the queue limit is reached, drop the message
+			message.setSendError(ex);
+			return false;
+		}
+		if (registered) {
 			// NSTART allows to start the exchange, proceed normally
-			getRemoteEndpoint(exchange).registerExchange(exchange,
-					calculateVBF(getRemoteEndpoint(exchange).getRTO()));
+			// Exchanges, which time out or are canceled, are not acknowledged,
+			// release them to send the queued ones
+			MessageObserverAdapter observer = new MessageObserverAdapter() {
+
+				@Override
+				public void onCancel() {
+					failed();
+				}
+
+				@Override
+				protected void failed() {
+					message.removeMessageObserver(this);
+					releaseExchange(endpoint, exchange);
+				}
+			};
+			message.addMessageObserver(observer);
+			if (message.isCanceled()) {
+				// canceled before the observer was added
+				observer.onCancel();
+				return false;
+			}
 
 			// The exchange needs to be deleted after at least 255 s TODO:
 			// should this value be calculated dynamically
-			executor.schedule(new SweepCheckTask(getRemoteEndpoint(exchange),
-					exchange), MAX_REMOTE_TRANSACTION_DURATION,
-					TimeUnit.MILLISECONDS);
+			executor.schedule(new SweepCheckTask(endpoint, exchange),
+					MAX_REMOTE_TRANSACTION_DURATION, TimeUnit.MILLISECONDS);
 			return true;
-		} else {
-			// NSTART does not allow any further parallel exchanges towards the
-			// remote endpoint
-			// System.out.println("Nstart does not allow further exchanges with "
-			// + getRemoteEndpoint(exchange).getRemoteAddress().toString());
-
-			// Check if the queue limit for exchanges is already reached
-			if (getRemoteEndpoint(exchange).getConfirmableQueue().size() == EXCHANGELIMIT) {
-				// Request cannot be queued TODO: does this trigger some
-				// feedback for other layers?
-				// System.out.println("Confirmable exchange queue limit reached! Message dropped...");
-
-			} else {
-				// Queue exchange in the CON-Queue
-				getRemoteEndpoint(exchange).getConfirmableQueue().add(exchange);
-				// System.out.println("Added exchange to the queue (NSTART limit reached)");
-			}
 		}
+		// NSTART does not allow any further parallel exchanges towards the
+		// remote endpoint, the exchange is queued
 		return false;
 	}
 
@@ -186,7 +201,6 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 			measuredRTT = System.currentTimeMillis() - timestamp;
 			// process the RTT measurement
 			processRTTmeasurement(measuredRTT, exchange, exchange.getFailedTransmissionCount());
-			getRemoteEndpoint(exchange).removeExchangeInfo(exchange);
 		}
 	}
 
@@ -237,6 +251,17 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 		endpoint.updateRTO(newRTO);
 	}	
 
+	/**
+	 * Gets the interval between two non-confirmables to the remote endpoint.
+	 * By default one non-confirmable is sent per RTO.
+	 * 
+	 * @param endpoint the Remote Endpoint
+	 * @return the interval in milliseconds
+	 */
+	protected long getNonConfirmableInterval(final RemoteEndpoint endpoint){
+		return endpoint.getRTO();
+	}
+
 	/**
 	 * Calculates the Backoff Factor for the retransmissions. By default this is a binary backoff (= 2)
 	 * 
@@ -248,21 +273,28 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 	}
 
 	/*
-	 * Gets a request or response from the dedicated queue and polls it
+	 * Removes a finished exchange from the remote endpoint and sends the next
+	 * exchange from the dedicated queue in its place.
 	 */
-	private void checkRemoteEndpointQueue(final Exchange exchange) {
-		// 0 = empty queue | 1 = response | 2 = request
-		if (!getRemoteEndpoint(exchange).getConfirmableQueue().isEmpty()) {
-			// We have some exchanges that need to be processed; is it a
-			// response or a request?
-			Exchange queuedExchange = getRemoteEndpoint(exchange).getConfirmableQueue().poll();
-			if (queuedExchange.getCurrentResponse() != null) {
-				// it's a response
-				sendResponse(queuedExchange, queuedExchange.getCurrentResponse());
-			} else if (queuedExchange.getCurrentRequest() != null) {
-				// it's a request
-				sendRequest(queuedExchange, queuedExchange.getCurrentRequest());
-			}
+	private void releaseExchange(final RemoteEndpoint endpoint, final Exchange exchange) {
+		final Exchange queuedExchange = endpoint.removeExchangeInfo(exchange, calculateVBF(endpoint.getRTO()));
+		if (queuedExchange != null) {
+			queuedExchange.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					if (queuedExchange.isComplete()) {
+						// canceled while queued, pass the place on
+						releaseExchange(endpoint, queuedExchange);
+					} else if (queuedExchange.getCurrentResponse() != null) {
+						// it's a response
+						sendResponse(queuedExchange, queuedExchange.getCurrentResponse());
+					} else if (queuedExchange.getCurrentRequest() != null) {
+						// it's a request
+						sendRequest(queuedExchange, queuedExchange.getCurrentRequest());
+					}
+				}
+			});
 		}
 	}
 
@@ -292,7 +324,8 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 	@Override
 	public void sendResponse(final Exchange exchange, final Response response) {
 		// Check if exchange is already running into a retransmission; if so, don't call processMessage, since this is a retransmission
-		if (exchange.getFailedTransmissionCount() > 0) {
+		// Piggy-backed responses acknowledge the request, they are neither limited by NSTART nor rate controlled
+		if (exchange.getFailedTransmissionCount() > 0 || isPiggyBacked(exchange, response)) {
 			// process ReliabilityLayer
 			super.sendResponse(exchange, response);
 		} else if (processMessage(exchange, response)) {
@@ -301,6 +334,18 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 		}
 	}
 
+	/*
+	 * Check, if the response will be sent piggy-backed in the ACK of the request.
+	 */
+	private static boolean isPiggyBacked(final Exchange exchange, final Response response) {
+		Type type = response.getType();
+		if (type == null) {
+			Request request = exchange.getCurrentRequest();
+			return request.getType() == Type.CON && !request.isAcknowledged();
+		}
+		return type == Type.ACK;
+	}
+
 	@Override
 	protected void updateRetransmissionTimeout(final Exchange exchange) {
 		int timeout;
@@ -337,7 +382,7 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 		super.receiveResponse(exchange, response);
 		
 		calculateRTT(exchange);	
-		checkRemoteEndpointQueue(exchange);	
+		releaseExchange(getRemoteEndpoint(exchange), exchange);	
 	}
 
 	/**
@@ -352,7 +397,7 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 		super.receiveEmptyMessage(exchange, message);
 		
 		calculateRTT(exchange);
-		checkRemoteEndpointQueue(exchange);
+		releaseExchange(getRemoteEndpoint(exchange), exchange);
 	}	
 
 	/**
@@ -389,29 +434,41 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 
 		@Override
 		public void run() {
-			if (!endpoint.getNonConfirmableQueue().isEmpty()) {
-				endpoint.setProcessingNON(true);
-
-				Exchange exchange = endpoint.getNonConfirmableQueue().poll();
-
-				if (getRemoteEndpoint(exchange).getNonConfirmableCounter() <= MAX_SUCCESSIVE_NONS) {
-					getRemoteEndpoint(exchange).increaseNonConfirmableCounter();
-					if (exchange.getCurrentRequest().getDestinationContext().getPeerAddress().getPort() != 0) {
-						// it's a response
-						sendBucketRequest(exchange, exchange.getCurrentRequest());
-					} else if (exchange.getCurrentResponse() != null) {
-						// it's a request
-						sendBucketResponse(exchange, exchange.getCurrentResponse());
-					}
+			final Exchange exchange = endpoint.pollNonConfirmableExchange();
+			if (exchange != null) {
+				final boolean probe = endpoint.getNonConfirmableCounter() > MAX_SUCCESSIVE_NONS;
+				if (probe) {
+					endpoint.resetNonConfirmableCounter();
+				} else {
+					endpoint.increaseNonConfirmableCounter();
 				}
-				// schedule next transmission of a NON based on the RTO value (rate = 1/RTO)
+				exchange.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						if (probe) {
+							// send it as confirmable to get an RTT measurement [CoCoA]
+							if (exchange.isOfLocalOrigin()) {
+								exchange.getCurrentRequest().setType(Type.CON);
+								sendRequest(exchange, exchange.getCurrentRequest());
+							} else if (exchange.getCurrentResponse() != null) {
+								exchange.getCurrentResponse().setType(Type.CON);
+								sendResponse(exchange, exchange.getCurrentResponse());
+							}
+						} else if (exchange.isOfLocalOrigin()) {
+							// it's a request
+							sendBucketRequest(exchange, exchange.getCurrentRequest());
+						} else if (exchange.getCurrentResponse() != null) {
+							// it's a response
+							sendBucketResponse(exchange, exchange.getCurrentResponse());
+						}
+					}
+				});
+				// schedule next transmission of a NON (by default rate = 1/RTO)
 				executor.schedule(
-						new BucketThread(getRemoteEndpoint(exchange)),
-						getRemoteEndpoint(exchange).getRTO(),
+						new BucketThread(endpoint),
+						getNonConfirmableInterval(endpoint),
 						TimeUnit.MILLISECONDS);
-
-			} else {
-				endpoint.setProcessingNON(false);
 			}
 		}
 	}
@@ -431,13 +488,9 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 
 		@Override
 		public void run() {
-			if (endpoint.removeExchangeInfo(exchange) == false) {
-				// The entry already was removed
-			} else {
-				// Entry was removed, check if there are more messages in the
-				// queue
-				checkRemoteEndpointQueue(exchange);
-			}
+			// If the entry wasn't already removed, send the next message
+			// from the queue
+			releaseExchange(endpoint, exchange);
 		}
 	}
 
@@ -455,6 +508,8 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 			return new LinuxRto(config);
 		case "PeakhopperRto":
 			return new PeakhopperRto(config);
+		case "RateBased":
+			return new RateBased(config);
 		default:
 			LOGGER.info(
 				"configuration contains unsupported {}, using Cocoa",
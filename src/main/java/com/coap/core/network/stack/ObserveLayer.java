@@ -4,20 +4,58 @@ import com.coap.core.coap.EmptyMessage;
 import com.coap.core.coap.MessageObserverAdapter;
 import com.coap.core.coap.Response;
 import com.coap.core.coap.CoAP.*;
+import com.coap.core.network.Endpoint;
 import com.coap.core.network.Exchange;
 import com.coap.core.network.Exchange.*;
 import com.coap.core.network.config.NetworkConfig;
 import com.coap.core.observe.ObserveRelation;
+import com.coap.elements.BackpressureListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * UDP observe layer.
+ * 
+ * While the endpoint is {@link Endpoint#isBackpressured() backpressured}, NON
+ * notifications are postponed. A fresher notification replaces a postponed
+ * one, and the freshest is sent, when the endpoint's connector is drained.
  */
 public class ObserveLayer extends AbstractLayer {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ObserveLayer.class.getName());
 
+	/**
+	 * Exchanges of observe relations with notifications postponed due to
+	 * backpressure.
+	 */
+	private final Queue<Exchange> postponed = new ConcurrentLinkedQueue<Exchange>();
+
+	/**
+	 * Endpoint the {@link #drainListener} is registered with.
+	 */
+	private final AtomicReference<Endpoint> backpressuredEndpoint = new AtomicReference<Endpoint>();
+
+	/**
+	 * Listener to send postponed notifications, when the endpoint's connector
+	 * is drained.
+	 */
+	private final BackpressureListener drainListener = new BackpressureListener() {
+
+		@Override
+		public void onSaturated() {
+			// postpone notifications on demand
+		}
+
+		@Override
+		public void onDrained() {
+			sendPostponedNotifications();
+		}
+	};
+
 	/**
 	 * Creates a new observe layer for a configuration.
 	 * 
@@ -65,6 +103,14 @@ public class ObserveLayer extends AbstractLayer {
 			 */
 			if (response.getType() == Type.CON) {
 				prepareSelfReplacement(exchange, response);
+			} else if (isBackpressured(exchange)) {
+				LOGGER.debug("endpoint is backpressured. Postponing {}", response);
+				if (relation.getNextControlNotification() == null) {
+					postponed.offer(exchange);
+				}
+				relation.setNextControlNotification(response);
+				// do not send now
+				return;
 			}
 
 			// The decision whether to postpone this notification or not and the
@@ -93,6 +139,62 @@ public class ObserveLayer extends AbstractLayer {
 		lower().sendResponse(exchange, response);
 	}
 
+	/**
+	 * Checks, if the exchange's endpoint is backpressured. Registers the
+	 * {@link #drainListener} with that endpoint on first use.
+	 * 
+	 * @param exchange exchange of the notification
+	 * @return {@code true}, if the endpoint is backpressured, {@code false},
+	 *         otherwise.
+	 */
+	private boolean isBackpressured(final Exchange exchange) {
+		Endpoint endpoint = exchange.getEndpoint();
+		if (endpoint == null) {
+			return false;
+		}
+		if (backpressuredEndpoint.get() != endpoint && backpressuredEndpoint.compareAndSet(null, endpoint)) {
+			endpoint.addBackpressureListener(drainListener);
+		}
+		return endpoint.isBackpressured();
+	}
+
+	/**
+	 * Sends the freshest postponed notification of the relations, as long as
+	 * the endpoint is not backpressured again.
+	 */
+	private void sendPostponedNotifications() {
+		Endpoint endpoint = backpressuredEndpoint.get();
+		Exchange next;
+		while ((endpoint == null || !endpoint.isBackpressured()) && (next = postponed.poll()) != null) {
+			final Exchange exchange = next;
+			exchange.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					ObserveRelation relation = exchange.getRelation();
+					if (relation == null || relation.isCanceled()) {
+						return;
+					}
+					Response current = relation.getCurrentControlNotification();
+					if (current != null && isInTransit(current)) {
+						// the NotificationController sends it on acknowledgement
+						return;
+					}
+					Response notification = relation.getNextControlNotification();
+					if (notification != null) {
+						LOGGER.debug("endpoint is drained, send postponed notification");
+						relation.setCurrentControlNotification(notification);
+						relation.setNextControlNotification(null);
+						if (notification.getType() == Type.NON) {
+							relation.addNotification(notification);
+						}
+						ObserveLayer.super.sendResponse(exchange, notification);
+					}
+				}
+			});
+		}
+	}
+
 	/**
 	 * Returns true if the specified response is still in transit. A response is
 	 * in transit if it has not yet been acknowledged, rejected or its current
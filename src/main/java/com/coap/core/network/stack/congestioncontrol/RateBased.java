@@ -0,0 +1,167 @@
+package com.coap.core.network.stack.congestioncontrol;
+
+import com.coap.core.coap.Request;
+import com.coap.core.coap.Response;
+import com.coap.core.network.Exchange;
+import com.coap.core.network.RemoteEndpoint;
+import com.coap.core.network.config.NetworkConfig;
+import com.coap.core.network.stack.CongestionControlLayer;
+
+/**
+ * Rate based congestion control for mainly non-confirmable traffic.
+ * <p>
+ * The confirmables, including the ones sent as probe after a number of
+ * successive non-confirmables, are used to estimate the round-trip time, the
+ * loss event rate and the receive rate of a remote endpoint. The
+ * non-confirmables are not acknowledged, so the receive rate is estimated
+ * from the rate of the sent messages and the share of the acknowledged
+ * confirmables, measured over at least one round-trip time. The
+ * non-confirmables are then paced with the rate of the TCP throughput
+ * equation, but at most with the double receive rate (see RFC 5348, section
+ * 4.3). Without loss the rate is doubled once per round-trip time, limited
+ * by the double receive rate as well. The initial rate is one initial window
+ * per RTO, and one initial window per round-trip time after the first
+ * measurement (see RFC 5348, section 4.2).
+ * </p>
+ * <p>
+ * The RTO of the confirmables is not adapted.
+ * </p>
+ */
+public class RateBased extends CongestionControlLayer {
+
+	/**
+	 * Weight of a new sample for the smoothed estimators.
+	 */
+	private final static double ALPHA = 0.125;
+	/**
+	 * Minimum rate, one message per 64 seconds (t_mbi of RFC 5348).
+	 */
+	private final static double MIN_RATE = 1.0 / 64000;
+	/**
+	 * Maximum rate, one message per millisecond.
+	 */
+	private final static double MAX_RATE = 1.0;
+	/**
+	 * Initial window in messages, W_init of RFC 5348, section 4.2, for
+	 * messages of at most 1095 bytes.
+	 */
+	private final static int INITIAL_WINDOW = 4;
+
+	public RateBased(NetworkConfig config) {
+		super(config);
+	}
+
+	@Override
+	protected void processRTTmeasurement(final long measuredRTT, final Exchange exchange, final int retransmissionCount) {
+		RemoteEndpoint endpoint = getRemoteEndpoint(exchange);
+		long now = System.currentTimeMillis();
+		synchronized (endpoint) {
+			endpoint.increaseAcknowledgedSinceRateUpdate();
+			if (retransmissionCount == 0) {
+				// after a retransmission the RTT is ambiguous, and the loss
+				// is already considered on the retransmission
+				double rtt = Math.max(1, measuredRTT);
+				double srtt = endpoint.getRateSRTT();
+				if (srtt == 0) {
+					srtt = rtt;
+					// initial rate W_init / R
+					endpoint.setPacingRate(Math.min(MAX_RATE, INITIAL_WINDOW / srtt));
+				} else {
+					srtt += ALPHA * (rtt - srtt);
+				}
+				endpoint.setRateSRTT(srtt);
+				endpoint.setLossEventRate((1 - ALPHA) * endpoint.getLossEventRate());
+			}
+			double srtt = endpoint.getRateSRTT();
+			long lastRateUpdate = endpoint.getLastRateUpdate();
+			if (srtt == 0) {
+				// no RTT yet
+				return;
+			} else if (lastRateUpdate == 0) {
+				// start the first measurement interval
+				endpoint.resetRateCounters(now);
+			} else if (now - lastRateUpdate >= srtt) {
+				// messages received in the last interval, estimated by the
+				// share of the acknowledged confirmables
+				double interval = now - lastRateUpdate;
+				double acknowledged = Math.min(1.0, endpoint.getAcknowledgedSinceRateUpdate()
+						/ (double) Math.max(1, endpoint.getConfirmablesSinceRateUpdate()));
+				endpoint.setReceiveRate(endpoint.getSentSinceRateUpdate() * acknowledged / interval);
+				endpoint.resetRateCounters(now);
+				updateRate(endpoint);
+			}
+		}
+	}
+
+	@Override
+	protected void updateRetransmissionTimeout(final Exchange exchange) {
+		super.updateRetransmissionTimeout(exchange);
+		RemoteEndpoint endpoint = getRemoteEndpoint(exchange);
+		if (exchange.getFailedTransmissionCount() == 0) {
+			// first transmission of a confirmable
+			synchronized (endpoint) {
+				endpoint.increaseSentSinceRateUpdate();
+				endpoint.increaseConfirmablesSinceRateUpdate();
+			}
+		} else if (exchange.getFailedTransmissionCount() == 1) {
+			// the first timeout of a confirmable is the loss event
+			synchronized (endpoint) {
+				double p = endpoint.getLossEventRate();
+				endpoint.setLossEventRate(p + ALPHA * (1 - p));
+				if (endpoint.getPacingRate() > 0) {
+					updateRate(endpoint);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected long getNonConfirmableInterval(final RemoteEndpoint endpoint) {
+		double rate = endpoint.getPacingRate();
+		if (rate == 0) {
+			// no RTT measurement yet, send the initial window per RTO
+			return Math.max(1, super.getNonConfirmableInterval(endpoint) / INITIAL_WINDOW);
+		}
+		return Math.round(1 / rate);
+	}
+
+	@Override
+	public void sendBucketRequest(final Exchange exchange, final Request request) {
+		getRemoteEndpoint(exchange).increaseSentSinceRateUpdate();
+		super.sendBucketRequest(exchange, request);
+	}
+
+	@Override
+	public void sendBucketResponse(final Exchange exchange, final Response response) {
+		getRemoteEndpoint(exchange).increaseSentSinceRateUpdate();
+		super.sendBucketResponse(exchange, response);
+	}
+
+	/**
+	 * Calculates the pacing rate from the current estimators. Must be called
+	 * synchronized on the endpoint.
+	 *
+	 * @param endpoint the Remote Endpoint
+	 */
+	private static void updateRate(final RemoteEndpoint endpoint) {
+		double rtt = endpoint.getRateSRTT();
+		double p = endpoint.getLossEventRate();
+		double receiveRate = endpoint.getReceiveRate();
+		// not limited until the receive rate is measured
+		double receiveLimit = receiveRate > 0 ? 2 * receiveRate : MAX_RATE;
+		double rate;
+		if (p > 0) {
+			// TCP throughput equation with t_RTO = 4 * R
+			double calculated = 1 / (rtt * Math.sqrt(2 * p / 3)
+					+ 4 * rtt * (3 * Math.sqrt(3 * p / 8)) * p * (1 + 32 * p * p));
+			rate = Math.max(Math.min(calculated, receiveLimit), MIN_RATE);
+		} else {
+			double pacingRate = endpoint.getPacingRate();
+			if (pacingRate == 0) {
+				pacingRate = 1 / rtt;
+			}
+			rate = Math.max(Math.min(2 * pacingRate, receiveLimit), 1 / rtt);
+		}
+		endpoint.setPacingRate(Math.min(MAX_RATE, rate));
+	}
+}
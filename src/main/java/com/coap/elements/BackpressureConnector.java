@@ -0,0 +1,60 @@
+package com.coap.elements;
+
+/**
+ * A {@link Connector} with a bounded outbound queue, which reports its
+ * saturation to the producers of outgoing messages.
+ * 
+ * If the outbound queue is full, {@link #send(RawData)} reports an
+ * {@link com.coap.elements.exception.OutboundQueueFullException} to the
+ * message's callback, while {@link #trySend(RawData)} just returns
+ * {@code false} and leaves the message untouched. In both cases the
+ * connector gets <em>saturated</em> and calls
+ * {@link BackpressureListener#onSaturated()}. When the queue is drained down
+ * to its low watermark (half of the capacity),
+ * {@link BackpressureListener#onDrained()} is called.
+ */
+public interface BackpressureConnector extends Connector {
+
+	/**
+	 * Try to send a raw message.
+	 * 
+	 * In difference to {@link #send(RawData)} a message, which could not be
+	 * queued, is not reported to its {@link MessageCallback}.
+	 * 
+	 * @param msg the message to be sent
+	 * @return {@code true}, if the message was queued for sending,
+	 *         {@code false}, if the connector is saturated or not running.
+	 * @throws NullPointerException if the message is {@code null}.
+	 */
+	boolean trySend(RawData msg);
+
+	/**
+	 * Get current number of messages in the outbound queue.
+	 * 
+	 * @return number of queued outgoing messages
+	 */
+	int getOutboundQueueSize();
+
+	/**
+	 * Get capacity of the outbound queue.
+	 * 
+	 * @return maximum number of queued outgoing messages
+	 */
+	int getOutboundQueueCapacity();
+
+	/**
+	 * Check, if the connector is saturated.
+	 * 
+	 * @return {@code true}, if the outbound queue has reached its capacity
+	 *         and is not yet drained down to the low watermark,
+	 *         {@code false}, otherwise.
+	 */
+	boolean isSaturated();
+
+	/**
+	 * Set listener for saturation of the outbound queue.
+	 * 
+	 * @param listener listener, or {@code null}, to remove the listener.
+	 */
+	void setBackpressureListener(BackpressureListener listener);
+}
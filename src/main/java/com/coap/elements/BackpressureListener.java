@@ -0,0 +1,30 @@
+package com.coap.elements;
+
+/**
+ * Listener for the saturation of a connector's outbound queue.
+ * 
+ * Registered with a {@link BackpressureConnector} via
+ * {@link BackpressureConnector#setBackpressureListener(BackpressureListener)}.
+ * Producers of outgoing messages may use these callbacks to postpone or
+ * coalesce messages, while the connector is saturated, instead of building
+ * messages, which would be dropped.
+ */
+public interface BackpressureListener {
+
+	/**
+	 * Called, when the connector's outbound queue has reached its capacity
+	 * and outgoing messages are rejected.
+	 * 
+	 * Called from the thread, which failed to add a message.
+	 */
+	void onSaturated();
+
+	/**
+	 * Called, when a saturated connector's outbound queue has been drained
+	 * below its low watermark and accepts messages again.
+	 * 
+	 * Called from a sender thread of the connector, therefore
+	 * implementations should return quickly.
+	 */
+	void onDrained();
+}
@@ -0,0 +1,295 @@
+package com.coap.elements;
+
+import com.coap.elements.exception.EndpointMismatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Connector} exchanging data with other loopback connectors of the
+ * same JVM without any sockets.
+ *
+ * A started connector is bound to its address in a JVM wide registry. Sending
+ * a message looks up the connector bound to the destination address and
+ * passes the message directly to its {@link RawDataChannel} on the calling
+ * thread. So, the endpoints using such connectors could be measured and
+ * tested without the variations of the kernel's network stack. Messages for
+ * addresses without started loopback connector are dropped, as UDP would do.
+ * All addresses are local to the JVM, so the wildcard and the loopback
+ * addresses are bound together. Messages sent to any of them reach a
+ * connector bound to one of them, and a connector bound to the wildcard
+ * address sends from the loopback address.
+ *
+ * By default the bytes are copied to ensure, that the receiver is not
+ * affected by a sender reusing the array. With {@link #setZeroCopy(boolean)}
+ * the arrays are passed on without copy.
+ *
+ * The connector uses the protocol "UDP" and {@link UdpEndpointContext}s, so
+ * the endpoints are setup exactly as for a {@link UDPConnector}.
+ */
+public class LoopbackConnector implements Connector {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoopbackConnector.class.getName());
+
+	/**
+	 * First port assigned for ephemeral ports.
+	 */
+	private static final int EPHEMERAL_PORT_START = 49152;
+
+	/**
+	 * Number of ephemeral ports.
+	 */
+	private static final int EPHEMERAL_PORTS = 0x10000 - EPHEMERAL_PORT_START;
+
+	/**
+	 * Started loopback connectors by address. The wildcard and loopback
+	 * addresses are normalized, see {@link #getKey(InetSocketAddress)}.
+	 */
+	private static final ConcurrentMap<InetSocketAddress, LoopbackConnector> BOUND = new ConcurrentHashMap<InetSocketAddress, LoopbackConnector>();
+
+	private static final AtomicInteger NEXT_EPHEMERAL_PORT = new AtomicInteger(EPHEMERAL_PORT_START);
+
+	private final InetSocketAddress localAddr;
+
+	private final AtomicLong sentMessages = new AtomicLong();
+
+	private final AtomicLong droppedMessages = new AtomicLong();
+
+	private volatile boolean running;
+
+	private volatile boolean zeroCopy;
+
+	private volatile InetSocketAddress effectiveAddr;
+
+	private volatile RawDataChannel receiver;
+
+	private volatile EndpointContextMatcher endpointContextMatcher;
+
+	/**
+	 * Creates a connector on the loopback address and an ephemeral port.
+	 */
+	public LoopbackConnector() {
+		this(null);
+	}
+
+	/**
+	 * Creates a connector bound to the given address.
+	 *
+	 * @param address the address. If {@code null}, the loopback address and
+	 *            an ephemeral port is used. If the port is {@code 0}, an
+	 *            ephemeral port is used.
+	 */
+	public LoopbackConnector(InetSocketAddress address) {
+		if (address == null) {
+			address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		}
+		this.localAddr = address;
+		this.effectiveAddr = address;
+	}
+
+	/**
+	 * Pass the bytes of messages without copy.
+	 *
+	 * Only use this, if the senders don't modify the arrays after sending.
+	 *
+	 * @param zeroCopy {@code true}, to pass the bytes without copy,
+	 *            {@code false}, to copy them (default).
+	 */
+	public void setZeroCopy(boolean zeroCopy) {
+		this.zeroCopy = zeroCopy;
+	}
+
+	public boolean isZeroCopy() {
+		return zeroCopy;
+	}
+
+	@Override
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+		if (localAddr.getPort() == 0) {
+			InetSocketAddress bound = null;
+			for (int attempt = 0; attempt < EPHEMERAL_PORTS && bound == null; ++attempt) {
+				int port = nextEphemeralPort();
+				InetSocketAddress address = new InetSocketAddress(localAddr.getAddress(), port);
+				if (BOUND.putIfAbsent(getKey(address), this) == null) {
+					bound = address;
+				}
+			}
+			if (bound == null) {
+				throw new BindException("No ephemeral port available for " + localAddr.getAddress());
+			}
+			effectiveAddr = bound;
+		} else if (BOUND.putIfAbsent(getKey(localAddr), this) != null) {
+			throw new BindException("Address already in use: " + localAddr);
+		} else {
+			effectiveAddr = localAddr;
+		}
+		running = true;
+		LOGGER.info("LoopbackConnector listening on {}", effectiveAddr);
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		BOUND.remove(getKey(effectiveAddr), this);
+		LOGGER.info("LoopbackConnector on [{}] has stopped.", effectiveAddr);
+	}
+
+	@Override
+	public void destroy() {
+		stop();
+	}
+
+	@Override
+	public void send(RawData msg) {
+		if (msg == null) {
+			throw new NullPointerException("Message must not be null");
+		}
+		if (!running) {
+			msg.onError(new InterruptedIOException("Connector is not running."));
+			return;
+		}
+		EndpointContext destination = msg.getEndpointContext();
+		InetSocketAddress destinationAddress = destination.getPeerAddress();
+		EndpointContext connectionContext = new UdpEndpointContext(destinationAddress);
+		EndpointContextMatcher endpointMatcher = endpointContextMatcher;
+		if (endpointMatcher != null && !endpointMatcher.isToBeSent(destination, connectionContext)) {
+			LOGGER.warn("LoopbackConnector ({}) drops {} bytes to {}", effectiveAddr, msg.getSize(),
+					destinationAddress);
+			msg.onError(new EndpointMismatchException());
+			return;
+		}
+		msg.onContextEstablished(connectionContext);
+		sentMessages.incrementAndGet();
+		LoopbackConnector peer = BOUND.get(getKey(destinationAddress));
+		RawDataChannel peerReceiver = peer == null ? null : peer.receiver;
+		if (peerReceiver == null || !peer.running) {
+			droppedMessages.incrementAndGet();
+			LOGGER.debug("LoopbackConnector ({}) no receiver for {} bytes to {}", effectiveAddr, msg.getSize(),
+					destinationAddress);
+			msg.onSent();
+			return;
+		}
+		byte[] bytes = zeroCopy ? msg.bytes : Arrays.copyOf(msg.bytes, msg.bytes.length);
+		RawData received = RawData.inbound(bytes, new UdpEndpointContext(getSourceAddress(destinationAddress)),
+				msg.isMulticast());
+		msg.onSent();
+		peerReceiver.receiveData(received);
+	}
+
+	/**
+	 * Get the source address of messages sent to a destination.
+	 *
+	 * A connector bound to the wildcard address sends from the loopback
+	 * address, preferably the one of the destination, so that responses
+	 * match the requests sent to that address.
+	 *
+	 * @param destination the destination address
+	 * @return the source address
+	 */
+	private InetSocketAddress getSourceAddress(InetSocketAddress destination) {
+		InetSocketAddress address = effectiveAddr;
+		if (address.getAddress() == null || !address.getAddress().isAnyLocalAddress()) {
+			return address;
+		}
+		InetAddress source = destination.getAddress();
+		if (source == null || !source.isLoopbackAddress()) {
+			source = InetAddress.getLoopbackAddress();
+		}
+		return new InetSocketAddress(source, address.getPort());
+	}
+
+	/**
+	 * Get the next ephemeral port, restarting at the first one after the
+	 * last one.
+	 *
+	 * @return the ephemeral port
+	 */
+	private static int nextEphemeralPort() {
+		while (true) {
+			int port = NEXT_EPHEMERAL_PORT.getAndIncrement();
+			if (port <= 0xffff) {
+				return port;
+			}
+			NEXT_EPHEMERAL_PORT.compareAndSet(port + 1, EPHEMERAL_PORT_START);
+		}
+	}
+
+	/**
+	 * Get the key of an address in the registry of the bound connectors.
+	 *
+	 * The wildcard and loopback addresses are mapped to the loopback address,
+	 * so a connector bound to one of them is found by the others.
+	 *
+	 * @param address the address
+	 * @return the key
+	 */
+	private static InetSocketAddress getKey(InetSocketAddress address) {
+		InetAddress host = address.getAddress();
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		if (host == null || host.equals(loopback)
+				|| !(host.isAnyLocalAddress() || host.isLoopbackAddress())) {
+			return address;
+		}
+		return new InetSocketAddress(loopback, address.getPort());
+	}
+
+	@Override
+	public void setRawDataReceiver(RawDataChannel messageHandler) {
+		this.receiver = messageHandler;
+	}
+
+	@Override
+	public void setEndpointContextMatcher(EndpointContextMatcher matcher) {
+		this.endpointContextMatcher = matcher;
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		return effectiveAddr;
+	}
+
+	@Override
+	public String getProtocol() {
+		return "UDP";
+	}
+
+	/**
+	 * Get number of sent messages.
+	 *
+	 * @return number of sent messages, including the dropped ones.
+	 */
+	public long getSentMessages() {
+		return sentMessages.get();
+	}
+
+	/**
+	 * Get number of dropped messages.
+	 *
+	 * @return number of messages dropped, because no started loopback
+	 *         connector with receiver was bound to the destination.
+	 */
+	public long getDroppedMessages() {
+		return droppedMessages.get();
+	}
+
+	@Override
+	public String toString() {
+		return getProtocol() + "-loopback-" + effectiveAddr;
+	}
+}
@@ -1,9 +1,12 @@
 package com.coap.elements;
 
+import com.coap.elements.util.BufferPool;
+
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.security.Principal;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * A container object for the data received or sent via a {@link Connector}.
@@ -14,20 +17,46 @@ import java.util.Arrays;
  * and optional correlation information</li>
  * <li>a flag indicating whether the message is a multicast message (default is
  * {@code false})</li>
+ * <li>the index of the shard a message is received on, if the connector is
+ * sharded (default is {@code 0})</li>
  * </ul>
  * 
  * A message received from a client via the network may also optionally contain
  * the authenticated sender's identity as a {@link java.security.Principal}
  * object.
+ * 
+ * Received messages may carry a buffer of a {@link BufferPool}, see
+ * {@link #inbound(byte[], int, BufferPool, EndpointContext, boolean)}. Only
+ * the first {@link #getSize()} bytes of such a buffer belong to the message
+ * and the buffer is returned to the pool, when the last reference is
+ * {@link #release()}d.
  */
 public final class RawData {
 
-	/** The raw message. */
+	private static final AtomicIntegerFieldUpdater<RawData> REFERENCES = AtomicIntegerFieldUpdater
+			.newUpdater(RawData.class, "references");
+
+	/**
+	 * The raw message. For pooled buffers, only the first {@link #getSize()}
+	 * bytes are valid and only until the buffer is released.
+	 */
 	public final byte[] bytes;
 
+	/** Number of valid bytes. */
+	private final int length;
+
+	/** Pool of the buffer. {@code null}, if the buffer is not pooled. */
+	private final BufferPool pool;
+
+	/** Number of references to a pooled buffer. */
+	private volatile int references;
+
 	/** Indicates if this message is a multicast message */
 	private final boolean multicast;
 
+	/** Index of the shard the message is received on */
+	private final int shard;
+
 	/**
 	 * Endpoint context of the remote peer.
 	 */
@@ -52,15 +81,26 @@ public final class RawData {
 	 * @throws NullPointerException if data or address is {@code null}
 	 */
 	private RawData(byte[] data, EndpointContext peerEndpointContext, MessageCallback callback, boolean multicast) {
+		this(data, data == null ? 0 : data.length, null, peerEndpointContext, callback, multicast, 0);
+	}
+
+	private RawData(byte[] data, int length, BufferPool pool, EndpointContext peerEndpointContext,
+			MessageCallback callback, boolean multicast, int shard) {
 		if (data == null) {
 			throw new NullPointerException("Data must not be null");
 		} else if (peerEndpointContext == null) {
 			throw new NullPointerException("Peer's EndpointContext must not be null");
+		} else if (length < 0 || length > data.length) {
+			throw new IllegalArgumentException("Length " + length + " exceeds data " + data.length);
 		} else {
 			this.bytes = data;
+			this.length = length;
+			this.pool = pool;
+			this.references = pool == null ? 0 : 1;
 			this.peerEndpointContext = peerEndpointContext;
 			this.callback = callback;
 			this.multicast = multicast;
+			this.shard = shard;
 		}
 	}
 
@@ -82,6 +122,78 @@ public final class RawData {
 		return new RawData(data, peerEndpointContext, null, isMulticast);
 	}
 
+	/**
+	 * Instantiates a new raw data for a message received from a peer into a
+	 * pooled buffer.
+	 * 
+	 * The raw data holds the only reference to the buffer. The receiver must
+	 * {@link #release()} it, when the bytes are not longer required.
+	 *
+	 * @param buffer the buffer containing the received data starting at
+	 *            index {@code 0}.
+	 * @param length the number of received bytes.
+	 * @param pool the pool the buffer is returned to on release.
+	 * @param peerEndpointContext information regarding the context the message
+	 *            has been received in.
+	 * @param isMulticast indicates whether the data has been received as a
+	 *            multicast message.
+	 * @return the raw data object containing the inbound message.
+	 * @throws NullPointerException if buffer, pool, or peerEndpointContext is
+	 *             {@code null}.
+	 * @throws IllegalArgumentException if length exceeds the buffer.
+	 */
+	public static RawData inbound(byte[] buffer, int length, BufferPool pool, EndpointContext peerEndpointContext,
+			boolean isMulticast) {
+		return inbound(buffer, length, pool, peerEndpointContext, isMulticast, 0);
+	}
+
+	/**
+	 * Instantiates a new raw data for a message received on a shard of a
+	 * sharded connector.
+	 *
+	 * @param data the data that has been received.
+	 * @param peerEndpointContext information regarding the context the message
+	 *            has been received in.
+	 * @param isMulticast indicates whether the data has been received as a
+	 *            multicast message.
+	 * @param shard index of the shard the message has been received on.
+	 * @return the raw data object containing the inbound message.
+	 * @throws NullPointerException if data or address is {@code null}.
+	 * @see #getShard()
+	 */
+	public static RawData inbound(byte[] data, EndpointContext peerEndpointContext, boolean isMulticast,
+			int shard) {
+		return new RawData(data, data == null ? 0 : data.length, null, peerEndpointContext, null, isMulticast,
+				shard);
+	}
+
+	/**
+	 * Instantiates a new raw data for a message received on a shard of a
+	 * sharded connector into a pooled buffer.
+	 *
+	 * @param buffer the buffer containing the received data starting at
+	 *            index {@code 0}.
+	 * @param length the number of received bytes.
+	 * @param pool the pool the buffer is returned to on release.
+	 * @param peerEndpointContext information regarding the context the message
+	 *            has been received in.
+	 * @param isMulticast indicates whether the data has been received as a
+	 *            multicast message.
+	 * @param shard index of the shard the message has been received on.
+	 * @return the raw data object containing the inbound message.
+	 * @throws NullPointerException if buffer, pool, or peerEndpointContext is
+	 *             {@code null}.
+	 * @throws IllegalArgumentException if length exceeds the buffer.
+	 * @see #getShard()
+	 */
+	public static RawData inbound(byte[] buffer, int length, BufferPool pool, EndpointContext peerEndpointContext,
+			boolean isMulticast, int shard) {
+		if (pool == null) {
+			throw new NullPointerException("Pool must not be null");
+		}
+		return new RawData(buffer, length, pool, peerEndpointContext, null, isMulticast, shard);
+	}
+
 	/**
 	 * Instantiates a new raw data for a message to be sent to a peer.
 	 * <p>
@@ -120,7 +232,7 @@ public final class RawData {
 	 * @return a copy of the raw message bytes
 	 */
 	public byte[] getBytes() {
-		return Arrays.copyOf(bytes, bytes.length);
+		return Arrays.copyOf(bytes, length);
 	}
 
 	/**
@@ -129,7 +241,55 @@ public final class RawData {
 	 * @return the size
 	 */
 	public int getSize() {
-		return bytes.length;
+		return length;
+	}
+
+	/**
+	 * Checks, if the bytes are held in a pooled buffer.
+	 * 
+	 * @return {@code true}, if the buffer is pooled and must be
+	 *         {@link #release()}d, {@code false}, otherwise.
+	 */
+	public boolean isPooled() {
+		return pool != null;
+	}
+
+	/**
+	 * Add a reference to a pooled buffer. Each call requires an additional
+	 * {@link #release()}. No effect, if the buffer is not pooled.
+	 * 
+	 * @throws IllegalStateException if the buffer is already released
+	 */
+	public void retain() {
+		if (pool != null) {
+			int current;
+			do {
+				current = references;
+				if (current <= 0) {
+					throw new IllegalStateException("buffer already released!");
+				}
+			} while (!REFERENCES.compareAndSet(this, current, current + 1));
+		}
+	}
+
+	/**
+	 * Release a reference to a pooled buffer. When the last reference is
+	 * released, the buffer is returned to its pool and must not longer be
+	 * accessed. No effect, if the buffer is not pooled or already released.
+	 */
+	public void release() {
+		if (pool != null) {
+			int current;
+			do {
+				current = references;
+				if (current <= 0) {
+					return;
+				}
+			} while (!REFERENCES.compareAndSet(this, current, current - 1));
+			if (current == 1) {
+				pool.release(bytes);
+			}
+		}
 	}
 
 	/**
@@ -159,6 +319,20 @@ public final class RawData {
 		return multicast;
 	}
 
+	/**
+	 * Gets the index of the shard the message is received on.
+	 *
+	 * A sharded connector receives the messages on several channels, e.g.
+	 * bound with {@code SO_REUSEPORT}. The kernel assigns each flow to one of
+	 * them, so all messages of a peer are received on the same shard.
+	 *
+	 * @return index of the shard, {@code 0}, if the connector is not sharded
+	 *         or for outbound messages.
+	 */
+	public int getShard() {
+		return shard;
+	}
+
 	/**
 	 * Gets the source/destination IP address and port.
 	 *
@@ -24,6 +24,9 @@ public interface RawDataChannel {
 	 * messages to a separate <code>Thread</code>, e.g. by employing a
 	 * <code>java.util.concurrent.ExecutorService</code>.
 	 * 
+	 * If the connector receives into pooled buffers, the implementation must
+	 * call {@link RawData#release()}, when the bytes are not longer required.
+	 * 
 	 * @param raw
 	 *            the raw message to process
 	 */
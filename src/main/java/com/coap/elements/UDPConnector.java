@@ -1,7 +1,10 @@
 package com.coap.elements;
 
 import com.coap.elements.exception.EndpointMismatchException;
+import com.coap.elements.exception.OutboundQueueFullException;
+import com.coap.elements.util.BufferPool;
 import com.coap.elements.util.Bytes;
+import com.coap.elements.util.ConcurrentBatchQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,8 +17,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A {@link Connector} employing UDP as the transport protocol for exchanging
@@ -32,13 +34,32 @@ import java.util.concurrent.LinkedBlockingQueue;
  * 
  * The number of threads can be set through {@link #setReceiverThreadCount(int)}
  * and {@link #setSenderThreadCount(int)} before the connector is started.
+ * 
+ * {@link #send(RawData)} doesn't lock, outgoing messages are added to a
+ * lock-free queue. The sender threads drain that queue in batches of up to
+ * {@link #SENDER_BATCH_SIZE} messages and send them back-to-back, blocking
+ * only, if the queue is empty.
+ * 
+ * The outbound queue is bounded by {@link #setOutboundCapacity(int)}. If it's
+ * full, messages are rejected and the connector reports its saturation as
+ * {@link BackpressureConnector}.
+ * 
+ * With {@link #setReceiveBufferPoolSize(int)} datagrams are received into
+ * pooled buffers, which are passed on with the {@link RawData} and must be
+ * {@link RawData#release()}d by the {@link RawDataChannel}.
  */
-public class UDPConnector implements Connector {
+public class UDPConnector implements BackpressureConnector {
 
 	public static final Logger LOGGER = LoggerFactory.getLogger(UDPConnector.class.getName());
 
 	public static final int UNDEFINED = 0;
 
+	/**
+	 * Maximum number of messages a sender thread takes from the outbound
+	 * queue at once.
+	 */
+	public static final int SENDER_BATCH_SIZE = 64;
+
 	static final ThreadGroup ELEMENTS_THREAD_GROUP = new ThreadGroup("Californium/Elements"); //$NON-NLS-1$
 
 	protected volatile boolean running;
@@ -53,7 +74,16 @@ public class UDPConnector implements Connector {
 	private List<Thread> senderThreads;
 
 	/** The outbound message queue. */
-	private final BlockingQueue<RawData> outgoing;
+	private volatile ConcurrentBatchQueue<RawData> outgoing;
+
+	/**
+	 * Indicates, that the outbound queue has reached its capacity and is not
+	 * yet drained down to the low watermark.
+	 */
+	private final AtomicBoolean saturated = new AtomicBoolean();
+
+	/** The listener for the saturation of the outbound queue. */
+	private volatile BackpressureListener backpressureListener;
 
 	/**
 	 * Endpoint context matcher for outgoing messages.
@@ -73,6 +103,16 @@ public class UDPConnector implements Connector {
 
 	private int receiverPacketSize = 2048;
 
+	private int outboundCapacity = Integer.MAX_VALUE;
+
+	private int receiveBufferPoolSize = UNDEFINED;
+
+	/**
+	 * Pool of receive buffers. {@code null}, if datagrams are copied into new
+	 * arrays.
+	 */
+	private BufferPool receiveBufferPool;
+
 	/**
 	 * Creates a connector on the wildcard address listening on an ephemeral
 	 * port, i.e. a port chosen by the system.
@@ -99,8 +139,7 @@ public class UDPConnector implements Connector {
 		}
 		this.running = false;
 		this.effectiveAddr = localAddr;
-		// TODO: think about restricting the outbound queue's capacity
-		this.outgoing = new LinkedBlockingQueue<RawData>();
+		this.outgoing = new ConcurrentBatchQueue<RawData>(outboundCapacity);
 	}
 
 	@Override
@@ -134,6 +173,15 @@ public class UDPConnector implements Connector {
 		}
 		sendBufferSize = socket.getSendBufferSize();
 
+		outgoing = new ConcurrentBatchQueue<RawData>(outboundCapacity);
+		saturated.set(false);
+		if (receiveBufferPoolSize > 0) {
+			// one additional byte to detect truncation
+			receiveBufferPool = new BufferPool(receiverPacketSize + 1, receiveBufferPoolSize);
+		} else {
+			receiveBufferPool = null;
+		}
+
 		// running only, if the socket could be opened
 		running = true;
 
@@ -170,8 +218,6 @@ public class UDPConnector implements Connector {
 
 	@Override
 	public void stop() {
-		// move onError callback out of synchronized block
-		List<RawData> pending = new ArrayList<>(outgoing.size());
 		synchronized (this) {
 			if (!running) {
 				return;
@@ -192,16 +238,14 @@ public class UDPConnector implements Connector {
 				receiverThreads.clear();
 				receiverThreads = null;
 			}
-			outgoing.drainTo(pending);
 			if (socket != null) {
 				socket.close();
 				socket = null;
 			}
 			LOGGER.info("UDPConnector on [{}] has stopped.", effectiveAddr);
 		}
-		for (RawData data : pending) {
-			notifyMsgAsInterrupted(data);
-		}
+		// move onError callback out of synchronized block
+		drainPending();
 	}
 
 	@Override
@@ -214,19 +258,82 @@ public class UDPConnector implements Connector {
 		if (msg == null) {
 			throw new NullPointerException("Message must not be null");
 		}
-		// move onError callback out of synchronized block
-		boolean running;
-		synchronized (this) {
-			running = this.running;
-			if (running) {
-				outgoing.add(msg);
+		if (running) {
+			if (!offer(msg)) {
+				LOGGER.debug("UDPConnector ({}) outbound queue full, drops {} bytes", effectiveAddr, msg.getSize());
+				msg.onError(new OutboundQueueFullException("Outbound queue full."));
 			}
+		} else {
+			notifyMsgAsInterrupted(msg);
+		}
+	}
+
+	@Override
+	public boolean trySend(RawData msg) {
+		if (msg == null) {
+			throw new NullPointerException("Message must not be null");
+		}
+		return running && offer(msg);
+	}
+
+	/**
+	 * Add message to outbound queue.
+	 * 
+	 * @param msg message to add
+	 * @return {@code true}, if added, {@code false}, if the outbound queue is
+	 *         full.
+	 */
+	private boolean offer(RawData msg) {
+		if (!outgoing.offer(msg)) {
+			if (saturated.compareAndSet(false, true)) {
+				BackpressureListener listener = backpressureListener;
+				if (listener != null) {
+					listener.onSaturated();
+				}
+			}
+			return false;
 		}
 		if (!running) {
-			notifyMsgAsInterrupted(msg);
+			// stopped concurrently, the message may have missed the
+			// final drain of stop()
+			drainPending();
+		}
+		return true;
+	}
+
+	/**
+	 * Check, if a saturated outbound queue has been drained down to the low
+	 * watermark and notify the listener.
+	 */
+	private void checkDrained() {
+		if (saturated.get() && outgoing.size() <= outgoing.capacity() / 2 && saturated.compareAndSet(true, false)) {
+			BackpressureListener listener = backpressureListener;
+			if (listener != null) {
+				listener.onDrained();
+			}
 		}
 	}
 
+	@Override
+	public int getOutboundQueueSize() {
+		return outgoing.size();
+	}
+
+	@Override
+	public int getOutboundQueueCapacity() {
+		return outgoing.capacity();
+	}
+
+	@Override
+	public boolean isSaturated() {
+		return saturated.get();
+	}
+
+	@Override
+	public void setBackpressureListener(BackpressureListener listener) {
+		this.backpressureListener = listener;
+	}
+
 	@Override
 	public void setRawDataReceiver(RawDataChannel receiver) {
 		this.receiver = receiver;
@@ -245,6 +352,16 @@ public class UDPConnector implements Connector {
 		msg.onError(new InterruptedIOException("Connector is not running."));
 	}
 
+	/**
+	 * Remove all pending outgoing messages and report them as interrupted.
+	 */
+	private void drainPending() {
+		RawData pending;
+		while ((pending = outgoing.poll()) != null) {
+			notifyMsgAsInterrupted(pending);
+		}
+	}
+
 	private synchronized DatagramSocket getSocket() {
 		return socket;
 	}
@@ -294,12 +411,14 @@ public class UDPConnector implements Connector {
 
 		private DatagramPacket datagram;
 		private int size;
+		private final BufferPool pool;
 
 		private Receiver(String name) {
 			super(name);
 			// we add one byte to be able to detect potential truncation.
 			this.size = receiverPacketSize + 1;
-			this.datagram = new DatagramPacket(new byte[size], size);
+			this.pool = receiveBufferPool;
+			this.datagram = new DatagramPacket(pool == null ? new byte[size] : pool.acquire(), size);
 		}
 
 		protected void work() throws IOException {
@@ -316,10 +435,18 @@ public class UDPConnector implements Connector {
 				} else {
 					LOGGER.debug("UDPConnector ({}) received {} bytes from {}:{}", effectiveAddr, datagram.getLength(),
 							datagram.getAddress(), datagram.getPort());
-					byte[] bytes = Arrays.copyOfRange(datagram.getData(), datagram.getOffset(), datagram.getLength());
-					RawData msg = RawData.inbound(bytes,
-							new UdpEndpointContext(new InetSocketAddress(datagram.getAddress(), datagram.getPort())),
-							false);
+					EndpointContext context = new UdpEndpointContext(
+							new InetSocketAddress(datagram.getAddress(), datagram.getPort()));
+					RawData msg;
+					if (pool == null) {
+						byte[] bytes = Arrays.copyOfRange(datagram.getData(), datagram.getOffset(),
+								datagram.getLength());
+						msg = RawData.inbound(bytes, context, false);
+					} else {
+						msg = RawData.inbound(datagram.getData(), datagram.getLength(), pool, context, false);
+						// the buffer is passed on, receive next datagram into another one
+						datagram.setData(pool.acquire());
+					}
 					receiver.receiveData(msg);
 				}
 			}
@@ -330,13 +457,35 @@ public class UDPConnector implements Connector {
 
 		private DatagramPacket datagram;
 
+		private final List<RawData> batch = new ArrayList<RawData>(SENDER_BATCH_SIZE);
+
 		private Sender(String name) {
 			super(name);
 			this.datagram = new DatagramPacket(Bytes.EMPTY, 0);
 		}
 
 		protected void work() throws InterruptedException {
-			RawData raw = outgoing.take(); // Blocking
+			if (outgoing.drainTo(batch, SENDER_BATCH_SIZE) == 0) {
+				outgoing.await(); // Blocking
+				return;
+			}
+			// fetch the socket once per batch
+			DatagramSocket currentSocket = getSocket();
+			try {
+				for (RawData raw : batch) {
+					try {
+						send(raw, currentSocket);
+					} catch (RuntimeException ex) {
+						LOGGER.error("Exception in network stage thread [{}]:", getName(), ex);
+					}
+				}
+			} finally {
+				batch.clear();
+			}
+			checkDrained();
+		}
+
+		private void send(RawData raw, DatagramSocket currentSocket) {
 			/*
 			 * check, if message should be sent with the "none endpoint context"
 			 * of UDP connector
@@ -351,10 +500,10 @@ public class UDPConnector implements Connector {
 				raw.onError(new EndpointMismatchException());
 				return;
 			}
-			datagram.setData(raw.getBytes());
+			// the bytes are not modified by the socket, so skip the copy
+			datagram.setData(raw.bytes);
 			datagram.setSocketAddress(destinationAddress);
 
-			DatagramSocket currentSocket = getSocket();
 			if (currentSocket != null) {
 				try {
 					raw.onContextEstablished(connectionContext);
@@ -411,6 +560,49 @@ public class UDPConnector implements Connector {
 		return receiverPacketSize;
 	}
 
+	/**
+	 * Set capacity of the outbound queue. Applied, when the connector is
+	 * started.
+	 * 
+	 * @param capacity maximum number of queued outgoing messages
+	 * @throws IllegalArgumentException if capacity is less than {@code 1}
+	 */
+	public void setOutboundCapacity(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity " + capacity + " must be at least 1!");
+		}
+		this.outboundCapacity = capacity;
+	}
+
+	public int getOutboundCapacity() {
+		return outboundCapacity;
+	}
+
+	/**
+	 * Set number of pooled receive buffers. Applied, when the connector is
+	 * started.
+	 * 
+	 * If larger than {@code 0}, datagrams are received into buffers of
+	 * {@link #getReceiverPacketSize()} + 1 bytes taken from a pool of that
+	 * size. The {@link RawDataChannel} must {@link RawData#release()} the
+	 * received data to return the buffer to the pool. If {@code 0}, the
+	 * datagrams are copied into new arrays.
+	 * 
+	 * @param size maximum number of pooled buffers, {@code 0} to disable
+	 *            pooling.
+	 * @throws IllegalArgumentException if size is negative
+	 */
+	public void setReceiveBufferPoolSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("pool size " + size + " must not be negative!");
+		}
+		this.receiveBufferPoolSize = size;
+	}
+
+	public int getReceiveBufferPoolSize() {
+		return receiveBufferPoolSize;
+	}
+
 	@Override
 	public String getProtocol() {
 		return "UDP";
@@ -0,0 +1,821 @@
+package com.coap.elements;
+
+import com.coap.elements.exception.EndpointMismatchException;
+import com.coap.elements.exception.OutboundQueueFullException;
+import com.coap.elements.util.BufferPool;
+import com.coap.elements.util.ConcurrentBatchQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Connector} employing UDP as the transport protocol based on a NIO
+ * {@link DatagramChannel}.
+ *
+ * In contrast to the {@link UDPConnector}, which uses a blocking
+ * {@link java.net.DatagramSocket}, this connector receives and sends datagrams
+ * using <em>direct</em> {@link ByteBuffer}s. Each receiver and sender thread
+ * owns its buffer, so the only copy left on the receive path is the one into
+ * the {@link RawData}'s byte array, and no lock is shared between the receiver
+ * threads.
+ *
+ * The connector may run in two modes:
+ * <ul>
+ * <li><em>blocking</em> (default), where each receiver thread blocks in
+ * {@link DatagramChannel#receive(ByteBuffer)}.</li>
+ * <li><em>selector</em>, where the channel is non-blocking and each receiver
+ * thread waits on its own {@link Selector} and drains all pending datagrams
+ * once the channel gets readable.</li>
+ * </ul>
+ *
+ * If {@link #setReusePort(boolean)} is enabled, the connector runs
+ * <em>sharded</em>: each receiver thread opens its own channel, bound to the
+ * same port using {@code SO_REUSEPORT}. The kernel then spreads the peers'
+ * flows across these sockets, so the receiver threads don't contend on a
+ * single socket's receive lock. Sender threads are distributed round robin
+ * across the shard channels. Received messages carry the index of their
+ * shard, see {@link RawData#getShard()}. SO_REUSEPORT requires a Java 9+
+ * runtime on an operating system supporting it (e.g. Linux 3.9+).
+ *
+ * As the {@link UDPConnector}, outgoing messages are queued in a bounded,
+ * lock-free queue, which is drained by the sender threads in batches, and the
+ * saturation of that queue is reported as {@link BackpressureConnector}.
+ *
+ * With {@link #setReceiveBufferPoolSize(int)} the received datagrams are
+ * copied into pooled arrays instead of new ones, which then must be
+ * {@link RawData#release()}d by the {@link RawDataChannel}.
+ *
+ * The number of threads can be set through {@link #setReceiverThreadCount(int)}
+ * and {@link #setSenderThreadCount(int)}, the mode through
+ * {@link #setUseSelector(boolean)} and {@link #setReusePort(boolean)}, before
+ * the connector is started.
+ */
+public class UdpChannelConnector implements BackpressureConnector {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(UdpChannelConnector.class.getName());
+
+	/**
+	 * Timeout for waiting on a writable channel in milliseconds. Used in
+	 * selector mode, if the socket's send buffer is exhausted.
+	 */
+	private static final long SEND_SELECT_TIMEOUT_MILLIS = 1000;
+
+	protected volatile boolean running;
+
+	protected final InetSocketAddress localAddr;
+
+	/**
+	 * Channels of the connector. Only one channel, if {@link #reusePort} is
+	 * not enabled, otherwise one channel per receiver thread (shard).
+	 */
+	private DatagramChannel[] channels;
+
+	private volatile InetSocketAddress effectiveAddr;
+
+	private List<Thread> receiverThreads;
+	private List<Thread> senderThreads;
+
+	/** The outbound message queue. */
+	private volatile ConcurrentBatchQueue<RawData> outgoing;
+
+	/**
+	 * Indicates, that the outbound queue has reached its capacity and is not
+	 * yet drained down to the low watermark.
+	 */
+	private final AtomicBoolean saturated = new AtomicBoolean();
+
+	/** The listener for the saturation of the outbound queue. */
+	private volatile BackpressureListener backpressureListener;
+
+	/**
+	 * Endpoint context matcher for outgoing messages.
+	 *
+	 * @see #setEndpointContextMatcher(EndpointContextMatcher)
+	 */
+	private volatile EndpointContextMatcher endpointContextMatcher;
+
+	/** The receiver of incoming messages. */
+	private RawDataChannel receiver;
+
+	private int receiveBufferSize = UDPConnector.UNDEFINED;
+	private int sendBufferSize = UDPConnector.UNDEFINED;
+
+	private int senderCount = 1;
+	private int receiverCount = 1;
+
+	private int receiverPacketSize = 2048;
+
+	private int outboundCapacity = Integer.MAX_VALUE;
+
+	private int receiveBufferPoolSize = UDPConnector.UNDEFINED;
+
+	/**
+	 * Pool of receive buffers. {@code null}, if datagrams are copied into new
+	 * arrays.
+	 */
+	private BufferPool receiveBufferPool;
+
+	private boolean useSelector;
+
+	private boolean reusePort;
+
+	/**
+	 * Creates a connector on the wildcard address listening on an ephemeral
+	 * port, i.e. a port chosen by the system.
+	 *
+	 * The effect of this constructor is the same as invoking
+	 * <code>UdpChannelConnector(null)</code>.
+	 */
+	public UdpChannelConnector() {
+		this(null);
+	}
+
+	/**
+	 * Creates a connector bound to a given IP address and port.
+	 *
+	 * @param address the IP address and port, if <code>null</code> the
+	 *            connector is bound to an ephemeral port on the wildcard
+	 *            address
+	 */
+	public UdpChannelConnector(InetSocketAddress address) {
+		if (address == null) {
+			this.localAddr = new InetSocketAddress(0);
+		} else {
+			this.localAddr = address;
+		}
+		this.running = false;
+		this.effectiveAddr = localAddr;
+		this.outgoing = new ConcurrentBatchQueue<RawData>(outboundCapacity);
+	}
+
+	@Override
+	public synchronized void start() throws IOException {
+
+		if (running) {
+			return;
+		}
+
+		int shards = reusePort ? Math.max(1, receiverCount) : 1;
+		DatagramChannel[] channels = new DatagramChannel[shards];
+		try {
+			InetSocketAddress bindAddress = localAddr;
+			for (int index = 0; index < shards; ++index) {
+				DatagramChannel channel = DatagramChannel.open();
+				channels[index] = channel;
+				channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+				if (reusePort) {
+					enableReusePort(channel);
+				}
+				// if localAddr is null or port is 0, the system decides
+				channel.bind(bindAddress);
+				if (index == 0) {
+					// bind further shards to the port chosen for the first one
+					bindAddress = (InetSocketAddress) channel.getLocalAddress();
+				}
+			}
+			init(channels);
+		} catch (IOException ex) {
+			for (DatagramChannel channel : channels) {
+				if (channel != null) {
+					channel.close();
+				}
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Initialize connector using the provided, already bound channels.
+	 *
+	 * @param channels datagram channels for communication. If more than one
+	 *            channel is provided, all channels must be bound to the same
+	 *            address using {@code SO_REUSEPORT}, and each receiver thread
+	 *            uses its own channel.
+	 * @throws IOException if there is an error in the datagram channel calls.
+	 */
+	protected void init(DatagramChannel... channels) throws IOException {
+		this.channels = channels;
+		effectiveAddr = (InetSocketAddress) channels[0].getLocalAddress();
+
+		for (DatagramChannel channel : channels) {
+			if (receiveBufferSize != UDPConnector.UNDEFINED) {
+				channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+			}
+			if (sendBufferSize != UDPConnector.UNDEFINED) {
+				channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+			}
+			channel.configureBlocking(!useSelector);
+		}
+		receiveBufferSize = channels[0].getOption(StandardSocketOptions.SO_RCVBUF);
+		sendBufferSize = channels[0].getOption(StandardSocketOptions.SO_SNDBUF);
+
+		outgoing = new ConcurrentBatchQueue<RawData>(outboundCapacity);
+		saturated.set(false);
+		if (receiveBufferPoolSize > 0) {
+			// one additional byte to detect truncation
+			receiveBufferPool = new BufferPool(receiverPacketSize + 1, receiveBufferPoolSize);
+		} else {
+			receiveBufferPool = null;
+		}
+
+		// running only, if the channel could be opened
+		running = true;
+
+		// start receiver and sender threads
+		LOGGER.info("UdpChannelConnector starts up {} sender threads and {} receiver threads on {} channels ({} mode)",
+				senderCount, receiverCount, channels.length, useSelector ? "selector" : "blocking");
+
+		receiverThreads = new LinkedList<Thread>();
+		for (int i = 0; i < receiverCount; i++) {
+			receiverThreads.add(new Receiver("UDP-Channel-Receiver-" + localAddr + "[" + i + "]", i % channels.length));
+		}
+
+		senderThreads = new LinkedList<Thread>();
+		for (int i = 0; i < senderCount; i++) {
+			senderThreads.add(new Sender("UDP-Channel-Sender-" + localAddr + "[" + i + "]", i % channels.length));
+		}
+
+		for (Thread t : receiverThreads) {
+			t.start();
+		}
+		for (Thread t : senderThreads) {
+			t.start();
+		}
+
+		LOGGER.info("UdpChannelConnector listening on {}, recv buf = {}, send buf = {}, recv packet size = {}",
+				effectiveAddr, receiveBufferSize, sendBufferSize, receiverPacketSize);
+	}
+
+	@Override
+	public void stop() {
+		synchronized (this) {
+			if (!running) {
+				return;
+			}
+			running = false;
+			// stop all threads
+			if (senderThreads != null) {
+				for (Thread t : senderThreads) {
+					t.interrupt();
+				}
+				senderThreads.clear();
+				senderThreads = null;
+			}
+			if (receiverThreads != null) {
+				for (Thread t : receiverThreads) {
+					t.interrupt();
+				}
+				receiverThreads.clear();
+				receiverThreads = null;
+			}
+			if (channels != null) {
+				for (DatagramChannel channel : channels) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						LOGGER.debug("UdpChannelConnector on [{}] failed to close channel:", effectiveAddr, e);
+					}
+				}
+				channels = null;
+			}
+			LOGGER.info("UdpChannelConnector on [{}] has stopped.", effectiveAddr);
+		}
+		// move onError callback out of synchronized block
+		drainPending();
+	}
+
+	@Override
+	public void destroy() {
+		stop();
+	}
+
+	@Override
+	public void send(RawData msg) {
+		if (msg == null) {
+			throw new NullPointerException("Message must not be null");
+		}
+		if (running) {
+			if (!offer(msg)) {
+				LOGGER.debug("UdpChannelConnector ({}) outbound queue full, drops {} bytes", effectiveAddr,
+						msg.getSize());
+				msg.onError(new OutboundQueueFullException("Outbound queue full."));
+			}
+		} else {
+			notifyMsgAsInterrupted(msg);
+		}
+	}
+
+	@Override
+	public boolean trySend(RawData msg) {
+		if (msg == null) {
+			throw new NullPointerException("Message must not be null");
+		}
+		return running && offer(msg);
+	}
+
+	/**
+	 * Add message to outbound queue.
+	 *
+	 * @param msg message to add
+	 * @return {@code true}, if added, {@code false}, if the outbound queue is
+	 *         full.
+	 */
+	private boolean offer(RawData msg) {
+		if (!outgoing.offer(msg)) {
+			if (saturated.compareAndSet(false, true)) {
+				BackpressureListener listener = backpressureListener;
+				if (listener != null) {
+					listener.onSaturated();
+				}
+			}
+			return false;
+		}
+		if (!running) {
+			// stopped concurrently, the message may have missed the
+			// final drain of stop()
+			drainPending();
+		}
+		return true;
+	}
+
+	/**
+	 * Check, if a saturated outbound queue has been drained down to the low
+	 * watermark and notify the listener.
+	 */
+	private void checkDrained() {
+		if (saturated.get() && outgoing.size() <= outgoing.capacity() / 2 && saturated.compareAndSet(true, false)) {
+			BackpressureListener listener = backpressureListener;
+			if (listener != null) {
+				listener.onDrained();
+			}
+		}
+	}
+
+	@Override
+	public int getOutboundQueueSize() {
+		return outgoing.size();
+	}
+
+	@Override
+	public int getOutboundQueueCapacity() {
+		return outgoing.capacity();
+	}
+
+	@Override
+	public boolean isSaturated() {
+		return saturated.get();
+	}
+
+	@Override
+	public void setBackpressureListener(BackpressureListener listener) {
+		this.backpressureListener = listener;
+	}
+
+	@Override
+	public void setRawDataReceiver(RawDataChannel receiver) {
+		this.receiver = receiver;
+	}
+
+	@Override
+	public void setEndpointContextMatcher(EndpointContextMatcher matcher) {
+		this.endpointContextMatcher = matcher;
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		return effectiveAddr;
+	}
+
+	private void notifyMsgAsInterrupted(RawData msg) {
+		msg.onError(new InterruptedIOException("Connector is not running."));
+	}
+
+	/**
+	 * Remove all pending outgoing messages and report them as interrupted.
+	 */
+	private void drainPending() {
+		RawData pending;
+		while ((pending = outgoing.poll()) != null) {
+			notifyMsgAsInterrupted(pending);
+		}
+	}
+
+	/**
+	 * Get the number of shards.
+	 *
+	 * @return number of channels bound with {@code SO_REUSEPORT}, if
+	 *         {@link #setReusePort(boolean)} is enabled, {@code 1}, otherwise.
+	 */
+	public int getShardCount() {
+		return reusePort ? Math.max(1, receiverCount) : 1;
+	}
+
+	private synchronized DatagramChannel getChannel(int shard) {
+		return channels == null ? null : channels[shard];
+	}
+
+	/**
+	 * Enable {@code SO_REUSEPORT} for the provided channel.
+	 *
+	 * {@code StandardSocketOptions.SO_REUSEPORT} is only available since
+	 * Java 9, therefore it's looked up by reflection.
+	 *
+	 * @param channel channel to enable {@code SO_REUSEPORT}
+	 * @throws IOException if {@code SO_REUSEPORT} is not supported
+	 */
+	@SuppressWarnings("unchecked")
+	private static void enableReusePort(DatagramChannel channel) throws IOException {
+		SocketOption<Boolean> option;
+		try {
+			option = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("SO_REUSEPORT requires java 9 or newer!", e);
+		}
+		if (!channel.supportedOptions().contains(option)) {
+			throw new IOException("SO_REUSEPORT not supported by the platform!");
+		}
+		channel.setOption(option, true);
+	}
+
+	private abstract class NetworkStageThread extends Thread {
+
+		/**
+		 * Instantiates a new worker.
+		 *
+		 * @param name the name
+		 */
+		protected NetworkStageThread(String name) {
+			super(UDPConnector.ELEMENTS_THREAD_GROUP, name);
+			setDaemon(true);
+		}
+
+		public void run() {
+			LOGGER.debug("Starting network stage thread [{}]", getName());
+			try {
+				while (running) {
+					try {
+						work();
+						if (!running) {
+							LOGGER.debug("Network stage thread [{}] was stopped successfully", getName());
+							break;
+						}
+					} catch (InterruptedException t) {
+						LOGGER.trace("Network stage thread [{}] was stopped successfully at:", getName(), t);
+					} catch (IOException t) {
+						if (running) {
+							LOGGER.error("Exception in network stage thread [{}]:", getName(), t);
+						} else {
+							LOGGER.trace("Network stage thread [{}] was stopped successfully at:", getName(), t);
+						}
+					} catch (Throwable t) {
+						LOGGER.error("Exception in network stage thread [{}]:", getName(), t);
+					}
+				}
+			} finally {
+				cleanup();
+			}
+		}
+
+		/**
+		 * @throws Exception the exception to be properly logged
+		 */
+		protected abstract void work() throws Exception;
+
+		/**
+		 * Release thread local resources, when the thread terminates.
+		 */
+		protected void cleanup() {
+		}
+	}
+
+	private class Receiver extends NetworkStageThread {
+
+		private final ByteBuffer buffer;
+		private final int size;
+		private final int shard;
+		private final BufferPool pool;
+		private Selector selector;
+
+		private Receiver(String name, int shard) {
+			super(name);
+			this.shard = shard;
+			// we add one byte to be able to detect potential truncation.
+			this.size = receiverPacketSize + 1;
+			this.buffer = ByteBuffer.allocateDirect(size);
+			this.pool = receiveBufferPool;
+		}
+
+		protected void work() throws IOException {
+			DatagramChannel currentChannel = getChannel(shard);
+			if (currentChannel == null) {
+				return;
+			}
+			if (useSelector) {
+				if (selector == null) {
+					selector = Selector.open();
+					currentChannel.register(selector, SelectionKey.OP_READ);
+				}
+				if (selector.select() > 0) {
+					selector.selectedKeys().clear();
+					// drain all pending datagrams
+					while (running && receive(currentChannel)) {
+					}
+				}
+			} else {
+				receive(currentChannel);
+			}
+		}
+
+		/**
+		 * Receive one datagram from the channel and forward it to the
+		 * {@link RawDataChannel}.
+		 *
+		 * @param currentChannel channel to receive from
+		 * @return {@code true}, if a datagram was received, {@code false},
+		 *         if the non-blocking channel had no pending datagram.
+		 * @throws IOException if an i/o error occurred
+		 */
+		private boolean receive(DatagramChannel currentChannel) throws IOException {
+			buffer.clear();
+			InetSocketAddress peer = (InetSocketAddress) currentChannel.receive(buffer);
+			if (peer == null) {
+				return false;
+			}
+			buffer.flip();
+			int length = buffer.remaining();
+			if (length >= size) {
+				// too large datagram for our buffer! data could have been
+				// truncated, so we discard it.
+				LOGGER.debug(
+						"UdpChannelConnector ({}) received truncated UDP datagram from {}:{}. Maximum size allowed {}. Discarding ...",
+						effectiveAddr, peer.getAddress(), peer.getPort(), size - 1);
+			} else {
+				LOGGER.debug("UdpChannelConnector ({}) received {} bytes from {}:{}", effectiveAddr, length,
+						peer.getAddress(), peer.getPort());
+				RawData msg;
+				if (pool == null) {
+					byte[] bytes = new byte[length];
+					buffer.get(bytes);
+					msg = RawData.inbound(bytes, new UdpEndpointContext(peer), false, shard);
+				} else {
+					byte[] bytes = pool.acquire();
+					buffer.get(bytes, 0, length);
+					msg = RawData.inbound(bytes, length, pool, new UdpEndpointContext(peer), false, shard);
+				}
+				receiver.receiveData(msg);
+			}
+			return true;
+		}
+
+		@Override
+		protected void cleanup() {
+			if (selector != null) {
+				try {
+					selector.close();
+				} catch (IOException e) {
+					LOGGER.trace("Network stage thread [{}] failed to close selector:", getName(), e);
+				}
+				selector = null;
+			}
+		}
+	}
+
+	private class Sender extends NetworkStageThread {
+
+		private final ByteBuffer buffer;
+		private final int shard;
+		private final List<RawData> batch = new ArrayList<RawData>(UDPConnector.SENDER_BATCH_SIZE);
+		private Selector selector;
+
+		private Sender(String name, int shard) {
+			super(name);
+			this.shard = shard;
+			this.buffer = ByteBuffer.allocateDirect(receiverPacketSize);
+		}
+
+		protected void work() throws InterruptedException {
+			if (outgoing.drainTo(batch, UDPConnector.SENDER_BATCH_SIZE) == 0) {
+				outgoing.await(); // Blocking
+				return;
+			}
+			// fetch the channel once per batch
+			DatagramChannel currentChannel = getChannel(shard);
+			try {
+				for (RawData raw : batch) {
+					try {
+						send(raw, currentChannel);
+					} catch (RuntimeException ex) {
+						LOGGER.error("Exception in network stage thread [{}]:", getName(), ex);
+					}
+				}
+			} finally {
+				batch.clear();
+			}
+			checkDrained();
+		}
+
+		private void send(RawData raw, DatagramChannel currentChannel) {
+			/*
+			 * check, if message should be sent with the "none endpoint context"
+			 * of UDP connector
+			 */
+			EndpointContext destination = raw.getEndpointContext();
+			InetSocketAddress destinationAddress = destination.getPeerAddress();
+			EndpointContext connectionContext = new UdpEndpointContext(destinationAddress);
+			EndpointContextMatcher endpointMatcher = UdpChannelConnector.this.endpointContextMatcher;
+			if (endpointMatcher != null && !endpointMatcher.isToBeSent(destination, connectionContext)) {
+				LOGGER.warn("UdpChannelConnector ({}) drops {} bytes to {}:{}", effectiveAddr, raw.getSize(),
+						destinationAddress.getAddress(), destinationAddress.getPort());
+				raw.onError(new EndpointMismatchException());
+				return;
+			}
+
+			if (currentChannel != null) {
+				ByteBuffer data;
+				if (raw.getSize() <= buffer.capacity()) {
+					buffer.clear();
+					buffer.put(raw.bytes);
+					buffer.flip();
+					data = buffer;
+				} else {
+					// larger than the direct buffer, let the channel copy it
+					data = ByteBuffer.wrap(raw.bytes);
+				}
+				try {
+					raw.onContextEstablished(connectionContext);
+					while (currentChannel.send(data, destinationAddress) == 0) {
+						// non-blocking channel with exhausted send buffer
+						awaitWritable(currentChannel);
+					}
+					raw.onSent();
+				} catch (IOException ex) {
+					raw.onError(ex);
+				}
+				LOGGER.debug("UdpChannelConnector ({}) sent {} bytes to {}:{}", this, raw.getSize(),
+						destinationAddress.getAddress(), destinationAddress.getPort());
+			} else {
+				raw.onError(new IOException("channel already closed!"));
+			}
+		}
+
+		private void awaitWritable(DatagramChannel currentChannel) throws IOException {
+			if (!running) {
+				throw new InterruptedIOException("Connector is not running.");
+			}
+			if (selector == null) {
+				selector = Selector.open();
+				currentChannel.register(selector, SelectionKey.OP_WRITE);
+			}
+			selector.select(SEND_SELECT_TIMEOUT_MILLIS);
+			selector.selectedKeys().clear();
+		}
+
+		@Override
+		protected void cleanup() {
+			if (selector != null) {
+				try {
+					selector.close();
+				} catch (IOException e) {
+					LOGGER.trace("Network stage thread [{}] failed to close selector:", getName(), e);
+				}
+				selector = null;
+			}
+		}
+	}
+
+	public void setReceiveBufferSize(int size) {
+		this.receiveBufferSize = size;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public void setSendBufferSize(int size) {
+		this.sendBufferSize = size;
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	public void setReceiverThreadCount(int count) {
+		this.receiverCount = count;
+	}
+
+	public int getReceiverThreadCount() {
+		return receiverCount;
+	}
+
+	public void setSenderThreadCount(int count) {
+		this.senderCount = count;
+	}
+
+	public int getSenderThreadCount() {
+		return senderCount;
+	}
+
+	public void setReceiverPacketSize(int size) {
+		this.receiverPacketSize = size;
+	}
+
+	public int getReceiverPacketSize() {
+		return receiverPacketSize;
+	}
+
+	/**
+	 * Set capacity of the outbound queue. Applied, when the connector is
+	 * started.
+	 *
+	 * @param capacity maximum number of queued outgoing messages
+	 * @throws IllegalArgumentException if capacity is less than {@code 1}
+	 */
+	public void setOutboundCapacity(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity " + capacity + " must be at least 1!");
+		}
+		this.outboundCapacity = capacity;
+	}
+
+	public int getOutboundCapacity() {
+		return outboundCapacity;
+	}
+
+	/**
+	 * Set number of pooled receive buffers. Applied, when the connector is
+	 * started.
+	 *
+	 * If larger than {@code 0}, datagrams are copied into buffers of
+	 * {@link #getReceiverPacketSize()} + 1 bytes taken from a pool of that
+	 * size. The {@link RawDataChannel} must {@link RawData#release()} the
+	 * received data to return the buffer to the pool. If {@code 0}, the
+	 * datagrams are copied into new arrays.
+	 *
+	 * @param size maximum number of pooled buffers, {@code 0} to disable
+	 *            pooling.
+	 * @throws IllegalArgumentException if size is negative
+	 */
+	public void setReceiveBufferPoolSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("pool size " + size + " must not be negative!");
+		}
+		this.receiveBufferPoolSize = size;
+	}
+
+	public int getReceiveBufferPoolSize() {
+		return receiveBufferPoolSize;
+	}
+
+	/**
+	 * Set the channel mode. Must be called before the connector is started.
+	 *
+	 * @param useSelector {@code true}, to use a non-blocking channel and
+	 *            selectors, {@code false}, to use a blocking channel.
+	 */
+	public void setUseSelector(boolean useSelector) {
+		this.useSelector = useSelector;
+	}
+
+	public boolean isUseSelector() {
+		return useSelector;
+	}
+
+	/**
+	 * Enable sharding using {@code SO_REUSEPORT}. Must be called before the
+	 * connector is started.
+	 *
+	 * @param reusePort {@code true}, to open one channel per receiver thread,
+	 *            all bound to the same port, {@code false}, to share one
+	 *            channel among all receiver threads.
+	 */
+	public void setReusePort(boolean reusePort) {
+		this.reusePort = reusePort;
+	}
+
+	public boolean isReusePort() {
+		return reusePort;
+	}
+
+	@Override
+	public String getProtocol() {
+		return "UDP";
+	}
+
+	@Override
+	public String toString() {
+		return getProtocol() + "-" + getAddress();
+	}
+}
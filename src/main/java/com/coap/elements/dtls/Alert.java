@@ -0,0 +1,31 @@
+package com.coap.elements.dtls;
+
+/**
+ * Alert protocol, see
+ * <a href="https://tools.ietf.org/html/rfc5246#section-7.2">RFC 5246, 7.2
+ * Alert Protocol</a>.
+ */
+final class Alert {
+
+	static final int LEVEL_WARNING = 1;
+	static final int LEVEL_FATAL = 2;
+
+	static final int CLOSE_NOTIFY = 0;
+	static final int UNEXPECTED_MESSAGE = 10;
+	static final int BAD_RECORD_MAC = 20;
+	static final int HANDSHAKE_FAILURE = 40;
+	static final int BAD_CERTIFICATE = 42;
+	static final int UNSUPPORTED_CERTIFICATE = 43;
+	static final int ILLEGAL_PARAMETER = 47;
+	static final int DECODE_ERROR = 50;
+	static final int DECRYPT_ERROR = 51;
+	static final int INTERNAL_ERROR = 80;
+	static final int UNKNOWN_PSK_IDENTITY = 115;
+
+	private Alert() {
+	}
+
+	static byte[] toByteArray(int level, int description) {
+		return new byte[] { (byte) level, (byte) description };
+	}
+}
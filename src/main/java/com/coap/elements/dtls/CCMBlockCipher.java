@@ -0,0 +1,165 @@
+package com.coap.elements.dtls;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * AES in Counter with CBC-MAC mode, see
+ * <a href="https://tools.ietf.org/html/rfc3610">RFC 3610</a>.
+ *
+ * The JCE of Java 8 doesn't provide CCM, therefore it's implemented on top of
+ * the AES block cipher. An instance is bound to one key and is not thread
+ * safe.
+ */
+final class CCMBlockCipher {
+
+	private static final int BLOCK_SIZE = 16;
+
+	private final Cipher cipher;
+
+	/**
+	 * Length of the authentication tag in bytes.
+	 */
+	private final int tagLength;
+
+	private final byte[] block = new byte[BLOCK_SIZE];
+
+	private final byte[] mac = new byte[BLOCK_SIZE];
+
+	/**
+	 * Create CCM cipher.
+	 *
+	 * @param key AES key
+	 * @param tagLength length of the authentication tag in bytes
+	 * @throws GeneralSecurityException if AES is not available or the key
+	 *             is invalid
+	 */
+	CCMBlockCipher(SecretKey key, int tagLength) throws GeneralSecurityException {
+		this.cipher = Cipher.getInstance("AES/ECB/NoPadding");
+		this.cipher.init(Cipher.ENCRYPT_MODE, key);
+		this.tagLength = tagLength;
+	}
+
+	/**
+	 * Encrypt and authenticate message.
+	 *
+	 * @param nonce nonce, 7 to 13 bytes
+	 * @param additionalData additional authenticated data
+	 * @param message message to encrypt
+	 * @return encrypted message followed by the authentication tag
+	 * @throws GeneralSecurityException if the encryption fails
+	 */
+	byte[] encrypt(byte[] nonce, byte[] additionalData, byte[] message) throws GeneralSecurityException {
+		byte[] result = new byte[message.length + tagLength];
+		computeMac(nonce, additionalData, message, message.length);
+		crypt(nonce, message, result, message.length);
+		// tag encrypted with counter 0
+		counterBlock(nonce, 0);
+		encryptBlock(block);
+		for (int index = 0; index < tagLength; ++index) {
+			result[message.length + index] = (byte) (mac[index] ^ block[index]);
+		}
+		return result;
+	}
+
+	/**
+	 * Decrypt and verify message.
+	 *
+	 * @param nonce nonce, 7 to 13 bytes
+	 * @param additionalData additional authenticated data
+	 * @param ciphertext encrypted message followed by the authentication tag
+	 * @return decrypted message
+	 * @throws GeneralSecurityException if the message could not be
+	 *             authenticated
+	 */
+	byte[] decrypt(byte[] nonce, byte[] additionalData, byte[] ciphertext) throws GeneralSecurityException {
+		int length = ciphertext.length - tagLength;
+		if (length < 0) {
+			throw new AEADBadTagException("ciphertext too short!");
+		}
+		byte[] message = new byte[length];
+		crypt(nonce, ciphertext, message, length);
+		computeMac(nonce, additionalData, message, length);
+		counterBlock(nonce, 0);
+		encryptBlock(block);
+		byte[] tag = new byte[tagLength];
+		byte[] received = new byte[tagLength];
+		for (int index = 0; index < tagLength; ++index) {
+			tag[index] = (byte) (mac[index] ^ block[index]);
+			received[index] = ciphertext[length + index];
+		}
+		if (!MessageDigest.isEqual(tag, received)) {
+			throw new AEADBadTagException("authentication failed!");
+		}
+		return message;
+	}
+
+	/**
+	 * Encrypt or decrypt with the counter mode, starting with counter 1.
+	 */
+	private void crypt(byte[] nonce, byte[] in, byte[] out, int length) throws GeneralSecurityException {
+		int counter = 1;
+		for (int offset = 0; offset < length; offset += BLOCK_SIZE) {
+			counterBlock(nonce, counter++);
+			encryptBlock(block);
+			int end = Math.min(BLOCK_SIZE, length - offset);
+			for (int index = 0; index < end; ++index) {
+				out[offset + index] = (byte) (in[offset + index] ^ block[index]);
+			}
+		}
+	}
+
+	/**
+	 * Compute the CBC-MAC into {@link #mac}.
+	 */
+	private void computeMac(byte[] nonce, byte[] additionalData, byte[] message, int length)
+			throws GeneralSecurityException {
+		int lengthSize = 15 - nonce.length;
+		// B_0
+		int flags = (additionalData.length > 0 ? 0x40 : 0) | (((tagLength - 2) / 2) << 3) | (lengthSize - 1);
+		mac[0] = (byte) flags;
+		System.arraycopy(nonce, 0, mac, 1, nonce.length);
+		for (int index = 0, value = length; index < lengthSize; ++index, value >>>= 8) {
+			mac[BLOCK_SIZE - 1 - index] = (byte) value;
+		}
+		encryptBlock(mac);
+		if (additionalData.length > 0) {
+			// additional data is limited to 0xff00 bytes by the callers
+			byte[] encoded = new byte[additionalData.length + 2];
+			encoded[0] = (byte) (additionalData.length >> 8);
+			encoded[1] = (byte) additionalData.length;
+			System.arraycopy(additionalData, 0, encoded, 2, additionalData.length);
+			chain(encoded, encoded.length);
+		}
+		chain(message, length);
+	}
+
+	/**
+	 * Chain data (padded with zeros) into the CBC-MAC.
+	 */
+	private void chain(byte[] data, int length) throws GeneralSecurityException {
+		for (int offset = 0; offset < length; offset += BLOCK_SIZE) {
+			int end = Math.min(BLOCK_SIZE, length - offset);
+			for (int index = 0; index < end; ++index) {
+				mac[index] ^= data[offset + index];
+			}
+			encryptBlock(mac);
+		}
+	}
+
+	private void counterBlock(byte[] nonce, int counter) {
+		int lengthSize = 15 - nonce.length;
+		block[0] = (byte) (lengthSize - 1);
+		System.arraycopy(nonce, 0, block, 1, nonce.length);
+		for (int index = 0, value = counter; index < lengthSize; ++index, value >>>= 8) {
+			block[BLOCK_SIZE - 1 - index] = (byte) value;
+		}
+	}
+
+	private void encryptBlock(byte[] data) throws GeneralSecurityException {
+		cipher.doFinal(data, 0, BLOCK_SIZE, data, 0);
+	}
+}
@@ -0,0 +1,83 @@
+package com.coap.elements.dtls;
+
+/**
+ * Cipher suites supported by the {@link DTLSConnector}.
+ *
+ * Both are the mandatory-to-implement cipher suites of
+ * <a href="https://tools.ietf.org/html/rfc7252#section-9.1.3">RFC 7252, 9.1.3,
+ * Security Modes</a>, using AES-128 in CCM mode with an 8 bytes
+ * authentication tag and SHA-256 for the PRF.
+ */
+public enum CipherSuite {
+
+	/**
+	 * Pre-shared key cipher suite, see
+	 * <a href="https://tools.ietf.org/html/rfc6655">RFC 6655</a>.
+	 */
+	TLS_PSK_WITH_AES_128_CCM_8(0xC0A8, KeyExchangeAlgorithm.PSK),
+	/**
+	 * Raw public key cipher suite, see
+	 * <a href="https://tools.ietf.org/html/rfc7251">RFC 7251</a>.
+	 */
+	TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8(0xC0AE, KeyExchangeAlgorithm.ECDHE_ECDSA);
+
+	/**
+	 * Length of the encryption key in bytes.
+	 */
+	public static final int ENC_KEY_LENGTH = 16;
+	/**
+	 * Length of the implicit part of the nonce in bytes.
+	 */
+	public static final int FIXED_IV_LENGTH = 4;
+	/**
+	 * Length of the explicit part of the nonce in bytes.
+	 */
+	public static final int RECORD_IV_LENGTH = 8;
+	/**
+	 * Length of the authentication tag in bytes.
+	 */
+	public static final int MAC_LENGTH = 8;
+
+	/**
+	 * Key exchange algorithm.
+	 */
+	public enum KeyExchangeAlgorithm {
+		PSK, ECDHE_ECDSA
+	}
+
+	private final int code;
+	private final KeyExchangeAlgorithm keyExchange;
+
+	private CipherSuite(int code, KeyExchangeAlgorithm keyExchange) {
+		this.code = code;
+		this.keyExchange = keyExchange;
+	}
+
+	/**
+	 * Get the IANA code of the cipher suite.
+	 *
+	 * @return the code
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	public KeyExchangeAlgorithm getKeyExchange() {
+		return keyExchange;
+	}
+
+	/**
+	 * Get cipher suite by its code.
+	 *
+	 * @param code IANA code of the cipher suite
+	 * @return cipher suite, or {@code null}, if not supported.
+	 */
+	public static CipherSuite getTypeByCode(int code) {
+		for (CipherSuite suite : values()) {
+			if (suite.code == code) {
+				return suite;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,394 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.auth.PreSharedKeyIdentity;
+import com.coap.elements.auth.RawPublicKeyIdentity;
+import com.coap.elements.util.Bytes;
+import com.coap.elements.util.ClockUtil;
+import com.coap.elements.util.DatagramWriter;
+import com.coap.elements.util.StandardCharsets;
+
+import java.security.GeneralSecurityException;
+import java.security.Principal;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side of a DTLS 1.2 handshake.
+ *
+ * Starts a full handshake, or an abbreviated handshake, if a session to
+ * resume is provided. The server decides, whether the session is resumed.
+ */
+final class ClientHandshaker extends Handshaker {
+
+	private enum State {
+		HELLO, SERVER_CERTIFICATE, SERVER_KEY_EXCHANGE, SERVER_HELLO_DONE, FINISHED, RESUMED_FINISHED
+	}
+
+	/**
+	 * Session to be resumed. {@code null}, for a full handshake.
+	 */
+	private final DTLSSession resumeSession;
+
+	private State state = State.HELLO;
+
+	private ClientHello clientHello;
+
+	/**
+	 * Message sequence number of the last sent CLIENT_HELLO.
+	 */
+	private int clientHelloSeq;
+
+	private byte[] sessionId;
+
+	private Principal peerIdentity;
+
+	private RawPublicKeyIdentity serverPublicKey;
+
+	private byte[] serverEcdhPoint;
+
+	private boolean certificateRequested;
+
+	ClientHandshaker(DTLSConnector connector, DTLSConnection connection, DTLSSession resumeSession) {
+		super(connector, connection);
+		this.resumeSession = resumeSession;
+	}
+
+	@Override
+	boolean isClient() {
+		return true;
+	}
+
+	/**
+	 * Start the handshake by sending the CLIENT_HELLO.
+	 *
+	 * @throws GeneralSecurityException if the flight could not be encrypted
+	 */
+	void start() throws GeneralSecurityException {
+		List<CipherSuite> suites = config.getSupportedCipherSuites();
+		boolean ecc = false;
+		int[] codes;
+		byte[] resumeId = Bytes.EMPTY;
+		if (resumeSession != null) {
+			// offer only the suite of the session, a full handshake uses the
+			// same suite
+			codes = new int[] { resumeSession.getCipherSuite().getCode() };
+			ecc = resumeSession.getCipherSuite().getKeyExchange() == CipherSuite.KeyExchangeAlgorithm.ECDHE_ECDSA;
+			resumeId = resumeSession.getSessionId().getBytes();
+		} else {
+			codes = new int[suites.size()];
+			for (int index = 0; index < codes.length; ++index) {
+				codes[index] = suites.get(index).getCode();
+				ecc |= suites.get(index).getKeyExchange() == CipherSuite.KeyExchangeAlgorithm.ECDHE_ECDSA;
+			}
+		}
+		Map<Integer, byte[]> extensions = new LinkedHashMap<Integer, byte[]>();
+		if (ecc) {
+			extensions.put(HelloExtensions.SUPPORTED_GROUPS, new byte[] { 0, 2, 0,
+					(byte) ECDHECryptography.NAMED_CURVE_SECP256R1 });
+			extensions.put(HelloExtensions.EC_POINT_FORMATS, new byte[] { 1,
+					(byte) ECDHECryptography.POINT_FORMAT_UNCOMPRESSED });
+			extensions.put(HelloExtensions.SIGNATURE_ALGORITHMS, new byte[] { 0, 2,
+					(byte) (HelloExtensions.SHA256_WITH_ECDSA >> 8), (byte) HelloExtensions.SHA256_WITH_ECDSA });
+			if (config.getPrivateKey() != null) {
+				extensions.put(HelloExtensions.CLIENT_CERTIFICATE_TYPE, new byte[] { 1,
+						(byte) HelloExtensions.CERTIFICATE_TYPE_RAW_PUBLIC_KEY });
+			}
+			extensions.put(HelloExtensions.SERVER_CERTIFICATE_TYPE, new byte[] { 1,
+					(byte) HelloExtensions.CERTIFICATE_TYPE_RAW_PUBLIC_KEY });
+		}
+		extensions.put(HelloExtensions.EXTENDED_MASTER_SECRET, Bytes.EMPTY);
+		if (config.getConnectionIdLength() != null) {
+			extensions.put(HelloExtensions.CONNECTION_ID, encodeConnectionId(connection.getConnectionId()));
+		}
+		extensions.put(HelloExtensions.RENEGOTIATION_INFO, new byte[] { 0 });
+		clientRandom = createRandom();
+		clientHello = new ClientHello(Record.VERSION_1_2, clientRandom, resumeId, Bytes.EMPTY, codes,
+				new byte[] { 0 }, extensions);
+		sendClientHello();
+	}
+
+	private void sendClientHello() throws GeneralSecurityException {
+		clientHelloSeq = nextSendMessageSeq++;
+		List<FlightEntry> flight = new ArrayList<FlightEntry>(1);
+		// not added to the transcript, a HELLO_VERIFY_REQUEST may follow
+		flight.add(new FlightEntry(Record.HANDSHAKE, HandshakeMessage.CLIENT_HELLO, clientHelloSeq,
+				clientHello.toByteArray(), false));
+		sendFlight(flight, false);
+	}
+
+	@Override
+	protected void handleMessage(int type, int messageSeq, byte[] body, boolean encrypted)
+			throws HandshakeException, GeneralSecurityException {
+		if (encrypted != (type == HandshakeMessage.FINISHED)) {
+			throw new HandshakeException("unexpected epoch for message " + type + "!", Alert.UNEXPECTED_MESSAGE);
+		}
+		switch (type) {
+		case HandshakeMessage.HELLO_VERIFY_REQUEST:
+			expect(State.HELLO, type);
+			receiveHelloVerifyRequest(body);
+			break;
+		case HandshakeMessage.SERVER_HELLO:
+			expect(State.HELLO, type);
+			receiveServerHello(messageSeq, body);
+			break;
+		case HandshakeMessage.CERTIFICATE:
+			expect(State.SERVER_CERTIFICATE, type);
+			addToTranscript(type, messageSeq, body);
+			receiveServerCertificate(body);
+			break;
+		case HandshakeMessage.SERVER_KEY_EXCHANGE:
+			if (cipherSuite.getKeyExchange() == CipherSuite.KeyExchangeAlgorithm.PSK) {
+				// PSK identity hint, not used
+				expect(State.SERVER_HELLO_DONE, type);
+			} else {
+				expect(State.SERVER_KEY_EXCHANGE, type);
+				receiveServerKeyExchange(body);
+				state = State.SERVER_HELLO_DONE;
+			}
+			addToTranscript(type, messageSeq, body);
+			break;
+		case HandshakeMessage.CERTIFICATE_REQUEST:
+			expect(State.SERVER_HELLO_DONE, type);
+			if (cipherSuite.getKeyExchange() != CipherSuite.KeyExchangeAlgorithm.ECDHE_ECDSA) {
+				throw new HandshakeException("unexpected CERTIFICATE_REQUEST!", Alert.UNEXPECTED_MESSAGE);
+			}
+			addToTranscript(type, messageSeq, body);
+			certificateRequested = true;
+			break;
+		case HandshakeMessage.SERVER_HELLO_DONE:
+			expect(State.SERVER_HELLO_DONE, type);
+			addToTranscript(type, messageSeq, body);
+			sendClientFlight();
+			state = State.FINISHED;
+			break;
+		case HandshakeMessage.FINISHED:
+			if (state == State.RESUMED_FINISHED) {
+				verifyFinished(messageSeq, body, encrypted);
+				List<FlightEntry> flight = new ArrayList<FlightEntry>(2);
+				flight.add(createChangeCipherSpec());
+				flight.add(createFinished());
+				List<byte[]> lastFlight = sendFlight(flight, true);
+				complete(resumeSession, lastFlight);
+			} else {
+				expect(State.FINISHED, type);
+				verifyFinished(messageSeq, body, encrypted);
+				complete(new DTLSSession(new Bytes(sessionId), cipherSuite, masterSecret, extendedMasterSecret,
+						peerIdentity, TimeUnit.NANOSECONDS.toMillis(ClockUtil.nanoRealtime())), null);
+			}
+			break;
+		default:
+			throw new HandshakeException("unexpected message " + type + "!", Alert.UNEXPECTED_MESSAGE);
+		}
+	}
+
+	private void expect(State expected, int type) throws HandshakeException {
+		if (state != expected) {
+			throw new HandshakeException("unexpected message " + type + " in state " + state + "!",
+					Alert.UNEXPECTED_MESSAGE);
+		}
+	}
+
+	private void receiveHelloVerifyRequest(byte[] body) throws GeneralSecurityException {
+		DtlsReader reader = new DtlsReader(body);
+		reader.readUint16();
+		byte[] cookie = reader.readVector(1);
+		clientHello = clientHello.withCookie(cookie);
+		sendClientHello();
+	}
+
+	private void receiveServerHello(int messageSeq, byte[] body) throws HandshakeException, GeneralSecurityException {
+		ServerHello serverHello = ServerHello.fromByteArray(body);
+		if (serverHello.version != Record.VERSION_1_2) {
+			throw new HandshakeException("server version " + Integer.toHexString(serverHello.version)
+					+ " not supported!", Alert.HANDSHAKE_FAILURE);
+		}
+		if (!clientHello.hasCipherSuite(serverHello.cipherSuite) || serverHello.compressionMethod != 0) {
+			throw new HandshakeException("server selected not offered parameters!", Alert.ILLEGAL_PARAMETER);
+		}
+		for (Integer extension : serverHello.extensions.keySet()) {
+			if (!clientHello.extensions.containsKey(extension)) {
+				throw new HandshakeException("server sent not offered extension " + extension + "!",
+						Alert.UNEXPECTED_MESSAGE);
+			}
+		}
+		cipherSuite = CipherSuite.getTypeByCode(serverHello.cipherSuite);
+		serverRandom = serverHello.random;
+		sessionId = serverHello.sessionId;
+		extendedMasterSecret = serverHello.extensions.containsKey(HelloExtensions.EXTENDED_MASTER_SECRET);
+		byte[] cid = serverHello.extensions.get(HelloExtensions.CONNECTION_ID);
+		if (cid != null) {
+			peerConnectionId = new DtlsReader(cid).readVector(1);
+		}
+		addToTranscript(HandshakeMessage.CLIENT_HELLO, clientHelloSeq, clientHello.toByteArray());
+		addToTranscript(HandshakeMessage.SERVER_HELLO, messageSeq, body);
+		if (resumeSession != null && sessionId.length > 0
+				&& Arrays.equals(sessionId, resumeSession.getSessionId().getBytes())) {
+			if (resumeSession.useExtendedMasterSecret() != extendedMasterSecret) {
+				throw new HandshakeException("extended master secret mismatch on resumption!",
+						Alert.HANDSHAKE_FAILURE);
+			}
+			masterSecret = resumeSession.getMasterSecret();
+			deriveKeys();
+			state = State.RESUMED_FINISHED;
+		} else if (cipherSuite.getKeyExchange() == CipherSuite.KeyExchangeAlgorithm.PSK) {
+			state = State.SERVER_HELLO_DONE;
+		} else {
+			state = State.SERVER_CERTIFICATE;
+		}
+	}
+
+	private void receiveServerCertificate(byte[] body) throws HandshakeException {
+		serverPublicKey = readRawPublicKey(body);
+		if (serverPublicKey == null) {
+			throw new HandshakeException("server sent no raw public key!", Alert.HANDSHAKE_FAILURE);
+		}
+		if (!config.getRpkTrustStore().isTrusted(serverPublicKey)) {
+			throw new HandshakeException("server raw public key not trusted!", Alert.BAD_CERTIFICATE);
+		}
+		peerIdentity = serverPublicKey;
+		state = State.SERVER_KEY_EXCHANGE;
+	}
+
+	private void receiveServerKeyExchange(byte[] body) throws HandshakeException, GeneralSecurityException {
+		DtlsReader reader = new DtlsReader(body);
+		int curveType = reader.readUint8();
+		int curve = reader.readUint16();
+		if (curveType != ECDHECryptography.CURVE_TYPE_NAMED_CURVE
+				|| curve != ECDHECryptography.NAMED_CURVE_SECP256R1) {
+			throw new HandshakeException("curve not supported!", Alert.HANDSHAKE_FAILURE);
+		}
+		serverEcdhPoint = reader.readVector(1);
+		int paramsLength = reader.position();
+		int algorithm = reader.readUint16();
+		byte[] signature = reader.readVector(2);
+		if (algorithm != HelloExtensions.SHA256_WITH_ECDSA) {
+			throw new HandshakeException("signature algorithm not supported!", Alert.HANDSHAKE_FAILURE);
+		}
+		Signature verifier = Signature.getInstance("SHA256withECDSA");
+		verifier.initVerify(serverPublicKey.getKey());
+		verifier.update(clientRandom);
+		verifier.update(serverRandom);
+		verifier.update(body, 0, paramsLength);
+		if (!verifier.verify(signature)) {
+			throw new HandshakeException("SERVER_KEY_EXCHANGE signature invalid!", Alert.DECRYPT_ERROR);
+		}
+	}
+
+	/**
+	 * Send the flight after the SERVER_HELLO_DONE, see
+	 * <a href="https://tools.ietf.org/html/rfc5246#section-7.3">RFC 5246, 7.3
+	 * Handshake Protocol Overview</a>.
+	 */
+	private void sendClientFlight() throws HandshakeException, GeneralSecurityException {
+		List<FlightEntry> flight = new ArrayList<FlightEntry>(5);
+		boolean sign = false;
+		byte[] premasterSecret;
+		if (cipherSuite.getKeyExchange() == CipherSuite.KeyExchangeAlgorithm.PSK) {
+			PreSharedKeyIdentity identity = config.getPskStore().getIdentity(connection.getPeerAddress());
+			byte[] psk = identity == null ? null : config.getPskStore().getKey(identity);
+			if (psk == null) {
+				throw new HandshakeException("no psk available for " + connection.getPeerAddress() + "!",
+						Alert.INTERNAL_ERROR);
+			}
+			peerIdentity = identity;
+			byte[] name = identity.getIdentity().getBytes(StandardCharsets.UTF_8);
+			DatagramWriter writer = new DatagramWriter();
+			writer.write(name.length, 16);
+			writer.writeBytes(name);
+			flight.add(createMessage(HandshakeMessage.CLIENT_KEY_EXCHANGE, writer.toByteArray(), false));
+			premasterSecret = createPskPremasterSecret(psk);
+		} else {
+			if (certificateRequested) {
+				sign = config.getPrivateKey() != null;
+				byte[] publicKey = sign ? config.getPublicKey().getEncoded() : Bytes.EMPTY;
+				flight.add(createMessage(HandshakeMessage.CERTIFICATE, encodeRawPublicKey(publicKey), false));
+			}
+			ECDHECryptography ecdhe = new ECDHECryptography();
+			byte[] point = ecdhe.getEncodedPoint();
+			DatagramWriter writer = new DatagramWriter();
+			writer.write(point.length, 8);
+			writer.writeBytes(point);
+			flight.add(createMessage(HandshakeMessage.CLIENT_KEY_EXCHANGE, writer.toByteArray(), false));
+			try {
+				premasterSecret = ecdhe.generateSecret(serverEcdhPoint);
+			} catch (GeneralSecurityException e) {
+				throw new HandshakeException(e.getMessage(), Alert.ILLEGAL_PARAMETER, e);
+			}
+		}
+		generateMasterSecret(premasterSecret);
+		if (sign) {
+			Signature signer = Signature.getInstance("SHA256withECDSA");
+			signer.initSign(config.getPrivateKey());
+			signer.update(getTranscript());
+			byte[] signature = signer.sign();
+			DatagramWriter writer = new DatagramWriter();
+			writer.write(HelloExtensions.SHA256_WITH_ECDSA, 16);
+			writer.write(signature.length, 16);
+			writer.writeBytes(signature);
+			flight.add(createMessage(HandshakeMessage.CERTIFICATE_VERIFY, writer.toByteArray(), false));
+		}
+		deriveKeys();
+		flight.add(createChangeCipherSpec());
+		flight.add(createFinished());
+		sendFlight(flight, false);
+	}
+
+	/**
+	 * Encode the connection ID extension data.
+	 *
+	 * @param cid connection ID, or {@code null} for an empty connection ID
+	 * @return extension data
+	 */
+	static byte[] encodeConnectionId(Bytes cid) {
+		byte[] bytes = cid == null ? Bytes.EMPTY : cid.getBytes();
+		byte[] data = new byte[bytes.length + 1];
+		data[0] = (byte) bytes.length;
+		System.arraycopy(bytes, 0, data, 1, bytes.length);
+		return data;
+	}
+
+	/**
+	 * Encode a raw public key CERTIFICATE, see
+	 * <a href="https://tools.ietf.org/html/rfc7250#section-3">RFC 7250, 3.
+	 * Structure of the Raw Public Key Extension</a>.
+	 *
+	 * @param subjectPublicKeyInfo encoded public key, empty, if no key is
+	 *            available.
+	 * @return message body
+	 */
+	static byte[] encodeRawPublicKey(byte[] subjectPublicKeyInfo) {
+		DatagramWriter writer = new DatagramWriter();
+		writer.write(subjectPublicKeyInfo.length, 24);
+		writer.writeBytes(subjectPublicKeyInfo);
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Read a raw public key CERTIFICATE.
+	 *
+	 * @param body message body
+	 * @return raw public key, or {@code null}, if the message is empty.
+	 * @throws HandshakeException if the key is not supported
+	 */
+	static RawPublicKeyIdentity readRawPublicKey(byte[] body) throws HandshakeException {
+		byte[] subjectPublicKeyInfo = new DtlsReader(body).readVector(3);
+		if (subjectPublicKeyInfo.length == 0) {
+			return null;
+		}
+		try {
+			RawPublicKeyIdentity identity = new RawPublicKeyIdentity(subjectPublicKeyInfo);
+			if (!"EC".equals(identity.getKey().getAlgorithm())) {
+				throw new HandshakeException("raw public key " + identity.getKey().getAlgorithm()
+						+ " not supported!", Alert.UNSUPPORTED_CERTIFICATE);
+			}
+			return identity;
+		} catch (GeneralSecurityException e) {
+			throw new HandshakeException(e.getMessage(), Alert.UNSUPPORTED_CERTIFICATE, e);
+		}
+	}
+}
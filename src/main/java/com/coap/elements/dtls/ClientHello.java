@@ -0,0 +1,109 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.util.DatagramWriter;
+
+import java.util.Map;
+
+/**
+ * ClientHello message, see
+ * <a href="https://tools.ietf.org/html/rfc6347#section-4.2.1">RFC 6347,
+ * 4.2.1 Denial-of-Service Countermeasures</a>.
+ */
+final class ClientHello {
+
+	final int version;
+	final byte[] random;
+	final byte[] sessionId;
+	final byte[] cookie;
+	final int[] cipherSuites;
+	final byte[] compressionMethods;
+	final Map<Integer, byte[]> extensions;
+
+	ClientHello(int version, byte[] random, byte[] sessionId, byte[] cookie, int[] cipherSuites,
+			byte[] compressionMethods, Map<Integer, byte[]> extensions) {
+		this.version = version;
+		this.random = random;
+		this.sessionId = sessionId;
+		this.cookie = cookie;
+		this.cipherSuites = cipherSuites;
+		this.compressionMethods = compressionMethods;
+		this.extensions = extensions;
+	}
+
+	/**
+	 * Create a copy of this client hello with the provided cookie.
+	 *
+	 * @param cookie cookie of the server's HelloVerifyRequest
+	 * @return copy with cookie
+	 */
+	ClientHello withCookie(byte[] cookie) {
+		return new ClientHello(version, random, sessionId, cookie, cipherSuites, compressionMethods, extensions);
+	}
+
+	boolean hasCipherSuite(int code) {
+		for (int suite : cipherSuites) {
+			if (suite == code) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parse a client hello.
+	 *
+	 * @param body message body
+	 * @return parsed client hello
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	static ClientHello fromByteArray(byte[] body) {
+		DtlsReader reader = new DtlsReader(body);
+		int version = reader.readUint16();
+		byte[] random = reader.readBytes(32);
+		byte[] sessionId = reader.readVector(1);
+		if (sessionId.length > 32) {
+			throw new IllegalArgumentException("session id too long!");
+		}
+		byte[] cookie = reader.readVector(1);
+		DtlsReader suites = new DtlsReader(reader.readVector(2));
+		int[] cipherSuites = new int[suites.remaining() / 2];
+		for (int index = 0; index < cipherSuites.length; ++index) {
+			cipherSuites[index] = suites.readUint16();
+		}
+		byte[] compressionMethods = reader.readVector(1);
+		Map<Integer, byte[]> extensions = HelloExtensions.read(reader);
+		return new ClientHello(version, random, sessionId, cookie, cipherSuites, compressionMethods, extensions);
+	}
+
+	byte[] toByteArray() {
+		return toByteArray(true);
+	}
+
+	/**
+	 * Encode the client hello.
+	 *
+	 * @param includeCookie {@code true}, to include the cookie,
+	 *            {@code false}, to encode the parameters covered by the
+	 *            cookie only.
+	 * @return encoded client hello
+	 */
+	byte[] toByteArray(boolean includeCookie) {
+		DatagramWriter writer = new DatagramWriter();
+		writer.write(version, 16);
+		writer.writeBytes(random);
+		writer.write(sessionId.length, 8);
+		writer.writeBytes(sessionId);
+		if (includeCookie) {
+			writer.write(cookie.length, 8);
+			writer.writeBytes(cookie);
+		}
+		writer.write(cipherSuites.length * 2, 16);
+		for (int suite : cipherSuites) {
+			writer.write(suite, 16);
+		}
+		writer.write(compressionMethods.length, 8);
+		writer.writeBytes(compressionMethods);
+		HelloExtensions.write(writer, extensions);
+		return writer.toByteArray();
+	}
+}
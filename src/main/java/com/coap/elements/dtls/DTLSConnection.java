@@ -0,0 +1,259 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.DtlsEndpointContext;
+import com.coap.elements.EndpointContext;
+import com.coap.elements.util.Bytes;
+import com.coap.elements.util.ClockUtil;
+import com.coap.elements.util.StringUtil;
+
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of the association with one peer.
+ *
+ * A connection is either in a handshake, or established. The state is
+ * guarded by the connection's monitor, the peer address, the session, the
+ * context and the activity time are readable without lock.
+ */
+final class DTLSConnection {
+
+	/**
+	 * Size of the replay window.
+	 */
+	private static final int REPLAY_WINDOW_SIZE = 64;
+
+	/**
+	 * Connection ID issued by this node. {@code null}, if connection IDs are
+	 * not used for receiving.
+	 */
+	private final Bytes connectionId;
+
+	private volatile InetSocketAddress peerAddress;
+
+	private volatile EndpointContext context;
+
+	/**
+	 * Nano-time of the last sent or received application record.
+	 */
+	private volatile long lastMessageNanos;
+
+	private Handshaker ongoingHandshake;
+
+	private volatile DTLSSession session;
+
+	private boolean client;
+
+	private RecordCipher readCipher;
+
+	private RecordCipher writeCipher;
+
+	/**
+	 * Connection ID of the peer, used for outgoing records. {@code null}, if
+	 * not negotiated.
+	 */
+	private byte[] peerConnectionId;
+
+	private long nextWriteSequence;
+
+	/**
+	 * Highest received sequence number, {@code -1}, if none.
+	 */
+	private long receiveWindowTop = -1;
+
+	/**
+	 * Bitmap of the received sequence numbers below and including
+	 * {@link #receiveWindowTop}.
+	 */
+	private long receiveWindow;
+
+	/**
+	 * Last flight of the completed handshake. Resent, if the peer
+	 * retransmits its last flight.
+	 */
+	private List<byte[]> lastFlight;
+
+	DTLSConnection(InetSocketAddress peerAddress, Bytes connectionId) {
+		this.peerAddress = peerAddress;
+		this.connectionId = connectionId;
+		this.lastMessageNanos = ClockUtil.nanoRealtime();
+	}
+
+	Bytes getConnectionId() {
+		return connectionId;
+	}
+
+	InetSocketAddress getPeerAddress() {
+		return peerAddress;
+	}
+
+	/**
+	 * Update the peer address after the peer's address has changed, e.g. by a
+	 * NAT rebinding. Only called by the connection store.
+	 *
+	 * @param peerAddress new address of the peer
+	 */
+	void setPeerAddress(InetSocketAddress peerAddress) {
+		this.peerAddress = peerAddress;
+		if (session != null) {
+			context = createContext();
+		}
+	}
+
+	EndpointContext getContext() {
+		return context;
+	}
+
+	long getLastMessageNanos() {
+		return lastMessageNanos;
+	}
+
+	void refresh() {
+		lastMessageNanos = ClockUtil.nanoRealtime();
+	}
+
+	/**
+	 * Check, if the connection has not exchanged messages within the
+	 * provided period.
+	 *
+	 * @param timeoutMillis period in milliseconds
+	 * @return {@code true}, if no message was exchanged, {@code false},
+	 *         otherwise.
+	 */
+	boolean isIdle(long timeoutMillis) {
+		return ClockUtil.nanoRealtime() - lastMessageNanos > TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	Handshaker getOngoingHandshake() {
+		return ongoingHandshake;
+	}
+
+	void setOngoingHandshake(Handshaker handshaker) {
+		this.ongoingHandshake = handshaker;
+	}
+
+	boolean isEstablished() {
+		return session != null;
+	}
+
+	boolean isClient() {
+		return client;
+	}
+
+	DTLSSession getSession() {
+		return session;
+	}
+
+	/**
+	 * Establish the connection with the results of a completed handshake.
+	 *
+	 * @param handshaker completed handshaker
+	 * @param session established session
+	 * @param readCipher cipher for received records
+	 * @param writeCipher cipher for sent records
+	 * @param writeSequence next sequence number for sent records
+	 * @param peerConnectionId connection ID of the peer, or {@code null}, if
+	 *            not negotiated
+	 * @param lastFlight last flight of the handshake, if sent by this node
+	 */
+	void establish(Handshaker handshaker, DTLSSession session, RecordCipher readCipher, RecordCipher writeCipher,
+			long writeSequence, byte[] peerConnectionId, List<byte[]> lastFlight) {
+		this.client = handshaker.isClient();
+		this.session = session;
+		this.readCipher = readCipher;
+		this.writeCipher = writeCipher;
+		this.nextWriteSequence = writeSequence;
+		this.peerConnectionId = peerConnectionId;
+		this.lastFlight = lastFlight;
+		this.ongoingHandshake = null;
+		this.context = createContext();
+		refresh();
+	}
+
+	private EndpointContext createContext() {
+		return new DtlsEndpointContext(peerAddress, session.getPeerIdentity(),
+				StringUtil.byteArray2Hex(session.getSessionId().getBytes()), "1", session.getCipherSuite().name(),
+				Long.toString(session.getCreationTime()));
+	}
+
+	/**
+	 * Encrypt content into a record of the established epoch.
+	 *
+	 * @param type content type
+	 * @param content content
+	 * @return encoded record
+	 * @throws GeneralSecurityException if the encryption fails
+	 */
+	byte[] encryptRecord(int type, byte[] content) throws GeneralSecurityException {
+		if (nextWriteSequence > Record.MAX_SEQUENCE_NUMBER) {
+			throw new GeneralSecurityException("sequence numbers exhausted!");
+		}
+		long sequenceNumber = nextWriteSequence++;
+		byte[] cid = peerConnectionId != null && peerConnectionId.length > 0 ? peerConnectionId : null;
+		byte[] fragment = writeCipher.encrypt(type, 1, sequenceNumber, cid, content);
+		return Record.toByteArray(cid == null ? type : Record.TLS12_CID, 1, sequenceNumber, cid, fragment);
+	}
+
+	/**
+	 * Decrypt record of the established epoch.
+	 *
+	 * @param record received record
+	 * @return decrypted record, or {@code null}, if the record is a replay.
+	 * @throws GeneralSecurityException if the record could not be decrypted
+	 */
+	Record decryptRecord(Record record) throws GeneralSecurityException {
+		if (isReplay(record.sequenceNumber)) {
+			return null;
+		}
+		Record plain = readCipher.decrypt(record);
+		markReceived(record.sequenceNumber);
+		return plain;
+	}
+
+	/**
+	 * Check, if the provided sequence number is the highest received one.
+	 *
+	 * @param sequenceNumber sequence number
+	 * @return {@code true}, if it's the highest one, {@code false},
+	 *         otherwise.
+	 */
+	boolean isNewest(long sequenceNumber) {
+		return sequenceNumber == receiveWindowTop;
+	}
+
+	private boolean isReplay(long sequenceNumber) {
+		if (sequenceNumber > receiveWindowTop) {
+			return false;
+		}
+		long offset = receiveWindowTop - sequenceNumber;
+		if (offset >= REPLAY_WINDOW_SIZE) {
+			return true;
+		}
+		return (receiveWindow & (1L << offset)) != 0;
+	}
+
+	private void markReceived(long sequenceNumber) {
+		if (sequenceNumber > receiveWindowTop) {
+			long shift = sequenceNumber - receiveWindowTop;
+			receiveWindow = shift >= REPLAY_WINDOW_SIZE ? 1 : (receiveWindow << shift) | 1;
+			receiveWindowTop = sequenceNumber;
+		} else {
+			receiveWindow |= 1L << (receiveWindowTop - sequenceNumber);
+		}
+	}
+
+	List<byte[]> getLastFlight() {
+		return lastFlight;
+	}
+
+	void clearLastFlight() {
+		lastFlight = null;
+	}
+
+	@Override
+	public String toString() {
+		return "DTLSConnection(" + peerAddress + (connectionId == null ? "" : ", CID " + connectionId) + ")";
+	}
+}
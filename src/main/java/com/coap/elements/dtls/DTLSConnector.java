@@ -0,0 +1,765 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.Connector;
+import com.coap.elements.DtlsEndpointContext;
+import com.coap.elements.EndpointContext;
+import com.coap.elements.EndpointContextMatcher;
+import com.coap.elements.RawData;
+import com.coap.elements.RawDataChannel;
+import com.coap.elements.exception.EndpointMismatchException;
+import com.coap.elements.exception.EndpointUnconnectedException;
+import com.coap.elements.exception.MulticastNotSupportedException;
+import com.coap.elements.exception.OutboundQueueFullException;
+import com.coap.elements.util.Bytes;
+import com.coap.elements.util.ClockUtil;
+import com.coap.elements.util.DaemonThreadFactory;
+import com.coap.elements.util.ExecutorsUtil;
+import com.coap.elements.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Connector} using DTLS 1.2 over UDP, see
+ * <a href="https://tools.ietf.org/html/rfc6347">RFC 6347</a>. Supports the
+ * {@code coaps} scheme with the pre-shared key and raw public key security
+ * modes of <a href="https://tools.ietf.org/html/rfc7252#section-9.1">RFC
+ * 7252, 9.1</a>.
+ *
+ * Connections are kept in a bounded, lock-striped connection store. Records
+ * are processed by the receiver threads, holding only the lock of the
+ * connection of the record. Handshakes are protected against spoofed
+ * addresses by stateless cookies, so a CLIENT_HELLO doesn't allocate state
+ * before the client has proven its address.
+ *
+ * Established sessions are kept with their connections. Clients start
+ * abbreviated handshakes to resume them, if no message was exchanged within
+ * the auto resumption timeout, or the endpoint context of a message requests
+ * it with {@link DtlsEndpointContext#KEY_RESUMPTION_TIMEOUT}. An abbreviated
+ * handshake saves the public key operations and a round trip.
+ *
+ * If connection IDs are enabled, see
+ * <a href="https://tools.ietf.org/html/rfc9146">RFC 9146</a>, records with
+ * connection ID are routed by that ID instead of by address. If such a
+ * record is received from a new address, and it's the newest record of the
+ * connection, the connection is moved to that address. That keeps the
+ * connection after a NAT rebinding without a new handshake.
+ *
+ * {@link #send(RawData)} encrypts and sends the message within the calling
+ * thread. Messages for peers without connection are queued until the
+ * handshake has completed.
+ */
+public class DTLSConnector implements Connector {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DTLSConnector.class.getName());
+
+	/**
+	 * Lifetime of the secret for the cookies.
+	 */
+	private static final long COOKIE_SECRET_LIFETIME_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+	/**
+	 * Size of the receive buffer.
+	 */
+	private static final int MAX_DATAGRAM_SIZE = 16384;
+
+	private final DtlsConnectorConfig config;
+
+	private final InMemoryConnectionStore connectionStore;
+
+	/**
+	 * Length of the connection IDs issued by this connector. {@code 0}, if
+	 * not used.
+	 */
+	private final int connectionIdLength;
+
+	/**
+	 * Ongoing handshakes, failed, when the connector is stopped.
+	 */
+	private final Set<Handshaker> ongoingHandshakes = ConcurrentHashMap.<Handshaker> newKeySet();
+
+	private final SecureRandom random = new SecureRandom();
+
+	private final ThreadLocal<Mac> cookieMac = new ThreadLocal<Mac>() {
+
+		@Override
+		protected Mac initialValue() {
+			try {
+				return Mac.getInstance("HmacSHA256");
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException("HmacSHA256 not supported!", e);
+			}
+		}
+	};
+
+	private final Object cookieLock = new Object();
+
+	private volatile CookieSecrets cookieSecrets;
+
+	private volatile boolean running;
+
+	private volatile DatagramSocket socket;
+
+	private volatile InetSocketAddress effectiveAddress;
+
+	private List<Thread> receiverThreads;
+
+	private volatile ScheduledExecutorService timer;
+
+	private volatile RawDataChannel messageHandler;
+
+	private volatile EndpointContextMatcher endpointContextMatcher;
+
+	/**
+	 * Create DTLS connector.
+	 *
+	 * @param config configuration
+	 */
+	public DTLSConnector(DtlsConnectorConfig config) {
+		if (config == null) {
+			throw new NullPointerException("config must not be null!");
+		}
+		this.config = config;
+		this.connectionIdLength = config.getConnectionIdLength() == null ? 0 : config.getConnectionIdLength();
+		this.connectionStore = new InMemoryConnectionStore(config.getMaxConnections(),
+				config.getStaleConnectionThreshold(), config.getConnectionStoreStripes(), connectionIdLength,
+				config.getConnectionIdNodeId());
+		this.effectiveAddress = config.getAddress();
+	}
+
+	DtlsConnectorConfig getConfig() {
+		return config;
+	}
+
+	@Override
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+		DatagramSocket socket = new DatagramSocket(null);
+		if (config.getSocketReceiveBufferSize() != null) {
+			socket.setReceiveBufferSize(config.getSocketReceiveBufferSize());
+		}
+		if (config.getSocketSendBufferSize() != null) {
+			socket.setSendBufferSize(config.getSocketSendBufferSize());
+		}
+		socket.bind(config.getAddress());
+		this.socket = socket;
+		effectiveAddress = (InetSocketAddress) socket.getLocalSocketAddress();
+		timer = ExecutorsUtil.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory("DTLS-Timer-" + effectiveAddress + "#", NamedThreadFactory.SCANDIUM_THREAD_GROUP));
+		running = true;
+		receiverThreads = new ArrayList<Thread>(config.getReceiverThreadCount());
+		for (int index = 0; index < config.getReceiverThreadCount(); ++index) {
+			receiverThreads.add(new Receiver("DTLS-Receiver-" + effectiveAddress + "[" + index + "]"));
+		}
+		for (Thread thread : receiverThreads) {
+			thread.start();
+		}
+		LOGGER.info("DTLSConnector listening on {}, {} receiver threads, {}", effectiveAddress,
+				receiverThreads.size(), config.getSupportedCipherSuites());
+	}
+
+	/**
+	 * Stop the connector.
+	 *
+	 * Ongoing handshakes are failed. Established connections are kept and
+	 * used again after a restart.
+	 */
+	@Override
+	public void stop() {
+		synchronized (this) {
+			if (!running) {
+				return;
+			}
+			running = false;
+			socket.close();
+			socket = null;
+			for (Thread thread : receiverThreads) {
+				thread.interrupt();
+			}
+			receiverThreads = null;
+			timer.shutdownNow();
+			timer = null;
+			LOGGER.info("DTLSConnector on [{}] has stopped.", effectiveAddress);
+		}
+		HandshakeException stopped = new HandshakeException("connector stopped!", -1);
+		for (Handshaker handshaker : ongoingHandshakes) {
+			synchronized (handshaker.getConnection()) {
+				handshaker.fail(stopped);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		stop();
+		connectionStore.clear();
+	}
+
+	@Override
+	public void send(RawData msg) {
+		if (msg == null) {
+			throw new NullPointerException("Message must not be null");
+		}
+		if (!running) {
+			msg.onError(new InterruptedIOException("Connector is not running."));
+			return;
+		}
+		if (msg.isMulticast()) {
+			msg.onError(new MulticastNotSupportedException("DTLS doesn't support multicast!"));
+			return;
+		}
+		InetSocketAddress peer = msg.getInetSocketAddress();
+		DTLSConnection connection = connectionStore.get(peer);
+		if (connection != null) {
+			synchronized (connection) {
+				Handshaker handshaker = connection.getOngoingHandshake();
+				if (handshaker != null) {
+					if (!handshaker.addPendingMessage(msg)) {
+						msg.onError(new OutboundQueueFullException("Too many messages pending for handshake."));
+					}
+					return;
+				}
+				if (connection.isEstablished() && !isResumptionRequired(connection, msg)) {
+					sendEstablished(connection, msg);
+					return;
+				}
+			}
+		}
+		if (config.isServerOnly()) {
+			LOGGER.debug("DTLSConnector ({}) drops {} bytes, no connection to {}", effectiveAddress, msg.getSize(),
+					peer);
+			msg.onError(new EndpointUnconnectedException());
+			return;
+		}
+		startHandshake(msg, peer, connection);
+	}
+
+	/**
+	 * Check, if a client connection requires a resumption handshake before
+	 * sending the message.
+	 *
+	 * @param connection established connection
+	 * @param msg message to send
+	 * @return {@code true}, if an abbreviated handshake is required,
+	 *         {@code false}, otherwise.
+	 */
+	private boolean isResumptionRequired(DTLSConnection connection, RawData msg) {
+		if (!connection.isClient()) {
+			return false;
+		}
+		Long timeout = config.getAutoResumptionTimeoutMillis();
+		String contextTimeout = msg.getEndpointContext().get(DtlsEndpointContext.KEY_RESUMPTION_TIMEOUT);
+		if (contextTimeout != null) {
+			if (contextTimeout.isEmpty()) {
+				timeout = null;
+			} else {
+				try {
+					timeout = Long.valueOf(contextTimeout);
+				} catch (NumberFormatException e) {
+					LOGGER.debug("DTLSConnector ({}) ignores invalid resumption timeout {}", effectiveAddress,
+							contextTimeout);
+				}
+			}
+		}
+		return timeout != null && connection.isIdle(timeout);
+	}
+
+	/**
+	 * Start a client handshake.
+	 *
+	 * @param msg message to send after the handshake
+	 * @param peer address of the server
+	 * @param previous current connection with the server, {@code null}, if
+	 *            not available. If established, its session is resumed.
+	 */
+	private void startHandshake(RawData msg, InetSocketAddress peer, DTLSConnection previous) {
+		DTLSSession session = previous == null ? null : previous.getSession();
+		DTLSConnection connection = new DTLSConnection(peer, connectionStore.newConnectionId());
+		ClientHandshaker handshaker = new ClientHandshaker(this, connection, session);
+		synchronized (connection) {
+			connection.setOngoingHandshake(handshaker);
+			boolean added;
+			if (previous == null) {
+				DTLSConnection other = connectionStore.putIfAbsent(connection);
+				if (other == connection) {
+					msg.onError(new IOException("DTLS connection store exhausted!"));
+					return;
+				}
+				added = other == null;
+			} else {
+				added = connectionStore.replace(previous, connection);
+			}
+			if (added) {
+				handshaker.addPendingMessage(msg);
+				ongoingHandshakes.add(handshaker);
+				LOGGER.debug("DTLSConnector ({}) starts {}handshake with {}", effectiveAddress,
+						session == null ? "" : "abbreviated ", peer);
+				msg.onConnecting();
+				try {
+					handshaker.start();
+				} catch (GeneralSecurityException e) {
+					handshaker.fail(new HandshakeException(e.getMessage(), -1, e));
+				}
+				return;
+			}
+		}
+		// concurrently changed, retry
+		send(msg);
+	}
+
+	/**
+	 * Send message over established connection. Must be called holding the
+	 * lock of the connection.
+	 *
+	 * @param connection established connection
+	 * @param msg message to send
+	 */
+	private void sendEstablished(DTLSConnection connection, RawData msg) {
+		EndpointContext context = connection.getContext();
+		EndpointContextMatcher matcher = endpointContextMatcher;
+		if (matcher != null && !matcher.isToBeSent(msg.getEndpointContext(), context)) {
+			LOGGER.warn("DTLSConnector ({}) drops {} bytes to {}, endpoint context mismatch", effectiveAddress,
+					msg.getSize(), connection.getPeerAddress());
+			msg.onError(new EndpointMismatchException());
+			return;
+		}
+		byte[] record;
+		try {
+			record = connection.encryptRecord(Record.APPLICATION_DATA, msg.getBytes());
+		} catch (GeneralSecurityException e) {
+			msg.onError(e);
+			return;
+		}
+		connection.refresh();
+		msg.onContextEstablished(context);
+		DatagramSocket current = socket;
+		if (current == null) {
+			msg.onError(new IOException("socket already closed!"));
+			return;
+		}
+		try {
+			current.send(new DatagramPacket(record, record.length, connection.getPeerAddress()));
+			msg.onSent();
+		} catch (IOException e) {
+			msg.onError(e);
+		}
+	}
+
+	/**
+	 * Process a received datagram.
+	 *
+	 * @param data datagram buffer
+	 * @param length length of the datagram
+	 * @param peer source address
+	 */
+	private void receiveDatagram(byte[] data, int length, InetSocketAddress peer) {
+		for (Record record : Record.fromByteArray(data, length, connectionIdLength)) {
+			try {
+				RawData message = processRecord(record, peer);
+				if (message != null) {
+					RawDataChannel channel = messageHandler;
+					if (channel != null) {
+						channel.receiveData(message);
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				LOGGER.debug("DTLSConnector ({}) drops malformed record from {}: {}", effectiveAddress, peer,
+						e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Process a received record.
+	 *
+	 * @param record received record
+	 * @param peer source address
+	 * @return received message, or {@code null}, if the record contains no
+	 *         application data
+	 */
+	private RawData processRecord(Record record, InetSocketAddress peer) {
+		DTLSConnection connection;
+		if (record.type == Record.TLS12_CID) {
+			connection = connectionStore.get(new Bytes(record.connectionId));
+		} else if (record.epoch == 0 && record.type == Record.HANDSHAKE && record.fragment.length > 0
+				&& record.fragment[0] == HandshakeMessage.CLIENT_HELLO) {
+			processClientHello(record, peer);
+			return null;
+		} else {
+			connection = connectionStore.get(peer);
+		}
+		if (connection == null) {
+			LOGGER.debug("DTLSConnector ({}) drops {} from {}, no connection", effectiveAddress, record, peer);
+			return null;
+		}
+		synchronized (connection) {
+			Handshaker handshaker = connection.getOngoingHandshake();
+			if (handshaker != null) {
+				handshaker.processRecord(record);
+				return null;
+			}
+			if (connection.isEstablished()) {
+				return processEstablished(connection, record, peer);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Process a record of an established connection. Must be called holding
+	 * the lock of the connection.
+	 *
+	 * @param connection established connection
+	 * @param record received record
+	 * @param peer source address
+	 * @return received message, or {@code null}, if the record contains no
+	 *         application data
+	 */
+	private RawData processEstablished(DTLSConnection connection, Record record, InetSocketAddress peer) {
+		if (record.epoch == 0) {
+			if (record.type == Record.HANDSHAKE) {
+				// the peer retransmits its last flight, our last flight got
+				// lost
+				resendLastFlight(connection);
+			}
+			return null;
+		}
+		if (record.epoch != 1) {
+			return null;
+		}
+		Record plain;
+		try {
+			plain = connection.decryptRecord(record);
+		} catch (GeneralSecurityException e) {
+			LOGGER.debug("DTLSConnector ({}) drops record from {}, decryption failed: {}", effectiveAddress, peer,
+					e.getMessage());
+			return null;
+		}
+		if (plain == null) {
+			LOGGER.debug("DTLSConnector ({}) drops replayed record {} from {}", effectiveAddress, record, peer);
+			return null;
+		}
+		if (record.type == Record.TLS12_CID && !peer.equals(connection.getPeerAddress())
+				&& connection.isNewest(record.sequenceNumber)) {
+			connectionStore.update(connection, peer);
+		}
+		switch (plain.type) {
+		case Record.APPLICATION_DATA:
+			connection.clearLastFlight();
+			connection.refresh();
+			return RawData.inbound(plain.fragment, connection.getContext(), false);
+		case Record.HANDSHAKE:
+			resendLastFlight(connection);
+			break;
+		case Record.ALERT:
+			if (plain.fragment.length == 2
+					&& (plain.fragment[0] == Alert.LEVEL_FATAL || plain.fragment[1] == Alert.CLOSE_NOTIFY)) {
+				LOGGER.debug("DTLSConnector ({}) received alert {} from {}, closing connection", effectiveAddress,
+						plain.fragment[1], peer);
+				connectionStore.remove(connection);
+			}
+			break;
+		default:
+			break;
+		}
+		return null;
+	}
+
+	private void resendLastFlight(DTLSConnection connection) {
+		List<byte[]> lastFlight = connection.getLastFlight();
+		if (lastFlight != null) {
+			for (byte[] datagram : lastFlight) {
+				sendDatagram(datagram, connection.getPeerAddress());
+			}
+		}
+	}
+
+	/**
+	 * Process a CLIENT_HELLO.
+	 *
+	 * Without valid cookie, a HELLO_VERIFY_REQUEST is sent without keeping
+	 * any state. With valid cookie, a new connection and server handshake is
+	 * started, replacing the current connection of that address.
+	 *
+	 * @param record record with CLIENT_HELLO
+	 * @param peer source address
+	 */
+	private void processClientHello(Record record, InetSocketAddress peer) {
+		List<HandshakeMessage> messages = HandshakeMessage.fromByteArray(record.fragment);
+		HandshakeMessage message = messages.get(0);
+		if (!message.isComplete()) {
+			LOGGER.debug("DTLSConnector ({}) drops fragmented CLIENT_HELLO from {}", effectiveAddress, peer);
+			return;
+		}
+		ClientHello clientHello = ClientHello.fromByteArray(message.fragment);
+		DTLSConnection current = connectionStore.get(peer);
+		if (current != null) {
+			synchronized (current) {
+				Handshaker handshaker = current.getOngoingHandshake();
+				if (handshaker instanceof ServerHandshaker
+						&& ((ServerHandshaker) handshaker).isSameClientHello(clientHello)) {
+					// retransmitted CLIENT_HELLO
+					handshaker.processRecord(record);
+					return;
+				}
+			}
+		}
+		byte[] expectedCookie = createCookie(peer, clientHello, getCookieSecrets().current);
+		if (!MessageDigest.isEqual(expectedCookie, clientHello.cookie)) {
+			byte[] previous = getCookieSecrets().previous;
+			if (previous == null || !MessageDigest.isEqual(createCookie(peer, clientHello, previous),
+					clientHello.cookie)) {
+				sendHelloVerifyRequest(peer, record, message, expectedCookie);
+				return;
+			}
+		}
+		DTLSSession resumableSession = null;
+		if (clientHello.sessionId.length > 0) {
+			DTLSConnection resumable = connectionStore.findBySessionId(new Bytes(clientHello.sessionId));
+			if (resumable != null) {
+				resumableSession = resumable.getSession();
+			}
+		}
+		DTLSConnection connection = new DTLSConnection(peer, connectionStore.newConnectionId());
+		ServerHandshaker handshaker = new ServerHandshaker(this, connection, clientHello, resumableSession);
+		synchronized (connection) {
+			connection.setOngoingHandshake(handshaker);
+			if (!connectionStore.put(connection)) {
+				return;
+			}
+			ongoingHandshakes.add(handshaker);
+			LOGGER.debug("DTLSConnector ({}) starts {}handshake with {}", effectiveAddress,
+					resumableSession == null ? "" : "abbreviated ", peer);
+			handshaker.start(message.messageSeq, record.sequenceNumber, message.fragment);
+		}
+	}
+
+	/**
+	 * Send a HELLO_VERIFY_REQUEST, see
+	 * <a href="https://tools.ietf.org/html/rfc6347#section-4.2.1">RFC 6347,
+	 * 4.2.1 Denial-of-Service Countermeasures</a>.
+	 */
+	private void sendHelloVerifyRequest(InetSocketAddress peer, Record record, HandshakeMessage clientHello,
+			byte[] cookie) {
+		byte[] body = new byte[3 + cookie.length];
+		body[0] = (byte) (Record.VERSION_1_0 >> 8);
+		body[1] = (byte) Record.VERSION_1_0;
+		body[2] = (byte) cookie.length;
+		System.arraycopy(cookie, 0, body, 3, cookie.length);
+		byte[] message = HandshakeMessage.toByteArray(HandshakeMessage.HELLO_VERIFY_REQUEST, clientHello.messageSeq,
+				body, 0, body.length);
+		sendDatagram(Record.toByteArray(Record.HANDSHAKE, 0, record.sequenceNumber, null, message), peer);
+	}
+
+	/**
+	 * Create the cookie for a CLIENT_HELLO. The cookie is a MAC of the
+	 * client's address and the parameters of the CLIENT_HELLO.
+	 */
+	private byte[] createCookie(InetSocketAddress peer, ClientHello clientHello, byte[] secret) {
+		Mac mac = cookieMac.get();
+		try {
+			mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HmacSHA256 not supported!", e);
+		}
+		mac.update(peer.getAddress().getAddress());
+		mac.update((byte) (peer.getPort() >> 8));
+		mac.update((byte) peer.getPort());
+		mac.update(clientHello.toByteArray(false));
+		return mac.doFinal();
+	}
+
+	private CookieSecrets getCookieSecrets() {
+		CookieSecrets secrets = cookieSecrets;
+		long now = ClockUtil.nanoRealtime();
+		if (secrets == null || now - secrets.creationNanos > COOKIE_SECRET_LIFETIME_NANOS) {
+			synchronized (cookieLock) {
+				secrets = cookieSecrets;
+				if (secrets == null || now - secrets.creationNanos > COOKIE_SECRET_LIFETIME_NANOS) {
+					byte[] secret = new byte[32];
+					random.nextBytes(secret);
+					secrets = new CookieSecrets(secret, secrets == null ? null : secrets.current, now);
+					cookieSecrets = secrets;
+				}
+			}
+		}
+		return secrets;
+	}
+
+	/**
+	 * Send a datagram, e.g. of a handshake flight.
+	 *
+	 * @param datagram datagram
+	 * @param peer destination address
+	 */
+	void sendDatagram(byte[] datagram, InetSocketAddress peer) {
+		DatagramSocket current = socket;
+		if (current == null) {
+			return;
+		}
+		try {
+			current.send(new DatagramPacket(datagram, datagram.length, peer));
+		} catch (IOException e) {
+			LOGGER.debug("DTLSConnector ({}) failed to send {} bytes to {}: {}", effectiveAddress, datagram.length,
+					peer, e.getMessage());
+		}
+	}
+
+	/**
+	 * Schedule a task, e.g. a retransmission.
+	 *
+	 * @param task task
+	 * @param delayMillis delay in milliseconds
+	 * @return future of the task, or {@code null}, if the connector is
+	 *         stopped.
+	 */
+	ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+		ScheduledExecutorService current = timer;
+		if (current != null) {
+			try {
+				return current.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// stopped concurrently
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Send the pending messages of a completed handshake. Called by the
+	 * handshaker holding the lock of the connection.
+	 *
+	 * @param handshaker completed handshaker
+	 */
+	void handshakeCompleted(Handshaker handshaker) {
+		ongoingHandshakes.remove(handshaker);
+		DTLSConnection connection = handshaker.getConnection();
+		connectionStore.putEstablishedSession(connection);
+		for (RawData msg : handshaker.takePendingMessages()) {
+			sendEstablished(connection, msg);
+		}
+	}
+
+	/**
+	 * Remove the connection of a failed handshake and report its pending
+	 * messages as failed. Called by the handshaker holding the lock of the
+	 * connection.
+	 *
+	 * @param handshaker failed handshaker
+	 * @param cause reason of the failure
+	 */
+	void handshakeFailed(Handshaker handshaker, HandshakeException cause) {
+		ongoingHandshakes.remove(handshaker);
+		connectionStore.remove(handshaker.getConnection());
+		for (RawData msg : handshaker.takePendingMessages()) {
+			msg.onError(cause);
+		}
+	}
+
+	@Override
+	public void setRawDataReceiver(RawDataChannel messageHandler) {
+		this.messageHandler = messageHandler;
+	}
+
+	@Override
+	public void setEndpointContextMatcher(EndpointContextMatcher matcher) {
+		this.endpointContextMatcher = matcher;
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		return effectiveAddress;
+	}
+
+	@Override
+	public String getProtocol() {
+		return "DTLS";
+	}
+
+	/**
+	 * Get the number of connections, including the connections with ongoing
+	 * handshakes.
+	 *
+	 * @return number of connections
+	 */
+	public int getConnectionCount() {
+		return connectionStore.size();
+	}
+
+	@Override
+	public String toString() {
+		return "DTLS-" + effectiveAddress;
+	}
+
+	/**
+	 * Current and previous secret for the cookies. Cookies created with the
+	 * previous secret are accepted, until the secret is changed again.
+	 */
+	private static final class CookieSecrets {
+
+		private final byte[] current;
+		private final byte[] previous;
+		private final long creationNanos;
+
+		private CookieSecrets(byte[] current, byte[] previous, long creationNanos) {
+			this.current = current;
+			this.previous = previous;
+			this.creationNanos = creationNanos;
+		}
+	}
+
+	private class Receiver extends Thread {
+
+		private final byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+
+		private final DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+
+		private Receiver(String name) {
+			super(NamedThreadFactory.SCANDIUM_THREAD_GROUP, name);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			LOGGER.debug("Starting network stage thread [{}]", getName());
+			while (running) {
+				DatagramSocket current = socket;
+				if (current == null) {
+					break;
+				}
+				try {
+					datagram.setData(buffer);
+					current.receive(datagram);
+					receiveDatagram(buffer, datagram.getLength(), (InetSocketAddress) datagram.getSocketAddress());
+				} catch (IOException e) {
+					if (running) {
+						LOGGER.error("Exception in network stage thread [{}]:", getName(), e);
+					}
+				} catch (RuntimeException e) {
+					LOGGER.error("Exception in network stage thread [{}]:", getName(), e);
+				}
+			}
+			LOGGER.debug("Network stage thread [{}] was stopped successfully", getName());
+		}
+	}
+}
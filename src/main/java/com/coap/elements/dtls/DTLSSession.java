@@ -0,0 +1,58 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.util.Bytes;
+
+import java.security.Principal;
+
+/**
+ * The security parameters of an established session.
+ *
+ * Sessions are kept with their connections and used for abbreviated
+ * handshakes on resumption.
+ */
+final class DTLSSession {
+
+	private final Bytes sessionId;
+	private final CipherSuite cipherSuite;
+	private final byte[] masterSecret;
+	private final boolean extendedMasterSecret;
+	private final Principal peerIdentity;
+	/**
+	 * Time of the full handshake in milliseconds.
+	 */
+	private final long creationTime;
+
+	DTLSSession(Bytes sessionId, CipherSuite cipherSuite, byte[] masterSecret, boolean extendedMasterSecret,
+			Principal peerIdentity, long creationTime) {
+		this.sessionId = sessionId;
+		this.cipherSuite = cipherSuite;
+		this.masterSecret = masterSecret;
+		this.extendedMasterSecret = extendedMasterSecret;
+		this.peerIdentity = peerIdentity;
+		this.creationTime = creationTime;
+	}
+
+	Bytes getSessionId() {
+		return sessionId;
+	}
+
+	CipherSuite getCipherSuite() {
+		return cipherSuite;
+	}
+
+	byte[] getMasterSecret() {
+		return masterSecret;
+	}
+
+	boolean useExtendedMasterSecret() {
+		return extendedMasterSecret;
+	}
+
+	Principal getPeerIdentity() {
+		return peerIdentity;
+	}
+
+	long getCreationTime() {
+		return creationTime;
+	}
+}
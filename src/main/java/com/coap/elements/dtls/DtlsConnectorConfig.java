@@ -0,0 +1,431 @@
+package com.coap.elements.dtls;
+
+import java.net.InetSocketAddress;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Configuration of a {@link DTLSConnector}.
+ *
+ * Instances are immutable and created with the {@link Builder}. The values
+ * are usually taken from the network configuration, e.g.
+ * {@code DTLS_AUTO_RESUME_TIMEOUT}, {@code DTLS_CONNECTION_ID_LENGTH},
+ * {@code DTLS_CONNECTION_ID_NODE_ID}, {@code MAX_ACTIVE_PEERS} and
+ * {@code MAX_PEER_INACTIVITY_PERIOD}.
+ */
+public final class DtlsConnectorConfig {
+
+	/**
+	 * Default retransmission timeout in milliseconds.
+	 */
+	public static final int DEFAULT_RETRANSMISSION_TIMEOUT_MS = 1000;
+
+	/**
+	 * Default maximum number of retransmissions of a flight.
+	 */
+	public static final int DEFAULT_MAX_RETRANSMISSIONS = 4;
+
+	/**
+	 * Default maximum number of connections.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 150000;
+
+	/**
+	 * Default threshold in seconds for connections to be considered as stale.
+	 */
+	public static final long DEFAULT_STALE_CONNECTION_THRESHOLD = 30 * 60;
+
+	/**
+	 * Default number of stripes of the connection store.
+	 */
+	public static final int DEFAULT_CONNECTION_STORE_STRIPES = 16;
+
+	/**
+	 * Default maximum transmission unit in bytes.
+	 */
+	public static final int DEFAULT_MAX_TRANSMISSION_UNIT = 1280;
+
+	private InetSocketAddress address;
+	private PskStore pskStore;
+	private PrivateKey privateKey;
+	private PublicKey publicKey;
+	private TrustedRpkStore rpkTrustStore;
+	private boolean clientAuthenticationRequired = true;
+	private boolean clientAuthenticationWanted;
+	private List<CipherSuite> supportedCipherSuites;
+	private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+	private long staleConnectionThreshold = DEFAULT_STALE_CONNECTION_THRESHOLD;
+	private int connectionStoreStripes = DEFAULT_CONNECTION_STORE_STRIPES;
+	private Integer connectionIdLength;
+	private Integer connectionIdNodeId;
+	private Long autoResumptionTimeoutMillis;
+	private int retransmissionTimeout = DEFAULT_RETRANSMISSION_TIMEOUT_MS;
+	private int maxRetransmissions = DEFAULT_MAX_RETRANSMISSIONS;
+	private int maxTransmissionUnit = DEFAULT_MAX_TRANSMISSION_UNIT;
+	private int receiverThreadCount = Runtime.getRuntime().availableProcessors();
+	private boolean serverOnly;
+	private Integer socketReceiveBufferSize;
+	private Integer socketSendBufferSize;
+
+	private DtlsConnectorConfig() {
+	}
+
+	/**
+	 * Get the address to bind the connector to.
+	 *
+	 * @return address
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public PskStore getPskStore() {
+		return pskStore;
+	}
+
+	/**
+	 * Get the private key of the raw public key identity.
+	 *
+	 * @return private key, or {@code null}, if not available
+	 */
+	public PrivateKey getPrivateKey() {
+		return privateKey;
+	}
+
+	/**
+	 * Get the public key of the raw public key identity.
+	 *
+	 * @return public key, or {@code null}, if not available
+	 */
+	public PublicKey getPublicKey() {
+		return publicKey;
+	}
+
+	public TrustedRpkStore getRpkTrustStore() {
+		return rpkTrustStore;
+	}
+
+	public boolean isClientAuthenticationRequired() {
+		return clientAuthenticationRequired;
+	}
+
+	public boolean isClientAuthenticationWanted() {
+		return clientAuthenticationWanted;
+	}
+
+	/**
+	 * Get the supported cipher suites in order of preference.
+	 *
+	 * @return unmodifiable list of cipher suites
+	 */
+	public List<CipherSuite> getSupportedCipherSuites() {
+		return supportedCipherSuites;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Get the threshold for connections to be considered as stale.
+	 *
+	 * Stale connections are evicted from the connection store, if it has
+	 * reached its capacity.
+	 *
+	 * @return threshold in seconds
+	 */
+	public long getStaleConnectionThreshold() {
+		return staleConnectionThreshold;
+	}
+
+	public int getConnectionStoreStripes() {
+		return connectionStoreStripes;
+	}
+
+	/**
+	 * Get the length of the connection IDs issued by this connector.
+	 *
+	 * @return length of the connection IDs. {@code 0}, to support sending
+	 *         connection IDs without using them for receiving. {@code null},
+	 *         if connection IDs are not supported.
+	 */
+	public Integer getConnectionIdLength() {
+		return connectionIdLength;
+	}
+
+	/**
+	 * Get the node ID used as first byte of the issued connection IDs.
+	 *
+	 * @return node ID, or {@code null}, if not used
+	 */
+	public Integer getConnectionIdNodeId() {
+		return connectionIdNodeId;
+	}
+
+	/**
+	 * Get the auto resumption timeout.
+	 *
+	 * A client starts an abbreviated handshake before sending, if no message
+	 * was exchanged for that period.
+	 *
+	 * @return timeout in milliseconds, or {@code null}, if disabled
+	 */
+	public Long getAutoResumptionTimeoutMillis() {
+		return autoResumptionTimeoutMillis;
+	}
+
+	public int getRetransmissionTimeout() {
+		return retransmissionTimeout;
+	}
+
+	public int getMaxRetransmissions() {
+		return maxRetransmissions;
+	}
+
+	public int getMaxTransmissionUnit() {
+		return maxTransmissionUnit;
+	}
+
+	public int getReceiverThreadCount() {
+		return receiverThreadCount;
+	}
+
+	/**
+	 * Check, if the connector acts as server only.
+	 *
+	 * A server only connector doesn't start handshakes, messages to peers
+	 * without connection are reported as failed.
+	 *
+	 * @return {@code true}, if server only, {@code false}, otherwise.
+	 */
+	public boolean isServerOnly() {
+		return serverOnly;
+	}
+
+	public Integer getSocketReceiveBufferSize() {
+		return socketReceiveBufferSize;
+	}
+
+	public Integer getSocketSendBufferSize() {
+		return socketSendBufferSize;
+	}
+
+	/**
+	 * Builder for {@link DtlsConnectorConfig}.
+	 */
+	public static final class Builder {
+
+		private final DtlsConnectorConfig config = new DtlsConnectorConfig();
+
+		private boolean clientOnly;
+
+		public Builder setAddress(InetSocketAddress address) {
+			config.address = address;
+			return this;
+		}
+
+		/**
+		 * Use the connector as client only. Binds it to an ephemeral port.
+		 *
+		 * @return this builder
+		 */
+		public Builder setClientOnly() {
+			clientOnly = true;
+			return this;
+		}
+
+		public Builder setServerOnly(boolean serverOnly) {
+			config.serverOnly = serverOnly;
+			return this;
+		}
+
+		public Builder setPskStore(PskStore pskStore) {
+			config.pskStore = pskStore;
+			return this;
+		}
+
+		/**
+		 * Set the raw public key identity.
+		 *
+		 * @param privateKey private key, must be a EC key for secp256r1
+		 * @param publicKey public key
+		 * @return this builder
+		 */
+		public Builder setIdentity(PrivateKey privateKey, PublicKey publicKey) {
+			if (privateKey == null || publicKey == null) {
+				throw new NullPointerException("keys must not be null!");
+			}
+			config.privateKey = privateKey;
+			config.publicKey = publicKey;
+			return this;
+		}
+
+		public Builder setRpkTrustStore(TrustedRpkStore store) {
+			config.rpkTrustStore = store;
+			return this;
+		}
+
+		public Builder setClientAuthenticationRequired(boolean required) {
+			config.clientAuthenticationRequired = required;
+			return this;
+		}
+
+		public Builder setClientAuthenticationWanted(boolean wanted) {
+			config.clientAuthenticationWanted = wanted;
+			return this;
+		}
+
+		public Builder setSupportedCipherSuites(CipherSuite... cipherSuites) {
+			config.supportedCipherSuites = Collections.unmodifiableList(Arrays.asList(cipherSuites));
+			return this;
+		}
+
+		public Builder setMaxConnections(int maxConnections) {
+			if (maxConnections < 1) {
+				throw new IllegalArgumentException("max connections must be at least 1!");
+			}
+			config.maxConnections = maxConnections;
+			return this;
+		}
+
+		public Builder setStaleConnectionThreshold(long seconds) {
+			config.staleConnectionThreshold = seconds;
+			return this;
+		}
+
+		/**
+		 * Set the number of stripes of the connection store.
+		 *
+		 * Each stripe is guarded by its own lock, so a higher number reduces
+		 * the contention of the receiver threads.
+		 *
+		 * @param stripes number of stripes
+		 * @return this builder
+		 */
+		public Builder setConnectionStoreStripes(int stripes) {
+			if (stripes < 1) {
+				throw new IllegalArgumentException("stripes must be at least 1!");
+			}
+			config.connectionStoreStripes = stripes;
+			return this;
+		}
+
+		/**
+		 * Set the length of the connection IDs issued by this connector.
+		 *
+		 * @param length length of the connection IDs. {@code 0}, to support
+		 *            sending connection IDs without using them for
+		 *            receiving. {@code null}, to disable connection IDs.
+		 * @return this builder
+		 */
+		public Builder setConnectionIdLength(Integer length) {
+			if (length != null && (length < 0 || length > 255)) {
+				throw new IllegalArgumentException("connection id length " + length + " out of range!");
+			}
+			config.connectionIdLength = length;
+			return this;
+		}
+
+		public Builder setConnectionIdNodeId(Integer nodeId) {
+			config.connectionIdNodeId = nodeId;
+			return this;
+		}
+
+		public Builder setAutoResumptionTimeoutMillis(Long timeout) {
+			config.autoResumptionTimeoutMillis = timeout;
+			return this;
+		}
+
+		public Builder setRetransmissionTimeout(int millis) {
+			config.retransmissionTimeout = millis;
+			return this;
+		}
+
+		public Builder setMaxRetransmissions(int count) {
+			config.maxRetransmissions = count;
+			return this;
+		}
+
+		public Builder setMaxTransmissionUnit(int mtu) {
+			config.maxTransmissionUnit = mtu;
+			return this;
+		}
+
+		public Builder setReceiverThreadCount(int count) {
+			config.receiverThreadCount = count;
+			return this;
+		}
+
+		public Builder setSocketReceiveBufferSize(Integer size) {
+			config.socketReceiveBufferSize = size;
+			return this;
+		}
+
+		public Builder setSocketSendBufferSize(Integer size) {
+			config.socketSendBufferSize = size;
+			return this;
+		}
+
+		/**
+		 * Create the configuration.
+		 *
+		 * If no cipher suites are set, all cipher suites supported by the
+		 * provided credentials are used.
+		 *
+		 * @return configuration
+		 * @throws IllegalStateException if the configuration is not
+		 *             consistent
+		 */
+		public DtlsConnectorConfig build() {
+			if (clientOnly) {
+				if (config.address == null) {
+					config.address = new InetSocketAddress(0);
+				}
+				if (config.serverOnly) {
+					throw new IllegalStateException("client only is not supported with server only!");
+				}
+			} else if (config.address == null) {
+				throw new IllegalStateException("address must be provided!");
+			}
+			if (config.supportedCipherSuites == null) {
+				List<CipherSuite> suites = new ArrayList<CipherSuite>();
+				if (config.privateKey != null) {
+					suites.add(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8);
+				}
+				if (config.pskStore != null) {
+					suites.add(CipherSuite.TLS_PSK_WITH_AES_128_CCM_8);
+				}
+				config.supportedCipherSuites = Collections.unmodifiableList(suites);
+			}
+			if (config.supportedCipherSuites.isEmpty()) {
+				throw new IllegalStateException("psk store or identity must be provided!");
+			}
+			for (CipherSuite suite : config.supportedCipherSuites) {
+				switch (suite.getKeyExchange()) {
+				case PSK:
+					if (config.pskStore == null) {
+						throw new IllegalStateException(suite + " requires a psk store!");
+					}
+					break;
+				case ECDHE_ECDSA:
+					if (config.privateKey == null && !clientOnly) {
+						throw new IllegalStateException(suite + " requires an identity!");
+					}
+					if (config.rpkTrustStore == null) {
+						throw new IllegalStateException(suite + " requires a rpk trust store!");
+					}
+					break;
+				}
+			}
+			if (config.connectionIdNodeId != null && (config.connectionIdLength == null
+					|| config.connectionIdLength < 1)) {
+				throw new IllegalStateException("connection id node id requires a connection id length!");
+			}
+			return config;
+		}
+	}
+}
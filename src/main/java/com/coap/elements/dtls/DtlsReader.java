@@ -0,0 +1,84 @@
+package com.coap.elements.dtls;
+
+import java.util.Arrays;
+
+/**
+ * Bounds checked reader for DTLS structures.
+ *
+ * In difference to {@link com.coap.elements.util.DatagramReader} it rejects
+ * reading beyond the end of the data, which is required for parsing
+ * untrusted records.
+ */
+final class DtlsReader {
+
+	private final byte[] data;
+	private final int end;
+	private int position;
+
+	DtlsReader(byte[] data) {
+		this(data, 0, data.length);
+	}
+
+	DtlsReader(byte[] data, int offset, int length) {
+		this.data = data;
+		this.position = offset;
+		this.end = offset + length;
+	}
+
+	int remaining() {
+		return end - position;
+	}
+
+	int position() {
+		return position;
+	}
+
+	long readLong(int bytes) {
+		check(bytes);
+		long value = 0;
+		for (int index = 0; index < bytes; ++index) {
+			value = (value << 8) | (data[position++] & 0xff);
+		}
+		return value;
+	}
+
+	int readUint8() {
+		return (int) readLong(1);
+	}
+
+	int readUint16() {
+		return (int) readLong(2);
+	}
+
+	int readUint24() {
+		return (int) readLong(3);
+	}
+
+	byte[] readBytes(int length) {
+		check(length);
+		byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+		position += length;
+		return bytes;
+	}
+
+	byte[] readBytesLeft() {
+		return readBytes(remaining());
+	}
+
+	/**
+	 * Read a vector with a length prefix.
+	 *
+	 * @param lengthBytes number of bytes of the length prefix
+	 * @return the vector's data
+	 */
+	byte[] readVector(int lengthBytes) {
+		return readBytes((int) readLong(lengthBytes));
+	}
+
+	private void check(int length) {
+		if (length < 0 || length > end - position) {
+			throw new IllegalArgumentException("requested " + length + " bytes, but only " + (end - position)
+					+ " bytes are available!");
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.coap.elements.dtls;
+
+import javax.crypto.KeyAgreement;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.EllipticCurve;
+import java.util.Arrays;
+
+/**
+ * Ephemeral elliptic curve Diffie-Hellman key exchange on the curve
+ * secp256r1, see <a href="https://tools.ietf.org/html/rfc4492">RFC 4492</a>.
+ */
+final class ECDHECryptography {
+
+	/**
+	 * IANA code of the named curve secp256r1.
+	 */
+	static final int NAMED_CURVE_SECP256R1 = 23;
+
+	/**
+	 * Curve type "named_curve".
+	 */
+	static final int CURVE_TYPE_NAMED_CURVE = 3;
+
+	/**
+	 * Point format "uncompressed".
+	 */
+	static final int POINT_FORMAT_UNCOMPRESSED = 0;
+
+	private static final int COORDINATE_LENGTH = 32;
+
+	private final KeyPair keyPair;
+
+	/**
+	 * Create a new ephemeral key pair.
+	 *
+	 * @throws GeneralSecurityException if secp256r1 is not supported
+	 */
+	ECDHECryptography() throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+		keyPair = generator.generateKeyPair();
+	}
+
+	/**
+	 * Get the uncompressed encoding of the ephemeral public key.
+	 *
+	 * @return encoded point
+	 */
+	byte[] getEncodedPoint() {
+		ECPoint point = ((ECPublicKey) keyPair.getPublic()).getW();
+		byte[] encoded = new byte[1 + 2 * COORDINATE_LENGTH];
+		encoded[0] = 0x04;
+		writeCoordinate(point.getAffineX(), encoded, 1);
+		writeCoordinate(point.getAffineY(), encoded, 1 + COORDINATE_LENGTH);
+		return encoded;
+	}
+
+	/**
+	 * Calculate the premaster secret.
+	 *
+	 * @param encodedPoint uncompressed encoding of the peer's ephemeral
+	 *            public key
+	 * @return premaster secret
+	 * @throws GeneralSecurityException if the point is invalid
+	 */
+	byte[] generateSecret(byte[] encodedPoint) throws GeneralSecurityException {
+		ECParameterSpec params = ((ECPublicKey) keyPair.getPublic()).getParams();
+		PublicKey peerKey = decodePoint(encodedPoint, params);
+		KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+		agreement.init(keyPair.getPrivate());
+		agreement.doPhase(peerKey, true);
+		return agreement.generateSecret();
+	}
+
+	private static void writeCoordinate(BigInteger value, byte[] encoded, int offset) {
+		byte[] bytes = value.toByteArray();
+		if (bytes.length > COORDINATE_LENGTH) {
+			// leading sign byte
+			bytes = Arrays.copyOfRange(bytes, bytes.length - COORDINATE_LENGTH, bytes.length);
+		}
+		System.arraycopy(bytes, 0, encoded, offset + COORDINATE_LENGTH - bytes.length, bytes.length);
+	}
+
+	/**
+	 * Decode an uncompressed point and check, that it's on the curve.
+	 */
+	private static PublicKey decodePoint(byte[] encoded, ECParameterSpec params) throws GeneralSecurityException {
+		if (encoded.length != 1 + 2 * COORDINATE_LENGTH || encoded[0] != 0x04) {
+			throw new GeneralSecurityException("only uncompressed secp256r1 points are supported!");
+		}
+		BigInteger x = new BigInteger(1, Arrays.copyOfRange(encoded, 1, 1 + COORDINATE_LENGTH));
+		BigInteger y = new BigInteger(1, Arrays.copyOfRange(encoded, 1 + COORDINATE_LENGTH, encoded.length));
+		EllipticCurve curve = params.getCurve();
+		BigInteger p = ((ECFieldFp) curve.getField()).getP();
+		if (x.compareTo(p) >= 0 || y.compareTo(p) >= 0) {
+			throw new GeneralSecurityException("point coordinates out of range!");
+		}
+		// y^2 = x^3 + ax + b
+		BigInteger left = y.multiply(y).mod(p);
+		BigInteger right = x.pow(3).add(curve.getA().multiply(x)).add(curve.getB()).mod(p);
+		if (!left.equals(right)) {
+			throw new GeneralSecurityException("point is not on the curve!");
+		}
+		KeyFactory factory = KeyFactory.getInstance("EC");
+		return factory.generatePublic(new ECPublicKeySpec(new ECPoint(x, y), params));
+	}
+}
@@ -0,0 +1,44 @@
+package com.coap.elements.dtls;
+
+/**
+ * Exception indicating a failed handshake. Carries the description of the
+ * fatal alert sent to the peer.
+ */
+public class HandshakeException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int alert;
+
+	/**
+	 * Create new instance.
+	 *
+	 * @param message message
+	 * @param alert description of the fatal alert
+	 */
+	public HandshakeException(String message, int alert) {
+		super(message);
+		this.alert = alert;
+	}
+
+	/**
+	 * Create new instance.
+	 *
+	 * @param message message
+	 * @param alert description of the fatal alert
+	 * @param cause cause
+	 */
+	public HandshakeException(String message, int alert, Throwable cause) {
+		super(message, cause);
+		this.alert = alert;
+	}
+
+	/**
+	 * Get the description of the fatal alert.
+	 *
+	 * @return the description of the alert
+	 */
+	public int getAlert() {
+		return alert;
+	}
+}
@@ -0,0 +1,104 @@
+package com.coap.elements.dtls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A (fragment of a) handshake message, see
+ * <a href="https://tools.ietf.org/html/rfc6347#section-4.2.2">RFC 6347, 4.2.2
+ * Handshake Message Format</a>.
+ */
+final class HandshakeMessage {
+
+	static final int CLIENT_HELLO = 1;
+	static final int SERVER_HELLO = 2;
+	static final int HELLO_VERIFY_REQUEST = 3;
+	static final int CERTIFICATE = 11;
+	static final int SERVER_KEY_EXCHANGE = 12;
+	static final int CERTIFICATE_REQUEST = 13;
+	static final int SERVER_HELLO_DONE = 14;
+	static final int CERTIFICATE_VERIFY = 15;
+	static final int CLIENT_KEY_EXCHANGE = 16;
+	static final int FINISHED = 20;
+
+	static final int HEADER_LENGTH = 12;
+
+	final int type;
+	/**
+	 * Length of the complete message body.
+	 */
+	final int length;
+	final int messageSeq;
+	final int fragmentOffset;
+	final byte[] fragment;
+
+	private HandshakeMessage(int type, int length, int messageSeq, int fragmentOffset, byte[] fragment) {
+		this.type = type;
+		this.length = length;
+		this.messageSeq = messageSeq;
+		this.fragmentOffset = fragmentOffset;
+		this.fragment = fragment;
+	}
+
+	/**
+	 * Check, if the message is not fragmented.
+	 *
+	 * @return {@code true}, if the fragment contains the complete message,
+	 *         {@code false}, otherwise.
+	 */
+	boolean isComplete() {
+		return fragmentOffset == 0 && fragment.length == length;
+	}
+
+	/**
+	 * Parse the handshake messages of a record.
+	 *
+	 * @param data content of the record
+	 * @return list of handshake messages
+	 * @throws IllegalArgumentException if the messages are malformed
+	 */
+	static List<HandshakeMessage> fromByteArray(byte[] data) {
+		List<HandshakeMessage> messages = new ArrayList<HandshakeMessage>(2);
+		DtlsReader reader = new DtlsReader(data);
+		while (reader.remaining() > 0) {
+			int type = reader.readUint8();
+			int length = reader.readUint24();
+			int messageSeq = reader.readUint16();
+			int fragmentOffset = reader.readUint24();
+			byte[] fragment = reader.readVector(3);
+			if (fragmentOffset + fragment.length > length) {
+				throw new IllegalArgumentException("fragment exceeds message length!");
+			}
+			messages.add(new HandshakeMessage(type, length, messageSeq, fragmentOffset, fragment));
+		}
+		return messages;
+	}
+
+	/**
+	 * Encode a (fragment of a) handshake message.
+	 *
+	 * @param type message type
+	 * @param messageSeq message sequence number
+	 * @param body complete message body
+	 * @param offset offset of the fragment
+	 * @param length length of the fragment
+	 * @return encoded message
+	 */
+	static byte[] toByteArray(int type, int messageSeq, byte[] body, int offset, int length) {
+		byte[] message = new byte[HEADER_LENGTH + length];
+		message[0] = (byte) type;
+		writeUint24(message, 1, body.length);
+		message[4] = (byte) (messageSeq >> 8);
+		message[5] = (byte) messageSeq;
+		writeUint24(message, 6, offset);
+		writeUint24(message, 9, length);
+		System.arraycopy(body, offset, message, HEADER_LENGTH, length);
+		return message;
+	}
+
+	private static void writeUint24(byte[] data, int offset, int value) {
+		data[offset] = (byte) (value >> 16);
+		data[offset + 1] = (byte) (value >> 8);
+		data[offset + 2] = (byte) value;
+	}
+}
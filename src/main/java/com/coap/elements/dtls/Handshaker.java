@@ -0,0 +1,788 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.RawData;
+import com.coap.elements.util.DatagramWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Base class of the client and server side of a DTLS 1.2 handshake.
+ *
+ * Implements the parts common to both sides, see
+ * <a href="https://tools.ietf.org/html/rfc6347#section-4.2">RFC 6347, 4.2
+ * The DTLS Handshake Protocol</a>:
+ * <ul>
+ * <li>reassembly and ordering of the received handshake messages</li>
+ * <li>fragmentation, sending and retransmission of flights</li>
+ * <li>the handshake transcript and the key derivation</li>
+ * </ul>
+ *
+ * A handshaker is only accessed while holding the monitor of its
+ * {@link DTLSConnection}. After the handshake the connection keeps only the
+ * established session and the record ciphers, all other handshake state is
+ * released.
+ */
+abstract class Handshaker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Handshaker.class.getName());
+
+	/**
+	 * Maximum number of handshake messages a received message may be ahead
+	 * of the next expected message.
+	 */
+	private static final int MAX_MESSAGES_AHEAD = 10;
+
+	/**
+	 * Maximum number of records of the next epoch, which are kept until the
+	 * CHANGE_CIPHER_SPEC is received.
+	 */
+	private static final int MAX_DEFERRED_RECORDS = 8;
+
+	/**
+	 * Maximum number of pending outgoing messages.
+	 */
+	private static final int MAX_PENDING_MESSAGES = 16;
+
+	/**
+	 * Overhead of IPv6 and UDP headers.
+	 */
+	private static final int IP_UDP_OVERHEAD = 48;
+
+	/**
+	 * Length of the verify data of the FINISHED message.
+	 */
+	private static final int VERIFY_DATA_LENGTH = 12;
+
+	private static final int KEY_BLOCK_LENGTH = 2 * CipherSuite.ENC_KEY_LENGTH + 2 * CipherSuite.FIXED_IV_LENGTH;
+
+	protected static final SecureRandom RANDOM = new SecureRandom();
+
+	protected final DTLSConnector connector;
+
+	protected final DtlsConnectorConfig config;
+
+	protected final DTLSConnection connection;
+
+	private final List<RawData> pendingMessages = new ArrayList<RawData>(2);
+
+	/**
+	 * Concatenation of the handshake messages for the FINISHED and the
+	 * extended master secret.
+	 */
+	private final ByteArrayOutputStream transcript = new ByteArrayOutputStream(1024);
+
+	/**
+	 * Messages, which are received ahead or fragmented, by message sequence
+	 * number.
+	 */
+	private final SortedMap<Integer, Reassembly> reassembly = new TreeMap<Integer, Reassembly>();
+
+	private final List<Record> deferredRecords = new ArrayList<Record>(2);
+
+	/**
+	 * Next record sequence number to be sent per epoch.
+	 */
+	protected final long[] sequenceNumbers = new long[2];
+
+	protected int nextSendMessageSeq;
+
+	protected int nextReceiveMessageSeq;
+
+	/**
+	 * Message sequence number of the last processed message of the peer.
+	 * Used to detect retransmissions of the peer's last flight.
+	 */
+	private int lastReceivedMessageSeq = -1;
+
+	protected byte[] clientRandom;
+
+	protected byte[] serverRandom;
+
+	protected CipherSuite cipherSuite;
+
+	protected byte[] masterSecret;
+
+	protected boolean extendedMasterSecret;
+
+	/**
+	 * Connection ID of the peer. {@code null}, if not negotiated.
+	 */
+	protected byte[] peerConnectionId;
+
+	private RecordCipher readCipher;
+
+	private RecordCipher writeCipher;
+
+	/**
+	 * Indicates, that the CHANGE_CIPHER_SPEC of the peer has been received.
+	 */
+	private boolean changeCipherSpecReceived;
+
+	/**
+	 * Indicates, that the keys have been activated for received records.
+	 */
+	private boolean readEpochActive;
+
+	private List<FlightEntry> flight;
+
+	private int flightNumber;
+
+	private int retransmissions;
+
+	private int retransmissionTimeout;
+
+	private ScheduledFuture<?> retransmissionJob;
+
+	private boolean done;
+
+	protected Handshaker(DTLSConnector connector, DTLSConnection connection) {
+		this.connector = connector;
+		this.config = connector.getConfig();
+		this.connection = connection;
+	}
+
+	/**
+	 * Check, if this is the client side of the handshake.
+	 *
+	 * @return {@code true}, if client side, {@code false}, if server side.
+	 */
+	abstract boolean isClient();
+
+	/**
+	 * Process a complete handshake message.
+	 *
+	 * Called in the order of the message sequence numbers.
+	 *
+	 * @param type message type
+	 * @param messageSeq message sequence number
+	 * @param body message body
+	 * @param encrypted {@code true}, if the message was received in epoch 1,
+	 *            {@code false}, if received in epoch 0
+	 * @throws HandshakeException if the handshake fails
+	 * @throws GeneralSecurityException if a cryptographic function fails
+	 */
+	protected abstract void handleMessage(int type, int messageSeq, byte[] body, boolean encrypted)
+			throws HandshakeException, GeneralSecurityException;
+
+	/**
+	 * Continue the handshake after a message received before the handshaker
+	 * was created. Used by the server for the CLIENT_HELLO.
+	 *
+	 * @param messageSeq message sequence number of the received message
+	 */
+	protected void setReceivedMessageSeq(int messageSeq) {
+		lastReceivedMessageSeq = messageSeq;
+		nextReceiveMessageSeq = messageSeq + 1;
+	}
+
+	DTLSConnection getConnection() {
+		return connection;
+	}
+
+	InetSocketAddress getPeerAddress() {
+		return connection.getPeerAddress();
+	}
+
+	boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Add message to be sent after the handshake has completed.
+	 *
+	 * @param message outgoing message
+	 * @return {@code true}, if added, {@code false}, if too many messages are
+	 *         pending.
+	 */
+	boolean addPendingMessage(RawData message) {
+		if (pendingMessages.size() >= MAX_PENDING_MESSAGES) {
+			return false;
+		}
+		pendingMessages.add(message);
+		return true;
+	}
+
+	/**
+	 * Take the messages pending for this handshake.
+	 *
+	 * @return list of pending messages
+	 */
+	List<RawData> takePendingMessages() {
+		if (pendingMessages.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<RawData> messages = new ArrayList<RawData>(pendingMessages);
+		pendingMessages.clear();
+		return messages;
+	}
+
+	/**
+	 * Process a received record of the handshake.
+	 *
+	 * @param record received record
+	 */
+	void processRecord(Record record) {
+		if (done) {
+			return;
+		}
+		try {
+			if (record.epoch == 0) {
+				processPlainRecord(record);
+			} else if (record.epoch == 1) {
+				if (!readEpochActive) {
+					if (deferredRecords.size() < MAX_DEFERRED_RECORDS) {
+						deferredRecords.add(record);
+					}
+					return;
+				}
+				processEncryptedRecord(record);
+			}
+			if (!done) {
+				activateReadEpoch();
+			}
+		} catch (HandshakeException e) {
+			fail(e);
+		} catch (IllegalArgumentException e) {
+			fail(new HandshakeException(e.getMessage(), Alert.DECODE_ERROR, e));
+		} catch (GeneralSecurityException e) {
+			fail(new HandshakeException(e.getMessage(), Alert.INTERNAL_ERROR, e));
+		}
+	}
+
+	private void processPlainRecord(Record record) throws HandshakeException, GeneralSecurityException {
+		switch (record.type) {
+		case Record.HANDSHAKE:
+			for (HandshakeMessage message : HandshakeMessage.fromByteArray(record.fragment)) {
+				processFragment(message, false);
+				if (done) {
+					return;
+				}
+			}
+			break;
+		case Record.CHANGE_CIPHER_SPEC:
+			if (record.fragment.length != 1 || record.fragment[0] != 1) {
+				throw new HandshakeException("malformed CHANGE_CIPHER_SPEC!", Alert.DECODE_ERROR);
+			}
+			changeCipherSpecReceived = true;
+			break;
+		case Record.ALERT:
+			processAlert(record.fragment);
+			break;
+		default:
+			LOGGER.debug("{} drops unexpected record type {} in epoch 0", this, record.type);
+			break;
+		}
+	}
+
+	private void processEncryptedRecord(Record record) throws HandshakeException, GeneralSecurityException {
+		Record plain;
+		try {
+			plain = readCipher.decrypt(record);
+		} catch (GeneralSecurityException e) {
+			LOGGER.debug("{} drops record, decryption failed: {}", this, e.getMessage());
+			return;
+		}
+		switch (plain.type) {
+		case Record.HANDSHAKE:
+			for (HandshakeMessage message : HandshakeMessage.fromByteArray(plain.fragment)) {
+				processFragment(message, true);
+				if (done) {
+					return;
+				}
+			}
+			break;
+		case Record.ALERT:
+			processAlert(plain.fragment);
+			break;
+		default:
+			LOGGER.debug("{} drops record type {} during handshake", this, plain.type);
+			break;
+		}
+	}
+
+	private void processAlert(byte[] alert) throws HandshakeException {
+		if (alert.length != 2) {
+			throw new HandshakeException("malformed alert!", Alert.DECODE_ERROR);
+		}
+		if (alert[0] == Alert.LEVEL_FATAL || alert[1] == Alert.CLOSE_NOTIFY) {
+			// don't answer a received alert
+			throw new HandshakeException("received alert " + alert[1] + " from peer!", -1);
+		}
+		LOGGER.debug("{} ignores warning alert {}", this, alert[1]);
+	}
+
+	/**
+	 * Activate the pending keys for received records, if the
+	 * CHANGE_CIPHER_SPEC has been received and the keys are derived. Called
+	 * after a record has been processed, so the deferred records are not
+	 * processed within the handling of an other message.
+	 */
+	private void activateReadEpoch() throws HandshakeException, GeneralSecurityException {
+		if (changeCipherSpecReceived && readCipher != null && !readEpochActive) {
+			readEpochActive = true;
+			if (!deferredRecords.isEmpty()) {
+				List<Record> records = new ArrayList<Record>(deferredRecords);
+				deferredRecords.clear();
+				for (Record record : records) {
+					processEncryptedRecord(record);
+					if (done) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	private void processFragment(HandshakeMessage message, boolean encrypted)
+			throws HandshakeException, GeneralSecurityException {
+		int messageSeq = message.messageSeq;
+		if (messageSeq < nextReceiveMessageSeq) {
+			if (messageSeq == lastReceivedMessageSeq && message.fragmentOffset == 0) {
+				// the peer retransmits its last flight, our flight got lost
+				retransmitFlight();
+			}
+			return;
+		}
+		if (messageSeq > nextReceiveMessageSeq + MAX_MESSAGES_AHEAD) {
+			LOGGER.debug("{} drops message {}, too far ahead", this, messageSeq);
+			return;
+		}
+		Reassembly entry = reassembly.get(messageSeq);
+		if (entry == null) {
+			entry = new Reassembly(message.type, message.length, encrypted);
+			reassembly.put(messageSeq, entry);
+		} else if (entry.type != message.type || entry.body.length != message.length
+				|| entry.encrypted != encrypted) {
+			throw new HandshakeException("fragments of message " + messageSeq + " don't match!",
+					Alert.ILLEGAL_PARAMETER);
+		}
+		entry.add(message.fragmentOffset, message.fragment);
+		while (!done) {
+			entry = reassembly.get(nextReceiveMessageSeq);
+			if (entry == null || !entry.isComplete()) {
+				break;
+			}
+			reassembly.remove(nextReceiveMessageSeq);
+			int seq = nextReceiveMessageSeq++;
+			lastReceivedMessageSeq = seq;
+			// the peer has received our flight
+			cancelRetransmission();
+			handleMessage(entry.type, seq, entry.body, entry.encrypted);
+		}
+	}
+
+	/**
+	 * Add a handshake message to the transcript.
+	 *
+	 * @param type message type
+	 * @param messageSeq message sequence number
+	 * @param body message body
+	 */
+	protected void addToTranscript(int type, int messageSeq, byte[] body) {
+		byte[] message = HandshakeMessage.toByteArray(type, messageSeq, body, 0, body.length);
+		transcript.write(message, 0, message.length);
+	}
+
+	protected byte[] getTranscriptHash() throws GeneralSecurityException {
+		return MessageDigest.getInstance("SHA-256").digest(transcript.toByteArray());
+	}
+
+	protected byte[] getTranscript() {
+		return transcript.toByteArray();
+	}
+
+	/**
+	 * Generate the master secret from the premaster secret, see
+	 * <a href="https://tools.ietf.org/html/rfc7627#section-4">RFC 7627, 4. The
+	 * Extended Master Secret</a>.
+	 *
+	 * The transcript must contain the messages up to the CLIENT_KEY_EXCHANGE.
+	 *
+	 * @param premasterSecret premaster secret
+	 * @throws GeneralSecurityException if the PRF fails
+	 */
+	protected void generateMasterSecret(byte[] premasterSecret) throws GeneralSecurityException {
+		if (extendedMasterSecret) {
+			masterSecret = PseudoRandomFunction.doPRF(premasterSecret,
+					PseudoRandomFunction.EXTENDED_MASTER_SECRET_LABEL, getTranscriptHash(), 48);
+		} else {
+			masterSecret = PseudoRandomFunction.doPRF(premasterSecret, PseudoRandomFunction.MASTER_SECRET_LABEL,
+					PseudoRandomFunction.concat(clientRandom, serverRandom), 48);
+		}
+		Arrays.fill(premasterSecret, (byte) 0);
+	}
+
+	/**
+	 * Derive the record ciphers from the master secret, see
+	 * <a href="https://tools.ietf.org/html/rfc5246#section-6.3">RFC 5246, 6.3
+	 * Key Calculation</a>.
+	 *
+	 * @throws HandshakeException if the ciphers are already derived
+	 * @throws GeneralSecurityException if the PRF or AES is not available
+	 */
+	protected void deriveKeys() throws HandshakeException, GeneralSecurityException {
+		if (writeCipher != null) {
+			throw new HandshakeException("keys already derived!", Alert.UNEXPECTED_MESSAGE);
+		}
+		byte[] keyBlock = PseudoRandomFunction.doPRF(masterSecret, PseudoRandomFunction.KEY_EXPANSION_LABEL,
+				PseudoRandomFunction.concat(serverRandom, clientRandom), KEY_BLOCK_LENGTH);
+		int index = 0;
+		byte[] clientKey = Arrays.copyOfRange(keyBlock, index, index += CipherSuite.ENC_KEY_LENGTH);
+		byte[] serverKey = Arrays.copyOfRange(keyBlock, index, index += CipherSuite.ENC_KEY_LENGTH);
+		byte[] clientIv = Arrays.copyOfRange(keyBlock, index, index += CipherSuite.FIXED_IV_LENGTH);
+		byte[] serverIv = Arrays.copyOfRange(keyBlock, index, index += CipherSuite.FIXED_IV_LENGTH);
+		Arrays.fill(keyBlock, (byte) 0);
+		RecordCipher clientCipher = new RecordCipher(clientKey, clientIv);
+		RecordCipher serverCipher = new RecordCipher(serverKey, serverIv);
+		Arrays.fill(clientKey, (byte) 0);
+		Arrays.fill(serverKey, (byte) 0);
+		if (isClient()) {
+			writeCipher = clientCipher;
+			readCipher = serverCipher;
+		} else {
+			writeCipher = serverCipher;
+			readCipher = clientCipher;
+		}
+	}
+
+	/**
+	 * Calculate the verify data of a FINISHED message over the current
+	 * transcript.
+	 *
+	 * @param client {@code true}, for the FINISHED of the client,
+	 *            {@code false}, for the FINISHED of the server
+	 * @return verify data
+	 * @throws GeneralSecurityException if the PRF fails
+	 */
+	protected byte[] calculateVerifyData(boolean client) throws GeneralSecurityException {
+		return PseudoRandomFunction.doPRF(masterSecret,
+				client ? PseudoRandomFunction.CLIENT_FINISHED_LABEL : PseudoRandomFunction.SERVER_FINISHED_LABEL,
+				getTranscriptHash(), VERIFY_DATA_LENGTH);
+	}
+
+	/**
+	 * Verify the FINISHED message of the peer and add it to the transcript.
+	 *
+	 * @param messageSeq message sequence number
+	 * @param body FINISHED message
+	 * @param encrypted {@code true}, if received in epoch 1
+	 * @throws HandshakeException if the verify data doesn't match
+	 * @throws GeneralSecurityException if the PRF fails
+	 */
+	protected void verifyFinished(int messageSeq, byte[] body, boolean encrypted)
+			throws HandshakeException, GeneralSecurityException {
+		if (!encrypted) {
+			throw new HandshakeException("FINISHED not encrypted!", Alert.UNEXPECTED_MESSAGE);
+		}
+		byte[] expected = calculateVerifyData(!isClient());
+		if (!MessageDigest.isEqual(expected, body)) {
+			throw new HandshakeException("FINISHED verification failed!", Alert.DECRYPT_ERROR);
+		}
+		addToTranscript(HandshakeMessage.FINISHED, messageSeq, body);
+	}
+
+	/**
+	 * Create the FINISHED message of this side and add it to the transcript.
+	 *
+	 * @return flight entry of the FINISHED message
+	 * @throws GeneralSecurityException if the PRF fails
+	 */
+	protected FlightEntry createFinished() throws GeneralSecurityException {
+		return createMessage(HandshakeMessage.FINISHED, calculateVerifyData(isClient()), true);
+	}
+
+	/**
+	 * Create a handshake message with the next message sequence number and
+	 * add it to the transcript.
+	 *
+	 * @param type message type
+	 * @param body message body
+	 * @param encrypted {@code true}, to send it in epoch 1
+	 * @return flight entry
+	 */
+	protected FlightEntry createMessage(int type, byte[] body, boolean encrypted) {
+		int messageSeq = nextSendMessageSeq++;
+		addToTranscript(type, messageSeq, body);
+		return new FlightEntry(Record.HANDSHAKE, type, messageSeq, body, encrypted);
+	}
+
+	protected static FlightEntry createChangeCipherSpec() {
+		return new FlightEntry(Record.CHANGE_CIPHER_SPEC, 0, 0, new byte[] { 1 }, false);
+	}
+
+	/**
+	 * Create the premaster secret of the PSK key exchange, see
+	 * <a href="https://tools.ietf.org/html/rfc4279#section-2">RFC 4279, 2.
+	 * PSK Key Exchange Algorithm</a>.
+	 *
+	 * @param psk pre-shared key
+	 * @return premaster secret
+	 */
+	protected static byte[] createPskPremasterSecret(byte[] psk) {
+		DatagramWriter writer = new DatagramWriter();
+		writer.write(psk.length, 16);
+		writer.writeBytes(new byte[psk.length]);
+		writer.write(psk.length, 16);
+		writer.writeBytes(psk);
+		Arrays.fill(psk, (byte) 0);
+		return writer.toByteArray();
+	}
+
+	protected static byte[] createRandom() {
+		byte[] random = new byte[32];
+		RANDOM.nextBytes(random);
+		return random;
+	}
+
+	/**
+	 * Send a flight.
+	 *
+	 * @param entries messages of the flight
+	 * @param last {@code true}, for the last flight of the handshake, which is
+	 *            not retransmitted by timer.
+	 * @return the sent datagrams
+	 * @throws GeneralSecurityException if the encryption fails
+	 */
+	protected List<byte[]> sendFlight(List<FlightEntry> entries, boolean last) throws GeneralSecurityException {
+		cancelRetransmission();
+		flight = entries;
+		++flightNumber;
+		retransmissions = 0;
+		retransmissionTimeout = config.getRetransmissionTimeout();
+		List<byte[]> datagrams = transmit();
+		if (!last) {
+			scheduleRetransmission();
+		} else {
+			flight = null;
+		}
+		return datagrams;
+	}
+
+	private void retransmitFlight() throws GeneralSecurityException {
+		if (flight != null) {
+			LOGGER.debug("{} retransmits flight {} on request of peer", this, flightNumber);
+			transmit();
+		}
+	}
+
+	/**
+	 * Encode the current flight with new record sequence numbers and send
+	 * it. The messages are fragmented and the records are packed into
+	 * datagrams according the MTU.
+	 *
+	 * @return the sent datagrams
+	 */
+	private List<byte[]> transmit() throws GeneralSecurityException {
+		int maxDatagramSize = config.getMaxTransmissionUnit() - IP_UDP_OVERHEAD;
+		List<byte[]> datagrams = new ArrayList<byte[]>(2);
+		DatagramWriter datagram = new DatagramWriter();
+		for (FlightEntry entry : flight) {
+			int epoch = entry.encrypted ? 1 : 0;
+			byte[] cid = entry.encrypted && peerConnectionId != null && peerConnectionId.length > 0
+					? peerConnectionId : null;
+			int overhead = Record.HEADER_LENGTH;
+			if (entry.encrypted) {
+				overhead += CipherSuite.RECORD_IV_LENGTH + CipherSuite.MAC_LENGTH;
+				if (cid != null) {
+					overhead += cid.length + 1;
+				}
+			}
+			List<byte[]> contents = new ArrayList<byte[]>(1);
+			if (entry.recordType == Record.HANDSHAKE) {
+				int maxFragmentLength = Math.max(64, maxDatagramSize - overhead - HandshakeMessage.HEADER_LENGTH);
+				int offset = 0;
+				do {
+					int length = Math.min(maxFragmentLength, entry.content.length - offset);
+					contents.add(HandshakeMessage.toByteArray(entry.messageType, entry.messageSeq, entry.content,
+							offset, length));
+					offset += length;
+				} while (offset < entry.content.length);
+			} else {
+				contents.add(entry.content);
+			}
+			for (byte[] content : contents) {
+				long sequenceNumber = sequenceNumbers[epoch]++;
+				byte[] record;
+				if (entry.encrypted) {
+					byte[] fragment = writeCipher.encrypt(entry.recordType, epoch, sequenceNumber, cid, content);
+					record = Record.toByteArray(cid == null ? entry.recordType : Record.TLS12_CID, epoch,
+							sequenceNumber, cid, fragment);
+				} else {
+					record = Record.toByteArray(entry.recordType, epoch, sequenceNumber, null, content);
+				}
+				if (datagram.size() > 0 && datagram.size() + record.length > maxDatagramSize) {
+					datagrams.add(datagram.toByteArray());
+					datagram = new DatagramWriter();
+				}
+				datagram.writeBytes(record);
+			}
+		}
+		if (datagram.size() > 0) {
+			datagrams.add(datagram.toByteArray());
+		}
+		sendDatagrams(datagrams);
+		return datagrams;
+	}
+
+	protected void sendDatagrams(List<byte[]> datagrams) {
+		InetSocketAddress peer = connection.getPeerAddress();
+		for (byte[] datagram : datagrams) {
+			connector.sendDatagram(datagram, peer);
+		}
+	}
+
+	private void scheduleRetransmission() {
+		final List<FlightEntry> current = flight;
+		retransmissionJob = connector.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized (connection) {
+					if (!done && flight == current) {
+						handleTimeout();
+					}
+				}
+			}
+		}, retransmissionTimeout);
+	}
+
+	private void cancelRetransmission() {
+		if (retransmissionJob != null) {
+			retransmissionJob.cancel(false);
+			retransmissionJob = null;
+		}
+	}
+
+	private void handleTimeout() {
+		if (retransmissions >= config.getMaxRetransmissions()) {
+			fail(new HandshakeException("flight " + flightNumber + " not acknowledged after " + retransmissions
+					+ " retransmissions!", -1));
+			return;
+		}
+		++retransmissions;
+		retransmissionTimeout *= 2;
+		LOGGER.debug("{} retransmits flight {}, {}. retransmission", this, flightNumber, retransmissions);
+		for (RawData message : pendingMessages) {
+			message.onDtlsRetransmission(flightNumber);
+		}
+		try {
+			transmit();
+			scheduleRetransmission();
+		} catch (GeneralSecurityException e) {
+			fail(new HandshakeException(e.getMessage(), Alert.INTERNAL_ERROR, e));
+		}
+	}
+
+	/**
+	 * Complete the handshake and establish the connection.
+	 *
+	 * @param session established session
+	 * @param lastFlight last flight sent by this side, or {@code null}, if
+	 *            the last flight was received from the peer.
+	 */
+	protected void complete(DTLSSession session, List<byte[]> lastFlight) {
+		done = true;
+		cancelRetransmission();
+		flight = null;
+		connection.establish(this, session, readCipher, writeCipher, sequenceNumbers[1], peerConnectionId,
+				lastFlight);
+		LOGGER.debug("{} completed, {}", this, session.getCipherSuite());
+		connector.handshakeCompleted(this);
+	}
+
+	/**
+	 * Fail the handshake. Sends a fatal alert to the peer, if available.
+	 *
+	 * @param cause reason of the failure
+	 */
+	void fail(HandshakeException cause) {
+		if (done) {
+			return;
+		}
+		done = true;
+		cancelRetransmission();
+		flight = null;
+		LOGGER.debug("{} failed: {}", this, cause.getMessage());
+		if (cause.getAlert() >= 0) {
+			byte[] alert = Alert.toByteArray(Alert.LEVEL_FATAL, cause.getAlert());
+			connector.sendDatagram(Record.toByteArray(Record.ALERT, 0, sequenceNumbers[0]++, null, alert),
+					connection.getPeerAddress());
+		}
+		connector.handshakeFailed(this, cause);
+	}
+
+	@Override
+	public String toString() {
+		return (isClient() ? "client" : "server") + " handshake with " + connection.getPeerAddress();
+	}
+
+	/**
+	 * Message or CHANGE_CIPHER_SPEC of a flight.
+	 */
+	protected static final class FlightEntry {
+
+		private final int recordType;
+		private final int messageType;
+		private final int messageSeq;
+		private final byte[] content;
+		private final boolean encrypted;
+
+		FlightEntry(int recordType, int messageType, int messageSeq, byte[] content, boolean encrypted) {
+			this.recordType = recordType;
+			this.messageType = messageType;
+			this.messageSeq = messageSeq;
+			this.content = content;
+			this.encrypted = encrypted;
+		}
+	}
+
+	/**
+	 * Reassembly buffer of a fragmented handshake message.
+	 */
+	private static final class Reassembly {
+
+		private final int type;
+		private final boolean encrypted;
+		private final byte[] body;
+		private final BitSet received;
+		private int missing;
+
+		private Reassembly(int type, int length, boolean encrypted) {
+			this.type = type;
+			this.encrypted = encrypted;
+			this.body = new byte[length];
+			this.received = new BitSet(length);
+			this.missing = length;
+		}
+
+		private void add(int offset, byte[] fragment) {
+			System.arraycopy(fragment, 0, body, offset, fragment.length);
+			int end = offset + fragment.length;
+			int index = received.nextClearBit(offset);
+			while (index < end) {
+				int next = Math.min(received.nextSetBit(index) < 0 ? end : received.nextSetBit(index), end);
+				missing -= next - index;
+				received.set(index, next);
+				index = received.nextClearBit(next);
+			}
+		}
+
+		private boolean isComplete() {
+			return missing == 0;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.util.DatagramWriter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hello extensions used by the {@link DTLSConnector}.
+ */
+final class HelloExtensions {
+
+	static final int SUPPORTED_GROUPS = 10;
+	static final int EC_POINT_FORMATS = 11;
+	static final int SIGNATURE_ALGORITHMS = 13;
+	static final int CLIENT_CERTIFICATE_TYPE = 19;
+	static final int SERVER_CERTIFICATE_TYPE = 20;
+	static final int EXTENDED_MASTER_SECRET = 23;
+	/**
+	 * Connection ID extension, see
+	 * <a href="https://tools.ietf.org/html/rfc9146#section-3">RFC 9146, 3.
+	 * The "connection_id" Extension</a>.
+	 */
+	static final int CONNECTION_ID = 54;
+	static final int RENEGOTIATION_INFO = 0xff01;
+
+	/**
+	 * Signaling cipher suite value for secure renegotiation, see
+	 * <a href="https://tools.ietf.org/html/rfc5746#section-3.3">RFC 5746</a>.
+	 */
+	static final int EMPTY_RENEGOTIATION_INFO_SCSV = 0x00ff;
+
+	static final int CERTIFICATE_TYPE_RAW_PUBLIC_KEY = 2;
+
+	/**
+	 * Hash algorithm SHA256 and signature algorithm ECDSA.
+	 */
+	static final int SHA256_WITH_ECDSA = 0x0403;
+
+	private HelloExtensions() {
+	}
+
+	/**
+	 * Read the extensions block.
+	 *
+	 * @param reader reader positioned at the extensions block
+	 * @return extension data by extension type
+	 * @throws IllegalArgumentException if the extensions are malformed
+	 */
+	static Map<Integer, byte[]> read(DtlsReader reader) {
+		Map<Integer, byte[]> extensions = new LinkedHashMap<Integer, byte[]>();
+		if (reader.remaining() > 0) {
+			DtlsReader block = new DtlsReader(reader.readVector(2));
+			while (block.remaining() > 0) {
+				int type = block.readUint16();
+				byte[] data = block.readVector(2);
+				if (extensions.put(type, data) != null) {
+					throw new IllegalArgumentException("duplicate extension " + type + "!");
+				}
+			}
+		}
+		return extensions;
+	}
+
+	/**
+	 * Write the extensions block. Nothing is written for an empty map.
+	 *
+	 * @param writer writer
+	 * @param extensions extension data by extension type
+	 */
+	static void write(DatagramWriter writer, Map<Integer, byte[]> extensions) {
+		if (extensions.isEmpty()) {
+			return;
+		}
+		DatagramWriter block = new DatagramWriter();
+		for (Map.Entry<Integer, byte[]> extension : extensions.entrySet()) {
+			block.write(extension.getKey(), 16);
+			block.write(extension.getValue().length, 16);
+			block.writeBytes(extension.getValue());
+		}
+		writer.write(block.size(), 16);
+		writer.write(block);
+	}
+}
@@ -0,0 +1,314 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.util.Bytes;
+import com.coap.elements.util.LeastRecentlyUsedCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded, lock-striped store of the {@link DTLSConnection}s.
+ *
+ * The connections are kept by peer address in a number of stripes, each a
+ * {@link LeastRecentlyUsedCache} guarded by its own lock, so lookups of
+ * different peers rarely contend. The capacity is split evenly over the
+ * stripes. If a stripe is full, its least recently used connection is only
+ * evicted, if it's stale, otherwise the new connection is rejected.
+ *
+ * Two lock-free secondary indexes support the lookup by connection ID, used
+ * for records with connection ID, and by session ID, used for the
+ * resumption of sessions.
+ */
+final class InMemoryConnectionStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryConnectionStore.class.getName());
+
+	private final LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection>[] stripes;
+
+	private final ConcurrentMap<Bytes, DTLSConnection> connectionsByCid = new ConcurrentHashMap<Bytes, DTLSConnection>();
+
+	private final ConcurrentMap<Bytes, DTLSConnection> connectionsBySessionId = new ConcurrentHashMap<Bytes, DTLSConnection>();
+
+	private final SecureRandom random = new SecureRandom();
+
+	/**
+	 * Length of issued connection IDs. {@code 0}, if connection IDs are not
+	 * issued.
+	 */
+	private final int connectionIdLength;
+
+	/**
+	 * Node ID used as first byte of issued connection IDs. {@code null}, if
+	 * not used.
+	 */
+	private final Integer nodeId;
+
+	/**
+	 * Create connection store.
+	 *
+	 * @param capacity maximum number of connections
+	 * @param staleThreshold threshold in seconds for connections to be
+	 *            considered as stale
+	 * @param stripes number of stripes
+	 * @param connectionIdLength length of issued connection IDs, {@code 0},
+	 *            if connection IDs are not issued.
+	 * @param nodeId node ID used as first byte of issued connection IDs.
+	 *            {@code null}, if not used.
+	 */
+	@SuppressWarnings("unchecked")
+	InMemoryConnectionStore(int capacity, long staleThreshold, int stripes, int connectionIdLength,
+			Integer nodeId) {
+		int stripeCount = Math.max(1, Math.min(stripes, capacity));
+		int stripeCapacity = (capacity + stripeCount - 1) / stripeCount;
+		this.stripes = (LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection>[]) new LeastRecentlyUsedCache<?, ?>[stripeCount];
+		LeastRecentlyUsedCache.EvictionListener<DTLSConnection> listener = new LeastRecentlyUsedCache.EvictionListener<DTLSConnection>() {
+
+			@Override
+			public void onEviction(DTLSConnection connection) {
+				LOGGER.debug("evicted stale {}", connection);
+				removeFromIndexes(connection);
+			}
+		};
+		for (int index = 0; index < stripeCount; ++index) {
+			LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> stripe = new LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection>(
+					stripeCapacity, staleThreshold);
+			// stale connections are only evicted to make room
+			stripe.setEvictingOnReadAccess(false);
+			stripe.addEvictionListener(listener);
+			this.stripes[index] = stripe;
+		}
+		this.connectionIdLength = connectionIdLength;
+		this.nodeId = nodeId;
+	}
+
+	private LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> stripe(InetSocketAddress peer) {
+		int hash = peer.hashCode();
+		hash ^= (hash >>> 16);
+		return stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+	}
+
+	/**
+	 * Get connection by peer address.
+	 *
+	 * @param peer address of the peer
+	 * @return connection, or {@code null}, if not available
+	 */
+	DTLSConnection get(InetSocketAddress peer) {
+		LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> stripe = stripe(peer);
+		synchronized (stripe) {
+			return stripe.get(peer);
+		}
+	}
+
+	/**
+	 * Get connection by its connection ID.
+	 *
+	 * @param cid connection ID issued by this node
+	 * @return connection, or {@code null}, if not available
+	 */
+	DTLSConnection get(Bytes cid) {
+		return connectionsByCid.get(cid);
+	}
+
+	/**
+	 * Find connection by the ID of its established session.
+	 *
+	 * @param sessionId session ID
+	 * @return connection, or {@code null}, if not available
+	 */
+	DTLSConnection findBySessionId(Bytes sessionId) {
+		return connectionsBySessionId.get(sessionId);
+	}
+
+	/**
+	 * Add connection, if no connection for its peer address is available.
+	 *
+	 * @param connection connection to add
+	 * @return {@code null}, if added, the already available connection, or
+	 *         the provided connection, if the store is exhausted.
+	 */
+	DTLSConnection putIfAbsent(DTLSConnection connection) {
+		InetSocketAddress peer = connection.getPeerAddress();
+		LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> stripe = stripe(peer);
+		synchronized (stripe) {
+			DTLSConnection previous = stripe.get(peer);
+			if (previous != null) {
+				return previous;
+			}
+			if (!stripe.put(peer, connection)) {
+				LOGGER.warn("connection store exhausted, {} rejected!", connection);
+				return connection;
+			}
+		}
+		addToIndexes(connection);
+		return null;
+	}
+
+	/**
+	 * Add connection, replacing the connection of the same peer address.
+	 *
+	 * @param connection connection to add
+	 * @return {@code true}, if added, {@code false}, if the store is
+	 *         exhausted.
+	 */
+	boolean put(DTLSConnection connection) {
+		InetSocketAddress peer = connection.getPeerAddress();
+		LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> stripe = stripe(peer);
+		DTLSConnection previous;
+		synchronized (stripe) {
+			previous = stripe.remove(peer);
+			if (!stripe.put(peer, connection)) {
+				LOGGER.warn("connection store exhausted, {} rejected!", connection);
+				return false;
+			}
+		}
+		if (previous != null) {
+			removeFromIndexes(previous);
+		}
+		addToIndexes(connection);
+		return true;
+	}
+
+	/**
+	 * Replace connection of the same peer address, if it's still the
+	 * expected one.
+	 *
+	 * @param previous expected connection
+	 * @param connection new connection
+	 * @return {@code true}, if replaced, {@code false}, if the expected
+	 *         connection is not longer stored for that address.
+	 */
+	boolean replace(DTLSConnection previous, DTLSConnection connection) {
+		InetSocketAddress peer = connection.getPeerAddress();
+		LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> stripe = stripe(peer);
+		synchronized (stripe) {
+			if (stripe.get(peer) != previous) {
+				return false;
+			}
+			stripe.remove(peer);
+			stripe.put(peer, connection);
+		}
+		removeFromIndexes(previous);
+		addToIndexes(connection);
+		return true;
+	}
+
+	/**
+	 * Index the established session of a connection.
+	 *
+	 * Removes other connections with the same session, e.g. after a
+	 * resumption from a new address.
+	 *
+	 * @param connection established connection
+	 */
+	void putEstablishedSession(DTLSConnection connection) {
+		Bytes sessionId = connection.getSession().getSessionId();
+		DTLSConnection previous = connectionsBySessionId.put(sessionId, connection);
+		if (previous != null && previous != connection) {
+			remove(previous);
+		}
+	}
+
+	/**
+	 * Move connection to a new peer address. Removes a connection already
+	 * stored for the new address.
+	 *
+	 * @param connection connection
+	 * @param newPeer new address of the peer
+	 */
+	void update(DTLSConnection connection, InetSocketAddress newPeer) {
+		InetSocketAddress oldPeer = connection.getPeerAddress();
+		LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> oldStripe = stripe(oldPeer);
+		synchronized (oldStripe) {
+			oldStripe.remove(oldPeer, connection);
+		}
+		connection.setPeerAddress(newPeer);
+		LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> newStripe = stripe(newPeer);
+		DTLSConnection previous;
+		synchronized (newStripe) {
+			previous = newStripe.remove(newPeer);
+			newStripe.put(newPeer, connection);
+		}
+		if (previous != null && previous != connection) {
+			removeFromIndexes(previous);
+		}
+		LOGGER.debug("{} moved from {}", connection, oldPeer);
+	}
+
+	/**
+	 * Remove connection.
+	 *
+	 * @param connection connection to remove
+	 */
+	void remove(DTLSConnection connection) {
+		InetSocketAddress peer = connection.getPeerAddress();
+		LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> stripe = stripe(peer);
+		synchronized (stripe) {
+			stripe.remove(peer, connection);
+		}
+		removeFromIndexes(connection);
+	}
+
+	/**
+	 * Create a connection ID, not used by other connections of this store.
+	 *
+	 * @return connection ID, or {@code null}, if connection IDs are not
+	 *         issued.
+	 */
+	Bytes newConnectionId() {
+		if (connectionIdLength <= 0) {
+			return null;
+		}
+		while (true) {
+			byte[] cid = new byte[connectionIdLength];
+			random.nextBytes(cid);
+			if (nodeId != null) {
+				cid[0] = (byte) (int) nodeId;
+			}
+			Bytes key = new Bytes(cid);
+			if (!connectionsByCid.containsKey(key)) {
+				return key;
+			}
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for (LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	void clear() {
+		for (LeastRecentlyUsedCache<InetSocketAddress, DTLSConnection> stripe : stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+		connectionsByCid.clear();
+		connectionsBySessionId.clear();
+	}
+
+	private void addToIndexes(DTLSConnection connection) {
+		if (connection.getConnectionId() != null) {
+			connectionsByCid.put(connection.getConnectionId(), connection);
+		}
+	}
+
+	private void removeFromIndexes(DTLSConnection connection) {
+		if (connection.getConnectionId() != null) {
+			connectionsByCid.remove(connection.getConnectionId(), connection);
+		}
+		DTLSSession session = connection.getSession();
+		if (session != null) {
+			connectionsBySessionId.remove(session.getSessionId(), connection);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.auth.PreSharedKeyIdentity;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe {@link PskStore} keeping the keys in memory.
+ */
+public class InMemoryPskStore implements PskStore {
+
+	private final ConcurrentMap<PreSharedKeyIdentity, byte[]> keys = new ConcurrentHashMap<PreSharedKeyIdentity, byte[]>();
+
+	private final ConcurrentMap<InetSocketAddress, PreSharedKeyIdentity> peers = new ConcurrentHashMap<InetSocketAddress, PreSharedKeyIdentity>();
+
+	/**
+	 * Set the key of an identity.
+	 *
+	 * @param identity psk identity
+	 * @param key the key
+	 */
+	public void setKey(String identity, byte[] key) {
+		keys.put(new PreSharedKeyIdentity(identity), Arrays.copyOf(key, key.length));
+	}
+
+	/**
+	 * Set the identity and key used for a server.
+	 *
+	 * @param peerAddress address of the server
+	 * @param identity psk identity
+	 * @param key the key
+	 */
+	public void addKnownPeer(InetSocketAddress peerAddress, String identity, byte[] key) {
+		setKey(identity, key);
+		peers.put(peerAddress, new PreSharedKeyIdentity(identity));
+	}
+
+	@Override
+	public byte[] getKey(PreSharedKeyIdentity identity) {
+		byte[] key = keys.get(identity);
+		return key == null ? null : Arrays.copyOf(key, key.length);
+	}
+
+	@Override
+	public PreSharedKeyIdentity getIdentity(InetSocketAddress peerAddress) {
+		return peers.get(peerAddress);
+	}
+}
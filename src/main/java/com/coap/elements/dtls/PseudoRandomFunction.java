@@ -0,0 +1,62 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.util.StandardCharsets;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * The TLS 1.2 pseudo random function based on HMAC-SHA256, see
+ * <a href="https://tools.ietf.org/html/rfc5246#section-5">RFC 5246, 5. HMAC
+ * and the Pseudorandom Function</a>.
+ */
+final class PseudoRandomFunction {
+
+	static final String MASTER_SECRET_LABEL = "master secret";
+	static final String EXTENDED_MASTER_SECRET_LABEL = "extended master secret";
+	static final String KEY_EXPANSION_LABEL = "key expansion";
+	static final String CLIENT_FINISHED_LABEL = "client finished";
+	static final String SERVER_FINISHED_LABEL = "server finished";
+
+	private PseudoRandomFunction() {
+	}
+
+	/**
+	 * Calculate P_SHA256(secret, label + seed).
+	 *
+	 * @param secret secret
+	 * @param label label
+	 * @param seed seed
+	 * @param length number of bytes to generate
+	 * @return generated bytes
+	 * @throws GeneralSecurityException if HMAC-SHA256 is not available
+	 */
+	static byte[] doPRF(byte[] secret, String label, byte[] seed, int length) throws GeneralSecurityException {
+		Mac hmac = Mac.getInstance("HmacSHA256");
+		hmac.init(new SecretKeySpec(secret, "MAC"));
+		byte[] labelSeed = concat(label.getBytes(StandardCharsets.US_ASCII), seed);
+		byte[] result = new byte[length];
+		// A(1)
+		byte[] a = hmac.doFinal(labelSeed);
+		int offset = 0;
+		while (offset < length) {
+			hmac.update(a);
+			hmac.update(labelSeed);
+			byte[] block = hmac.doFinal();
+			int copy = Math.min(block.length, length - offset);
+			System.arraycopy(block, 0, result, offset, copy);
+			offset += copy;
+			a = hmac.doFinal(a);
+		}
+		Arrays.fill(a, (byte) 0);
+		return result;
+	}
+
+	static byte[] concat(byte[] first, byte[] second) {
+		byte[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+}
@@ -0,0 +1,34 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.auth.PreSharedKeyIdentity;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Store of pre-shared keys for the {@link CipherSuite.KeyExchangeAlgorithm#PSK}
+ * key exchange.
+ */
+public interface PskStore {
+
+	/**
+	 * Get the key of an identity.
+	 *
+	 * Used by the server to look up the key of the identity sent by the
+	 * client, and by the client for its own identity.
+	 *
+	 * @param identity psk identity
+	 * @return the key, or {@code null}, if the identity is unknown.
+	 */
+	byte[] getKey(PreSharedKeyIdentity identity);
+
+	/**
+	 * Get the identity to be used for a peer.
+	 *
+	 * Used by the client.
+	 *
+	 * @param peerAddress address of the server
+	 * @return the identity, or {@code null}, if no identity is available for
+	 *         that peer.
+	 */
+	PreSharedKeyIdentity getIdentity(InetSocketAddress peerAddress);
+}
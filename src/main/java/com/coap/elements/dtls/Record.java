@@ -0,0 +1,128 @@
+package com.coap.elements.dtls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A DTLS 1.2 record, see
+ * <a href="https://tools.ietf.org/html/rfc6347#section-4.1">RFC 6347, 4.1
+ * Record Layer</a>.
+ *
+ * Records with a connection ID use the content type {@link #TLS12_CID} and
+ * carry the connection ID between the sequence number and the length, see
+ * <a href="https://tools.ietf.org/html/rfc9146">RFC 9146</a>.
+ */
+final class Record {
+
+	static final int CHANGE_CIPHER_SPEC = 20;
+	static final int ALERT = 21;
+	static final int HANDSHAKE = 22;
+	static final int APPLICATION_DATA = 23;
+	static final int TLS12_CID = 25;
+
+	static final int VERSION_1_0 = 0xfeff;
+	static final int VERSION_1_2 = 0xfefd;
+
+	/**
+	 * Length of the record header without connection ID.
+	 */
+	static final int HEADER_LENGTH = 13;
+
+	static final long MAX_SEQUENCE_NUMBER = 0xffffffffffffL;
+
+	final int type;
+	final int version;
+	final int epoch;
+	final long sequenceNumber;
+	/**
+	 * Connection ID of {@link #TLS12_CID} records, {@code null} otherwise.
+	 */
+	final byte[] connectionId;
+	final byte[] fragment;
+
+	Record(int type, int version, int epoch, long sequenceNumber, byte[] connectionId, byte[] fragment) {
+		this.type = type;
+		this.version = version;
+		this.epoch = epoch;
+		this.sequenceNumber = sequenceNumber;
+		this.connectionId = connectionId;
+		this.fragment = fragment;
+	}
+
+	/**
+	 * Parse the records of a datagram. Malformed records and all records
+	 * following them are dropped.
+	 *
+	 * @param data datagram
+	 * @param length length of the datagram
+	 * @param connectionIdLength length of the connection IDs this node
+	 *            issues. {@code 0} or less, if connection IDs are not used.
+	 * @return list of records
+	 */
+	static List<Record> fromByteArray(byte[] data, int length, int connectionIdLength) {
+		List<Record> records = new ArrayList<Record>(2);
+		DtlsReader reader = new DtlsReader(data, 0, length);
+		while (reader.remaining() >= HEADER_LENGTH) {
+			int type = reader.readUint8();
+			int version = reader.readUint16();
+			int epoch = reader.readUint16();
+			long sequenceNumber = reader.readLong(6);
+			byte[] connectionId = null;
+			if (type == TLS12_CID) {
+				if (connectionIdLength <= 0 || reader.remaining() < connectionIdLength + 2) {
+					break;
+				}
+				connectionId = reader.readBytes(connectionIdLength);
+			}
+			int fragmentLength = reader.readUint16();
+			if (fragmentLength > reader.remaining()) {
+				break;
+			}
+			byte[] fragment = reader.readBytes(fragmentLength);
+			if (version != VERSION_1_2 && version != VERSION_1_0) {
+				continue;
+			}
+			records.add(new Record(type, version, epoch, sequenceNumber, connectionId, fragment));
+		}
+		return records;
+	}
+
+	/**
+	 * Encode a record.
+	 *
+	 * @param type content type
+	 * @param epoch epoch
+	 * @param sequenceNumber sequence number
+	 * @param connectionId connection ID for {@link #TLS12_CID} records,
+	 *            {@code null} otherwise.
+	 * @param fragment (encrypted) fragment
+	 * @return encoded record
+	 */
+	static byte[] toByteArray(int type, int epoch, long sequenceNumber, byte[] connectionId, byte[] fragment) {
+		int cidLength = connectionId == null ? 0 : connectionId.length;
+		byte[] record = new byte[HEADER_LENGTH + cidLength + fragment.length];
+		int index = 0;
+		record[index++] = (byte) type;
+		record[index++] = (byte) (VERSION_1_2 >> 8);
+		record[index++] = (byte) VERSION_1_2;
+		record[index++] = (byte) (epoch >> 8);
+		record[index++] = (byte) epoch;
+		for (int shift = 40; shift >= 0; shift -= 8) {
+			record[index++] = (byte) (sequenceNumber >> shift);
+		}
+		if (cidLength > 0) {
+			System.arraycopy(connectionId, 0, record, index, cidLength);
+			index += cidLength;
+		}
+		record[index++] = (byte) (fragment.length >> 8);
+		record[index++] = (byte) fragment.length;
+		System.arraycopy(fragment, 0, record, index, fragment.length);
+		return record;
+	}
+
+	@Override
+	public String toString() {
+		return "Record(type " + type + ", epoch " + epoch + ", seqn " + sequenceNumber + ", " + fragment.length
+				+ " bytes)";
+	}
+}
@@ -0,0 +1,147 @@
+package com.coap.elements.dtls;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * AES-CCM protection of the records of one direction and epoch, see
+ * <a href="https://tools.ietf.org/html/rfc6655#section-3">RFC 6655, 3. CCM
+ * Cipher Suites</a>.
+ *
+ * Not thread safe, the callers serialize the access per connection.
+ */
+final class RecordCipher {
+
+	private final CCMBlockCipher cipher;
+
+	/**
+	 * Implicit part of the nonce.
+	 */
+	private final byte[] fixedIv;
+
+	RecordCipher(byte[] key, byte[] fixedIv) throws GeneralSecurityException {
+		this.cipher = new CCMBlockCipher(new SecretKeySpec(key, "AES"), CipherSuite.MAC_LENGTH);
+		this.fixedIv = fixedIv;
+	}
+
+	/**
+	 * Encrypt the content of a record.
+	 *
+	 * @param type content type
+	 * @param epoch epoch
+	 * @param sequenceNumber sequence number
+	 * @param connectionId connection ID of the peer. If not {@code null}, the
+	 *            content is encrypted for a {@link Record#TLS12_CID} record.
+	 * @param content content to encrypt
+	 * @return explicit nonce, followed by the encrypted content and the
+	 *         authentication tag
+	 * @throws GeneralSecurityException if the encryption fails
+	 */
+	byte[] encrypt(int type, int epoch, long sequenceNumber, byte[] connectionId, byte[] content)
+			throws GeneralSecurityException {
+		byte[] explicitNonce = explicitNonce(epoch, sequenceNumber);
+		byte[] additionalData;
+		byte[] plaintext;
+		if (connectionId != null) {
+			plaintext = Arrays.copyOf(content, content.length + 1);
+			plaintext[content.length] = (byte) type;
+			additionalData = additionalDataCid(epoch, sequenceNumber, connectionId, plaintext.length);
+		} else {
+			plaintext = content;
+			additionalData = additionalData(type, explicitNonce, plaintext.length);
+		}
+		byte[] ciphertext = cipher.encrypt(nonce(explicitNonce), additionalData, plaintext);
+		return PseudoRandomFunction.concat(explicitNonce, ciphertext);
+	}
+
+	/**
+	 * Decrypt a record.
+	 *
+	 * @param record encrypted record
+	 * @return decrypted record with the real content type
+	 * @throws GeneralSecurityException if the record could not be decrypted
+	 */
+	Record decrypt(Record record) throws GeneralSecurityException {
+		if (record.fragment.length < CipherSuite.RECORD_IV_LENGTH + CipherSuite.MAC_LENGTH) {
+			throw new GeneralSecurityException("record too short!");
+		}
+		byte[] explicitNonce = Arrays.copyOf(record.fragment, CipherSuite.RECORD_IV_LENGTH);
+		byte[] ciphertext = Arrays.copyOfRange(record.fragment, CipherSuite.RECORD_IV_LENGTH, record.fragment.length);
+		int plaintextLength = ciphertext.length - CipherSuite.MAC_LENGTH;
+		if (record.type == Record.TLS12_CID) {
+			byte[] additionalData = additionalDataCid(record.epoch, record.sequenceNumber, record.connectionId,
+					plaintextLength);
+			byte[] innerPlaintext = cipher.decrypt(nonce(explicitNonce), additionalData, ciphertext);
+			// strip padding, the last none zero byte is the content type
+			int index = innerPlaintext.length - 1;
+			while (index >= 0 && innerPlaintext[index] == 0) {
+				--index;
+			}
+			if (index < 0) {
+				throw new GeneralSecurityException("missing content type!");
+			}
+			return new Record(innerPlaintext[index] & 0xff, record.version, record.epoch, record.sequenceNumber,
+					record.connectionId, Arrays.copyOf(innerPlaintext, index));
+		} else {
+			byte[] sequence = explicitNonce(record.epoch, record.sequenceNumber);
+			byte[] additionalData = additionalData(record.type, sequence, plaintextLength);
+			byte[] plaintext = cipher.decrypt(nonce(explicitNonce), additionalData, ciphertext);
+			return new Record(record.type, record.version, record.epoch, record.sequenceNumber, null, plaintext);
+		}
+	}
+
+	private byte[] nonce(byte[] explicitNonce) {
+		return PseudoRandomFunction.concat(fixedIv, explicitNonce);
+	}
+
+	private static byte[] explicitNonce(int epoch, long sequenceNumber) {
+		byte[] nonce = new byte[CipherSuite.RECORD_IV_LENGTH];
+		long value = ((long) epoch << 48) | sequenceNumber;
+		for (int index = 7; index >= 0; --index, value >>>= 8) {
+			nonce[index] = (byte) value;
+		}
+		return nonce;
+	}
+
+	/**
+	 * Additional data, see
+	 * <a href="https://tools.ietf.org/html/rfc5246#section-6.2.3.3">RFC 5246,
+	 * 6.2.3.3</a>.
+	 */
+	private static byte[] additionalData(int type, byte[] epochAndSequence, int length) {
+		byte[] data = Arrays.copyOf(epochAndSequence, 13);
+		data[8] = (byte) type;
+		data[9] = (byte) (Record.VERSION_1_2 >> 8);
+		data[10] = (byte) Record.VERSION_1_2;
+		data[11] = (byte) (length >> 8);
+		data[12] = (byte) length;
+		return data;
+	}
+
+	/**
+	 * Additional data for records with connection ID, see
+	 * <a href="https://tools.ietf.org/html/rfc9146#section-5">RFC 9146, 5.
+	 * Record Payload Protection</a>.
+	 */
+	private static byte[] additionalDataCid(int epoch, long sequenceNumber, byte[] connectionId, int length) {
+		byte[] data = new byte[8 + 3 + 2 + 8 + connectionId.length + 2];
+		int index = 0;
+		while (index < 8) {
+			data[index++] = (byte) 0xff;
+		}
+		data[index++] = Record.TLS12_CID;
+		data[index++] = (byte) connectionId.length;
+		data[index++] = Record.TLS12_CID;
+		data[index++] = (byte) (Record.VERSION_1_2 >> 8);
+		data[index++] = (byte) Record.VERSION_1_2;
+		byte[] sequence = explicitNonce(epoch, sequenceNumber);
+		System.arraycopy(sequence, 0, data, index, sequence.length);
+		index += sequence.length;
+		System.arraycopy(connectionId, 0, data, index, connectionId.length);
+		index += connectionId.length;
+		data[index++] = (byte) (length >> 8);
+		data[index] = (byte) length;
+		return data;
+	}
+}
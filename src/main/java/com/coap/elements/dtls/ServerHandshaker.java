@@ -0,0 +1,423 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.auth.PreSharedKeyIdentity;
+import com.coap.elements.auth.RawPublicKeyIdentity;
+import com.coap.elements.util.Bytes;
+import com.coap.elements.util.ClockUtil;
+import com.coap.elements.util.DatagramWriter;
+import com.coap.elements.util.StandardCharsets;
+
+import java.security.GeneralSecurityException;
+import java.security.Principal;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server side of a DTLS 1.2 handshake.
+ *
+ * Created by the {@link DTLSConnector} for a CLIENT_HELLO with a valid
+ * cookie. Resumes the session requested by the client, if it's still
+ * available, otherwise executes a full handshake.
+ */
+final class ServerHandshaker extends Handshaker {
+
+	private enum State {
+		CLIENT_CERTIFICATE, CLIENT_KEY_EXCHANGE, CERTIFICATE_VERIFY, FINISHED, RESUMED_FINISHED
+	}
+
+	/**
+	 * Certificate type ecdsa_sign of the CERTIFICATE_REQUEST.
+	 */
+	private static final int ECDSA_SIGN = 64;
+
+	private final ClientHello clientHello;
+
+	/**
+	 * Session requested by the client for resumption. {@code null}, if not
+	 * available.
+	 */
+	private final DTLSSession resumableSession;
+
+	private State state;
+
+	private DTLSSession session;
+
+	private byte[] sessionId;
+
+	private ECDHECryptography ecdhe;
+
+	private boolean certificateRequested;
+
+	private RawPublicKeyIdentity clientPublicKey;
+
+	private Principal peerIdentity;
+
+	/**
+	 * Create server handshaker.
+	 *
+	 * @param connector connector
+	 * @param connection new connection
+	 * @param clientHello CLIENT_HELLO with valid cookie
+	 * @param resumableSession session requested by the client, {@code null},
+	 *            if not available.
+	 */
+	ServerHandshaker(DTLSConnector connector, DTLSConnection connection, ClientHello clientHello,
+			DTLSSession resumableSession) {
+		super(connector, connection);
+		this.clientHello = clientHello;
+		this.resumableSession = resumableSession;
+	}
+
+	@Override
+	boolean isClient() {
+		return false;
+	}
+
+	/**
+	 * Check, if the provided CLIENT_HELLO is a retransmission of the one,
+	 * which started this handshake.
+	 *
+	 * @param hello received CLIENT_HELLO
+	 * @return {@code true}, if it's a retransmission, {@code false},
+	 *         otherwise.
+	 */
+	boolean isSameClientHello(ClientHello hello) {
+		return Arrays.equals(clientHello.random, hello.random);
+	}
+
+	/**
+	 * Start the handshake by answering the CLIENT_HELLO.
+	 *
+	 * The first message of the server uses the message sequence number of
+	 * the CLIENT_HELLO and the first record the record sequence number of the
+	 * CLIENT_HELLO, see
+	 * <a href="https://tools.ietf.org/html/rfc6347#section-4.2.2">RFC 6347,
+	 * 4.2.2</a>.
+	 *
+	 * @param messageSeq message sequence number of the CLIENT_HELLO
+	 * @param recordSequenceNumber record sequence number of the CLIENT_HELLO
+	 * @param body encoded CLIENT_HELLO
+	 */
+	void start(int messageSeq, long recordSequenceNumber, byte[] body) {
+		setReceivedMessageSeq(messageSeq);
+		nextSendMessageSeq = messageSeq;
+		sequenceNumbers[0] = recordSequenceNumber;
+		addToTranscript(HandshakeMessage.CLIENT_HELLO, messageSeq, body);
+		clientRandom = clientHello.random;
+		try {
+			if (clientHello.version > Record.VERSION_1_2) {
+				// DTLS versions are counted down, 1.0 is larger than 1.2
+				throw new HandshakeException("client version " + Integer.toHexString(clientHello.version)
+						+ " not supported!", Alert.HANDSHAKE_FAILURE);
+			}
+			boolean compression = false;
+			for (byte method : clientHello.compressionMethods) {
+				compression |= method == 0;
+			}
+			if (!compression) {
+				throw new HandshakeException("null compression not offered!", Alert.HANDSHAKE_FAILURE);
+			}
+			extendedMasterSecret = clientHello.extensions.containsKey(HelloExtensions.EXTENDED_MASTER_SECRET);
+			if (config.getConnectionIdLength() != null) {
+				byte[] cid = clientHello.extensions.get(HelloExtensions.CONNECTION_ID);
+				if (cid != null) {
+					peerConnectionId = new DtlsReader(cid).readVector(1);
+				}
+			}
+			if (resumableSession != null && clientHello.hasCipherSuite(resumableSession.getCipherSuite().getCode())
+					&& config.getSupportedCipherSuites().contains(resumableSession.getCipherSuite())
+					&& resumableSession.useExtendedMasterSecret() == extendedMasterSecret) {
+				resume();
+			} else {
+				negotiate();
+				sendServerHelloFlight();
+			}
+		} catch (HandshakeException e) {
+			fail(e);
+		} catch (IllegalArgumentException e) {
+			fail(new HandshakeException(e.getMessage(), Alert.DECODE_ERROR, e));
+		} catch (GeneralSecurityException e) {
+			fail(new HandshakeException(e.getMessage(), Alert.INTERNAL_ERROR, e));
+		}
+	}
+
+	/**
+	 * Select the cipher suite in the order of the server's preference.
+	 */
+	private void negotiate() throws HandshakeException {
+		for (CipherSuite suite : config.getSupportedCipherSuites()) {
+			if (!clientHello.hasCipherSuite(suite.getCode())) {
+				continue;
+			}
+			if (suite.getKeyExchange() == CipherSuite.KeyExchangeAlgorithm.PSK) {
+				cipherSuite = suite;
+				return;
+			}
+			if (config.getPrivateKey() == null || !supportsSecp256r1()
+					|| !offers(HelloExtensions.SERVER_CERTIFICATE_TYPE)) {
+				continue;
+			}
+			boolean clientRpk = offers(HelloExtensions.CLIENT_CERTIFICATE_TYPE);
+			if (config.isClientAuthenticationRequired()) {
+				if (!clientRpk) {
+					continue;
+				}
+				certificateRequested = true;
+			} else {
+				certificateRequested = config.isClientAuthenticationWanted() && clientRpk;
+			}
+			cipherSuite = suite;
+			return;
+		}
+		throw new HandshakeException("no common cipher suite!", Alert.HANDSHAKE_FAILURE);
+	}
+
+	private boolean supportsSecp256r1() {
+		byte[] groups = clientHello.extensions.get(HelloExtensions.SUPPORTED_GROUPS);
+		if (groups == null) {
+			// no preference of the client
+			return true;
+		}
+		DtlsReader reader = new DtlsReader(new DtlsReader(groups).readVector(2));
+		while (reader.remaining() > 0) {
+			if (reader.readUint16() == ECDHECryptography.NAMED_CURVE_SECP256R1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check, if the client offers raw public keys for a certificate type
+	 * extension. Without extension, the client supports X.509 only.
+	 *
+	 * @param extension certificate type extension
+	 * @return {@code true}, if raw public keys are offered.
+	 */
+	private boolean offers(int extension) {
+		byte[] types = clientHello.extensions.get(extension);
+		if (types == null) {
+			return false;
+		}
+		for (byte type : new DtlsReader(types).readVector(1)) {
+			if (type == HelloExtensions.CERTIFICATE_TYPE_RAW_PUBLIC_KEY) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Map<Integer, byte[]> createServerHelloExtensions() {
+		Map<Integer, byte[]> extensions = new LinkedHashMap<Integer, byte[]>();
+		if (clientHello.extensions.containsKey(HelloExtensions.RENEGOTIATION_INFO)
+				|| clientHello.hasCipherSuite(HelloExtensions.EMPTY_RENEGOTIATION_INFO_SCSV)) {
+			extensions.put(HelloExtensions.RENEGOTIATION_INFO, new byte[] { 0 });
+		}
+		if (extendedMasterSecret) {
+			extensions.put(HelloExtensions.EXTENDED_MASTER_SECRET, Bytes.EMPTY);
+		}
+		if (cipherSuite.getKeyExchange() == CipherSuite.KeyExchangeAlgorithm.ECDHE_ECDSA) {
+			if (clientHello.extensions.containsKey(HelloExtensions.EC_POINT_FORMATS)) {
+				extensions.put(HelloExtensions.EC_POINT_FORMATS, new byte[] { 1,
+						(byte) ECDHECryptography.POINT_FORMAT_UNCOMPRESSED });
+			}
+			if (certificateRequested) {
+				extensions.put(HelloExtensions.CLIENT_CERTIFICATE_TYPE,
+						new byte[] { (byte) HelloExtensions.CERTIFICATE_TYPE_RAW_PUBLIC_KEY });
+			}
+			extensions.put(HelloExtensions.SERVER_CERTIFICATE_TYPE,
+					new byte[] { (byte) HelloExtensions.CERTIFICATE_TYPE_RAW_PUBLIC_KEY });
+		}
+		if (peerConnectionId != null) {
+			extensions.put(HelloExtensions.CONNECTION_ID,
+					ClientHandshaker.encodeConnectionId(connection.getConnectionId()));
+		}
+		return extensions;
+	}
+
+	private FlightEntry createServerHello() {
+		serverRandom = createRandom();
+		ServerHello serverHello = new ServerHello(Record.VERSION_1_2, serverRandom, sessionId, cipherSuite.getCode(),
+				0, createServerHelloExtensions());
+		return createMessage(HandshakeMessage.SERVER_HELLO, serverHello.toByteArray(), false);
+	}
+
+	/**
+	 * Send the flight of a full handshake, see
+	 * <a href="https://tools.ietf.org/html/rfc5246#section-7.3">RFC 5246, 7.3
+	 * Handshake Protocol Overview</a>.
+	 */
+	private void sendServerHelloFlight() throws GeneralSecurityException {
+		sessionId = createRandom();
+		List<FlightEntry> flight = new ArrayList<FlightEntry>(5);
+		flight.add(createServerHello());
+		if (cipherSuite.getKeyExchange() == CipherSuite.KeyExchangeAlgorithm.ECDHE_ECDSA) {
+			flight.add(createMessage(HandshakeMessage.CERTIFICATE,
+					ClientHandshaker.encodeRawPublicKey(config.getPublicKey().getEncoded()), false));
+			ecdhe = new ECDHECryptography();
+			byte[] point = ecdhe.getEncodedPoint();
+			DatagramWriter params = new DatagramWriter();
+			params.write(ECDHECryptography.CURVE_TYPE_NAMED_CURVE, 8);
+			params.write(ECDHECryptography.NAMED_CURVE_SECP256R1, 16);
+			params.write(point.length, 8);
+			params.writeBytes(point);
+			byte[] encodedParams = params.toByteArray();
+			Signature signer = Signature.getInstance("SHA256withECDSA");
+			signer.initSign(config.getPrivateKey());
+			signer.update(clientRandom);
+			signer.update(serverRandom);
+			signer.update(encodedParams);
+			byte[] signature = signer.sign();
+			DatagramWriter writer = new DatagramWriter();
+			writer.writeBytes(encodedParams);
+			writer.write(HelloExtensions.SHA256_WITH_ECDSA, 16);
+			writer.write(signature.length, 16);
+			writer.writeBytes(signature);
+			flight.add(createMessage(HandshakeMessage.SERVER_KEY_EXCHANGE, writer.toByteArray(), false));
+			if (certificateRequested) {
+				writer = new DatagramWriter();
+				writer.write(1, 8);
+				writer.write(ECDSA_SIGN, 8);
+				writer.write(2, 16);
+				writer.write(HelloExtensions.SHA256_WITH_ECDSA, 16);
+				// no certificate authorities
+				writer.write(0, 16);
+				flight.add(createMessage(HandshakeMessage.CERTIFICATE_REQUEST, writer.toByteArray(), false));
+				state = State.CLIENT_CERTIFICATE;
+			} else {
+				state = State.CLIENT_KEY_EXCHANGE;
+			}
+		} else {
+			state = State.CLIENT_KEY_EXCHANGE;
+		}
+		flight.add(createMessage(HandshakeMessage.SERVER_HELLO_DONE, Bytes.EMPTY, false));
+		sendFlight(flight, false);
+	}
+
+	/**
+	 * Send the flight of an abbreviated handshake, see
+	 * <a href="https://tools.ietf.org/html/rfc5246#section-7.3">RFC 5246, 7.3
+	 * Handshake Protocol Overview</a>.
+	 */
+	private void resume() throws HandshakeException, GeneralSecurityException {
+		session = resumableSession;
+		cipherSuite = session.getCipherSuite();
+		sessionId = session.getSessionId().getBytes();
+		masterSecret = session.getMasterSecret();
+		List<FlightEntry> flight = new ArrayList<FlightEntry>(3);
+		flight.add(createServerHello());
+		deriveKeys();
+		flight.add(createChangeCipherSpec());
+		flight.add(createFinished());
+		state = State.RESUMED_FINISHED;
+		sendFlight(flight, false);
+	}
+
+	@Override
+	protected void handleMessage(int type, int messageSeq, byte[] body, boolean encrypted)
+			throws HandshakeException, GeneralSecurityException {
+		if (encrypted != (type == HandshakeMessage.FINISHED)) {
+			throw new HandshakeException("unexpected epoch for message " + type + "!", Alert.UNEXPECTED_MESSAGE);
+		}
+		switch (type) {
+		case HandshakeMessage.CERTIFICATE:
+			expect(State.CLIENT_CERTIFICATE, type);
+			addToTranscript(type, messageSeq, body);
+			receiveClientCertificate(body);
+			break;
+		case HandshakeMessage.CLIENT_KEY_EXCHANGE:
+			expect(State.CLIENT_KEY_EXCHANGE, type);
+			addToTranscript(type, messageSeq, body);
+			receiveClientKeyExchange(body);
+			break;
+		case HandshakeMessage.CERTIFICATE_VERIFY:
+			expect(State.CERTIFICATE_VERIFY, type);
+			receiveCertificateVerify(body);
+			addToTranscript(type, messageSeq, body);
+			state = State.FINISHED;
+			break;
+		case HandshakeMessage.FINISHED:
+			if (state == State.RESUMED_FINISHED) {
+				verifyFinished(messageSeq, body, encrypted);
+				complete(session, null);
+			} else {
+				expect(State.FINISHED, type);
+				verifyFinished(messageSeq, body, encrypted);
+				List<FlightEntry> flight = new ArrayList<FlightEntry>(2);
+				flight.add(createChangeCipherSpec());
+				flight.add(createFinished());
+				List<byte[]> lastFlight = sendFlight(flight, true);
+				complete(new DTLSSession(new Bytes(sessionId), cipherSuite, masterSecret, extendedMasterSecret,
+						peerIdentity, TimeUnit.NANOSECONDS.toMillis(ClockUtil.nanoRealtime())), lastFlight);
+			}
+			break;
+		default:
+			throw new HandshakeException("unexpected message " + type + "!", Alert.UNEXPECTED_MESSAGE);
+		}
+	}
+
+	private void expect(State expected, int type) throws HandshakeException {
+		if (state != expected) {
+			throw new HandshakeException("unexpected message " + type + " in state " + state + "!",
+					Alert.UNEXPECTED_MESSAGE);
+		}
+	}
+
+	private void receiveClientCertificate(byte[] body) throws HandshakeException {
+		clientPublicKey = ClientHandshaker.readRawPublicKey(body);
+		if (clientPublicKey == null) {
+			if (config.isClientAuthenticationRequired()) {
+				throw new HandshakeException("client authentication required!", Alert.HANDSHAKE_FAILURE);
+			}
+		} else if (!config.getRpkTrustStore().isTrusted(clientPublicKey)) {
+			throw new HandshakeException("client raw public key not trusted!", Alert.BAD_CERTIFICATE);
+		}
+		state = State.CLIENT_KEY_EXCHANGE;
+	}
+
+	private void receiveClientKeyExchange(byte[] body) throws HandshakeException, GeneralSecurityException {
+		DtlsReader reader = new DtlsReader(body);
+		byte[] premasterSecret;
+		if (cipherSuite.getKeyExchange() == CipherSuite.KeyExchangeAlgorithm.PSK) {
+			String name = new String(reader.readVector(2), StandardCharsets.UTF_8);
+			PreSharedKeyIdentity identity = new PreSharedKeyIdentity(name);
+			byte[] psk = config.getPskStore().getKey(identity);
+			if (psk == null) {
+				throw new HandshakeException("unknown psk identity " + name + "!", Alert.UNKNOWN_PSK_IDENTITY);
+			}
+			peerIdentity = identity;
+			premasterSecret = createPskPremasterSecret(psk);
+		} else {
+			try {
+				premasterSecret = ecdhe.generateSecret(reader.readVector(1));
+			} catch (GeneralSecurityException e) {
+				throw new HandshakeException(e.getMessage(), Alert.ILLEGAL_PARAMETER, e);
+			}
+			ecdhe = null;
+		}
+		generateMasterSecret(premasterSecret);
+		deriveKeys();
+		state = clientPublicKey != null ? State.CERTIFICATE_VERIFY : State.FINISHED;
+	}
+
+	private void receiveCertificateVerify(byte[] body) throws HandshakeException, GeneralSecurityException {
+		DtlsReader reader = new DtlsReader(body);
+		int algorithm = reader.readUint16();
+		byte[] signature = reader.readVector(2);
+		if (algorithm != HelloExtensions.SHA256_WITH_ECDSA) {
+			throw new HandshakeException("signature algorithm not supported!", Alert.HANDSHAKE_FAILURE);
+		}
+		Signature verifier = Signature.getInstance("SHA256withECDSA");
+		verifier.initVerify(clientPublicKey.getKey());
+		verifier.update(getTranscript());
+		if (!verifier.verify(signature)) {
+			throw new HandshakeException("CERTIFICATE_VERIFY signature invalid!", Alert.DECRYPT_ERROR);
+		}
+		peerIdentity = clientPublicKey;
+	}
+}
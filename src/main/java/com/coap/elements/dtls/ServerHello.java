@@ -0,0 +1,60 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.util.DatagramWriter;
+
+import java.util.Map;
+
+/**
+ * ServerHello message, see
+ * <a href="https://tools.ietf.org/html/rfc5246#section-7.4.1.3">RFC 5246,
+ * 7.4.1.3 Server Hello</a>.
+ */
+final class ServerHello {
+
+	final int version;
+	final byte[] random;
+	final byte[] sessionId;
+	final int cipherSuite;
+	final int compressionMethod;
+	final Map<Integer, byte[]> extensions;
+
+	ServerHello(int version, byte[] random, byte[] sessionId, int cipherSuite, int compressionMethod,
+			Map<Integer, byte[]> extensions) {
+		this.version = version;
+		this.random = random;
+		this.sessionId = sessionId;
+		this.cipherSuite = cipherSuite;
+		this.compressionMethod = compressionMethod;
+		this.extensions = extensions;
+	}
+
+	/**
+	 * Parse a server hello.
+	 *
+	 * @param body message body
+	 * @return parsed server hello
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	static ServerHello fromByteArray(byte[] body) {
+		DtlsReader reader = new DtlsReader(body);
+		int version = reader.readUint16();
+		byte[] random = reader.readBytes(32);
+		byte[] sessionId = reader.readVector(1);
+		int cipherSuite = reader.readUint16();
+		int compressionMethod = reader.readUint8();
+		Map<Integer, byte[]> extensions = HelloExtensions.read(reader);
+		return new ServerHello(version, random, sessionId, cipherSuite, compressionMethod, extensions);
+	}
+
+	byte[] toByteArray() {
+		DatagramWriter writer = new DatagramWriter();
+		writer.write(version, 16);
+		writer.writeBytes(random);
+		writer.write(sessionId.length, 8);
+		writer.writeBytes(sessionId);
+		writer.write(cipherSuite, 16);
+		writer.write(compressionMethod, 8);
+		HelloExtensions.write(writer, extensions);
+		return writer.toByteArray();
+	}
+}
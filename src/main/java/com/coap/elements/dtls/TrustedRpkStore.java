@@ -0,0 +1,18 @@
+package com.coap.elements.dtls;
+
+import com.coap.elements.auth.RawPublicKeyIdentity;
+
+/**
+ * Store of trusted raw public keys for the
+ * {@link CipherSuite.KeyExchangeAlgorithm#ECDHE_ECDSA} key exchange.
+ */
+public interface TrustedRpkStore {
+
+	/**
+	 * Check, if the raw public key of a peer is trusted.
+	 *
+	 * @param identity raw public key of the peer
+	 * @return {@code true}, if trusted, {@code false}, otherwise.
+	 */
+	boolean isTrusted(RawPublicKeyIdentity identity);
+}
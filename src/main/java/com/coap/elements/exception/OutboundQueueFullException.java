@@ -0,0 +1,26 @@
+package com.coap.elements.exception;
+
+/**
+ * Exception indicating, that a message was dropped, because the outbound
+ * queue of the connector has reached its capacity.
+ */
+public class OutboundQueueFullException extends ConnectorException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Create new instance.
+	 */
+	public OutboundQueueFullException() {
+		super();
+	}
+
+	/**
+	 * Create new instance with message.
+	 * 
+	 * @param message message
+	 */
+	public OutboundQueueFullException(String message) {
+		super(message);
+	}
+}
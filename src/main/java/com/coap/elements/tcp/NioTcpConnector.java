@@ -0,0 +1,498 @@
+package com.coap.elements.tcp;
+
+import com.coap.elements.Connector;
+import com.coap.elements.EndpointContext;
+import com.coap.elements.EndpointContextMatcher;
+import com.coap.elements.RawData;
+import com.coap.elements.RawDataChannel;
+import com.coap.elements.util.ClockUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for CoAP over TCP connectors using non-blocking
+ * {@link SocketChannel}s.
+ *
+ * The connections are distributed round-robin over a fixed number of worker
+ * threads. Each worker runs its own {@link Selector} loop and executes all
+ * reads, writes and timeout checks of its connections, so a few threads
+ * serve a large number of connections. {@link #send(RawData)} only adds the
+ * message to the write queue of the connection and wakes up the worker.
+ *
+ * Received data is split into messages by a {@link TcpFramer}. The messages
+ * are passed to the {@link RawDataChannel} directly from the worker's thread.
+ *
+ * Connections idle for longer than the idle timeout are closed by the
+ * workers.
+ */
+public abstract class NioTcpConnector implements Connector {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NioTcpConnector.class.getName());
+
+	static final ThreadGroup TCP_THREAD_GROUP = new ThreadGroup("Californium/TCP"); //$NON-NLS-1$
+
+	/**
+	 * Maximum time in milliseconds a worker blocks in select. Limits the
+	 * latency of the timeout checks.
+	 */
+	private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+	/**
+	 * Interval of the timeout checks in nanoseconds.
+	 */
+	private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	protected final int numberOfThreads;
+
+	/**
+	 * Idle timeout in nanoseconds. {@code 0} to disable it.
+	 */
+	protected final long idleTimeoutNanos;
+
+	/**
+	 * Timeout for establishing a connection in nanoseconds.
+	 */
+	protected final long connectTimeoutNanos;
+
+	/**
+	 * Connections by peer address.
+	 */
+	private final ConcurrentMap<InetSocketAddress, TcpConnection> connections = new ConcurrentHashMap<InetSocketAddress, TcpConnection>();
+
+	private final AtomicInteger nextWorker = new AtomicInteger();
+
+	private final String connectionIdPrefix;
+
+	private final AtomicLong connectionCounter = new AtomicLong();
+
+	private volatile int maxFrameSize = TcpFramer.DEFAULT_MAX_FRAME_SIZE;
+
+	private volatile RawDataChannel receiver;
+
+	private volatile EndpointContextMatcher endpointContextMatcher;
+
+	private Worker[] workers;
+
+	protected volatile boolean running;
+
+	/**
+	 * Create connector.
+	 *
+	 * @param numberOfThreads number of worker threads
+	 * @param connectTimeoutMillis timeout for establishing a connection in
+	 *            milliseconds
+	 * @param idleTimeoutSeconds idle timeout in seconds. {@code 0} to disable
+	 *            it.
+	 * @throws IllegalArgumentException if numberOfThreads is less than
+	 *             {@code 1}
+	 */
+	protected NioTcpConnector(int numberOfThreads, int connectTimeoutMillis, int idleTimeoutSeconds) {
+		if (numberOfThreads < 1) {
+			throw new IllegalArgumentException("number of threads " + numberOfThreads + " must be at least 1!");
+		}
+		this.numberOfThreads = numberOfThreads;
+		this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+		this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(0, idleTimeoutSeconds));
+		byte[] prefix = new byte[4];
+		new SecureRandom().nextBytes(prefix);
+		StringBuilder builder = new StringBuilder();
+		for (byte b : prefix) {
+			builder.append(String.format("%02x", b & 0xff));
+		}
+		this.connectionIdPrefix = builder.toString();
+	}
+
+	/**
+	 * Set the maximum size of received frames. Connections receiving larger
+	 * frames are closed.
+	 *
+	 * @param maxFrameSize maximum frame size in bytes
+	 */
+	public void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+
+	@Override
+	public void start() throws IOException {
+		synchronized (this) {
+			if (running) {
+				return;
+			}
+			Worker[] workers = new Worker[numberOfThreads];
+			try {
+				for (int index = 0; index < numberOfThreads; ++index) {
+					workers[index] = new Worker("TCP-Worker-" + getAddress() + "#" + index);
+				}
+			} catch (IOException ex) {
+				for (Worker worker : workers) {
+					if (worker != null) {
+						worker.selector.close();
+					}
+				}
+				throw ex;
+			}
+			this.workers = workers;
+			running = true;
+			for (Worker worker : workers) {
+				worker.start();
+			}
+		}
+		try {
+			onStart();
+		} catch (IOException ex) {
+			stop();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Called, after the workers are started.
+	 *
+	 * @throws IOException if an i/o error occurred
+	 */
+	protected void onStart() throws IOException {
+	}
+
+	/**
+	 * Called, before the connections are closed on stop.
+	 */
+	protected void onStop() {
+	}
+
+	@Override
+	public void stop() {
+		Worker[] workers;
+		synchronized (this) {
+			if (!running) {
+				return;
+			}
+			running = false;
+			workers = this.workers;
+			this.workers = null;
+		}
+		onStop();
+		for (Worker worker : workers) {
+			worker.selector.wakeup();
+		}
+		IOException cause = new InterruptedIOException("connector stopped!");
+		for (TcpConnection connection : connections.values()) {
+			connection.close(cause);
+		}
+		for (Worker worker : workers) {
+			try {
+				worker.join(SELECT_TIMEOUT_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		stop();
+	}
+
+	@Override
+	public void send(RawData msg) {
+		if (msg == null) {
+			throw new NullPointerException("Message must not be null");
+		}
+		if (!running) {
+			msg.onError(new InterruptedIOException("Connector is not running."));
+			return;
+		}
+		if (msg.isMulticast()) {
+			msg.onError(new IOException("TCP doesn't support multicast!"));
+			return;
+		}
+		TcpConnection connection = getConnection(msg);
+		if (connection != null) {
+			connection.enqueue(msg);
+		}
+	}
+
+	/**
+	 * Get connection for outgoing message.
+	 *
+	 * @param msg outgoing message
+	 * @return connection, or {@code null}, if no connection is available. In
+	 *         that case the implementation must report the error to the
+	 *         message.
+	 */
+	abstract TcpConnection getConnection(RawData msg);
+
+	@Override
+	public void setRawDataReceiver(RawDataChannel messageHandler) {
+		this.receiver = messageHandler;
+	}
+
+	@Override
+	public void setEndpointContextMatcher(EndpointContextMatcher matcher) {
+		this.endpointContextMatcher = matcher;
+	}
+
+	@Override
+	public String getProtocol() {
+		return "TCP";
+	}
+
+	@Override
+	public String toString() {
+		return getProtocol() + "-" + getAddress();
+	}
+
+	/**
+	 * Get number of current connections.
+	 *
+	 * @return number of connections
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	TcpConnection lookupConnection(InetSocketAddress peer) {
+		return connections.get(peer);
+	}
+
+	/**
+	 * Create and register a connection for the provided channel.
+	 *
+	 * @param channel connected or connecting channel
+	 * @param peer address of the peer
+	 * @param client {@code true}, for client connections, {@code false}, for
+	 *            accepted connections.
+	 * @return the connection, or an already existing connection to that peer
+	 * @throws IOException if an i/o error occurred
+	 */
+	TcpConnection addConnection(final SocketChannel channel, InetSocketAddress peer, boolean client)
+			throws IOException {
+		Worker[] workers = this.workers;
+		if (workers == null) {
+			throw new InterruptedIOException("connector stopped!");
+		}
+		channel.configureBlocking(false);
+		final boolean connecting = client && !channel.isConnected();
+		final Worker worker = workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+		final TcpConnection connection = createConnection(worker, channel, peer,
+				connectionIdPrefix + Long.toHexString(connectionCounter.incrementAndGet()), client);
+		TcpConnection previous = connections.putIfAbsent(peer, connection);
+		if (previous != null) {
+			if (client) {
+				return previous;
+			}
+			// new connection from the same peer address replaces stale one
+			previous.close(new IOException("connection replaced!"));
+			connections.put(peer, connection);
+		}
+		worker.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				worker.register(connection, connecting);
+			}
+		});
+		return connection;
+	}
+
+	/**
+	 * Create connection. Subclasses may override this to provide a
+	 * connection transforming the byte stream.
+	 *
+	 * @param worker worker to execute the connection's i/o
+	 * @param channel channel of the connection
+	 * @param peer address of the peer
+	 * @param connectionId id of the connection
+	 * @param client {@code true}, for client connections, {@code false}, for
+	 *            accepted connections.
+	 * @return created connection
+	 */
+	TcpConnection createConnection(Worker worker, SocketChannel channel, InetSocketAddress peer,
+			String connectionId, boolean client) {
+		return new TcpConnection(this, worker, channel, peer, connectionId, client);
+	}
+
+	void remove(TcpConnection connection) {
+		connections.remove(connection.getPeerAddress(), connection);
+	}
+
+	boolean isToBeSent(RawData msg, EndpointContext connectionContext) {
+		EndpointContextMatcher matcher = endpointContextMatcher;
+		if (matcher != null && !matcher.isToBeSent(msg.getEndpointContext(), connectionContext)) {
+			LOGGER.warn("{} drops {} bytes to {}", this, msg.getSize(), msg.getInetSocketAddress());
+			return false;
+		}
+		return true;
+	}
+
+	void receive(TcpConnection connection, byte[] frame) {
+		RawDataChannel receiver = this.receiver;
+		if (receiver != null) {
+			receiver.receiveData(RawData.inbound(frame, connection.getContext(), false));
+		} else {
+			LOGGER.debug("{} drops {} bytes from {}, no receiver", this, frame.length, connection.getPeerAddress());
+		}
+	}
+
+	/**
+	 * Worker executing the i/o of its connections with a selector loop.
+	 */
+	final class Worker extends Thread {
+
+		private final Selector selector;
+
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+		/**
+		 * Connections registered with this worker. Only accessed by the
+		 * worker's thread.
+		 */
+		private final Set<TcpConnection> owned = new HashSet<TcpConnection>();
+
+		private long lastSweepNanos = ClockUtil.nanoRealtime();
+
+		private Worker(String name) throws IOException {
+			super(TCP_THREAD_GROUP, name);
+			setDaemon(true);
+			selector = Selector.open();
+		}
+
+		/**
+		 * Execute task on the worker's thread. May be called by any thread.
+		 *
+		 * @param task task to execute
+		 */
+		void execute(Runnable task) {
+			tasks.offer(task);
+			selector.wakeup();
+		}
+
+		boolean isCurrentThread() {
+			return Thread.currentThread() == this;
+		}
+
+		private void register(TcpConnection connection, boolean connecting) {
+			if (connection.isClosed()) {
+				return;
+			}
+			owned.add(connection);
+			try {
+				connection.register(selector, connecting);
+			} catch (IOException e) {
+				connection.close(e);
+			}
+		}
+
+		@Override
+		public void run() {
+			LOGGER.debug("Starting {} [{}]", NioTcpConnector.this, getName());
+			try {
+				while (running) {
+					try {
+						selector.select(SELECT_TIMEOUT_MILLIS);
+						runTasks();
+						processSelectedKeys();
+						sweep();
+					} catch (IOException e) {
+						LOGGER.error("{} [{}] selector failed:", NioTcpConnector.this, getName(), e);
+						break;
+					} catch (Throwable t) {
+						LOGGER.error("{} [{}] failure:", NioTcpConnector.this, getName(), t);
+					}
+				}
+			} finally {
+				IOException cause = new InterruptedIOException("connector stopped!");
+				for (TcpConnection connection : owned) {
+					connection.close(cause);
+				}
+				owned.clear();
+				runTasks();
+				try {
+					selector.close();
+				} catch (IOException e) {
+					LOGGER.trace("{} [{}] failed to close selector:", NioTcpConnector.this, getName(), e);
+				}
+				LOGGER.debug("{} [{}] has terminated", NioTcpConnector.this, getName());
+			}
+		}
+
+		private void runTasks() {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					LOGGER.warn("{} [{}] task failed:", NioTcpConnector.this, getName(), e);
+				}
+			}
+		}
+
+		private void processSelectedKeys() {
+			Set<SelectionKey> selected = selector.selectedKeys();
+			for (SelectionKey key : selected) {
+				TcpConnection connection = (TcpConnection) key.attachment();
+				try {
+					if (key.isValid() && key.isConnectable()) {
+						connection.handleConnect();
+					}
+					if (key.isValid() && key.isReadable()) {
+						connection.handleRead();
+					}
+					if (key.isValid() && key.isWritable()) {
+						connection.handleWrite();
+					}
+				} catch (IOException e) {
+					connection.close(e);
+				} catch (RuntimeException e) {
+					LOGGER.warn("{} connection with {} failed:", NioTcpConnector.this, connection.getPeerAddress(),
+							e);
+					connection.close(e);
+				}
+			}
+			selected.clear();
+		}
+
+		private void sweep() {
+			long now = ClockUtil.nanoRealtime();
+			if (now - lastSweepNanos < SWEEP_INTERVAL_NANOS) {
+				return;
+			}
+			lastSweepNanos = now;
+			int removed = 0;
+			for (Iterator<TcpConnection> iterator = owned.iterator(); iterator.hasNext();) {
+				TcpConnection connection = iterator.next();
+				if (!connection.isClosed()) {
+					connection.checkTimeouts(now, connectTimeoutNanos, idleTimeoutNanos);
+				}
+				if (connection.isClosed()) {
+					iterator.remove();
+					++removed;
+				}
+			}
+			if (removed > 0) {
+				LOGGER.debug("{} [{}] removed {} connections", NioTcpConnector.this, getName(), removed);
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.coap.elements.tcp;
+
+import com.coap.elements.RawData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP client connection is used by CoapEndpoint when instantiated by the
+ * CoapClient. Supports RFC 8323 CoAP over TCP.
+ *
+ * Connections are established on demand, when the first message is sent to
+ * a peer. The connect is executed non-blocking, the messages are queued until
+ * the connection is established. If the connection can't be established
+ * within the connect timeout, the queued messages are reported as failed.
+ *
+ * The values for the constructor are usually taken from the network
+ * configuration, {@code TCP_WORKER_THREADS}, {@code TCP_CONNECT_TIMEOUT} and
+ * {@code TCP_CONNECTION_IDLE_TIMEOUT}.
+ */
+public class TcpClientConnector extends NioTcpConnector {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TcpClientConnector.class.getName());
+
+	private static final InetSocketAddress ANY_ADDRESS = new InetSocketAddress(0);
+
+	/**
+	 * Create TCP client connector.
+	 *
+	 * @param numberOfThreads number of worker threads
+	 * @param connectTimeoutMillis timeout for establishing a connection in
+	 *            milliseconds
+	 * @param idleTimeoutSeconds idle timeout in seconds. {@code 0} to disable
+	 *            it.
+	 */
+	public TcpClientConnector(int numberOfThreads, int connectTimeoutMillis, int idleTimeoutSeconds) {
+		super(numberOfThreads, connectTimeoutMillis, idleTimeoutSeconds);
+	}
+
+	@Override
+	TcpConnection getConnection(RawData msg) {
+		InetSocketAddress peer = msg.getInetSocketAddress();
+		TcpConnection connection = lookupConnection(peer);
+		if (connection != null) {
+			return connection;
+		}
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.configureBlocking(false);
+			channel.connect(peer);
+			connection = addConnection(channel, peer, true);
+			if (connection.channel != channel) {
+				// concurrently connected
+				channel.close();
+			} else {
+				LOGGER.debug("{} connecting to {}", this, peer);
+				msg.onConnecting();
+			}
+			return connection;
+		} catch (IOException e) {
+			LOGGER.debug("{} failed to connect to {}:", this, peer, e);
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException ex) {
+					LOGGER.trace("{} failed to close connection:", this, ex);
+				}
+			}
+			msg.onError(e);
+			return null;
+		}
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		return ANY_ADDRESS;
+	}
+}
@@ -0,0 +1,414 @@
+package com.coap.elements.tcp;
+
+import com.coap.elements.EndpointContext;
+import com.coap.elements.RawData;
+import com.coap.elements.TcpEndpointContext;
+import com.coap.elements.exception.EndpointMismatchException;
+import com.coap.elements.util.ClockUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A TCP connection of a {@link NioTcpConnector}.
+ *
+ * A connection is owned by one worker of the connector. All I/O is executed
+ * by that worker's thread. Other threads only {@link #enqueue(RawData)}
+ * messages into the connection's write queue and may {@link #close(Throwable)}
+ * the connection.
+ *
+ * Subclasses may transform the byte stream, e.g. for TLS, by overriding
+ * {@link #read(ByteBuffer)}, {@link #write(ByteBuffer)},
+ * {@link #onEstablished()} and {@link #isReady()}.
+ */
+class TcpConnection {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TcpConnection.class.getName());
+
+	/**
+	 * Initial size of the read buffer.
+	 */
+	private static final int INITIAL_READ_BUFFER_SIZE = 8192;
+
+	protected final NioTcpConnector connector;
+	protected final SocketChannel channel;
+	protected final InetSocketAddress peerAddress;
+	protected final String connectionId;
+	protected final NioTcpConnector.Worker worker;
+	protected final boolean client;
+
+	private final TcpFramer framer;
+
+	/**
+	 * Outgoing messages, not yet processed by the worker.
+	 */
+	private final Queue<RawData> pending = new ConcurrentLinkedQueue<RawData>();
+
+	/**
+	 * Indicates, that a flush is already scheduled on the worker.
+	 */
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	/**
+	 * Task to flush the write queue on the worker's thread.
+	 */
+	private final Runnable flushTask = new Runnable() {
+
+		@Override
+		public void run() {
+			flushScheduled.set(false);
+			try {
+				flush();
+			} catch (IOException e) {
+				close(e);
+			}
+		}
+	};
+
+	private SelectionKey key;
+
+	/**
+	 * Buffer for received (plain) data, in write mode.
+	 */
+	private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+
+	/**
+	 * Message currently written.
+	 */
+	private RawData current;
+
+	/**
+	 * Remaining bytes of the message currently written.
+	 */
+	private ByteBuffer currentBuffer;
+
+	private boolean connected;
+
+	/**
+	 * Nano-time of the last read or write. Only accessed by the worker.
+	 */
+	private long lastActivityNanos;
+
+	/**
+	 * Nano-time when the connection was created.
+	 */
+	private final long createNanos;
+
+	/**
+	 * Endpoint context of the connection. Available, when the connection is
+	 * ready.
+	 */
+	private volatile EndpointContext context;
+
+	TcpConnection(NioTcpConnector connector, NioTcpConnector.Worker worker, SocketChannel channel,
+			InetSocketAddress peerAddress, String connectionId, boolean client) {
+		this.connector = connector;
+		this.worker = worker;
+		this.channel = channel;
+		this.peerAddress = peerAddress;
+		this.connectionId = connectionId;
+		this.client = client;
+		this.framer = new TcpFramer(connector.getMaxFrameSize());
+		this.createNanos = ClockUtil.nanoRealtime();
+		this.lastActivityNanos = createNanos;
+	}
+
+	InetSocketAddress getPeerAddress() {
+		return peerAddress;
+	}
+
+	EndpointContext getContext() {
+		return context;
+	}
+
+	boolean isClosed() {
+		return closed.get();
+	}
+
+	/**
+	 * Register the connection with the worker's selector. Must be called by
+	 * the worker's thread.
+	 *
+	 * @param selector worker's selector
+	 * @param connecting {@code true}, if the client connection is not yet
+	 *            connected, {@code false}, otherwise.
+	 * @throws IOException if an i/o error occurred
+	 */
+	void register(Selector selector, boolean connecting) throws IOException {
+		key = channel.register(selector, connecting ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ, this);
+		if (!connecting) {
+			onConnected();
+		}
+	}
+
+	/**
+	 * Finish connecting a client connection. Called by the worker, when the
+	 * channel gets connectable.
+	 *
+	 * @throws IOException if the connection couldn't be established
+	 */
+	void handleConnect() throws IOException {
+		if (channel.finishConnect()) {
+			key.interestOps(SelectionKey.OP_READ);
+			onConnected();
+		}
+	}
+
+	private void onConnected() throws IOException {
+		connected = true;
+		lastActivityNanos = ClockUtil.nanoRealtime();
+		onEstablished();
+	}
+
+	/**
+	 * Called, when the TCP connection is established. Sets the endpoint
+	 * context and starts writing the queued messages.
+	 *
+	 * @throws IOException if an i/o error occurred
+	 */
+	protected void onEstablished() throws IOException {
+		setContext(new TcpEndpointContext(peerAddress, connectionId));
+		LOGGER.debug("{} connection {} established with {}", connector, connectionId, peerAddress);
+		flush();
+	}
+
+	/**
+	 * Check, if the TCP connection is established.
+	 *
+	 * @return {@code true}, if established, {@code false}, otherwise.
+	 */
+	protected boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * Check, if the connection is ready to exchange messages.
+	 *
+	 * @return {@code true}, if ready, {@code false}, otherwise.
+	 */
+	protected boolean isReady() {
+		return connected;
+	}
+
+	protected void setContext(EndpointContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Enqueue an outgoing message. May be called by any thread.
+	 *
+	 * @param msg outgoing message
+	 */
+	void enqueue(RawData msg) {
+		pending.offer(msg);
+		if (closed.get()) {
+			failPending(new IOException("connection closed!"));
+		} else if (flushScheduled.compareAndSet(false, true)) {
+			worker.execute(flushTask);
+		}
+	}
+
+	/**
+	 * Read available data and deliver the received messages. Called by the
+	 * worker, when the channel gets readable.
+	 *
+	 * @throws IOException if an i/o error occurred or the frame is malformed
+	 */
+	void handleRead() throws IOException {
+		int read;
+		while ((read = read(readBuffer)) > 0) {
+			lastActivityNanos = ClockUtil.nanoRealtime();
+			readBuffer.flip();
+			try {
+				byte[] frame;
+				while ((frame = framer.decode(readBuffer)) != null) {
+					connector.receive(this, frame);
+				}
+			} catch (TcpFramer.FrameTooLargeException e) {
+				throw new IOException(e.getMessage());
+			}
+			readBuffer.compact();
+			int required = framer.getRequiredCapacity();
+			if (required > readBuffer.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(required);
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+		}
+		if (read < 0) {
+			throw new EOFException("connection closed by peer!");
+		}
+	}
+
+	/**
+	 * Continue writing. Called by the worker, when the channel gets writable.
+	 *
+	 * @throws IOException if an i/o error occurred
+	 */
+	void handleWrite() throws IOException {
+		flush();
+	}
+
+	/**
+	 * Read plain data from the channel.
+	 *
+	 * @param destination buffer to read the data into
+	 * @return number of read bytes, {@code 0}, if no more data is currently
+	 *         available, or {@code -1}, if the peer has closed the
+	 *         connection.
+	 * @throws IOException if an i/o error occurred
+	 */
+	protected int read(ByteBuffer destination) throws IOException {
+		return channel.read(destination);
+	}
+
+	/**
+	 * Write plain data to the channel.
+	 *
+	 * @param source buffer with the data to write
+	 * @return {@code true}, if all data is written, {@code false}, if the
+	 *         channel is not able to accept more data.
+	 * @throws IOException if an i/o error occurred
+	 */
+	protected boolean write(ByteBuffer source) throws IOException {
+		channel.write(source);
+		return !source.hasRemaining();
+	}
+
+	/**
+	 * Check, if more data must be written, after the write queue has been
+	 * processed.
+	 *
+	 * @return {@code true}, if more data is pending, {@code false},
+	 *         otherwise.
+	 */
+	protected boolean hasPendingWrites() {
+		return false;
+	}
+
+	/**
+	 * Write queued messages until the queue is empty or the channel is not
+	 * able to accept more data. Must be called by the worker's thread.
+	 *
+	 * @throws IOException if an i/o error occurred
+	 */
+	protected void flush() throws IOException {
+		if (key == null || !key.isValid() || !isReady()) {
+			return;
+		}
+		while (true) {
+			if (currentBuffer == null) {
+				current = pending.poll();
+				if (current == null) {
+					break;
+				}
+				if (!connector.isToBeSent(current, context)) {
+					current.onError(new EndpointMismatchException());
+					current = null;
+					continue;
+				}
+				current.onContextEstablished(context);
+				currentBuffer = ByteBuffer.wrap(current.bytes);
+			}
+			if (!write(currentBuffer)) {
+				setWriteInterest(true);
+				return;
+			}
+			lastActivityNanos = ClockUtil.nanoRealtime();
+			RawData sent = current;
+			current = null;
+			currentBuffer = null;
+			sent.onSent();
+		}
+		setWriteInterest(hasPendingWrites());
+	}
+
+	/**
+	 * Set, if the worker should call {@link #handleWrite()}, when the channel
+	 * gets writable.
+	 *
+	 * @param write {@code true}, to wait for the channel getting writable,
+	 *            {@code false}, otherwise.
+	 */
+	protected void setWriteInterest(boolean write) {
+		if (key != null && key.isValid()) {
+			int ops = key.interestOps();
+			int newOps = write ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+			if (ops != newOps) {
+				key.interestOps(newOps);
+			}
+		}
+	}
+
+	/**
+	 * Check the connection for timeouts. Called periodically by the worker.
+	 *
+	 * @param nanos current nano-time
+	 * @param connectTimeoutNanos timeout for establishing the connection
+	 * @param idleTimeoutNanos idle timeout. {@code 0} to disable the idle
+	 *            timeout.
+	 */
+	void checkTimeouts(long nanos, long connectTimeoutNanos, long idleTimeoutNanos) {
+		if (!connected) {
+			if (nanos - createNanos > connectTimeoutNanos) {
+				close(new IOException("connect timeout after "
+						+ TimeUnit.NANOSECONDS.toMillis(connectTimeoutNanos) + " ms!"));
+			}
+		} else if (idleTimeoutNanos > 0 && nanos - lastActivityNanos > idleTimeoutNanos) {
+			LOGGER.debug("{} closes idle connection {} with {}", connector, connectionId, peerAddress);
+			close(new IOException("connection idle!"));
+		}
+	}
+
+	/**
+	 * Close the connection. Report all pending messages as failed. May be
+	 * called by any thread.
+	 *
+	 * @param cause cause of closing the connection
+	 */
+	void close(Throwable cause) {
+		if (closed.compareAndSet(false, true)) {
+			LOGGER.debug("{} closes connection {} with {}: {}", connector, connectionId, peerAddress,
+					cause.getMessage());
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOGGER.trace("{} failed to close connection {}:", connector, connectionId, e);
+			}
+			connector.remove(this);
+			failPending(cause);
+		}
+	}
+
+	private void failPending(Throwable cause) {
+		if (worker.isCurrentThread()) {
+			RawData msg = current;
+			current = null;
+			currentBuffer = null;
+			if (msg != null) {
+				msg.onError(cause);
+			}
+		}
+		RawData msg;
+		while ((msg = pending.poll()) != null) {
+			msg.onError(cause);
+		}
+	}
+}
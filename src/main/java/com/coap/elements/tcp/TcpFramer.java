@@ -0,0 +1,162 @@
+package com.coap.elements.tcp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder for CoAP over TCP frames.
+ *
+ * Splits the byte stream of a connection into messages following the framing
+ * defined in <a href="https://tools.ietf.org/html/rfc8323#section-3.2">RFC
+ * 8323, 3.2, Message Format</a>:
+ *
+ * <pre>
+ * +----+-----+---------------+------+-------+------------------+
+ * |Len | TKL | Extended Len. | Code | Token | Options, Payload |
+ * +----+-----+---------------+------+-------+------------------+
+ * </pre>
+ *
+ * The framer works on partial reads. {@link #decode(ByteBuffer)} returns a
+ * frame only, if it's completely contained in the buffer, otherwise it leaves
+ * the buffer untouched and reports the number of bytes required by
+ * {@link #getRequiredCapacity()}. A framer is bound to one connection and is
+ * not thread safe.
+ */
+public final class TcpFramer {
+
+	/**
+	 * Default maximum size of a frame in bytes.
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+
+	/**
+	 * Maximum size of a frame in bytes.
+	 */
+	private final int maxFrameSize;
+
+	/**
+	 * Size of the frame at the head of the buffer. {@code 0}, if not yet
+	 * known.
+	 */
+	private int frameSize;
+
+	/**
+	 * Create framer.
+	 *
+	 * @param maxFrameSize maximum size of a frame in bytes
+	 */
+	public TcpFramer(int maxFrameSize) {
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * Decode next frame.
+	 *
+	 * @param buffer buffer in read mode. If a complete frame is available,
+	 *            the position is moved behind that frame.
+	 * @return the next frame, or {@code null}, if the buffer doesn't contain
+	 *         a complete frame.
+	 * @throws FrameTooLargeException if the frame exceeds the maximum frame
+	 *             size
+	 */
+	public byte[] decode(ByteBuffer buffer) throws FrameTooLargeException {
+		if (frameSize == 0) {
+			frameSize = readFrameSize(buffer);
+			if (frameSize == 0) {
+				return null;
+			}
+			if (frameSize > maxFrameSize) {
+				throw new FrameTooLargeException(
+						"frame of " + frameSize + " bytes exceeds maximum of " + maxFrameSize + " bytes!");
+			}
+		}
+		if (buffer.remaining() < frameSize) {
+			return null;
+		}
+		byte[] frame = new byte[frameSize];
+		buffer.get(frame);
+		frameSize = 0;
+		return frame;
+	}
+
+	/**
+	 * Get the number of bytes required to decode the next frame.
+	 *
+	 * @return size of the next frame, or {@code 0}, if the header of the next
+	 *         frame is not yet available.
+	 */
+	public int getRequiredCapacity() {
+		return frameSize;
+	}
+
+	/**
+	 * Read the size of the frame at the position of the buffer, without
+	 * moving the position.
+	 *
+	 * @param buffer buffer in read mode
+	 * @return size of the frame, or {@code 0}, if the (extended) length is not
+	 *         yet available.
+	 */
+	private static int readFrameSize(ByteBuffer buffer) {
+		int available = buffer.remaining();
+		if (available < 1) {
+			return 0;
+		}
+		int position = buffer.position();
+		int first = buffer.get(position) & 0xff;
+		int lengthNibble = first >>> 4;
+		int tokenLength = first & 0x0f;
+		int lengthSize;
+		long bodyLength;
+		switch (lengthNibble) {
+		case 13:
+			lengthSize = 1;
+			break;
+		case 14:
+			lengthSize = 2;
+			break;
+		case 15:
+			lengthSize = 4;
+			break;
+		default:
+			lengthSize = 0;
+			break;
+		}
+		if (available < 1 + lengthSize) {
+			return 0;
+		}
+		switch (lengthNibble) {
+		case 13:
+			bodyLength = (buffer.get(position + 1) & 0xff) + 13;
+			break;
+		case 14:
+			bodyLength = (buffer.getShort(position + 1) & 0xffff) + 269;
+			break;
+		case 15:
+			bodyLength = (buffer.getInt(position + 1) & 0xffffffffL) + 65805;
+			break;
+		default:
+			bodyLength = lengthNibble;
+			break;
+		}
+		// first byte, extended length, code, token, options and payload
+		long size = 1 + lengthSize + 1 + tokenLength + bodyLength;
+		return (int) Math.min(size, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Exception indicating, that a frame exceeds the maximum frame size.
+	 */
+	public static class FrameTooLargeException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Create new instance with message.
+		 *
+		 * @param message message
+		 */
+		public FrameTooLargeException(String message) {
+			super(message);
+		}
+	}
+}
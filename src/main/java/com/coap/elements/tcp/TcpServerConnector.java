@@ -0,0 +1,138 @@
+package com.coap.elements.tcp;
+
+import com.coap.elements.RawData;
+import com.coap.elements.exception.EndpointUnconnectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP server connection is used by CoapEndpoint when instantiated by the
+ * CoapServer. Supports RFC 8323 CoAP over TCP.
+ *
+ * An acceptor thread accepts the connections and hands them over to the
+ * selector workers of the {@link NioTcpConnector}. Messages can only be sent
+ * to peers with an established connection, otherwise an
+ * {@link EndpointUnconnectedException} is reported.
+ *
+ * The values for the constructor are usually taken from the network
+ * configuration, {@code TCP_WORKER_THREADS}, {@code TCP_CONNECT_TIMEOUT} and
+ * {@code TCP_CONNECTION_IDLE_TIMEOUT}.
+ */
+public class TcpServerConnector extends NioTcpConnector {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TcpServerConnector.class.getName());
+
+	private final InetSocketAddress bindAddress;
+
+	private volatile InetSocketAddress localAddress;
+
+	private ServerSocketChannel serverChannel;
+
+	private Thread acceptor;
+
+	/**
+	 * Create TCP server connector.
+	 *
+	 * @param bindAddress address to bind the server to
+	 * @param numberOfThreads number of worker threads
+	 * @param connectTimeoutMillis timeout for establishing a connection in
+	 *            milliseconds
+	 * @param idleTimeoutSeconds idle timeout in seconds. {@code 0} to disable
+	 *            it.
+	 */
+	public TcpServerConnector(InetSocketAddress bindAddress, int numberOfThreads, int connectTimeoutMillis,
+			int idleTimeoutSeconds) {
+		super(numberOfThreads, connectTimeoutMillis, idleTimeoutSeconds);
+		this.bindAddress = bindAddress;
+		this.localAddress = bindAddress;
+	}
+
+	@Override
+	protected synchronized void onStart() throws IOException {
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			channel.bind(bindAddress);
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+		serverChannel = channel;
+		localAddress = (InetSocketAddress) channel.getLocalAddress();
+		acceptor = new Thread(TCP_THREAD_GROUP, "TCP-Acceptor-" + localAddress) {
+
+			@Override
+			public void run() {
+				accept(channel);
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		LOGGER.info("TCP server {} listening on {}", this, localAddress);
+	}
+
+	@Override
+	protected synchronized void onStop() {
+		if (serverChannel != null) {
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				LOGGER.trace("{} failed to close server channel:", this, e);
+			}
+			serverChannel = null;
+		}
+		if (acceptor != null) {
+			acceptor.interrupt();
+			acceptor = null;
+		}
+	}
+
+	private void accept(ServerSocketChannel channel) {
+		while (running) {
+			SocketChannel accepted = null;
+			try {
+				accepted = channel.accept();
+				accepted.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				InetSocketAddress peer = (InetSocketAddress) accepted.getRemoteAddress();
+				addConnection(accepted, peer, false);
+				LOGGER.debug("{} accepted connection from {}", this, peer);
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (IOException e) {
+				if (running) {
+					LOGGER.warn("{} failed to accept connection:", this, e);
+				}
+				if (accepted != null) {
+					try {
+						accepted.close();
+					} catch (IOException ex) {
+						LOGGER.trace("{} failed to close connection:", this, ex);
+					}
+				}
+			}
+		}
+		LOGGER.debug("{} acceptor has terminated", this);
+	}
+
+	@Override
+	TcpConnection getConnection(RawData msg) {
+		TcpConnection connection = lookupConnection(msg.getInetSocketAddress());
+		if (connection == null) {
+			LOGGER.debug("{} has no connection to {}", this, msg.getInetSocketAddress());
+			msg.onError(new EndpointUnconnectedException());
+		}
+		return connection;
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		return localAddress;
+	}
+}
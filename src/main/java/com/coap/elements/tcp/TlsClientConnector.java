@@ -0,0 +1,80 @@
+package com.coap.elements.tcp;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TLS client connection is used by CoapEndpoint when instantiated by the
+ * CoapClient. Supports RFC 8323 CoAP over TLS.
+ *
+ * The TLS layer is implemented with non-blocking {@link SSLEngine}s, driven
+ * by the selector workers of the {@link NioTcpConnector}. The engines are
+ * created with the peer's address, so the client session cache of the
+ * {@link SSLContext} resumes sessions on reconnects with abbreviated
+ * handshakes, see {@link #setSessionCache(int, int)}.
+ *
+ * The values for the constructor are usually taken from the network
+ * configuration, {@code TCP_WORKER_THREADS}, {@code TCP_CONNECT_TIMEOUT},
+ * {@code TLS_HANDSHAKE_TIMEOUT} and {@code TCP_CONNECTION_IDLE_TIMEOUT}.
+ */
+public class TlsClientConnector extends TcpClientConnector {
+
+	private final SSLContext sslContext;
+
+	/**
+	 * Handshake timeout in nanoseconds.
+	 */
+	private final long handshakeTimeoutNanos;
+
+	/**
+	 * Create TLS client connector.
+	 *
+	 * @param sslContext ssl context
+	 * @param numberOfThreads number of worker threads
+	 * @param connectTimeoutMillis timeout for establishing the TCP connection
+	 *            in milliseconds
+	 * @param handshakeTimeoutMillis timeout for the TLS handshake in
+	 *            milliseconds
+	 * @param idleTimeoutSeconds idle timeout in seconds. {@code 0} to disable
+	 *            it.
+	 */
+	public TlsClientConnector(SSLContext sslContext, int numberOfThreads, int connectTimeoutMillis,
+			int handshakeTimeoutMillis, int idleTimeoutSeconds) {
+		super(numberOfThreads, connectTimeoutMillis, idleTimeoutSeconds);
+		if (sslContext == null) {
+			throw new NullPointerException("SSL context must not be null!");
+		}
+		this.sslContext = sslContext;
+		this.handshakeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(handshakeTimeoutMillis);
+	}
+
+	/**
+	 * Bound the client session cache of the ssl context.
+	 *
+	 * @param cacheSize maximum number of cached sessions. {@code 0} for the
+	 *            default size of the TLS implementation.
+	 * @param timeoutSeconds timeout of cached sessions in seconds, usually
+	 *            {@code SECURE_SESSION_TIMEOUT}. {@code 0} for the default
+	 *            timeout of the TLS implementation.
+	 */
+	public void setSessionCache(int cacheSize, int timeoutSeconds) {
+		TlsConnection.configureSessionCache(sslContext.getClientSessionContext(), cacheSize, timeoutSeconds);
+	}
+
+	@Override
+	TcpConnection createConnection(NioTcpConnector.Worker worker, SocketChannel channel, InetSocketAddress peer,
+			String connectionId, boolean client) {
+		// host and port identify the cached session for resumption
+		SSLEngine engine = sslContext.createSSLEngine(peer.getHostString(), peer.getPort());
+		engine.setUseClientMode(true);
+		return new TlsConnection(this, worker, channel, peer, connectionId, client, engine, handshakeTimeoutNanos);
+	}
+
+	@Override
+	public String getProtocol() {
+		return "TLS";
+	}
+}
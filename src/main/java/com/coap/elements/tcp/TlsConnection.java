@@ -0,0 +1,343 @@
+package com.coap.elements.tcp;
+
+import com.coap.elements.TlsEndpointContext;
+import com.coap.elements.util.ClockUtil;
+import com.coap.elements.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.Principal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TLS connection of a {@link NioTcpConnector}.
+ *
+ * Encrypts and decrypts the byte stream of the {@link TcpConnection} with a
+ * non-blocking {@link SSLEngine}. The handshake is driven by the worker
+ * owning the connection, queued messages are written after the handshake
+ * has finished. If the handshake doesn't finish within the handshake
+ * timeout, the connection is closed.
+ */
+class TlsConnection extends TcpConnection {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TlsConnection.class.getName());
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final SSLEngine engine;
+
+	/**
+	 * Handshake timeout in nanoseconds.
+	 */
+	private final long handshakeTimeoutNanos;
+
+	/**
+	 * Received encrypted data, in write mode.
+	 */
+	private ByteBuffer netIn;
+
+	/**
+	 * Decrypted data, in write mode.
+	 */
+	private ByteBuffer appIn;
+
+	/**
+	 * Encrypted data to be written, in read mode.
+	 */
+	private ByteBuffer netOut;
+
+	/**
+	 * Nano-time when the handshake was started.
+	 */
+	private long handshakeStartNanos;
+
+	private boolean handshakeFinished;
+
+	private boolean endOfStream;
+
+	TlsConnection(NioTcpConnector connector, NioTcpConnector.Worker worker, SocketChannel channel,
+			InetSocketAddress peerAddress, String connectionId, boolean client, SSLEngine engine,
+			long handshakeTimeoutNanos) {
+		super(connector, worker, channel, peerAddress, connectionId, client);
+		this.engine = engine;
+		this.handshakeTimeoutNanos = handshakeTimeoutNanos;
+		SSLSession session = engine.getSession();
+		this.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+		this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+		this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+		this.netOut.flip();
+	}
+
+	@Override
+	protected void onEstablished() throws IOException {
+		handshakeStartNanos = ClockUtil.nanoRealtime();
+		LOGGER.debug("{} connection {} starts TLS handshake with {}", connector, connectionId, peerAddress);
+		engine.beginHandshake();
+		process();
+		setWriteInterest(netOut.hasRemaining());
+	}
+
+	@Override
+	protected boolean isReady() {
+		return handshakeFinished;
+	}
+
+	@Override
+	protected int read(ByteBuffer destination) throws IOException {
+		if (!endOfStream && channel.read(netIn) < 0) {
+			endOfStream = true;
+		}
+		boolean ready = handshakeFinished;
+		process();
+		if (!ready && handshakeFinished) {
+			flush();
+		} else if (!handshakeFinished) {
+			setWriteInterest(netOut.hasRemaining());
+		}
+		if (appIn.position() > 0) {
+			appIn.flip();
+			int length = Math.min(appIn.remaining(), destination.remaining());
+			int limit = appIn.limit();
+			appIn.limit(appIn.position() + length);
+			destination.put(appIn);
+			appIn.limit(limit);
+			appIn.compact();
+			return length;
+		}
+		return endOfStream ? -1 : 0;
+	}
+
+	@Override
+	protected boolean write(ByteBuffer source) throws IOException {
+		while (source.hasRemaining()) {
+			if (!wrap(source)) {
+				return false;
+			}
+		}
+		return flushNet();
+	}
+
+	@Override
+	protected boolean hasPendingWrites() {
+		return netOut.hasRemaining();
+	}
+
+	@Override
+	void handleWrite() throws IOException {
+		if (handshakeFinished) {
+			if (flushNet()) {
+				super.handleWrite();
+			}
+		} else if (flushNet()) {
+			process();
+			if (handshakeFinished) {
+				flush();
+			} else {
+				setWriteInterest(netOut.hasRemaining());
+			}
+		}
+	}
+
+	@Override
+	void checkTimeouts(long nanos, long connectTimeoutNanos, long idleTimeoutNanos) {
+		if (isConnected() && !handshakeFinished) {
+			if (nanos - handshakeStartNanos > handshakeTimeoutNanos) {
+				close(new IOException("TLS handshake timeout after "
+						+ TimeUnit.NANOSECONDS.toMillis(handshakeTimeoutNanos) + " ms!"));
+			}
+		} else {
+			super.checkTimeouts(nanos, connectTimeoutNanos, idleTimeoutNanos);
+		}
+	}
+
+	@Override
+	void close(Throwable cause) {
+		engine.closeOutbound();
+		super.close(cause);
+	}
+
+	/**
+	 * Drive the engine until it requires more received data, or the
+	 * encrypted data couldn't be written completely.
+	 *
+	 * @throws IOException if an i/o or TLS error occurred
+	 */
+	private void process() throws IOException {
+		while (true) {
+			HandshakeStatus status = engine.getHandshakeStatus();
+			if (status == HandshakeStatus.NEED_TASK) {
+				Runnable task;
+				while ((task = engine.getDelegatedTask()) != null) {
+					task.run();
+				}
+			} else if (status == HandshakeStatus.NEED_WRAP) {
+				if (!wrap(EMPTY)) {
+					return;
+				}
+			} else {
+				if (status == HandshakeStatus.NOT_HANDSHAKING && !handshakeFinished) {
+					onHandshakeFinished();
+				}
+				if (!unwrap()) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decrypt received data.
+	 *
+	 * @return {@code true}, if data was decrypted, {@code false}, if more data
+	 *         must be received or the decrypted data must be consumed first.
+	 * @throws IOException if an i/o or TLS error occurred
+	 */
+	private boolean unwrap() throws IOException {
+		SSLEngineResult result;
+		netIn.flip();
+		try {
+			result = engine.unwrap(netIn, appIn);
+		} finally {
+			netIn.compact();
+		}
+		if (result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+			onHandshakeFinished();
+		}
+		switch (result.getStatus()) {
+		case BUFFER_UNDERFLOW:
+			int packetSize = engine.getSession().getPacketBufferSize();
+			if (netIn.capacity() < packetSize) {
+				netIn = enlarge(netIn, packetSize);
+			}
+			return false;
+		case BUFFER_OVERFLOW:
+			if (appIn.position() > 0) {
+				return false;
+			}
+			appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+			return true;
+		case CLOSED:
+			throw new EOFException("TLS connection closed by peer!");
+		default:
+			return result.bytesConsumed() > 0 || result.bytesProduced() > 0
+					|| result.getHandshakeStatus() == HandshakeStatus.NEED_TASK
+					|| result.getHandshakeStatus() == HandshakeStatus.NEED_WRAP;
+		}
+	}
+
+	/**
+	 * Encrypt data and write it.
+	 *
+	 * @param source data to encrypt
+	 * @return {@code true}, if the encrypted data is written completely,
+	 *         {@code false}, otherwise.
+	 * @throws IOException if an i/o or TLS error occurred
+	 */
+	private boolean wrap(ByteBuffer source) throws IOException {
+		if (!flushNet()) {
+			return false;
+		}
+		SSLEngineResult result;
+		netOut.clear();
+		try {
+			result = engine.wrap(source, netOut);
+		} finally {
+			netOut.flip();
+		}
+		if (result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+			onHandshakeFinished();
+		}
+		switch (result.getStatus()) {
+		case BUFFER_OVERFLOW:
+			netOut = ByteBuffer.allocate(Math.max(engine.getSession().getPacketBufferSize(), netOut.capacity() * 2));
+			netOut.flip();
+			return true;
+		case CLOSED:
+			throw new EOFException("TLS connection closed!");
+		default:
+			return flushNet();
+		}
+	}
+
+	/**
+	 * Write pending encrypted data.
+	 *
+	 * @return {@code true}, if all encrypted data is written, {@code false},
+	 *         otherwise.
+	 * @throws IOException if an i/o error occurred
+	 */
+	private boolean flushNet() throws IOException {
+		if (netOut.hasRemaining()) {
+			channel.write(netOut);
+		}
+		return !netOut.hasRemaining();
+	}
+
+	private void onHandshakeFinished() throws SSLException {
+		if (handshakeFinished) {
+			return;
+		}
+		handshakeFinished = true;
+		SSLSession session = engine.getSession();
+		Principal principal = null;
+		try {
+			principal = session.getPeerPrincipal();
+		} catch (SSLPeerUnverifiedException e) {
+			// anonymous peer
+		}
+		String sessionId = StringUtil.byteArray2Hex(session.getId());
+		setContext(new TlsEndpointContext(peerAddress, principal, connectionId, sessionId, session.getCipherSuite()));
+		LOGGER.debug("{} connection {} TLS handshake with {} finished, {} {} in {} ms", connector, connectionId,
+				peerAddress, session.getProtocol(), session.getCipherSuite(),
+				TimeUnit.NANOSECONDS.toMillis(ClockUtil.nanoRealtime() - handshakeStartNanos));
+	}
+
+	/**
+	 * Create a larger buffer containing the data of the provided buffer.
+	 *
+	 * @param buffer buffer, in write mode
+	 * @param size minimum size of the new buffer
+	 * @return the new buffer, in write mode
+	 */
+	private static ByteBuffer enlarge(ByteBuffer buffer, int size) {
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/**
+	 * Bound the session cache of the TLS implementation.
+	 *
+	 * Cached sessions are used for abbreviated handshakes, when a peer
+	 * reconnects.
+	 *
+	 * @param context session context of the ssl context
+	 * @param cacheSize maximum number of cached sessions. {@code 0} for the
+	 *            default size of the TLS implementation.
+	 * @param timeoutSeconds timeout of cached sessions in seconds. {@code 0}
+	 *            for the default timeout of the TLS implementation.
+	 */
+	static void configureSessionCache(SSLSessionContext context, int cacheSize, int timeoutSeconds) {
+		if (context != null) {
+			if (cacheSize > 0) {
+				context.setSessionCacheSize(cacheSize);
+			}
+			if (timeoutSeconds > 0) {
+				context.setSessionTimeout(timeoutSeconds);
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.coap.elements.tcp;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TLS server connection is used by CoapEndpoint when instantiated by the
+ * CoapServer. Supports RFC 8323 CoAP over TLS.
+ *
+ * The TLS layer is implemented with non-blocking {@link SSLEngine}s, driven
+ * by the selector workers of the {@link NioTcpConnector}. The session cache
+ * of the {@link SSLContext} is used to resume sessions of reconnecting
+ * clients with abbreviated handshakes, see
+ * {@link #setSessionCache(int, int)}.
+ *
+ * The values for the constructor are usually taken from the network
+ * configuration, {@code TCP_WORKER_THREADS}, {@code TCP_CONNECT_TIMEOUT},
+ * {@code TLS_HANDSHAKE_TIMEOUT} and {@code TCP_CONNECTION_IDLE_TIMEOUT}.
+ */
+public class TlsServerConnector extends TcpServerConnector {
+
+	/**
+	 * Client authentication mode.
+	 */
+	public static enum ClientAuthMode {
+		/**
+		 * Client authentication is not requested.
+		 */
+		NONE,
+		/**
+		 * Client authentication is requested, but optional.
+		 */
+		WANTED,
+		/**
+		 * Client authentication is required.
+		 */
+		NEEDED
+	}
+
+	private final SSLContext sslContext;
+
+	private final ClientAuthMode clientAuthMode;
+
+	/**
+	 * Handshake timeout in nanoseconds.
+	 */
+	private final long handshakeTimeoutNanos;
+
+	/**
+	 * Create TLS server connector.
+	 *
+	 * @param sslContext ssl context
+	 * @param clientAuthMode client authentication mode
+	 * @param bindAddress address to bind the server to
+	 * @param numberOfThreads number of worker threads
+	 * @param connectTimeoutMillis timeout for establishing a connection in
+	 *            milliseconds
+	 * @param handshakeTimeoutMillis timeout for the TLS handshake in
+	 *            milliseconds
+	 * @param idleTimeoutSeconds idle timeout in seconds. {@code 0} to disable
+	 *            it.
+	 */
+	public TlsServerConnector(SSLContext sslContext, ClientAuthMode clientAuthMode, InetSocketAddress bindAddress,
+			int numberOfThreads, int connectTimeoutMillis, int handshakeTimeoutMillis, int idleTimeoutSeconds) {
+		super(bindAddress, numberOfThreads, connectTimeoutMillis, idleTimeoutSeconds);
+		if (sslContext == null) {
+			throw new NullPointerException("SSL context must not be null!");
+		}
+		this.sslContext = sslContext;
+		this.clientAuthMode = clientAuthMode == null ? ClientAuthMode.NONE : clientAuthMode;
+		this.handshakeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(handshakeTimeoutMillis);
+	}
+
+	/**
+	 * Bound the server session cache of the ssl context.
+	 *
+	 * @param cacheSize maximum number of cached sessions. {@code 0} for the
+	 *            default size of the TLS implementation.
+	 * @param timeoutSeconds timeout of cached sessions in seconds, usually
+	 *            {@code SECURE_SESSION_TIMEOUT}. {@code 0} for the default
+	 *            timeout of the TLS implementation.
+	 */
+	public void setSessionCache(int cacheSize, int timeoutSeconds) {
+		TlsConnection.configureSessionCache(sslContext.getServerSessionContext(), cacheSize, timeoutSeconds);
+	}
+
+	@Override
+	TcpConnection createConnection(NioTcpConnector.Worker worker, SocketChannel channel, InetSocketAddress peer,
+			String connectionId, boolean client) {
+		SSLEngine engine = sslContext.createSSLEngine(peer.getAddress().getHostAddress(), peer.getPort());
+		engine.setUseClientMode(false);
+		if (clientAuthMode == ClientAuthMode.NEEDED) {
+			engine.setNeedClientAuth(true);
+		} else if (clientAuthMode == ClientAuthMode.WANTED) {
+			engine.setWantClientAuth(true);
+		}
+		return new TlsConnection(this, worker, channel, peer, connectionId, client, engine, handshakeTimeoutNanos);
+	}
+
+	@Override
+	public String getProtocol() {
+		return "TLS";
+	}
+}
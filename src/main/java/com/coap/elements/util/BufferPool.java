@@ -0,0 +1,91 @@
+package com.coap.elements.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of equally sized byte arrays.
+ *
+ * Used by connectors to receive datagrams without allocating a new array for
+ * every datagram. If the pool is empty, {@link #acquire()} allocates a new
+ * array. Arrays returned by {@link #release(byte[])} are kept for reuse, as
+ * long as the pool is not full. Arrays, which are never released, are
+ * therefore just left to the garbage collector.
+ */
+public final class BufferPool {
+
+	/**
+	 * Size of the pooled arrays.
+	 */
+	private final int bufferSize;
+
+	/**
+	 * Available arrays.
+	 */
+	private final BlockingQueue<byte[]> buffers;
+
+	/**
+	 * Create pool.
+	 *
+	 * @param bufferSize size of the arrays
+	 * @param capacity maximum number of arrays kept in the pool
+	 * @throws IllegalArgumentException if buffer size or capacity is less
+	 *             than {@code 1}
+	 */
+	public BufferPool(int bufferSize, int capacity) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("buffer size " + bufferSize + " must be at least 1!");
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity " + capacity + " must be at least 1!");
+		}
+		this.bufferSize = bufferSize;
+		this.buffers = new ArrayBlockingQueue<byte[]>(capacity);
+	}
+
+	/**
+	 * Get an array from the pool, or a new one, if the pool is empty.
+	 *
+	 * @return array of {@link #getBufferSize()} bytes. The content is not
+	 *         cleared.
+	 */
+	public byte[] acquire() {
+		byte[] buffer = buffers.poll();
+		if (buffer == null) {
+			buffer = new byte[bufferSize];
+		}
+		return buffer;
+	}
+
+	/**
+	 * Return an array to the pool.
+	 *
+	 * The array must not be used after releasing it. Arrays of a different
+	 * size are ignored, as are arrays exceeding the capacity of the pool.
+	 *
+	 * @param buffer array to return
+	 */
+	public void release(byte[] buffer) {
+		if (buffer != null && buffer.length == bufferSize) {
+			buffers.offer(buffer);
+		}
+	}
+
+	/**
+	 * Get size of the pooled arrays.
+	 *
+	 * @return size in bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Get number of arrays currently available in the pool.
+	 *
+	 * @return number of available arrays
+	 */
+	public int available() {
+		return buffers.size();
+	}
+}
@@ -92,6 +92,27 @@ public class Bytes {
         return bytes;
     }
 
+    /**
+     * Check, if the bytes are equal to a range of an array.
+     *
+     * @param array array to compare with
+     * @param offset offset of the range
+     * @param length length of the range
+     * @return {@code true}, if the range contains the same bytes,
+     *         {@code false}, otherwise
+     */
+    public final boolean equals(byte[] array, int offset, int length) {
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int index = 0; index < length; ++index) {
+            if (bytes[index] != array[offset + index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Get bytes as (hexadecimal) string.
      *
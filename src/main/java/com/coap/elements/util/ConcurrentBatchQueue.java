@@ -0,0 +1,173 @@
+package com.coap.elements.util;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free queue for producers handing over items to a small number of
+ * consumer threads, which drain the items in batches.
+ *
+ * Producers never block, {@link #offer(Object)} is a single CAS based enqueue
+ * and only unparks a consumer, if one is waiting. The queue may be bounded,
+ * then {@link #offer(Object)} rejects items exceeding the capacity. Consumers
+ * {@link #drainTo(Collection, int)} as many items as available (up to a
+ * maximum) and only park in {@link #await()}, if the queue is empty.
+ *
+ * @param <T> type of the items
+ */
+public final class ConcurrentBatchQueue<T> {
+
+	/**
+	 * Queued items.
+	 */
+	private final Queue<T> items = new ConcurrentLinkedQueue<T>();
+
+	/**
+	 * Number of queued items. {@link ConcurrentLinkedQueue#size()} traverses
+	 * the queue, therefore the size is maintained separately.
+	 */
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Maximum number of queued items.
+	 */
+	private final int capacity;
+
+	/**
+	 * Consumer threads parked in {@link #await()}.
+	 */
+	private final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+	/**
+	 * Create unbounded queue.
+	 */
+	public ConcurrentBatchQueue() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Create bounded queue.
+	 *
+	 * @param capacity maximum number of queued items
+	 * @throws IllegalArgumentException if capacity is less than {@code 1}
+	 */
+	public ConcurrentBatchQueue(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity " + capacity + " must be at least 1!");
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Add an item to the queue. Wakes up a waiting consumer.
+	 *
+	 * @param item item to add
+	 * @return {@code true}, if the item was added, {@code false}, if the
+	 *         queue has reached its capacity.
+	 * @throws NullPointerException if item is {@code null}
+	 */
+	public boolean offer(T item) {
+		if (item == null) {
+			throw new NullPointerException("item must not be null!");
+		}
+		int current;
+		do {
+			current = size.get();
+			if (current >= capacity) {
+				return false;
+			}
+		} while (!size.compareAndSet(current, current + 1));
+		items.offer(item);
+		Thread waiter = waiters.poll();
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieves and removes the head of the queue.
+	 *
+	 * @return head of the queue, or {@code null}, if the queue is empty
+	 */
+	public T poll() {
+		T item = items.poll();
+		if (item != null) {
+			size.decrementAndGet();
+		}
+		return item;
+	}
+
+	/**
+	 * Move available items into the provided collection.
+	 *
+	 * @param batch collection to add the items
+	 * @param maxItems maximum number of items to move
+	 * @return number of moved items
+	 */
+	public int drainTo(Collection<? super T> batch, int maxItems) {
+		int count = 0;
+		while (count < maxItems) {
+			T item = items.poll();
+			if (item == null) {
+				break;
+			}
+			batch.add(item);
+			++count;
+		}
+		if (count > 0) {
+			size.addAndGet(-count);
+		}
+		return count;
+	}
+
+	/**
+	 * Get number of queued items.
+	 *
+	 * @return number of queued items
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Get capacity of the queue.
+	 *
+	 * @return maximum number of queued items
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Check, if queue is empty.
+	 *
+	 * @return {@code true}, if empty, {@code false}, otherwise.
+	 */
+	public boolean isEmpty() {
+		return items.isEmpty();
+	}
+
+	/**
+	 * Wait until the queue gets not empty.
+	 *
+	 * Returns immediately, if the queue is not empty. May return spuriously,
+	 * so callers are required to check the queue afterwards.
+	 *
+	 * @throws InterruptedException if the current thread is interrupted
+	 */
+	public void await() throws InterruptedException {
+		Thread me = Thread.currentThread();
+		waiters.offer(me);
+		if (items.isEmpty()) {
+			LockSupport.park(this);
+		}
+		waiters.remove(me);
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+}
@@ -0,0 +1,448 @@
+package com.coap.elements.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A thread safe map with primitive {@code long} keys.
+ * <p>
+ * The map is split into segments, which are selected by the hash of the key.
+ * Each segment is an open-addressing hash table with linear probing, which
+ * stores the keys in a {@code long[]} and the values in a parallel array. In
+ * contrast to a {@link java.util.concurrent.ConcurrentHashMap} with boxed
+ * keys, neither a lookup nor an insertion creates objects, except when a
+ * segment is resized, and an entry requires only the two array slots.
+ * </p>
+ * <p>
+ * Modifications lock the segment of the key. Lookups are executed without
+ * locking using the optimistic read of a {@link StampedLock} and only fall
+ * back to a read lock, if the segment was modified concurrently.
+ * </p>
+ * <p>
+ * {@code null} values are not supported.
+ * </p>
+ *
+ * @param <V> The type of the values used in the map.
+ */
+public final class ConcurrentLongMap<V> {
+
+	/**
+	 * The map's default initial capacity per segment.
+	 */
+	public static final int DEFAULT_SEGMENT_CAPACITY = 64;
+
+	private final Segment<V>[] segments;
+
+	/**
+	 * Number of bits to shift the hash to select the segment.
+	 */
+	private final int segmentShift;
+
+	/**
+	 * Creates a map with a number of segments depending on the available
+	 * processors.
+	 */
+	public ConcurrentLongMap() {
+		this(Runtime.getRuntime().availableProcessors() * 4, DEFAULT_SEGMENT_CAPACITY);
+	}
+
+	/**
+	 * Creates a map.
+	 *
+	 * @param concurrency number of segments. Rounded up to a power of two.
+	 * @param segmentCapacity initial capacity of each segment. Rounded up to
+	 *            a power of two. Segments grow, if they are filled up to 75%,
+	 *            and shrink back, if they are filled less than 12.5%.
+	 * @throws IllegalArgumentException if concurrency or segment capacity is
+	 *             less than {@code 1}
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentLongMap(int concurrency, int segmentCapacity) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency " + concurrency + " must be at least 1!");
+		}
+		if (segmentCapacity < 1) {
+			throw new IllegalArgumentException("segment capacity " + segmentCapacity + " must be at least 1!");
+		}
+		int count = powerOfTwo(Math.min(concurrency, 1 << 16));
+		int capacity = Math.max(4, powerOfTwo(Math.min(segmentCapacity, 1 << 24)));
+		this.segments = (Segment<V>[]) new Segment<?>[count];
+		this.segmentShift = Integer.SIZE - Integer.numberOfTrailingZeros(count);
+		for (int index = 0; index < count; ++index) {
+			segments[index] = new Segment<V>(capacity);
+		}
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key the key
+	 * @return the value, or {@code null}, if not available
+	 */
+	public V get(long key) {
+		int hash = hash(key);
+		return segmentFor(hash).get(key, hash);
+	}
+
+	/**
+	 * Puts a value for a key.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the previous value of the key, or {@code null}, if not
+	 *         available
+	 * @throws NullPointerException if the value is {@code null}
+	 */
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value must not be null");
+		}
+		int hash = hash(key);
+		return segmentFor(hash).put(key, hash, value, false);
+	}
+
+	/**
+	 * Puts a value for a key, if the key is not already available.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the current value of the key, or {@code null}, if the provided
+	 *         value was put
+	 * @throws NullPointerException if the value is {@code null}
+	 */
+	public V putIfAbsent(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value must not be null");
+		}
+		int hash = hash(key);
+		return segmentFor(hash).put(key, hash, value, true);
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param key the key
+	 * @return the removed value, or {@code null}, if not available
+	 */
+	public V remove(long key) {
+		int hash = hash(key);
+		return segmentFor(hash).remove(key, hash, null);
+	}
+
+	/**
+	 * Removes a key, if it has the provided value.
+	 *
+	 * @param key the key
+	 * @param value the value. Compared using {@link Object#equals(Object)}.
+	 * @return {@code true}, if the key was removed, {@code false}, otherwise.
+	 */
+	public boolean remove(long key, V value) {
+		if (value == null) {
+			return false;
+		}
+		int hash = hash(key);
+		return segmentFor(hash).remove(key, hash, value) != null;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * Concurrent modifications may be reflected or not.
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<V> segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	/**
+	 * Checks, if the map is empty.
+	 *
+	 * Concurrent modifications may be reflected or not.
+	 *
+	 * @return {@code true}, if the map is empty, {@code false}, otherwise.
+	 */
+	public boolean isEmpty() {
+		for (Segment<V> segment : segments) {
+			if (segment.size > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (Segment<V> segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Gets a snapshot of the values.
+	 *
+	 * @return list of values
+	 */
+	public List<V> values() {
+		List<V> result = new ArrayList<V>();
+		for (Segment<V> segment : segments) {
+			segment.collect(null, result, Integer.MAX_VALUE);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets a snapshot of the entries.
+	 *
+	 * @param maxEntries maximum number of entries
+	 * @return list of entries
+	 */
+	public List<Map.Entry<Long, V>> entries(int maxEntries) {
+		List<Map.Entry<Long, V>> result = new ArrayList<Map.Entry<Long, V>>();
+		for (Segment<V> segment : segments) {
+			if (result.size() >= maxEntries) {
+				break;
+			}
+			segment.collect(result, null, maxEntries);
+		}
+		return result;
+	}
+
+	private Segment<V> segmentFor(int hash) {
+		return segments[segmentShift == Integer.SIZE ? 0 : hash >>> segmentShift];
+	}
+
+	/**
+	 * Spreads the bits of the key. The upper bits of the result select the
+	 * segment, the lower bits the slot within the segment.
+	 *
+	 * @param key the key
+	 * @return hash of the key
+	 */
+	private static int hash(long key) {
+		// finalizer of MurmurHash3
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private static int powerOfTwo(int value) {
+		int result = Integer.highestOneBit(value);
+		return result == value ? result : result << 1;
+	}
+
+	/**
+	 * Open-addressing hash table with linear probing.
+	 *
+	 * An empty slot is marked by a {@code null} value. Removals shift
+	 * following entries back, so no tombstones are required.
+	 */
+	private static final class Segment<V> {
+
+		private final StampedLock lock = new StampedLock();
+		private final int minCapacity;
+		private long[] keys;
+		private Object[] values;
+		private volatile int size;
+
+		private Segment(int capacity) {
+			this.minCapacity = capacity;
+			this.keys = new long[capacity];
+			this.values = new Object[capacity];
+		}
+
+		private V get(long key, int hash) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp != 0) {
+				V value = find(keys, values, key, hash);
+				if (lock.validate(stamp)) {
+					return value;
+				}
+			}
+			stamp = lock.readLock();
+			try {
+				return find(keys, values, key, hash);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Finds the value of a key.
+		 *
+		 * The arrays may be read while they are modified or replaced. The
+		 * result is then discarded by the caller, but the lookup must neither
+		 * fail nor loop forever.
+		 */
+		@SuppressWarnings("unchecked")
+		private static <V> V find(long[] keys, Object[] values, long key, int hash) {
+			int capacity = values.length;
+			if (keys.length != capacity) {
+				return null;
+			}
+			int mask = capacity - 1;
+			int index = hash & mask;
+			for (int probe = 0; probe < capacity; ++probe) {
+				Object value = values[index];
+				if (value == null) {
+					return null;
+				} else if (keys[index] == key) {
+					return (V) value;
+				}
+				index = (index + 1) & mask;
+			}
+			return null;
+		}
+
+		@SuppressWarnings("unchecked")
+		private V put(long key, int hash, V value, boolean onlyIfAbsent) {
+			long stamp = lock.writeLock();
+			try {
+				int mask = values.length - 1;
+				int index = hash & mask;
+				Object current;
+				while ((current = values[index]) != null) {
+					if (keys[index] == key) {
+						if (!onlyIfAbsent) {
+							values[index] = value;
+						}
+						return (V) current;
+					}
+					index = (index + 1) & mask;
+				}
+				keys[index] = key;
+				values[index] = value;
+				int newSize = size + 1;
+				size = newSize;
+				if (newSize > (values.length >> 2) * 3) {
+					resize(values.length << 1);
+				}
+				return null;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private V remove(long key, int hash, V expected) {
+			long stamp = lock.writeLock();
+			try {
+				int mask = values.length - 1;
+				int index = hash & mask;
+				Object current;
+				while ((current = values[index]) != null) {
+					if (keys[index] == key) {
+						if (expected != null && !expected.equals(current)) {
+							return null;
+						}
+						delete(index);
+						int newSize = size - 1;
+						size = newSize;
+						if (values.length > minCapacity && newSize < values.length >> 3) {
+							resize(values.length >> 1);
+						}
+						return (V) current;
+					}
+					index = (index + 1) & mask;
+				}
+				return null;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Deletes the entry at the index and shifts the following entries
+		 * back, which are not at their home slot.
+		 */
+		private void delete(int index) {
+			int mask = values.length - 1;
+			int gap = index;
+			values[gap] = null;
+			int next = gap;
+			while (true) {
+				next = (next + 1) & mask;
+				Object value = values[next];
+				if (value == null) {
+					return;
+				}
+				int home = hash(keys[next]) & mask;
+				// move the entry, if its home slot is not within (gap, next]
+				boolean stay = gap <= next ? (gap < home && home <= next) : (gap < home || home <= next);
+				if (!stay) {
+					keys[gap] = keys[next];
+					values[gap] = value;
+					values[next] = null;
+					gap = next;
+				}
+			}
+		}
+
+		private void resize(int capacity) {
+			long[] oldKeys = keys;
+			Object[] oldValues = values;
+			long[] newKeys = new long[capacity];
+			Object[] newValues = new Object[capacity];
+			int mask = capacity - 1;
+			for (int oldIndex = 0; oldIndex < oldValues.length; ++oldIndex) {
+				Object value = oldValues[oldIndex];
+				if (value != null) {
+					long key = oldKeys[oldIndex];
+					int index = hash(key) & mask;
+					while (newValues[index] != null) {
+						index = (index + 1) & mask;
+					}
+					newKeys[index] = key;
+					newValues[index] = value;
+				}
+			}
+			keys = newKeys;
+			values = newValues;
+		}
+
+		private void clear() {
+			long stamp = lock.writeLock();
+			try {
+				keys = new long[minCapacity];
+				values = new Object[minCapacity];
+				size = 0;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void collect(List<Map.Entry<Long, V>> entries, List<V> values, int maxEntries) {
+			long stamp = lock.readLock();
+			try {
+				for (int index = 0; index < this.values.length; ++index) {
+					Object value = this.values[index];
+					if (value != null) {
+						if (entries != null) {
+							if (entries.size() >= maxEntries) {
+								return;
+							}
+							entries.add(new AbstractMap.SimpleImmutableEntry<Long, V>(keys[index], (V) value));
+						} else {
+							values.add((V) value);
+						}
+					}
+				}
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+	}
+}
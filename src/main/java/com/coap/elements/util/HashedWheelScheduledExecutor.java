@@ -0,0 +1,478 @@
+package com.coap.elements.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link ScheduledExecutorService}, which keeps the delayed tasks in a
+ * hashed timing wheel and executes them on an other executor.
+ * <p>
+ * The wheel is an array of buckets, one bucket per tick. A task is added to
+ * the bucket of the tick of its deadline, tasks with deadlines beyond the
+ * wheel keep the number of remaining rounds. A single timer thread advances
+ * the wheel once per tick and passes the expired tasks to the executor. In
+ * contrast to the heap of a {@link java.util.concurrent.ScheduledThreadPoolExecutor},
+ * scheduling and canceling a task are {@code O(1)} and create no objects
+ * besides the task itself. Tasks are executed up to one tick late, but never
+ * early.
+ * <p>
+ * Scheduling and canceling threads only push the task on lock-free stacks,
+ * the buckets are exclusively accessed by the timer thread.
+ * <p>
+ * Not delayed tasks, {@link #execute(Runnable)}, are directly passed to the
+ * executor. {@link #shutdown()} stops the timer thread and cancels the
+ * pending tasks, but doesn't shutdown the executor.
+ */
+public final class HashedWheelScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HashedWheelScheduledExecutor.class.getName());
+
+	/**
+	 * Executor to execute the tasks.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Duration of a tick in nanoseconds.
+	 */
+	private final long tickNanos;
+
+	private final Bucket[] wheel;
+
+	private final int mask;
+
+	/**
+	 * Nano-timestamp of the start of tick 0.
+	 */
+	private final long startTime;
+
+	/**
+	 * Scheduled tasks not yet added to the wheel.
+	 */
+	private final AtomicReference<WheelTask<?>> pending = new AtomicReference<WheelTask<?>>();
+
+	/**
+	 * Canceled tasks not yet removed from the wheel.
+	 */
+	private final AtomicReference<WheelTask<?>> canceled = new AtomicReference<WheelTask<?>>();
+
+	private final Thread timer;
+
+	private volatile boolean shutdown;
+
+	/**
+	 * Current tick. Only accessed by the timer thread.
+	 */
+	private long tick;
+
+	/**
+	 * Tasks not executed on shutdown. Only accessed by the timer thread
+	 * before it terminates.
+	 */
+	private final List<Runnable> unexecuted = new ArrayList<Runnable>();
+
+	/**
+	 * Create executor and start the timer thread.
+	 *
+	 * @param executor executor to execute the tasks
+	 * @param tickDuration duration of a tick
+	 * @param unit time unit of tick duration
+	 * @param wheelSize number of ticks of the wheel. Rounded up to a power of
+	 *            two.
+	 * @throws NullPointerException if executor or unit is {@code null}
+	 * @throws IllegalArgumentException if tick duration or wheel size is
+	 *             less than {@code 1}
+	 */
+	public HashedWheelScheduledExecutor(ExecutorService executor, long tickDuration, TimeUnit unit, int wheelSize) {
+		if (executor == null) {
+			throw new NullPointerException("executor must not be null!");
+		}
+		if (tickDuration < 1) {
+			throw new IllegalArgumentException("tick duration " + tickDuration + " must be at least 1!");
+		}
+		if (wheelSize < 1) {
+			throw new IllegalArgumentException("wheel size " + wheelSize + " must be at least 1!");
+		}
+		int size = Integer.highestOneBit(Math.min(wheelSize, 1 << 24));
+		if (size < wheelSize) {
+			size <<= 1;
+		}
+		this.executor = executor;
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new Bucket[size];
+		this.mask = size - 1;
+		for (int index = 0; index < size; ++index) {
+			wheel[index] = new Bucket();
+		}
+		this.startTime = System.nanoTime();
+		this.timer = new DaemonThreadFactory("Timer#").newThread(new Runnable() {
+
+			@Override
+			public void run() {
+				work();
+			}
+		});
+		this.timer.start();
+	}
+
+	/**
+	 * Get the duration of a tick.
+	 *
+	 * @param unit time unit of the result
+	 * @return tick duration
+	 */
+	public long getTickDuration(TimeUnit unit) {
+		return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Get number of ticks of the wheel.
+	 *
+	 * @return number of ticks
+	 */
+	public int getWheelSize() {
+		return wheel.length;
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		if (command == null || unit == null) {
+			throw new NullPointerException();
+		}
+		return add(new WheelTask<Void>(command, null, deadline(delay, unit), 0));
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		if (callable == null || unit == null) {
+			throw new NullPointerException();
+		}
+		return add(new WheelTask<V>(callable, deadline(delay, unit)));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		if (command == null || unit == null) {
+			throw new NullPointerException();
+		}
+		if (period <= 0) {
+			throw new IllegalArgumentException("period " + period + " must be larger than 0!");
+		}
+		return add(new WheelTask<Void>(command, null, deadline(initialDelay, unit), unit.toNanos(period)));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+			TimeUnit unit) {
+		if (command == null || unit == null) {
+			throw new NullPointerException();
+		}
+		if (delay <= 0) {
+			throw new IllegalArgumentException("delay " + delay + " must be larger than 0!");
+		}
+		return add(new WheelTask<Void>(command, null, deadline(initialDelay, unit), -unit.toNanos(delay)));
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (shutdown) {
+			throw new RejectedExecutionException("timer is shutdown!");
+		}
+		executor.execute(command);
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		LockSupport.unpark(timer);
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown();
+		try {
+			timer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return new ArrayList<Runnable>(unexecuted);
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return shutdown && !timer.isAlive();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		timer.join(Math.max(1, unit.toMillis(timeout)));
+		return !timer.isAlive();
+	}
+
+	private static long deadline(long delay, TimeUnit unit) {
+		return System.nanoTime() + unit.toNanos(Math.max(0, delay));
+	}
+
+	private <V> WheelTask<V> add(WheelTask<V> task) {
+		if (shutdown) {
+			throw new RejectedExecutionException("timer is shutdown!");
+		}
+		WheelTask<?> head;
+		do {
+			head = pending.get();
+			task.nextPending = head;
+		} while (!pending.compareAndSet(head, task));
+		return task;
+	}
+
+	private void canceled(WheelTask<?> task) {
+		WheelTask<?> head;
+		do {
+			head = canceled.get();
+			task.nextCanceled = head;
+		} while (!canceled.compareAndSet(head, task));
+	}
+
+	/**
+	 * Work of the timer thread. Advances the wheel every tick.
+	 */
+	private void work() {
+		while (!shutdown) {
+			long deadline = startTime + (tick + 1) * tickNanos;
+			long now = System.nanoTime();
+			while (now - deadline < 0) {
+				LockSupport.parkNanos(this, deadline - now);
+				if (shutdown) {
+					break;
+				}
+				now = System.nanoTime();
+			}
+			if (shutdown) {
+				break;
+			}
+			transferPending();
+			removeCanceled();
+			expire(wheel[(int) (tick & mask)]);
+			++tick;
+		}
+		transferPending();
+		for (Bucket bucket : wheel) {
+			WheelTask<?> task;
+			while ((task = bucket.head) != null) {
+				bucket.remove(task);
+				if (task.cancel(false)) {
+					unexecuted.add(task);
+				}
+			}
+		}
+		canceled.set(null);
+	}
+
+	/**
+	 * Add the pending tasks to the buckets of their deadline.
+	 */
+	private void transferPending() {
+		WheelTask<?> task = pending.getAndSet(null);
+		while (task != null) {
+			WheelTask<?> next = task.nextPending;
+			task.nextPending = null;
+			if (!task.isCancelled()) {
+				// the bucket of a tick is expired at its end
+				long due = (task.deadline - startTime + tickNanos - 1) / tickNanos - 1;
+				if (due < tick) {
+					due = tick;
+				}
+				task.remainingRounds = (due - tick) / wheel.length;
+				wheel[(int) (due & mask)].add(task);
+			}
+			task = next;
+		}
+	}
+
+	/**
+	 * Remove the canceled tasks from the buckets.
+	 */
+	private void removeCanceled() {
+		WheelTask<?> task = canceled.getAndSet(null);
+		while (task != null) {
+			WheelTask<?> next = task.nextCanceled;
+			task.nextCanceled = null;
+			if (task.bucket != null) {
+				task.bucket.remove(task);
+			}
+			task = next;
+		}
+	}
+
+	/**
+	 * Pass the expired tasks of the bucket to the executor.
+	 *
+	 * @param bucket bucket of the current tick
+	 */
+	private void expire(Bucket bucket) {
+		WheelTask<?> task = bucket.head;
+		while (task != null) {
+			WheelTask<?> next = task.next;
+			if (task.isCancelled()) {
+				bucket.remove(task);
+			} else if (task.remainingRounds <= 0) {
+				bucket.remove(task);
+				try {
+					executor.execute(task);
+				} catch (RejectedExecutionException ex) {
+					LOGGER.debug("executor rejected timer task!");
+					task.cancel(false);
+				}
+			} else {
+				--task.remainingRounds;
+			}
+			task = next;
+		}
+	}
+
+	/**
+	 * Doubly linked list of tasks.
+	 */
+	private static final class Bucket {
+
+		private WheelTask<?> head;
+		private WheelTask<?> tail;
+
+		private void add(WheelTask<?> task) {
+			task.bucket = this;
+			task.prev = tail;
+			task.next = null;
+			if (tail == null) {
+				head = task;
+			} else {
+				tail.next = task;
+			}
+			tail = task;
+		}
+
+		private void remove(WheelTask<?> task) {
+			if (task.prev == null) {
+				head = task.next;
+			} else {
+				task.prev.next = task.next;
+			}
+			if (task.next == null) {
+				tail = task.prev;
+			} else {
+				task.next.prev = task.prev;
+			}
+			task.prev = null;
+			task.next = null;
+			task.bucket = null;
+		}
+	}
+
+	/**
+	 * Task in the timing wheel.
+	 */
+	private final class WheelTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+		/**
+		 * Period in nanoseconds. Positive for fixed rate, negative for fixed
+		 * delay, {@code 0} for not periodic tasks.
+		 */
+		private final long period;
+
+		/**
+		 * Nano-timestamp of the deadline.
+		 */
+		private volatile long deadline;
+
+		/**
+		 * Next task on the stack of pending tasks.
+		 */
+		private WheelTask<?> nextPending;
+
+		/**
+		 * Next task on the stack of canceled tasks.
+		 */
+		private WheelTask<?> nextCanceled;
+
+		// accessed only by the timer thread
+		private Bucket bucket;
+		private WheelTask<?> prev;
+		private WheelTask<?> next;
+		private long remainingRounds;
+
+		private WheelTask(Runnable runnable, V result, long deadline, long period) {
+			super(runnable, result);
+			this.deadline = deadline;
+			this.period = period;
+		}
+
+		private WheelTask(Callable<V> callable, long deadline) {
+			super(callable);
+			this.deadline = deadline;
+			this.period = 0;
+		}
+
+		@Override
+		public boolean isPeriodic() {
+			return period != 0;
+		}
+
+		@Override
+		public void run() {
+			if (!isPeriodic()) {
+				super.run();
+			} else if (runAndReset()) {
+				if (period > 0) {
+					deadline += period;
+				} else {
+					deadline = System.nanoTime() - period;
+				}
+				if (!shutdown) {
+					add(this);
+				}
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean result = super.cancel(mayInterruptIfRunning);
+			if (result && !shutdown) {
+				canceled(this);
+			}
+			return result;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			if (other == this) {
+				return 0;
+			}
+			long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	}
+}
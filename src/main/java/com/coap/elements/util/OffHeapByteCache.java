@@ -0,0 +1,473 @@
+package com.coap.elements.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A thread safe, bounded cache of byte arrays with primitive {@code long}
+ * keys, which stores the bytes outside of the java heap.
+ * <p>
+ * The cache is split into segments, which are selected by the hash of the
+ * key. Each segment appends its entries to a circular log in a direct
+ * {@link ByteBuffer} of fixed size. Entries expire after a maximum age. If
+ * the log is full, the oldest expired, removed or replaced entries are
+ * evicted to free space for the new ones. Entries younger than the maximum
+ * age are never evicted, if they are blocking, new entries are not cached.
+ * The segments index their entries with an open-addressing table of
+ * primitive keys and offsets, so the heap used per entry is only the slot in
+ * that table.
+ * </p>
+ * <p>
+ * Entries are limited to {@value #MAX_ENTRY_SIZE} bytes. Larger entries are
+ * not cached.
+ * </p>
+ */
+public final class OffHeapByteCache {
+
+	/**
+	 * Maximum size of the bytes of an entry.
+	 */
+	public static final int MAX_ENTRY_SIZE = 0xFFFF;
+
+	/**
+	 * Minimum size of a segment in bytes.
+	 */
+	private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+	/**
+	 * Header of an entry in the log, key, nano-timestamp and length.
+	 */
+	private static final int HEADER_SIZE = 8 + 8 + 2;
+
+	private final Segment[] segments;
+
+	private final int segmentShift;
+
+	private final long maxAgeNanos;
+
+	/**
+	 * Creates a cache with a number of segments depending on the available
+	 * processors.
+	 *
+	 * @param capacity total number of bytes of the logs
+	 * @param maxAge maximum age of entries
+	 * @param unit time unit of maximum age
+	 * @throws IllegalArgumentException if capacity is too small for a single
+	 *             entry of maximum size, or the maximum age is less than
+	 *             {@code 1}
+	 */
+	public OffHeapByteCache(long capacity, long maxAge, TimeUnit unit) {
+		this(capacity, maxAge, unit, Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param capacity total number of bytes of the logs
+	 * @param maxAge maximum age of entries
+	 * @param unit time unit of maximum age
+	 * @param concurrency number of segments. Rounded up to a power of two
+	 *            and reduced, if the segments would be smaller than 64 KiB.
+	 * @throws IllegalArgumentException if capacity is too small for a single
+	 *             entry of maximum size, or the maximum age or the concurrency
+	 *             is less than {@code 1}
+	 */
+	public OffHeapByteCache(long capacity, long maxAge, TimeUnit unit, int concurrency) {
+		if (capacity < MIN_SEGMENT_SIZE) {
+			throw new IllegalArgumentException("capacity " + capacity + " must be at least " + MIN_SEGMENT_SIZE + "!");
+		}
+		if (maxAge < 1) {
+			throw new IllegalArgumentException("max. age " + maxAge + " must be at least 1!");
+		}
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency " + concurrency + " must be at least 1!");
+		}
+		int count = Integer.highestOneBit(Math.min(concurrency, 1 << 16));
+		if (count < concurrency) {
+			count <<= 1;
+		}
+		while (count > 1 && capacity / count < MIN_SEGMENT_SIZE) {
+			count >>= 1;
+		}
+		int segmentSize = (int) Math.min(Integer.MAX_VALUE - 8, capacity / count);
+		this.maxAgeNanos = unit.toNanos(maxAge);
+		this.segments = new Segment[count];
+		this.segmentShift = Integer.SIZE - Integer.numberOfTrailingZeros(count);
+		for (int index = 0; index < count; ++index) {
+			segments[index] = new Segment(segmentSize);
+		}
+	}
+
+	/**
+	 * Gets the bytes of a key.
+	 *
+	 * @param key the key
+	 * @return copy of the bytes, or {@code null}, if not available or expired
+	 */
+	public byte[] get(long key) {
+		int hash = hash(key);
+		return segmentFor(hash).get(key, hash, ClockUtil.nanoRealtime() - maxAgeNanos);
+	}
+
+	/**
+	 * Puts the bytes for a key. Replaces the bytes, if the key is already
+	 * available.
+	 *
+	 * @param key the key
+	 * @param bytes the bytes. Copied into the cache.
+	 * @return {@code true}, if the bytes are cached, {@code false}, if the
+	 *         bytes exceed {@link #MAX_ENTRY_SIZE} or the size of a segment,
+	 *         or the segment is full of entries younger than the maximum age.
+	 * @throws NullPointerException if the bytes are {@code null}
+	 */
+	public boolean put(long key, byte[] bytes) {
+		if (bytes == null) {
+			throw new NullPointerException("bytes must not be null");
+		}
+		int hash = hash(key);
+		return segmentFor(hash).put(key, hash, bytes, ClockUtil.nanoRealtime(), maxAgeNanos);
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param key the key
+	 * @return {@code true}, if the key was removed, {@code false}, if not
+	 *         available
+	 */
+	public boolean remove(long key) {
+		int hash = hash(key);
+		return segmentFor(hash).remove(key, hash);
+	}
+
+	/**
+	 * Gets the number of entries. Includes expired entries, which are not
+	 * evicted yet.
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the number of bytes used by the logs.
+	 *
+	 * @return number of used bytes, including the headers of the entries
+	 */
+	public long getUsedBytes() {
+		long used = 0;
+		for (Segment segment : segments) {
+			used += segment.used;
+		}
+		return used;
+	}
+
+	/**
+	 * Gets the total number of bytes of the logs.
+	 *
+	 * @return capacity in bytes
+	 */
+	public long getCapacity() {
+		return (long) segments.length * segments[0].capacity;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "off-heap cache: " + size() + " entries, " + getUsedBytes() + " of " + getCapacity() + " bytes";
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[segmentShift == Integer.SIZE ? 0 : hash >>> segmentShift];
+	}
+
+	private static int hash(long key) {
+		// finalizer of MurmurHash3
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	/**
+	 * Circular log of entries with an index of the keys.
+	 *
+	 * The log contains the entries from {@link #tail}, the oldest entry, to
+	 * {@link #head}, the write position. If the log is wrapped, the entries
+	 * from {@link #tail} to {@link #limit} are followed by the entries from
+	 * {@code 0} to {@link #head}.
+	 */
+	private static final class Segment {
+
+		private final StampedLock lock = new StampedLock();
+		private final ByteBuffer log;
+		private final int capacity;
+		private int head;
+		private int tail;
+		private int limit;
+		private boolean wrapped;
+		private volatile int size;
+		private volatile int used;
+
+		/**
+		 * Index of keys. Offsets of the entries in the log plus {@code 1},
+		 * {@code 0} marks an empty slot.
+		 */
+		private long[] keys = new long[64];
+		private int[] offsets = new int[64];
+
+		private Segment(int capacity) {
+			this.capacity = capacity;
+			this.log = ByteBuffer.allocateDirect(capacity);
+			this.limit = capacity;
+		}
+
+		private byte[] get(long key, int hash, long oldest) {
+			long stamp = lock.readLock();
+			try {
+				int slot = find(key, hash);
+				if (slot < 0) {
+					return null;
+				}
+				int offset = offsets[slot] - 1;
+				if (log.getLong(offset + 8) - oldest < 0) {
+					return null;
+				}
+				int length = log.getShort(offset + 16) & 0xFFFF;
+				byte[] bytes = new byte[length];
+				int start = offset + HEADER_SIZE;
+				for (int index = 0; index < length; ++index) {
+					bytes[index] = log.get(start + index);
+				}
+				return bytes;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		private boolean put(long key, int hash, byte[] bytes, long now, long maxAgeNanos) {
+			int entrySize = HEADER_SIZE + bytes.length;
+			if (bytes.length > MAX_ENTRY_SIZE || entrySize > capacity) {
+				return false;
+			}
+			long stamp = lock.writeLock();
+			try {
+				long oldest = now - maxAgeNanos;
+				// evict expired entries
+				while (size > 0 && log.getLong(tail + 8) - oldest < 0) {
+					evictOldest();
+				}
+				if (!reserve(entrySize, oldest)) {
+					return false;
+				}
+				int offset = head;
+				log.putLong(offset, key);
+				log.putLong(offset + 8, now);
+				log.putShort(offset + 16, (short) bytes.length);
+				log.position(offset + HEADER_SIZE);
+				log.put(bytes);
+				head = offset + entrySize;
+				used += entrySize;
+				int slot = find(key, hash);
+				if (slot >= 0) {
+					// previous entry stays in the log until it's evicted
+					offsets[slot] = offset + 1;
+				} else {
+					insert(key, hash, offset + 1);
+					++size;
+				}
+				return true;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		private boolean remove(long key, int hash) {
+			long stamp = lock.writeLock();
+			try {
+				int slot = find(key, hash);
+				if (slot < 0) {
+					return false;
+				}
+				// the entry stays in the log until it's evicted
+				delete(slot);
+				--size;
+				return true;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		private void clear() {
+			long stamp = lock.writeLock();
+			try {
+				keys = new long[64];
+				offsets = new int[64];
+				head = 0;
+				tail = 0;
+				limit = capacity;
+				wrapped = false;
+				size = 0;
+				used = 0;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Evict entries until the entry size fits at the head of the log.
+		 * Wraps the log, if the entry doesn't fit at its end.
+		 *
+		 * @param entrySize size of the entry including the header
+		 * @param oldest nano-timestamp of the oldest live entry
+		 * @return {@code true}, if the entry fits, {@code false}, if an entry
+		 *         younger than the maximum age would be evicted.
+		 */
+		private boolean reserve(int entrySize, long oldest) {
+			while (true) {
+				if (head == tail && !wrapped) {
+					// empty log, may contain removed entries
+					head = 0;
+					tail = 0;
+					used = 0;
+				}
+				if (!wrapped) {
+					if (head + entrySize <= capacity) {
+						return true;
+					}
+					// the end of the log is unused until it's unwrapped
+					limit = head;
+					used += capacity - limit;
+					head = 0;
+					wrapped = true;
+				} else if (head + entrySize <= tail) {
+					return true;
+				} else if (isLive(tail, oldest)) {
+					return false;
+				} else {
+					evictOldest();
+				}
+			}
+		}
+
+		/**
+		 * Checks, if the entry at the offset is still indexed and not
+		 * expired.
+		 */
+		private boolean isLive(int offset, long oldest) {
+			if (log.getLong(offset + 8) - oldest < 0) {
+				return false;
+			}
+			long key = log.getLong(offset);
+			int slot = find(key, hash(key));
+			return slot >= 0 && offsets[slot] == offset + 1;
+		}
+
+		private void evictOldest() {
+			int offset = tail;
+			long key = log.getLong(offset);
+			int entrySize = HEADER_SIZE + (log.getShort(offset + 16) & 0xFFFF);
+			int slot = find(key, hash(key));
+			if (slot >= 0 && offsets[slot] == offset + 1) {
+				delete(slot);
+				--size;
+			}
+			tail = offset + entrySize;
+			used -= entrySize;
+			if (wrapped && tail >= limit) {
+				used -= capacity - limit;
+				tail = 0;
+				limit = capacity;
+				wrapped = false;
+			}
+		}
+
+		private int find(long key, int hash) {
+			int mask = offsets.length - 1;
+			int slot = hash & mask;
+			while (offsets[slot] != 0) {
+				if (keys[slot] == key) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private void insert(long key, int hash, int offset) {
+			if (size + 1 > (offsets.length >> 2) * 3) {
+				resize(offsets.length << 1);
+			}
+			int mask = offsets.length - 1;
+			int slot = hash & mask;
+			while (offsets[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = key;
+			offsets[slot] = offset;
+		}
+
+		/**
+		 * Deletes the slot and shifts the following slots back, which are not
+		 * at their home slot.
+		 */
+		private void delete(int slot) {
+			int mask = offsets.length - 1;
+			int gap = slot;
+			offsets[gap] = 0;
+			int next = gap;
+			while (true) {
+				next = (next + 1) & mask;
+				int offset = offsets[next];
+				if (offset == 0) {
+					return;
+				}
+				int home = hash(keys[next]) & mask;
+				// move the slot, if its home is not within (gap, next]
+				boolean stay = gap <= next ? (gap < home && home <= next) : (gap < home || home <= next);
+				if (!stay) {
+					keys[gap] = keys[next];
+					offsets[gap] = offset;
+					offsets[next] = 0;
+					gap = next;
+				}
+			}
+		}
+
+		private void resize(int length) {
+			long[] oldKeys = keys;
+			int[] oldOffsets = offsets;
+			keys = new long[length];
+			offsets = new int[length];
+			int mask = length - 1;
+			for (int index = 0; index < oldOffsets.length; ++index) {
+				int offset = oldOffsets[index];
+				if (offset != 0) {
+					long key = oldKeys[index];
+					int slot = hash(key) & mask;
+					while (offsets[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					keys[slot] = key;
+					offsets[slot] = offset;
+				}
+			}
+		}
+	}
+}
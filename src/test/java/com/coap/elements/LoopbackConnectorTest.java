@@ -0,0 +1,149 @@
+package com.coap.elements;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.coap.core.CoapClient;
+import com.coap.core.CoapResource;
+import com.coap.core.CoapResponse;
+import com.coap.core.CoapServer;
+import com.coap.core.coap.CoAP.ResponseCode;
+import com.coap.core.network.CoapEndpoint;
+import com.coap.core.network.config.NetworkConfig;
+import com.coap.core.server.resources.CoapExchange;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchanges messages between {@link LoopbackConnector}s.
+ */
+public class LoopbackConnectorTest {
+
+	private static final long TIMEOUT_MILLIS = 2000;
+
+	private final List<LoopbackConnector> connectors = new ArrayList<LoopbackConnector>();
+
+	private CoapServer server;
+
+	private CoapEndpoint clientEndpoint;
+
+	@After
+	public void tearDown() {
+		if (clientEndpoint != null) {
+			clientEndpoint.destroy();
+		}
+		if (server != null) {
+			server.destroy();
+		}
+		for (LoopbackConnector connector : connectors) {
+			connector.destroy();
+		}
+	}
+
+	@Test
+	public void testWildcardServerIsReachableViaLoopback() throws Exception {
+		final LoopbackConnector server = start(new InetSocketAddress(0));
+		server.setRawDataReceiver(new RawDataChannel() {
+
+			@Override
+			public void receiveData(RawData raw) {
+				// echo
+				server.send(RawData.outbound(raw.getBytes(), raw.getEndpointContext(), null, false));
+			}
+		});
+		LoopbackConnector client = start(null);
+		final BlockingQueue<RawData> received = new LinkedBlockingQueue<RawData>();
+		client.setRawDataReceiver(new RawDataChannel() {
+
+			@Override
+			public void receiveData(RawData raw) {
+				received.add(raw);
+			}
+		});
+		InetSocketAddress destination = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				server.getAddress().getPort());
+		byte[] data = { 1, 2, 3 };
+		client.send(RawData.outbound(data, new UdpEndpointContext(destination), null, false));
+
+		RawData echo = received.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		assertNotNull("no echo received", echo);
+		assertArrayEquals(data, echo.getBytes());
+		// the reply is sent from the address the request was sent to
+		assertEquals(destination, echo.getEndpointContext().getPeerAddress());
+		assertEquals(0, client.getDroppedMessages());
+	}
+
+	@Test
+	public void testLoopbackAndWildcardConflict() throws Exception {
+		LoopbackConnector first = start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		LoopbackConnector second = new LoopbackConnector(new InetSocketAddress(first.getAddress().getPort()));
+		try {
+			second.start();
+			second.stop();
+			fail("wildcard address bound twice");
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void testEphemeralPortsExhausted() throws Exception {
+		try {
+			// more connectors than ephemeral ports
+			for (int index = 0; index <= 0x10000; ++index) {
+				start(null);
+			}
+			fail("ephemeral ports not exhausted");
+		} catch (IOException expected) {
+		}
+		assertTrue(connectors.size() < 0x10000);
+	}
+
+	@Test
+	public void testRequestResponse() throws Exception {
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile();
+		LoopbackConnector serverConnector = new LoopbackConnector(new InetSocketAddress(0));
+		server = new CoapServer(config);
+		server.addEndpoint(new CoapEndpoint.Builder().setNetworkConfig(config).setConnector(serverConnector)
+				.build());
+		server.add(new CoapResource("hello") {
+
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond("world");
+			}
+		});
+		server.start();
+
+		clientEndpoint = new CoapEndpoint.Builder().setNetworkConfig(config).setConnector(new LoopbackConnector())
+				.build();
+		clientEndpoint.start();
+		CoapClient client = new CoapClient("coap://127.0.0.1:" + serverConnector.getAddress().getPort() + "/hello");
+		client.setEndpoint(clientEndpoint);
+		client.setTimeout(TIMEOUT_MILLIS);
+
+		CoapResponse response = client.get();
+		assertNotNull("no response received", response);
+		assertEquals(ResponseCode.CONTENT, response.getCode());
+		assertEquals("world", response.getResponseText());
+	}
+
+	private LoopbackConnector start(InetSocketAddress address) throws IOException {
+		LoopbackConnector connector = new LoopbackConnector(address);
+		connector.start();
+		connectors.add(connector);
+		return connector;
+	}
+}
@@ -0,0 +1,84 @@
+package com.coap.elements.dtls;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.coap.elements.util.StringUtil;
+
+import org.junit.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+
+/**
+ * Verifies {@link CCMBlockCipher} with the packet vectors of
+ * <a href="https://tools.ietf.org/html/rfc3610#section-8">RFC 3610, 8. Test
+ * Vectors</a>.
+ */
+public class CCMBlockCipherTest {
+
+	private static final byte[] KEY = StringUtil.hex2ByteArray("C0C1C2C3C4C5C6C7C8C9CACBCCCDCECF");
+
+	private static final int HEADER_LENGTH = 8;
+
+	private static final int TAG_LENGTH = 8;
+
+	@Test
+	public void testPacketVector1() throws Exception {
+		assertPacketVector("00000003020100A0A1A2A3A4A5",
+				"000102030405060708090A0B0C0D0E0F101112131415161718191A1B1C1D1E",
+				"588C979A61C663D2F066D0C2C0F989806D5F6B61DAC38417E8D12CFDF926E0");
+	}
+
+	@Test
+	public void testPacketVector2() throws Exception {
+		assertPacketVector("00000004030201A0A1A2A3A4A5",
+				"000102030405060708090A0B0C0D0E0F101112131415161718191A1B1C1D1E1F",
+				"72C91A36E135F8CF291CA894085C87E3CC15C439C9E43A3BA091D56E10400916");
+	}
+
+	@Test
+	public void testPacketVector3() throws Exception {
+		assertPacketVector("00000005040302A0A1A2A3A4A5",
+				"000102030405060708090A0B0C0D0E0F101112131415161718191A1B1C1D1E1F20",
+				"51B1E5F44A197D1DA46B0F8E2D282AE871E838BB64DA8596574ADAA76FBD9FB0C5");
+	}
+
+	@Test(expected = AEADBadTagException.class)
+	public void testDecryptFailsForModifiedTag() throws Exception {
+		byte[] nonce = StringUtil.hex2ByteArray("00000003020100A0A1A2A3A4A5");
+		byte[] packet = StringUtil.hex2ByteArray("000102030405060708090A0B0C0D0E0F101112131415161718191A1B1C1D1E");
+		byte[] header = Arrays.copyOf(packet, HEADER_LENGTH);
+		byte[] ciphertext = StringUtil.hex2ByteArray("588C979A61C663D2F066D0C2C0F989806D5F6B61DAC38417E8D12CFDF926E0");
+		ciphertext[ciphertext.length - 1] ^= 1;
+		newCipher().decrypt(nonce, header, ciphertext);
+	}
+
+	@Test(expected = AEADBadTagException.class)
+	public void testDecryptFailsForModifiedAdditionalData() throws Exception {
+		byte[] nonce = StringUtil.hex2ByteArray("00000003020100A0A1A2A3A4A5");
+		byte[] packet = StringUtil.hex2ByteArray("000102030405060708090A0B0C0D0E0F101112131415161718191A1B1C1D1E");
+		byte[] header = Arrays.copyOf(packet, HEADER_LENGTH);
+		byte[] ciphertext = StringUtil.hex2ByteArray("588C979A61C663D2F066D0C2C0F989806D5F6B61DAC38417E8D12CFDF926E0");
+		header[0] ^= 1;
+		newCipher().decrypt(nonce, header, ciphertext);
+	}
+
+	private static void assertPacketVector(String nonceHex, String packetHex, String ciphertextHex) throws Exception {
+		byte[] nonce = StringUtil.hex2ByteArray(nonceHex);
+		byte[] packet = StringUtil.hex2ByteArray(packetHex);
+		byte[] header = Arrays.copyOf(packet, HEADER_LENGTH);
+		byte[] message = Arrays.copyOfRange(packet, HEADER_LENGTH, packet.length);
+		byte[] expected = StringUtil.hex2ByteArray(ciphertextHex);
+
+		byte[] ciphertext = newCipher().encrypt(nonce, header, message);
+		assertArrayEquals(expected, ciphertext);
+
+		byte[] decrypted = newCipher().decrypt(nonce, header, ciphertext);
+		assertArrayEquals(message, decrypted);
+	}
+
+	private static CCMBlockCipher newCipher() throws Exception {
+		return new CCMBlockCipher(new SecretKeySpec(KEY, "AES"), TAG_LENGTH);
+	}
+}
@@ -0,0 +1,122 @@
+package com.coap.elements.dtls;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.coap.elements.AddressEndpointContext;
+import com.coap.elements.DtlsEndpointContext;
+import com.coap.elements.EndpointContext;
+import com.coap.elements.RawData;
+import com.coap.elements.RawDataChannel;
+import com.coap.elements.util.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs PSK handshakes and exchanges application data between two
+ * {@link DTLSConnector}s over the loopback interface.
+ */
+public class DTLSConnectorTest {
+
+	private static final String IDENTITY = "client1";
+
+	private static final byte[] KEY = "secretPSK".getBytes(StandardCharsets.US_ASCII);
+
+	private static final long TIMEOUT_MILLIS = 5000;
+
+	private final BlockingQueue<RawData> clientReceived = new LinkedBlockingQueue<RawData>();
+
+	private DTLSConnector server;
+
+	private DTLSConnector client;
+
+	@Before
+	public void setUp() {
+		clientReceived.clear();
+	}
+
+	@After
+	public void tearDown() {
+		if (client != null) {
+			client.destroy();
+		}
+		if (server != null) {
+			server.destroy();
+		}
+	}
+
+	@Test
+	public void testHandshakeAndApplicationData() throws Exception {
+		start(null);
+
+		RawData response = sendAndReceive(new AddressEndpointContext(server.getAddress()), "hello");
+		EndpointContext context = response.getEndpointContext();
+		assertNotNull(context.get(DtlsEndpointContext.KEY_SESSION_ID));
+		assertEquals(CipherSuite.TLS_PSK_WITH_AES_128_CCM_8.name(), context.get(DtlsEndpointContext.KEY_CIPHER));
+
+		// application data of the established connection
+		response = sendAndReceive(context, "again");
+		assertEquals(context.get(DtlsEndpointContext.KEY_SESSION_ID),
+				response.getEndpointContext().get(DtlsEndpointContext.KEY_SESSION_ID));
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testHandshakeAndApplicationDataWithConnectionId() throws Exception {
+		start(4);
+
+		RawData response = sendAndReceive(new AddressEndpointContext(server.getAddress()), "hello");
+		response = sendAndReceive(response.getEndpointContext(), "again");
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	private void start(Integer connectionIdLength) throws Exception {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		InMemoryPskStore serverPskStore = new InMemoryPskStore();
+		serverPskStore.setKey(IDENTITY, KEY);
+		server = new DTLSConnector(new DtlsConnectorConfig.Builder().setAddress(new InetSocketAddress(loopback, 0))
+				.setPskStore(serverPskStore).setConnectionIdLength(connectionIdLength).setServerOnly(true).build());
+		server.setRawDataReceiver(new RawDataChannel() {
+
+			@Override
+			public void receiveData(RawData raw) {
+				// echo
+				server.send(RawData.outbound(raw.getBytes(), raw.getEndpointContext(), null, false));
+			}
+		});
+		server.start();
+
+		InMemoryPskStore clientPskStore = new InMemoryPskStore();
+		clientPskStore.addKnownPeer(server.getAddress(), IDENTITY, KEY);
+		client = new DTLSConnector(new DtlsConnectorConfig.Builder().setAddress(new InetSocketAddress(loopback, 0))
+				.setPskStore(clientPskStore).setConnectionIdLength(connectionIdLength).build());
+		client.setRawDataReceiver(new RawDataChannel() {
+
+			@Override
+			public void receiveData(RawData raw) {
+				clientReceived.add(raw);
+			}
+		});
+		client.start();
+	}
+
+	private RawData sendAndReceive(EndpointContext context, String message) throws Exception {
+		byte[] data = message.getBytes(StandardCharsets.US_ASCII);
+		client.send(RawData.outbound(data, context, null, false));
+		RawData response = clientReceived.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		assertNotNull("no response", response);
+		assertArrayEquals(data, response.getBytes());
+		assertTrue(response.getEndpointContext() instanceof DtlsEndpointContext);
+		return response;
+	}
+}
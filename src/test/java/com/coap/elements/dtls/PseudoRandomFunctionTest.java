@@ -0,0 +1,38 @@
+package com.coap.elements.dtls;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.coap.elements.util.StringUtil;
+
+import org.junit.Test;
+
+/**
+ * Verifies {@link PseudoRandomFunction} with the commonly used TLS 1.2
+ * PRF-SHA256 test vector.
+ */
+public class PseudoRandomFunctionTest {
+
+	@Test
+	public void testPrfSha256() throws Exception {
+		byte[] secret = StringUtil.hex2ByteArray("9BBE436BA940F017B17652849A71DB35");
+		byte[] seed = StringUtil.hex2ByteArray("A0BA9F936CDA311827A6F796FFD5198C");
+		byte[] expected = StringUtil.hex2ByteArray("E3F229BA727BE17B8D122620557CD453C2AAB21D07C3D495329B52D4E61EDB5A"
+				+ "6B301791E90D35C9C9A46B4E14BAF9AF0FA022F7077DEF17ABFD3797C0564BAB"
+				+ "4FBC91666E9DEF9B97FCE34F796789BAA48082D122EE42C5A72E5A5110FFF701"
+				+ "87347B66");
+
+		byte[] result = PseudoRandomFunction.doPRF(secret, "test label", seed, expected.length);
+		assertArrayEquals(expected, result);
+	}
+
+	@Test
+	public void testPrfSha256Prefix() throws Exception {
+		byte[] secret = StringUtil.hex2ByteArray("9BBE436BA940F017B17652849A71DB35");
+		byte[] seed = StringUtil.hex2ByteArray("A0BA9F936CDA311827A6F796FFD5198C");
+		byte[] expected = StringUtil.hex2ByteArray("E3F229BA727BE17B8D122620557CD453C2AAB21D07C3D495329B52D4E61EDB5A"
+				+ "6B301791E90D35C9");
+
+		byte[] result = PseudoRandomFunction.doPRF(secret, "test label", seed, expected.length);
+		assertArrayEquals(expected, result);
+	}
+}
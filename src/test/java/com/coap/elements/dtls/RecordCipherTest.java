@@ -0,0 +1,103 @@
+package com.coap.elements.dtls;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.coap.elements.util.StandardCharsets;
+import com.coap.elements.util.StringUtil;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.List;
+
+/**
+ * Verifies the record protection of {@link RecordCipher}, with and without
+ * connection ID (see <a href="https://tools.ietf.org/html/rfc9146#section-5">
+ * RFC 9146, 5. Record Payload Protection</a>).
+ */
+public class RecordCipherTest {
+
+	private static final byte[] KEY = StringUtil.hex2ByteArray("000102030405060708090A0B0C0D0E0F");
+
+	private static final byte[] FIXED_IV = StringUtil.hex2ByteArray("A0A1A2A3");
+
+	private static final byte[] CONNECTION_ID = StringUtil.hex2ByteArray("01020304");
+
+	private static final byte[] CONTENT = "hello".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int EPOCH = 1;
+
+	private static final long SEQUENCE_NUMBER = 5;
+
+	@Test
+	public void testEncrypt() throws Exception {
+		byte[] expected = StringUtil.hex2ByteArray("00010000000000054498625BC0BDFDEDEF2CBF7C99");
+		byte[] fragment = new RecordCipher(KEY, FIXED_IV).encrypt(Record.APPLICATION_DATA, EPOCH, SEQUENCE_NUMBER,
+				null, CONTENT);
+		assertArrayEquals(expected, fragment);
+	}
+
+	@Test
+	public void testEncryptWithConnectionId() throws Exception {
+		byte[] expected = StringUtil.hex2ByteArray("00010000000000054498625BC0B1557B8DB84E3878B1");
+		byte[] fragment = new RecordCipher(KEY, FIXED_IV).encrypt(Record.APPLICATION_DATA, EPOCH, SEQUENCE_NUMBER,
+				CONNECTION_ID, CONTENT);
+		assertArrayEquals(expected, fragment);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] fragment = new RecordCipher(KEY, FIXED_IV).encrypt(Record.APPLICATION_DATA, EPOCH, SEQUENCE_NUMBER,
+				null, CONTENT);
+		byte[] datagram = Record.toByteArray(Record.APPLICATION_DATA, EPOCH, SEQUENCE_NUMBER, null, fragment);
+
+		Record record = parse(datagram, 0);
+		Record decrypted = new RecordCipher(KEY, FIXED_IV).decrypt(record);
+		assertEquals(Record.APPLICATION_DATA, decrypted.type);
+		assertEquals(EPOCH, decrypted.epoch);
+		assertEquals(SEQUENCE_NUMBER, decrypted.sequenceNumber);
+		assertArrayEquals(CONTENT, decrypted.fragment);
+	}
+
+	@Test
+	public void testRoundTripWithConnectionId() throws Exception {
+		byte[] fragment = new RecordCipher(KEY, FIXED_IV).encrypt(Record.APPLICATION_DATA, EPOCH, SEQUENCE_NUMBER,
+				CONNECTION_ID, CONTENT);
+		byte[] datagram = Record.toByteArray(Record.TLS12_CID, EPOCH, SEQUENCE_NUMBER, CONNECTION_ID, fragment);
+
+		Record record = parse(datagram, CONNECTION_ID.length);
+		assertEquals(Record.TLS12_CID, record.type);
+		assertArrayEquals(CONNECTION_ID, record.connectionId);
+		Record decrypted = new RecordCipher(KEY, FIXED_IV).decrypt(record);
+		assertEquals(Record.APPLICATION_DATA, decrypted.type);
+		assertArrayEquals(CONNECTION_ID, decrypted.connectionId);
+		assertArrayEquals(CONTENT, decrypted.fragment);
+	}
+
+	@Test(expected = GeneralSecurityException.class)
+	public void testDecryptFailsForModifiedConnectionId() throws Exception {
+		byte[] fragment = new RecordCipher(KEY, FIXED_IV).encrypt(Record.APPLICATION_DATA, EPOCH, SEQUENCE_NUMBER,
+				CONNECTION_ID, CONTENT);
+		byte[] connectionId = CONNECTION_ID.clone();
+		connectionId[0] ^= 1;
+		byte[] datagram = Record.toByteArray(Record.TLS12_CID, EPOCH, SEQUENCE_NUMBER, connectionId, fragment);
+
+		new RecordCipher(KEY, FIXED_IV).decrypt(parse(datagram, CONNECTION_ID.length));
+	}
+
+	@Test(expected = GeneralSecurityException.class)
+	public void testDecryptFailsForModifiedSequenceNumber() throws Exception {
+		byte[] fragment = new RecordCipher(KEY, FIXED_IV).encrypt(Record.APPLICATION_DATA, EPOCH, SEQUENCE_NUMBER,
+				null, CONTENT);
+		byte[] datagram = Record.toByteArray(Record.APPLICATION_DATA, EPOCH, SEQUENCE_NUMBER + 1, null, fragment);
+
+		new RecordCipher(KEY, FIXED_IV).decrypt(parse(datagram, 0));
+	}
+
+	private static Record parse(byte[] datagram, int connectionIdLength) {
+		List<Record> records = Record.fromByteArray(datagram, datagram.length, connectionIdLength);
+		assertEquals(1, records.size());
+		return records.get(0);
+	}
+}